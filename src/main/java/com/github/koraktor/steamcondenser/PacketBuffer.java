@@ -29,6 +29,22 @@ public class PacketBuffer {
         this.byteBuffer = ByteBuffer.wrap(data);
     }
 
+    /**
+     * Creates a new packet buffer from the remaining data of the given byte
+     * buffer
+     * <p>
+     * The remaining data is copied into a new array in a single step, so the
+     * given buffer may be reused afterwards. The position of the given
+     * buffer is not changed.
+     *
+     * @param buffer The buffer containing the data
+     */
+    public PacketBuffer(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        this.byteBuffer = ByteBuffer.wrap(data);
+    }
+
     /**
      * Returns the backing byte array of the underlying byte buffer
      *
@@ -92,19 +108,28 @@ public class PacketBuffer {
      * @return A string value
      */
     public String getString() {
-        byte[] remainingBytes = new byte[this.byteBuffer.remaining()];
-        this.byteBuffer.slice().get(remainingBytes);
-        String dataString = new String(remainingBytes);
-        int stringEnd = dataString.indexOf(0);
+        int position = this.byteBuffer.position();
+        int stringEnd = position;
+        int limit = this.byteBuffer.limit();
+        while(stringEnd < limit && this.byteBuffer.get(stringEnd) != 0) {
+            stringEnd ++;
+        }
 
-        if(stringEnd == -1) {
+        if(stringEnd == limit) {
             return null;
-        } else {
-            dataString = dataString.substring(0, stringEnd);
-            this.byteBuffer.position(this.byteBuffer.position() + dataString.getBytes().length + 1);
+        }
 
-            return dataString;
+        String dataString;
+        if(this.byteBuffer.hasArray()) {
+            dataString = new String(this.byteBuffer.array(), this.byteBuffer.arrayOffset() + position, stringEnd - position);
+        } else {
+            byte[] stringBytes = new byte[stringEnd - position];
+            this.byteBuffer.get(stringBytes);
+            dataString = new String(stringBytes);
         }
+        this.byteBuffer.position(stringEnd + 1);
+
+        return dataString;
     }
 
     /**
@@ -0,0 +1,33 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.exceptions;
+
+import java.net.InetSocketAddress;
+
+/**
+ * This exception class indicates that a request has been skipped because the
+ * server did not reply to the previous requests
+ * <p>
+ * The server will be probed again once its backoff has elapsed.
+ *
+ * @author Sebastian Staudt
+ * @see com.github.koraktor.steamcondenser.steam.sockets.HealthTracker
+ */
+public class ServerUnavailableException extends SteamCondenserException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new <code>ServerUnavailableException</code> instance
+     *
+     * @param address The address of the server that is backed off
+     */
+    public ServerUnavailableException(InetSocketAddress address) {
+        super("The server at " + address + " did not reply recently and is backed off.");
+    }
+}
@@ -0,0 +1,423 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class represents the basic information of a game server as replied to
+ * a A2S_INFO request
+ * <p>
+ * Server information is immutable and created once when the S2A_INFO2 or
+ * S2A_INFO_DETAILED reply is decoded. Attributes not available in the format
+ * used by the server have their default values, e.g. <code>0</code> or
+ * <code>null</code>.
+ *
+ * @author Sebastian Staudt
+ * @see com.github.koraktor.steamcondenser.steam.packets.S2A_INFO2_Packet
+ * @see com.github.koraktor.steamcondenser.steam.packets.S2A_INFO_DETAILED_Packet
+ */
+public class ServerInfo {
+
+    private final short appId;
+    private final byte dedicated;
+    private final boolean detailedFormat;
+    private final String gameDescription;
+    private final String gameDir;
+    private final String gameVersion;
+    private final String mapName;
+    private final int maxPlayers;
+    private final boolean mod;
+    private final Map<String, Object> modInfo;
+    private final int networkVersion;
+    private final int numberOfBots;
+    private final int numberOfPlayers;
+    private final byte operatingSystem;
+    private final boolean passwordProtected;
+    private final boolean secure;
+    private final long serverId;
+    private final String serverIp;
+    private final String serverName;
+    private final short serverPort;
+    private final String serverTags;
+    private final String tvName;
+    private final short tvPort;
+
+    /**
+     * Creates new server information from the data of a S2A_INFO2 reply
+     * <p>
+     * The arguments are given in the order they appear in the reply.
+     *
+     * @param networkVersion The version of the network protocol
+     * @param serverName The name of the server
+     * @param mapName The name of the current map
+     * @param gameDir The directory of the game
+     * @param gameDescription The description of the game
+     * @param appId The ID of the game's Steam application
+     * @param numberOfPlayers The number of players on the server
+     * @param maxPlayers The maximum number of players on the server
+     * @param numberOfBots The number of bots on the server
+     * @param dedicated The type of the server, <code>'d'</code> for dedicated
+     *        servers
+     * @param operatingSystem The operating system of the server,
+     *        <code>'l'</code> for Linux or <code>'w'</code> for Windows
+     * @param passwordProtected Whether the server requires a password
+     * @param secure Whether the server is VAC secured
+     * @param gameVersion The version of the game
+     * @param serverPort The game port of the server
+     * @param serverId The Steam ID of the server
+     * @param tvPort The port of the server's SourceTV
+     * @param tvName The name of the server's SourceTV
+     * @param serverTags The tags of the server
+     */
+    public ServerInfo(int networkVersion, String serverName, String mapName,
+                      String gameDir, String gameDescription, short appId,
+                      int numberOfPlayers, int maxPlayers, int numberOfBots,
+                      byte dedicated, byte operatingSystem,
+                      boolean passwordProtected, boolean secure,
+                      String gameVersion, short serverPort, long serverId,
+                      short tvPort, String tvName, String serverTags) {
+        this.appId             = appId;
+        this.dedicated         = dedicated;
+        this.detailedFormat    = false;
+        this.gameDescription   = gameDescription;
+        this.gameDir           = gameDir;
+        this.gameVersion       = gameVersion;
+        this.mapName           = mapName;
+        this.maxPlayers        = maxPlayers;
+        this.mod               = false;
+        this.modInfo           = null;
+        this.networkVersion    = networkVersion;
+        this.numberOfBots      = numberOfBots;
+        this.numberOfPlayers   = numberOfPlayers;
+        this.operatingSystem   = operatingSystem;
+        this.passwordProtected = passwordProtected;
+        this.secure            = secure;
+        this.serverId          = serverId;
+        this.serverIp          = null;
+        this.serverName        = serverName;
+        this.serverPort        = serverPort;
+        this.serverTags        = serverTags;
+        this.tvName            = tvName;
+        this.tvPort            = tvPort;
+    }
+
+    /**
+     * Creates new server information from the data of a S2A_INFO_DETAILED
+     * reply
+     * <p>
+     * The arguments are given in the order they appear in the reply.
+     *
+     * @param serverIp The address of the server
+     * @param serverName The name of the server
+     * @param mapName The name of the current map
+     * @param gameDir The directory of the game
+     * @param gameDescription The description of the game
+     * @param numberOfPlayers The number of players on the server
+     * @param maxPlayers The maximum number of players on the server
+     * @param networkVersion The version of the network protocol
+     * @param dedicated The type of the server, <code>'d'</code> for dedicated
+     *        servers
+     * @param operatingSystem The operating system of the server,
+     *        <code>'l'</code> for Linux or <code>'w'</code> for Windows
+     * @param passwordProtected Whether the server requires a password
+     * @param mod Whether the server runs a mod
+     * @param modInfo The information about the mod or <code>null</code>
+     * @param secure Whether the server is VAC secured
+     * @param numberOfBots The number of bots on the server
+     */
+    public ServerInfo(String serverIp, String serverName, String mapName,
+                      String gameDir, String gameDescription,
+                      int numberOfPlayers, int maxPlayers, int networkVersion,
+                      byte dedicated, byte operatingSystem,
+                      boolean passwordProtected, boolean mod,
+                      Map<String, Object> modInfo, boolean secure,
+                      int numberOfBots) {
+        this.appId             = 0;
+        this.dedicated         = dedicated;
+        this.detailedFormat    = true;
+        this.gameDescription   = gameDescription;
+        this.gameDir           = gameDir;
+        this.gameVersion       = null;
+        this.mapName           = mapName;
+        this.maxPlayers        = maxPlayers;
+        this.mod               = mod;
+        this.modInfo           = (modInfo == null) ? null : Collections.unmodifiableMap(modInfo);
+        this.networkVersion    = networkVersion;
+        this.numberOfBots      = numberOfBots;
+        this.numberOfPlayers   = numberOfPlayers;
+        this.operatingSystem   = operatingSystem;
+        this.passwordProtected = passwordProtected;
+        this.secure            = secure;
+        this.serverId          = 0;
+        this.serverIp          = serverIp;
+        this.serverName        = serverName;
+        this.serverPort        = 0;
+        this.serverTags        = null;
+        this.tvName            = null;
+        this.tvPort            = 0;
+    }
+
+    /**
+     * Returns the ID of the game's Steam application
+     *
+     * @return The application ID of the game
+     */
+    public short getAppId() {
+        return this.appId;
+    }
+
+    /**
+     * Returns the type of the server
+     *
+     * @return <code>'d'</code> for dedicated servers, <code>'l'</code> for
+     *         listen servers or <code>'p'</code> for SourceTV proxies
+     */
+    public byte getDedicated() {
+        return this.dedicated;
+    }
+
+    /**
+     * Returns the description of the game
+     *
+     * @return The description of the game
+     */
+    public String getGameDescription() {
+        return this.gameDescription;
+    }
+
+    /**
+     * Returns the directory of the game
+     *
+     * @return The directory of the game
+     */
+    public String getGameDir() {
+        return this.gameDir;
+    }
+
+    /**
+     * Returns the version of the game
+     *
+     * @return The version of the game or <code>null</code> for servers using
+     *         the S2A_INFO_DETAILED format
+     */
+    public String getGameVersion() {
+        return this.gameVersion;
+    }
+
+    /**
+     * Returns the name of the current map
+     *
+     * @return The name of the current map
+     */
+    public String getMapName() {
+        return this.mapName;
+    }
+
+    /**
+     * Returns the maximum number of players on the server
+     *
+     * @return The maximum number of players
+     */
+    public int getMaxPlayers() {
+        return this.maxPlayers;
+    }
+
+    /**
+     * Returns the information about the mod run by the server
+     *
+     * @return The information about the mod or <code>null</code> if the
+     *         server does not run a mod
+     */
+    public Map<String, Object> getModInfo() {
+        return this.modInfo;
+    }
+
+    /**
+     * Returns the version of the network protocol
+     *
+     * @return The version of the network protocol
+     */
+    public int getNetworkVersion() {
+        return this.networkVersion;
+    }
+
+    /**
+     * Returns the number of bots on the server
+     *
+     * @return The number of bots
+     */
+    public int getNumberOfBots() {
+        return this.numberOfBots;
+    }
+
+    /**
+     * Returns the number of players on the server
+     *
+     * @return The number of players
+     */
+    public int getNumberOfPlayers() {
+        return this.numberOfPlayers;
+    }
+
+    /**
+     * Returns the operating system of the server
+     *
+     * @return <code>'l'</code> for Linux or <code>'w'</code> for Windows
+     */
+    public byte getOperatingSystem() {
+        return this.operatingSystem;
+    }
+
+    /**
+     * Returns the Steam ID of the server
+     *
+     * @return The Steam ID of the server or <code>0</code> if it is unknown
+     */
+    public long getServerId() {
+        return this.serverId;
+    }
+
+    /**
+     * Returns the address of the server as reported by itself
+     *
+     * @return The address of the server or <code>null</code> for servers
+     *         using the S2A_INFO2 format
+     */
+    public String getServerIp() {
+        return this.serverIp;
+    }
+
+    /**
+     * Returns the name of the server
+     *
+     * @return The name of the server
+     */
+    public String getServerName() {
+        return this.serverName;
+    }
+
+    /**
+     * Returns the game port of the server
+     *
+     * @return The game port of the server or <code>0</code> if it is unknown
+     */
+    public short getServerPort() {
+        return this.serverPort;
+    }
+
+    /**
+     * Returns the tags of the server
+     *
+     * @return The tags of the server or <code>null</code> if it has none
+     */
+    public String getServerTags() {
+        return this.serverTags;
+    }
+
+    /**
+     * Returns the name of the server's SourceTV
+     *
+     * @return The name of the SourceTV or <code>null</code> if it has none
+     */
+    public String getTvName() {
+        return this.tvName;
+    }
+
+    /**
+     * Returns the port of the server's SourceTV
+     *
+     * @return The port of the SourceTV or <code>0</code> if it has none
+     */
+    public short getTvPort() {
+        return this.tvPort;
+    }
+
+    /**
+     * Returns whether the server runs a mod
+     *
+     * @return <code>true</code> if the server runs a mod
+     */
+    public boolean isMod() {
+        return this.mod;
+    }
+
+    /**
+     * Returns whether the server requires a password
+     *
+     * @return <code>true</code> if the server is password protected
+     */
+    public boolean isPasswordProtected() {
+        return this.passwordProtected;
+    }
+
+    /**
+     * Returns whether the server is VAC secured
+     *
+     * @return <code>true</code> if the server is secure
+     */
+    public boolean isSecure() {
+        return this.secure;
+    }
+
+    /**
+     * Returns the attributes of this server information as a map
+     * <p>
+     * The map contains the same keys as the server information always
+     * provided by {@link
+     * com.github.koraktor.steamcondenser.steam.packets.S2A_INFO_BasePacket#getInfoHash},
+     * depending on the format used by the server. A new map is created on
+     * every call.
+     *
+     * @return The attributes of this server information
+     */
+    public HashMap<String, Object> toMap() {
+        HashMap<String, Object> infoHash = new HashMap<String, Object>(32);
+
+        infoHash.put("dedicated", this.dedicated);
+        infoHash.put("gameDescription", this.gameDescription);
+        infoHash.put("gameDir", this.gameDir);
+        infoHash.put("mapName", this.mapName);
+        infoHash.put("maxPlayers", this.maxPlayers);
+        infoHash.put("networkVersion", this.networkVersion);
+        infoHash.put("numberOfBots", this.numberOfBots);
+        infoHash.put("numberOfPlayers", this.numberOfPlayers);
+        infoHash.put("operatingSystem", this.operatingSystem);
+        infoHash.put("passwordProtected", this.passwordProtected);
+        infoHash.put("secure", this.secure);
+        infoHash.put("serverName", this.serverName);
+
+        if(this.detailedFormat) {
+            infoHash.put("isMod", this.mod);
+            infoHash.put("modInfo", (this.modInfo == null) ? null : new HashMap<String, Object>(this.modInfo));
+            infoHash.put("serverIp", this.serverIp);
+        } else {
+            infoHash.put("appId", this.appId);
+            infoHash.put("gameVersion", this.gameVersion);
+            infoHash.put("serverId", this.serverId);
+            infoHash.put("serverPort", this.serverPort);
+            infoHash.put("serverTags", this.serverTags);
+            infoHash.put("tvName", this.tvName);
+            infoHash.put("tvPort", this.tvPort);
+        }
+
+        return infoHash;
+    }
+
+    /**
+     * Returns a human-readable representation of this server information
+     *
+     * @return The name, map and players of the server
+     */
+    @Override
+    public String toString() {
+        return this.serverName + " (" + this.mapName + ", " + this.numberOfPlayers + "/" + this.maxPlayers + ")";
+    }
+}
@@ -48,6 +48,28 @@ public class SteamPlayer {
         this.extended = false;
     }
 
+    /**
+     * Creates a new player instance with the same information as the given
+     * player
+     *
+     * @param player The player to copy
+     */
+    public SteamPlayer(SteamPlayer player) {
+        this.clientPort = player.clientPort;
+        this.connectTime = player.connectTime;
+        this.extended = player.extended;
+        this.id = player.id;
+        this.ipAddress = player.ipAddress;
+        this.loss = player.loss;
+        this.name = player.name;
+        this.ping = player.ping;
+        this.rate = player.rate;
+        this.realId = player.realId;
+        this.score = player.score;
+        this.state = player.state;
+        this.steamId = player.steamId;
+    }
+
     /**
      * Extends a player object with information retrieved from a RCON call to
      * the status command
@@ -9,6 +9,7 @@ package com.github.koraktor.steamcondenser.steam.packets;
 
 import java.util.Vector;
 
+import com.github.koraktor.steamcondenser.PacketBuffer;
 import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
 
 /**
@@ -16,14 +17,15 @@ import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
  * server
  * <p>
  * It contains a list of IP addresses and ports of game servers matching the
- * requested criteria.
+ * requested criteria. The addresses are decoded into packed primitive values,
+ * see {@link ServerAddressList}.
  *
  * @author Sebastian Staudt
  * @see com.github.koraktor.steamcondenser.steam.servers.MasterServer#getServers
  */
 public class M2A_SERVER_BATCH_Paket extends SteamPacket {
 
-    private Vector<String> serverArray;
+    private ServerAddressList serverAddresses;
 
     /**
      * Creates a new M2A_SERVER_BATCH response object based on the given data
@@ -33,32 +35,57 @@ public class M2A_SERVER_BATCH_Paket extends SteamPacket {
      */
     public M2A_SERVER_BATCH_Paket(byte[] data)
             throws PacketFormatException {
+        this(new PacketBuffer(data));
+    }
+
+    /**
+     * Creates a new M2A_SERVER_BATCH response object based on the given data
+     *
+     * @param data The buffer containing the packet data replied from the
+     *        server
+     * @throws PacketFormatException if the packet data is not well formatted
+     */
+    public M2A_SERVER_BATCH_Paket(PacketBuffer data)
+            throws PacketFormatException {
         super(SteamPacket.M2A_SERVER_BATCH_HEADER, data);
 
         if(this.contentData.getByte() != 0x0A) {
             throw new PacketFormatException("Master query response is missing additional 0x0A byte.");
         }
 
-        int firstOctet, secondOctet, thirdOctet, fourthOctet, portNumber;
-        this.serverArray = new Vector<String>();
+        int ipAddress, portNumber;
+        this.serverAddresses = new ServerAddressList(this.contentData.remaining() / 6);
 
         do {
-            firstOctet = this.contentData.getByte() & 0xFF;
-            secondOctet = this.contentData.getByte() & 0xFF;
-            thirdOctet = this.contentData.getByte() & 0xFF;
-            fourthOctet = this.contentData.getByte() & 0xFF;
+            ipAddress = this.contentData.getInt();
             portNumber = this.contentData.getShort() & 0xFFFF;
 
-            this.serverArray.add(firstOctet + "." + secondOctet + "." + thirdOctet + "." + fourthOctet + ":" + portNumber);
+            this.serverAddresses.add(ServerAddressList.pack(ipAddress, portNumber));
         } while(this.contentData.remaining() > 0);
     }
 
+    /**
+     * Returns the packed addresses of the servers returned from the server in
+     * this packet
+     *
+     * @return The packed server addresses
+     */
+    public ServerAddressList getServerAddresses() {
+        return this.serverAddresses;
+    }
+
     /**
      * Returns the list of servers returned from the server in this packet
      *
      * @return An array of server addresses (i.e. IP addresses + port numbers)
+     * @see #getServerAddresses
      */
     public Vector<String> getServers() {
-        return this.serverArray;
+        Vector<String> serverArray = new Vector<String>(this.serverAddresses.size());
+        for(int i = 0; i < this.serverAddresses.size(); i ++) {
+            serverArray.add(ServerAddressList.toString(this.serverAddresses.get(i)));
+        }
+
+        return serverArray;
     }
 }
@@ -7,6 +7,9 @@
 
 package com.github.koraktor.steamcondenser.steam.packets;
 
+import com.github.koraktor.steamcondenser.PacketBuffer;
+import com.github.koraktor.steamcondenser.steam.ServerInfo;
+
 /**
  * This class represents a S2A_INFO_DETAILED response packet sent by a Source
  * or GoldSrc server
@@ -19,56 +22,70 @@ package com.github.koraktor.steamcondenser.steam.packets;
  */
 public class S2A_INFO2_Packet extends S2A_INFO_BasePacket {
 
-    protected short appId;
-    protected String gameVersion;
-    protected long serverId;
-    protected short serverPort;
-    protected String serverTags;
-    protected String tvName;
-    protected short tvPort;
-
     /**
      * Creates a new S2A_INFO2 response object based on the given data
      *
      * @param dataBytes The raw packet data replied from the server
      */
     public S2A_INFO2_Packet(byte[] dataBytes) {
-        super(SteamPacket.S2A_INFO2_HEADER, dataBytes);
+        this(new PacketBuffer(dataBytes));
+    }
+
+    /**
+     * Creates a new S2A_INFO2 response object based on the given data
+     *
+     * @param data The buffer containing the packet data replied from the
+     *        server
+     */
+    public S2A_INFO2_Packet(PacketBuffer data) {
+        super(SteamPacket.S2A_INFO2_HEADER, data);
 
-        this.networkVersion = this.contentData.getByte();
-        this.serverName = this.contentData.getString();
-        this.mapName = this.contentData.getString();
-        this.gameDir = this.contentData.getString();
-        this.gameDescription = this.contentData.getString();
-        this.appId = Short.reverseBytes(this.contentData.getShort());
-        this.numberOfPlayers = this.contentData.getByte();
-        this.maxPlayers = this.contentData.getByte();
-        this.numberOfBots = this.contentData.getByte();
-        this.dedicated = this.contentData.getByte();
-        this.operatingSystem = this.contentData.getByte();
-        this.passwordProtected = this.contentData.getByte() == 1;
-        this.secure = this.contentData.getByte() == 1;
-        this.gameVersion = this.contentData.getString();
+        int networkVersion = this.contentData.getByte();
+        String serverName = this.contentData.getString();
+        String mapName = this.contentData.getString();
+        String gameDir = this.contentData.getString();
+        String gameDescription = this.contentData.getString();
+        short appId = Short.reverseBytes(this.contentData.getShort());
+        int numberOfPlayers = this.contentData.getByte();
+        int maxPlayers = this.contentData.getByte();
+        int numberOfBots = this.contentData.getByte();
+        byte dedicated = this.contentData.getByte();
+        byte operatingSystem = this.contentData.getByte();
+        boolean passwordProtected = this.contentData.getByte() == 1;
+        boolean secure = this.contentData.getByte() == 1;
+        String gameVersion = this.contentData.getString();
+
+        short serverPort = 0;
+        long serverId = 0;
+        short tvPort = 0;
+        String tvName = null;
+        String serverTags = null;
 
         if(this.contentData.remaining() > 0) {
             byte extraDataFlag = this.contentData.getByte();
 
             if((extraDataFlag & 0x80) != 0) {
-                this.serverPort = Short.reverseBytes(this.contentData.getShort());
+                serverPort = Short.reverseBytes(this.contentData.getShort());
             }
 
             if((extraDataFlag & 0x10) != 0) {
-                this.serverId = Long.reverseBytes((this.contentData.getInt() << 32) | this.contentData.getInt());
+                serverId = Long.reverseBytes((this.contentData.getInt() << 32) | this.contentData.getInt());
             }
 
             if((extraDataFlag & 0x40) != 0) {
-                this.tvPort = Short.reverseBytes(this.contentData.getShort());
-                this.tvName = this.contentData.getString();
+                tvPort = Short.reverseBytes(this.contentData.getShort());
+                tvName = this.contentData.getString();
             }
 
             if((extraDataFlag & 0x20) != 0) {
-                this.serverTags = this.contentData.getString();
+                serverTags = this.contentData.getString();
             }
         }
+
+        this.serverInfo = new ServerInfo(networkVersion, serverName, mapName,
+            gameDir, gameDescription, appId, numberOfPlayers, maxPlayers,
+            numberOfBots, dedicated, operatingSystem, passwordProtected,
+            secure, gameVersion, serverPort, serverId, tvPort, tvName,
+            serverTags);
     }
 }
@@ -7,9 +7,11 @@
 
 package com.github.koraktor.steamcondenser.steam.packets;
 
-import java.lang.reflect.Field;
 import java.util.HashMap;
 
+import com.github.koraktor.steamcondenser.PacketBuffer;
+import com.github.koraktor.steamcondenser.steam.ServerInfo;
+
 /**
  * This module implements methods to generate and access server information
  * from S2A_INFO_DETAILED and S2A_INFO2 response packets
@@ -20,42 +22,29 @@ import java.util.HashMap;
  */
 public abstract class S2A_INFO_BasePacket extends SteamPacket {
 
-    protected byte dedicated;
-    protected String gameDescription;
-    protected String gameDir;
-    protected String mapName;
-    protected int maxPlayers;
-    protected int networkVersion;
-    protected int numberOfBots;
-    protected int numberOfPlayers;
-    protected byte operatingSystem;
-    protected boolean passwordProtected;
-    protected boolean secure;
-    protected String serverName;
-
-    S2A_INFO_BasePacket(byte headerByte, byte[] dataBytes) {
-        super(headerByte, dataBytes);
+    protected ServerInfo serverInfo;
+
+    S2A_INFO_BasePacket(byte headerByte, PacketBuffer data) {
+        super(headerByte, data);
     }
 
     /**
-     * Returns a generated array of server properties from the instance
-     * variables of the packet object
+     * Returns a generated array of server properties from the server
+     * information of the packet object
      *
      * @return The information provided by the server
+     * @see ServerInfo#toMap
      */
     public HashMap<String, Object> getInfoHash() {
-        HashMap<String, Object> infoHash = new HashMap<String, Object>();
-
-        try {
-            for(Field field : this.getClass().getSuperclass().getDeclaredFields()) {
-                infoHash.put(field.getName(), field.get(this));
-            }
-
-            for(Field field : this.getClass().getDeclaredFields()) {
-                infoHash.put(field.getName(), field.get(this));
-            }
-        } catch(IllegalAccessException e){}
+        return this.serverInfo.toMap();
+    }
 
-        return infoHash;
+    /**
+     * Returns the server information decoded from this packet
+     *
+     * @return The information provided by the server
+     */
+    public ServerInfo getServerInfo() {
+        return this.serverInfo;
     }
 }
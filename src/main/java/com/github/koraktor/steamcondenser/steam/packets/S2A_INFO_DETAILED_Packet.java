@@ -9,6 +9,9 @@ package com.github.koraktor.steamcondenser.steam.packets;
 
 import java.util.HashMap;
 
+import com.github.koraktor.steamcondenser.PacketBuffer;
+import com.github.koraktor.steamcondenser.steam.ServerInfo;
+
 /**
  * This class represents a S2A_INFO_DETAILED response packet sent by a GoldSrc
  * server
@@ -21,47 +24,62 @@ import java.util.HashMap;
  */
 public class S2A_INFO_DETAILED_Packet extends S2A_INFO_BasePacket {
 
-    protected boolean isMod;
-    protected HashMap<String, Object> modInfo;
-    protected String serverIp;
-
     /**
      * Creates a new S2A_INFO_DETAILED response object based on the given data
      *
      * @param dataBytes The raw packet data replied from the server
      */
     public S2A_INFO_DETAILED_Packet(byte[] dataBytes) {
-        super(SteamPacket.S2A_INFO_DETAILED_HEADER, dataBytes);
+        this(new PacketBuffer(dataBytes));
+    }
+
+    /**
+     * Creates a new S2A_INFO_DETAILED response object based on the given data
+     *
+     * @param data The buffer containing the packet data replied from the
+     *        server
+     */
+    public S2A_INFO_DETAILED_Packet(PacketBuffer data) {
+        super(SteamPacket.S2A_INFO_DETAILED_HEADER, data);
 
-        this.serverIp = this.contentData.getString();
-        this.serverName = this.contentData.getString();
-        this.mapName = this.contentData.getString();
-        this.gameDir = this.contentData.getString();
-        this.gameDescription = this.contentData.getString();
-        this.numberOfPlayers = this.contentData.getByte();
-        this.maxPlayers = this.contentData.getByte();
-        this.networkVersion = this.contentData.getByte();
-        this.dedicated = this.contentData.getByte();
-        this.operatingSystem = this.contentData.getByte();
-        this.passwordProtected = this.contentData.getByte() == 1;
-        this.isMod = this.contentData.getByte() == 1;
+        String serverIp = this.contentData.getString();
+        String serverName = this.contentData.getString();
+        String mapName = this.contentData.getString();
+        String gameDir = this.contentData.getString();
+        String gameDescription = this.contentData.getString();
+        int numberOfPlayers = this.contentData.getByte();
+        int maxPlayers = this.contentData.getByte();
+        int networkVersion = this.contentData.getByte();
+        byte dedicated = this.contentData.getByte();
+        byte operatingSystem = this.contentData.getByte();
+        boolean passwordProtected = this.contentData.getByte() == 1;
+        boolean isMod = this.contentData.getByte() == 1;
 
-        if(this.isMod) {
-            this.modInfo = new HashMap<String, Object>(6);
-            this.modInfo.put("urlInfo", this.contentData.getString());
-            this.modInfo.put("urlDl", this.contentData.getString());
+        HashMap<String, Object> modInfo = null;
+        boolean secure = false;
+        int numberOfBots = 0;
+
+        if(isMod) {
+            modInfo = new HashMap<String, Object>(6);
+            modInfo.put("urlInfo", this.contentData.getString());
+            modInfo.put("urlDl", this.contentData.getString());
             this.contentData.getByte();
             if(this.contentData.remaining() == 12) {
-                this.modInfo.put("modVersion", Integer.reverseBytes(this.contentData.getInt()));
-                this.modInfo.put("modSize", Integer.reverseBytes(this.contentData.getInt()));
-                this.modInfo.put("svOnly", this.contentData.getByte() == 1);
-                this.modInfo.put("clDll", this.contentData.getByte() == 1);
-                this.secure = this.contentData.getByte() == 1;
-                this.numberOfBots = this.contentData.getByte();
+                modInfo.put("modVersion", Integer.reverseBytes(this.contentData.getInt()));
+                modInfo.put("modSize", Integer.reverseBytes(this.contentData.getInt()));
+                modInfo.put("svOnly", this.contentData.getByte() == 1);
+                modInfo.put("clDll", this.contentData.getByte() == 1);
+                secure = this.contentData.getByte() == 1;
+                numberOfBots = this.contentData.getByte();
             }
         } else {
-            this.secure = this.contentData.getByte() == 1;
-            this.numberOfBots = this.contentData.getByte();
+            secure = this.contentData.getByte() == 1;
+            numberOfBots = this.contentData.getByte();
         }
+
+        this.serverInfo = new ServerInfo(serverIp, serverName, mapName,
+            gameDir, gameDescription, numberOfPlayers, maxPlayers,
+            networkVersion, dedicated, operatingSystem, passwordProtected,
+            isMod, modInfo, secure, numberOfBots);
     }
 }
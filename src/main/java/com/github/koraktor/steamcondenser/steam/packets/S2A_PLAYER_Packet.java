@@ -8,6 +8,8 @@
 package com.github.koraktor.steamcondenser.steam.packets;
 
 import java.util.HashMap;
+
+import com.github.koraktor.steamcondenser.PacketBuffer;
 import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
 import com.github.koraktor.steamcondenser.steam.SteamPlayer;
 
@@ -30,7 +32,17 @@ public class S2A_PLAYER_Packet extends SteamPacket {
      */
     public S2A_PLAYER_Packet(byte[] dataBytes)
             throws PacketFormatException {
-        super(SteamPacket.S2A_PLAYER_HEADER, dataBytes);
+        this(new PacketBuffer(dataBytes));
+    }
+
+    /**
+     * Creates a new S2A_PLAYER response object based on the given data
+     *
+     * @param data The buffer containing the packet data sent by the server
+     */
+    public S2A_PLAYER_Packet(PacketBuffer data)
+            throws PacketFormatException {
+        super(SteamPacket.S2A_PLAYER_HEADER, data);
 
         if(this.contentData.getLength() == 0) {
             throw new PacketFormatException("Wrong formatted S2A_PLAYER response packet.");
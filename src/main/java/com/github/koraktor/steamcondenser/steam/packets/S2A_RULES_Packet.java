@@ -9,6 +9,7 @@ package com.github.koraktor.steamcondenser.steam.packets;
 
 import java.util.HashMap;
 
+import com.github.koraktor.steamcondenser.PacketBuffer;
 import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
 
 /**
@@ -31,7 +32,17 @@ public class S2A_RULES_Packet extends SteamPacket {
      */
     public S2A_RULES_Packet(byte[] dataBytes)
             throws PacketFormatException {
-        super(SteamPacket.S2A_RULES_HEADER, dataBytes);
+        this(new PacketBuffer(dataBytes));
+    }
+
+    /**
+     * Creates a new S2A_RULES response object based on the given data
+     *
+     * @param data The buffer containing the packet data sent by the server
+     */
+    public S2A_RULES_Packet(PacketBuffer data)
+            throws PacketFormatException {
+        super(SteamPacket.S2A_RULES_HEADER, data);
 
         if (this.contentData.getLength() == 0) {
             throw new PacketFormatException("Wrong formatted S2A_RULES response packet.");
@@ -56,10 +67,14 @@ public class S2A_RULES_Packet extends SteamPacket {
 
     /**
      * Returns the list of server rules (a.k.a. CVars) with the current values
+     * <p>
+     * As the packet may be shared by
+     * {@link com.github.koraktor.steamcondenser.steam.sockets.PayloadCache},
+     * a new copy of the rules is returned on every call.
      *
      * @return array A list of server rules
      */
     public HashMap<String, String> getRulesHash() {
-        return this.rulesHash;
+        return new HashMap<String, String>(this.rulesHash);
     }
 }
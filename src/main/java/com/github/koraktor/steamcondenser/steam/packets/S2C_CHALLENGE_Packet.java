@@ -7,6 +7,8 @@
 
 package com.github.koraktor.steamcondenser.steam.packets;
 
+import com.github.koraktor.steamcondenser.PacketBuffer;
+
 /**
  * This packet class represents a S2C_CHALLENGE response replied by a game
  * server
@@ -19,13 +21,27 @@ package com.github.koraktor.steamcondenser.steam.packets;
  */
 public class S2C_CHALLENGE_Packet extends SteamPacket {
 
+    private int challengeNumber;
+
     /**
      * Creates a new S2C_CHALLENGE response object based on the given data
      *
      * @param challengeNumberBytes The raw packet data replied from the server
      */
     public S2C_CHALLENGE_Packet(byte[] challengeNumberBytes) {
-        super(SteamPacket.S2C_CHALLENGE_HEADER, challengeNumberBytes);
+        this(new PacketBuffer(challengeNumberBytes));
+    }
+
+    /**
+     * Creates a new S2C_CHALLENGE response object based on the given data
+     *
+     * @param data The buffer containing the packet data replied from the
+     *        server
+     */
+    public S2C_CHALLENGE_Packet(PacketBuffer data) {
+        super(SteamPacket.S2C_CHALLENGE_HEADER, data);
+
+        this.challengeNumber = Integer.reverseBytes(this.contentData.getInt());
     }
 
     /**
@@ -34,6 +50,6 @@ public class S2C_CHALLENGE_Packet extends SteamPacket {
      * @return The challenge number provided by the game server
     */
     public int getChallengeNumber() {
-        return Integer.reverseBytes(this.contentData.getInt());
+        return this.challengeNumber;
     }
 }
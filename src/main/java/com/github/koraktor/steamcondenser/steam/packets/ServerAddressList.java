@@ -0,0 +1,240 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.packets;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is a growable list of IPv4 game server addresses stored as
+ * primitive values
+ * <p>
+ * Every address is packed into a single <code>long</code> holding the IP
+ * address in bits 16 to 47 and the port number in bits 0 to 15, so a list of
+ * 100,000 servers needs less than a megabyte. Socket addresses are only
+ * created on demand and without any name service lookups.
+ *
+ * @author Sebastian Staudt
+ * @see com.github.koraktor.steamcondenser.steam.servers.ServerAddressSet
+ */
+public class ServerAddressList {
+
+    private long[] addresses;
+
+    private int size;
+
+    /**
+     * Returns the IP address of a packed server address as an integer
+     *
+     * @param address The packed server address
+     * @return The IP address in network byte order
+     */
+    public static int getIpAddress(long address) {
+        return (int) (address >>> 16);
+    }
+
+    /**
+     * Returns the port number of a packed server address
+     *
+     * @param address The packed server address
+     * @return The port number
+     */
+    public static int getPort(long address) {
+        return (int) (address & 0xFFFF);
+    }
+
+    /**
+     * Packs an IPv4 address and a port number into a single value
+     *
+     * @param ipAddress The IP address in network byte order, i.e.
+     *        <code>a.b.c.d</code> is <code>a &lt;&lt; 24 | b &lt;&lt; 16 |
+     *        c &lt;&lt; 8 | d</code>
+     * @param port The port number
+     * @return The packed server address
+     */
+    public static long pack(int ipAddress, int port) {
+        return (ipAddress & 0xFFFFFFFFL) << 16 | (port & 0xFFFF);
+    }
+
+    /**
+     * Packs the given socket address into a single value
+     *
+     * @param address The socket address of an IPv4 server
+     * @return The packed server address
+     * @throws IllegalArgumentException if the address is unresolved or not an
+     *         IPv4 address
+     */
+    public static long pack(InetSocketAddress address) {
+        InetAddress ipAddress = address.getAddress();
+        if(ipAddress == null || ipAddress.getAddress().length != 4) {
+            throw new IllegalArgumentException("Only resolved IPv4 addresses can be packed: " + address);
+        }
+
+        byte[] octets = ipAddress.getAddress();
+        int ip = (octets[0] & 0xFF) << 24 | (octets[1] & 0xFF) << 16 |
+                 (octets[2] & 0xFF) << 8 | (octets[3] & 0xFF);
+
+        return pack(ip, address.getPort());
+    }
+
+    /**
+     * Creates a socket address for a packed server address
+     * <p>
+     * The IP address is used as is, no name service lookup is done.
+     *
+     * @param address The packed server address
+     * @return The socket address of the server
+     */
+    public static InetSocketAddress toSocketAddress(long address) {
+        int ip = getIpAddress(address);
+        byte[] octets = new byte[] {
+            (byte) (ip >>> 24), (byte) (ip >>> 16), (byte) (ip >>> 8), (byte) ip
+        };
+
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(octets), getPort(address));
+        } catch(UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the string representation of a packed server address
+     *
+     * @param address The packed server address
+     * @return The address in the form <code>a.b.c.d:port</code>
+     */
+    public static String toString(long address) {
+        int ip = getIpAddress(address);
+
+        return (ip >>> 24) + "." + ((ip >>> 16) & 0xFF) + "." +
+               ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF) + ":" + getPort(address);
+    }
+
+    /**
+     * Creates a new empty list
+     */
+    public ServerAddressList() {
+        this(16);
+    }
+
+    /**
+     * Creates a new empty list with the given initial capacity
+     *
+     * @param capacity The number of addresses the list can hold before it
+     *        has to grow
+     */
+    public ServerAddressList(int capacity) {
+        this.addresses = new long[Math.max(1, capacity)];
+    }
+
+    /**
+     * Appends a packed server address to this list
+     *
+     * @param address The packed server address
+     */
+    public void add(long address) {
+        if(this.size == this.addresses.length) {
+            this.addresses = Arrays.copyOf(this.addresses, this.size * 2);
+        }
+        this.addresses[this.size ++] = address;
+    }
+
+    /**
+     * Appends all addresses of the given list to this list
+     *
+     * @param addresses The list of addresses to append
+     */
+    public void addAll(ServerAddressList addresses) {
+        int newSize = this.size + addresses.size;
+        if(newSize > this.addresses.length) {
+            this.addresses = Arrays.copyOf(this.addresses, Math.max(newSize, this.size * 2));
+        }
+        System.arraycopy(addresses.addresses, 0, this.addresses, this.size, addresses.size);
+        this.size = newSize;
+    }
+
+    /**
+     * Removes all addresses from this list
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Returns the packed server address at the given index
+     *
+     * @param index The index of the address
+     * @return The packed server address
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public long get(int index) {
+        if(index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+
+        return this.addresses[index];
+    }
+
+    /**
+     * Returns the socket address of the server at the given index
+     *
+     * @param index The index of the address
+     * @return The socket address of the server
+     * @throws IndexOutOfBoundsException if the index is out of range
+     * @see #toSocketAddress(long)
+     */
+    public InetSocketAddress getSocketAddress(int index) {
+        return toSocketAddress(this.get(index));
+    }
+
+    /**
+     * Returns whether this list is empty
+     *
+     * @return <code>true</code> if this list contains no addresses
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Returns the number of addresses in this list
+     *
+     * @return The number of addresses
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns a copy of the packed addresses in this list
+     *
+     * @return The packed server addresses
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(this.addresses, this.size);
+    }
+
+    /**
+     * Creates socket addresses for all servers in this list
+     *
+     * @return The socket addresses of all servers
+     */
+    public List<InetSocketAddress> toList() {
+        List<InetSocketAddress> servers = new ArrayList<InetSocketAddress>(this.size);
+        for(int i = 0; i < this.size; i ++) {
+            servers.add(toSocketAddress(this.addresses[i]));
+        }
+
+        return servers;
+    }
+}
@@ -65,10 +65,29 @@ abstract public class SteamPacket {
      * @param contentBytes The raw data of the packet
      */
     protected SteamPacket(byte headerData, byte[] contentBytes) {
-        this.contentData = new PacketBuffer(contentBytes);
+        this(headerData, new PacketBuffer(contentBytes));
+    }
+
+    /**
+     * Creates a new packet object based on the given data
+     *
+     * @param headerData The packet header
+     * @param contentData The buffer containing the data of the packet
+     */
+    protected SteamPacket(byte headerData, PacketBuffer contentData) {
+        this.contentData = contentData;
         this.headerData = headerData;
     }
 
+    /**
+     * Returns the header byte identifying the type of this packet
+     *
+     * @return The packet header
+     */
+    public byte getHeader() {
+        return this.headerData;
+    }
+
     /**
      * Returns the raw data representing this packet
      *
@@ -9,12 +9,14 @@ package com.github.koraktor.steamcondenser.steam.packets;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.zip.CRC32;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 
 import com.github.koraktor.steamcondenser.Helper;
+import com.github.koraktor.steamcondenser.PacketBuffer;
 import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
 import com.github.koraktor.steamcondenser.steam.packets.rcon.RCONGoldSrcResponsePacket;
@@ -39,41 +41,61 @@ public abstract class SteamPacketFactory {
      */
     public static SteamPacket getPacketFromData(byte[] rawData)
             throws PacketFormatException {
-        byte header = rawData[0];
-        byte[] data = new byte[rawData.length - 1];
-        System.arraycopy(rawData, 1, data, 0, rawData.length - 1);
+        return SteamPacketFactory.getPacketFromData(ByteBuffer.wrap(rawData));
+    }
 
-        switch(header) {
-            case SteamPacket.A2S_INFO_HEADER:
-                return new A2S_INFO_Packet();
+    /**
+     * Creates a new packet object based on the header byte of the remaining
+     * data in the given buffer
+     * <p>
+     * Reply packets sent by game and master servers copy their data from the
+     * buffer once and are decoded from that copy. The buffer may be reused
+     * afterwards.
+     *
+     * @param buffer The buffer containing the raw data of the packet
+     * @throws PacketFormatException if the packet header is not recognized
+     * @return The packet object generated from the packet data
+     */
+    public static SteamPacket getPacketFromData(ByteBuffer buffer)
+            throws PacketFormatException {
+        byte header = buffer.get();
 
+        switch(header) {
             case SteamPacket.S2A_INFO_DETAILED_HEADER:
-                return new S2A_INFO_DETAILED_Packet(data);
+                return new S2A_INFO_DETAILED_Packet(new PacketBuffer(buffer));
 
             case SteamPacket.S2A_INFO2_HEADER:
-                return new S2A_INFO2_Packet(data);
+                return new S2A_INFO2_Packet(new PacketBuffer(buffer));
+
+            case SteamPacket.S2A_PLAYER_HEADER:
+                return new S2A_PLAYER_Packet(new PacketBuffer(buffer));
+
+            case SteamPacket.S2A_RULES_HEADER:
+                return new S2A_RULES_Packet(new PacketBuffer(buffer));
+
+            case SteamPacket.S2C_CHALLENGE_HEADER:
+                return new S2C_CHALLENGE_Packet(new PacketBuffer(buffer));
+
+            case SteamPacket.M2A_SERVER_BATCH_HEADER:
+                return new M2A_SERVER_BATCH_Paket(new PacketBuffer(buffer));
+        }
+
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+
+        switch(header) {
+            case SteamPacket.A2S_INFO_HEADER:
+                return new A2S_INFO_Packet();
 
             case SteamPacket.A2S_PLAYER_HEADER:
                 return new A2S_PLAYER_Packet(Helper.integerFromByteArray(data));
 
-            case SteamPacket.S2A_PLAYER_HEADER:
-                return new S2A_PLAYER_Packet(data);
-
             case SteamPacket.A2S_RULES_HEADER:
                 return new A2S_RULES_Packet(Helper.integerFromByteArray(data));
 
-            case SteamPacket.S2A_RULES_HEADER:
-                return new S2A_RULES_Packet(data);
-
             case SteamPacket.A2S_SERVERQUERY_GETCHALLENGE_HEADER:
                 return new A2S_SERVERQUERY_GETCHALLENGE_Packet();
 
-            case SteamPacket.S2C_CHALLENGE_HEADER:
-                return new S2C_CHALLENGE_Packet(data);
-
-            case SteamPacket.M2A_SERVER_BATCH_HEADER:
-                return new M2A_SERVER_BATCH_Paket(data);
-
             case SteamPacket.M2C_ISVALIDMD5_HEADER:
                 return new M2C_ISVALIDMD5_Packet(data);
 
@@ -127,17 +149,40 @@ public abstract class SteamPacketFactory {
     public static SteamPacket reassemblePacket(ArrayList<byte[]> splitPackets,
             boolean isCompressed, int uncompressedSize, int packetChecksum)
             throws SteamCondenserException {
-        byte[] packetData, tmpData;
-        packetData = new byte[0];
+        int packetLength = 0;
+        for(byte[] splitPacket : splitPackets) {
+            packetLength += splitPacket.length;
+        }
 
+        byte[] packetData = new byte[packetLength];
+        int offset = 0;
         for(byte[] splitPacket : splitPackets) {
-            tmpData = packetData;
-            packetData = new byte[tmpData.length + splitPacket.length];
-            System.arraycopy(tmpData, 0, packetData, 0, tmpData.length);
-            System.arraycopy(splitPacket, 0, packetData, tmpData.length,
-                    splitPacket.length);
+            System.arraycopy(splitPacket, 0, packetData, offset, splitPacket.length);
+            offset += splitPacket.length;
         }
 
+        return SteamPacketFactory.reassemblePacket(packetData, isCompressed,
+                uncompressedSize, packetChecksum);
+    }
+
+    /**
+     * Creates a packet object from the already concatenated data of a split
+     * and/or compressed packet
+     *
+     * @param packetData The concatenated data of all packet parts
+     * @param isCompressed whether the data of this packet is compressed
+     * @param uncompressedSize The size of the decompressed packet data
+     * @param packetChecksum The CRC32 checksum of the decompressed
+     *        packet data
+     * @throws SteamCondenserException if decompressing the packet data fails
+     * @throws PacketFormatException if the calculated CRC32 checksum does not
+     *         match the expected value
+     * @return SteamPacket The reassembled packet
+     * @see SteamPacketFactory#getPacketFromData
+     */
+    public static SteamPacket reassemblePacket(byte[] packetData,
+            boolean isCompressed, int uncompressedSize, int packetChecksum)
+            throws SteamCondenserException {
         if(isCompressed) {
             try {
                 ByteArrayInputStream stream = new ByteArrayInputStream(packetData);
@@ -145,7 +190,14 @@ public abstract class SteamPacketFactory {
                 stream.read();
                 BZip2CompressorInputStream bzip2 = new BZip2CompressorInputStream(stream);
                 byte[] uncompressedPacketData = new byte[uncompressedSize];
-                bzip2.read(uncompressedPacketData, 0, uncompressedSize);
+                int bytesRead = 0;
+                while(bytesRead < uncompressedSize) {
+                    int count = bzip2.read(uncompressedPacketData, bytesRead, uncompressedSize - bytesRead);
+                    if(count < 0) {
+                        break;
+                    }
+                    bytesRead += count;
+                }
 
                 CRC32 crc32 = new CRC32();
                 crc32.update(uncompressedPacketData);
@@ -161,8 +213,10 @@ public abstract class SteamPacketFactory {
             }
         }
 
-        packetData = new String(packetData).substring(4).getBytes();
+        if(packetData.length < 5) {
+            throw new PacketFormatException("Reassembled packet is too short.");
+        }
 
-        return SteamPacketFactory.getPacketFromData(packetData);
+        return SteamPacketFactory.getPacketFromData(ByteBuffer.wrap(packetData, 4, packetData.length - 4));
     }
 }
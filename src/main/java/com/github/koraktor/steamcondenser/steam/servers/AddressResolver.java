@@ -0,0 +1,267 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.steam.sockets.QueryFuture;
+
+/**
+ * This class resolves host names of servers asynchronously using a limited
+ * number of threads and caches the results for a fixed time
+ * <p>
+ * Concurrent requests for the same host name share a single lookup. IP
+ * addresses are never looked up, so creating servers from IP addresses, e.g.
+ * from a master server list, does not need any DNS requests at all. Failed
+ * lookups are removed from the cache before their futures fail, so they can
+ * be retried at once.
+ * <p>
+ * All servers use the {@link #getDefault default resolver}. Host names can
+ * be resolved in advance using {@link #resolve}, so creating the servers
+ * afterwards does not block.
+ *
+ * @author Sebastian Staudt
+ * @see Server
+ */
+public class AddressResolver {
+
+    private static final Pattern IPV4_ADDRESS = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    private static AddressResolver defaultResolver;
+
+    private static int defaultThreads = 8;
+
+    private static int defaultTtl = 300000;
+
+    private static int timeout = 10000;
+
+    private Map<String, Resolution> cache;
+
+    private ExecutorService executor;
+
+    private long ttl;
+
+    /**
+     * Returns the resolver shared by all servers
+     *
+     * @return The default resolver
+     */
+    public static synchronized AddressResolver getDefault() {
+        if(defaultResolver == null) {
+            defaultResolver = new AddressResolver(defaultThreads, defaultTtl);
+        }
+
+        return defaultResolver;
+    }
+
+    /**
+     * Returns the time servers wait for their host name to be resolved
+     *
+     * @return The amount of milliseconds before a lookup times out
+     */
+    public static int getTimeout() {
+        return AddressResolver.timeout;
+    }
+
+    /**
+     * Sets the number of concurrent lookups of the default resolver
+     * <p>
+     * This has to be called before the default resolver is used for the
+     * first time.
+     *
+     * @param threads The maximum number of concurrent lookups
+     */
+    public static void setDefaultThreads(int threads) {
+        AddressResolver.defaultThreads = threads;
+    }
+
+    /**
+     * Sets the time after which host names resolved by the default resolver
+     * have to be looked up again
+     * <p>
+     * This has to be called before the default resolver is used for the
+     * first time.
+     *
+     * @param ttl The time to live of a resolved host name in milliseconds
+     */
+    public static void setDefaultTtl(int ttl) {
+        AddressResolver.defaultTtl = ttl;
+    }
+
+    /**
+     * Sets the time servers wait for their host name to be resolved
+     * <p>
+     * This is independent of the {@link
+     * com.github.koraktor.steamcondenser.steam.sockets.SteamSocket#setTimeout
+     * socket timeout}, as DNS lookups usually take a lot longer than a
+     * query. Lookups are not aborted when the timeout elapses, so a later
+     * request for the same host name may still use the result.
+     *
+     * @param timeout The amount of milliseconds before a lookup times out
+     */
+    public static void setTimeout(int timeout) {
+        AddressResolver.timeout = timeout;
+    }
+
+    /**
+     * Creates a new resolver
+     *
+     * @param threads The maximum number of concurrent lookups
+     * @param ttl The time to live of a resolved host name in milliseconds
+     */
+    public AddressResolver(int threads, int ttl) {
+        this.cache    = new LinkedHashMap<String, Resolution>();
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "steam-condenser-resolver-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.ttl      = TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    /**
+     * Discards all cached host names
+     */
+    public synchronized void clear() {
+        this.cache.clear();
+    }
+
+    /**
+     * Resolves the given host name asynchronously
+     * <p>
+     * If the host name has been resolved recently or a lookup is already in
+     * progress, the cached result is returned. IP addresses are converted
+     * immediately.
+     *
+     * @param address The host name or IP address to resolve
+     * @return The pending IP addresses of the host. The future fails with a
+     *         {@link SteamCondenserException} if the host name cannot be
+     *         resolved.
+     */
+    public QueryFuture<List<InetAddress>> resolve(final String address) {
+        if(isIpAddress(address)) {
+            QueryFuture<List<InetAddress>> result = new QueryFuture<List<InetAddress>>();
+            try {
+                result.set(lookup(address));
+            } catch(SteamCondenserException e) {
+                result.fail(e);
+            }
+            return result;
+        }
+
+        final Resolution resolution;
+        synchronized(this) {
+            long now = System.nanoTime();
+            Resolution cachedResolution = this.cache.get(address);
+            if(cachedResolution != null && now - cachedResolution.time < this.ttl) {
+                return cachedResolution.result;
+            }
+
+            this.removeExpired(now);
+            this.cache.remove(address);
+            resolution = new Resolution(now);
+            this.cache.put(address, resolution);
+        }
+
+        this.executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    resolution.result.set(lookup(address));
+                } catch(SteamCondenserException e) {
+                    synchronized(AddressResolver.this) {
+                        if(cache.get(address) == resolution) {
+                            cache.remove(address);
+                        }
+                    }
+                    resolution.result.fail(e);
+                }
+            }
+        });
+
+        return resolution.result;
+    }
+
+    /**
+     * Returns whether the given address is an IP address literal that can be
+     * converted without a DNS request
+     *
+     * @param address The address to check
+     * @return <code>true</code> if the address is an IPv4 or IPv6 address
+     */
+    private static boolean isIpAddress(String address) {
+        return address.indexOf(':') >= 0 || IPV4_ADDRESS.matcher(address).matches();
+    }
+
+    /**
+     * Looks up the IP addresses of the given host
+     *
+     * @param address The host name or IP address to resolve
+     * @return The IP addresses of the host
+     * @throws SteamCondenserException if the host name cannot be resolved
+     */
+    private static List<InetAddress> lookup(String address)
+            throws SteamCondenserException {
+        try {
+            return Collections.unmodifiableList(Arrays.asList(InetAddress.getAllByName(address)));
+        } catch(UnknownHostException e) {
+            throw new SteamCondenserException("Cannot resolve " + address + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Removes all host names resolved before the time to live elapsed
+     * <p>
+     * Host names are cached in the order they have been resolved, so only
+     * the oldest entries have to be checked.
+     *
+     * @param now The current time in nanoseconds
+     */
+    private void removeExpired(long now) {
+        Iterator<Resolution> iterator = this.cache.values().iterator();
+        while(iterator.hasNext()) {
+            Resolution resolution = iterator.next();
+            if(now - resolution.time < this.ttl) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * This class holds a pending or completed lookup of a host name
+     */
+    private static class Resolution {
+
+        QueryFuture<List<InetAddress>> result;
+
+        long time;
+
+        Resolution(long time) {
+            this.result = new QueryFuture<List<InetAddress>>();
+            this.time   = time;
+        }
+    }
+}
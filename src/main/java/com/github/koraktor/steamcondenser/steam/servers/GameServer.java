@@ -7,15 +7,19 @@
 
 package com.github.koraktor.steamcondenser.steam.servers;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
+import com.github.koraktor.steamcondenser.exceptions.ServerUnavailableException;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
 import com.github.koraktor.steamcondenser.steam.SteamPlayer;
 import com.github.koraktor.steamcondenser.steam.packets.A2S_INFO_Packet;
@@ -27,7 +31,15 @@ import com.github.koraktor.steamcondenser.steam.packets.S2A_RULES_Packet;
 import com.github.koraktor.steamcondenser.steam.packets.A2S_SERVERQUERY_GETCHALLENGE_Packet;
 import com.github.koraktor.steamcondenser.steam.packets.S2C_CHALLENGE_Packet;
 import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
+import com.github.koraktor.steamcondenser.steam.sockets.ChallengeCache;
+import com.github.koraktor.steamcondenser.steam.sockets.HealthTracker;
+import com.github.koraktor.steamcondenser.steam.sockets.LatencyHistogram;
+import com.github.koraktor.steamcondenser.steam.sockets.LatencyProbe;
+import com.github.koraktor.steamcondenser.steam.sockets.QueryEngine;
+import com.github.koraktor.steamcondenser.steam.sockets.QueryFuture;
+import com.github.koraktor.steamcondenser.steam.sockets.QueryListener;
 import com.github.koraktor.steamcondenser.steam.sockets.QuerySocket;
+import com.github.koraktor.steamcondenser.steam.sockets.ServerHealth;
 
 /**
  * This class is subclassed by classes representing different game server
@@ -42,13 +54,20 @@ public abstract class GameServer extends Server {
     private static final int REQUEST_INFO = 1;
     private static final int REQUEST_PLAYER = 2;
     private static final int REQUEST_RULES = 3;
+    private int addressRacing;
     protected int challengeNumber = 0xFFFFFFFF;
+    private HealthTracker healthTracker;
+    private S2A_INFO_BasePacket infoPacket;
     protected int ping;
     protected HashMap<String, SteamPlayer> playerHash;
+    protected QueryEngine queryEngine;
     protected boolean rconAuthenticated;
     protected int rconRequestId;
     protected HashMap<String, String> rulesHash;
+    private S2A_RULES_Packet rulesPacket;
     protected HashMap<String, Object> serverInfo;
+    private volatile ServerSnapshot snapshot;
+    private final Object snapshotLock;
     protected QuerySocket socket;
 
     /**
@@ -65,6 +84,8 @@ public abstract class GameServer extends Server {
         super(address, port);
 
         this.rconAuthenticated = false;
+        this.snapshot          = new ServerSnapshot();
+        this.snapshotLock      = new Object();
     }
 
     /**
@@ -245,11 +266,76 @@ public abstract class GameServer extends Server {
      */
     public HashMap<String, Object> getServerInfo()
             throws SteamCondenserException, TimeoutException {
-        if(this.serverInfo == null) {
+        if(this.infoPacket == null) {
             this.updateServerInfo();
         }
 
-        return this.serverInfo;
+        return this.getInfoHash();
+    }
+
+    /**
+     * Closes the socket used to query this server
+     * <p/>
+     * A query engine used by this server is not affected.
+     */
+    public void close() {
+        this.socket.close();
+    }
+
+    /**
+     * Creates the request packet for the given request type
+     * <p>
+     * Requests needing a challenge number use the challenge number cached
+     * for this server's address, if any, or the challenge number of the
+     * current snapshot. The challenge number of this server is only changed
+     * when a challenge reply is handled, so concurrent requests do not
+     * interfere.
+     *
+     * @param requestType The type of request to send to the server
+     * @return The request packet
+     * @see ChallengeCache
+     */
+    private SteamPacket createRequestPacket(int requestType) {
+        int challengeNumber = this.snapshot.getChallengeNumber();
+        if(requestType == GameServer.REQUEST_PLAYER || requestType == GameServer.REQUEST_RULES) {
+            Integer cachedChallengeNumber = ChallengeCache.getDefault().get(this.getSocketAddress());
+            if(cachedChallengeNumber != null) {
+                challengeNumber = cachedChallengeNumber;
+            }
+        }
+
+        switch(requestType) {
+            case GameServer.REQUEST_CHALLENGE:
+                return new A2S_SERVERQUERY_GETCHALLENGE_Packet();
+            case GameServer.REQUEST_INFO:
+                return new A2S_INFO_Packet();
+            case GameServer.REQUEST_PLAYER:
+                return new A2S_PLAYER_Packet(challengeNumber);
+            case GameServer.REQUEST_RULES:
+                return new A2S_RULES_Packet(challengeNumber);
+            default:
+                throw new IllegalArgumentException("Unknown request type " + requestType);
+        }
+    }
+
+    /**
+     * Returns the query engine used for asynchronous queries to this server
+     * <p>
+     * If no query engine has been set for this server, the shared default
+     * engine is used.
+     *
+     * @return The query engine of this server
+     * @see #setQueryEngine
+     * @see QueryEngine#getDefault
+     * @throws SteamCondenserException if the default engine cannot be
+     *         created
+     */
+    public QueryEngine getQueryEngine() throws SteamCondenserException {
+        if(this.queryEngine != null) {
+            return this.queryEngine;
+        }
+
+        return QueryEngine.getDefault();
     }
 
     /**
@@ -264,6 +350,48 @@ public abstract class GameServer extends Server {
         return this.socket.getReply();
     }
 
+    /**
+     * Returns the last published snapshot of this server's data
+     * <p>
+     * Unlike the other getters this never sends any requests and does not
+     * block. A new immutable snapshot is published whenever a reply of this
+     * server has been handled, so it is safe to read the snapshot from any
+     * number of threads while this server is updated, e.g. by a
+     * {@link ServerMonitor}.
+     *
+     * @return The current snapshot of this server
+     * @see ServerSnapshot
+     */
+    public ServerSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Returns the basic information of this server as a map
+     * <p>
+     * The map is only created when the server information has changed since
+     * it has been created the last time.
+     *
+     * @return Server attributes with their values or <code>null</code> if
+     *         the server information has not been queried yet
+     */
+    private HashMap<String, Object> getInfoHash() {
+        if(this.serverInfo == null && this.infoPacket != null) {
+            this.serverInfo = this.infoPacket.getInfoHash();
+        }
+
+        return this.serverInfo;
+    }
+
+    /**
+     * Returns the address of this server that is used for queries
+     *
+     * @return The socket address of this server
+     */
+    public InetSocketAddress getSocketAddress() {
+        return new InetSocketAddress(this.ipAddress, this.port);
+    }
+
     /**
      * Sends the specified request to the server and handles the returned
      * response
@@ -297,50 +425,160 @@ public abstract class GameServer extends Server {
      */
     private void handleResponseForRequest(int requestType, boolean repeatOnFailure)
             throws SteamCondenserException, TimeoutException {
-        Class<? extends SteamPacket> expectedResponse = null;
-        SteamPacket requestPacket = null;
+        if(this.usesQueryEngine()) {
+            this.handleResponseForRequestAsync(requestType, repeatOnFailure).getReply();
+            return;
+        }
+
+        SteamPacket responsePacket = this.query(this.createRequestPacket(requestType));
+        Class<? extends SteamPacket> expectedResponse = this.handleResponse(requestType, responsePacket);
+
+        if(expectedResponse != null && repeatOnFailure) {
+            this.handleResponseForRequest(requestType, false);
+        }
+    }
+
+    /**
+     * Sends the specified request to the server using the query engine and
+     * handles the returned response asynchronously
+     * <p>
+     * Depending on the given request type this will fill the various data
+     * attributes of the server object.
+     *
+     * @param requestType The type of request to send to the server
+     * @param repeatOnFailure Whether the request should be repeated, if
+     *        the replied packet isn't expected. This is useful to handle
+     *        missing challenge numbers, which will be automatically filled in,
+     *        although not requested explicitly.
+     * @return The pending response packet that has been handled
+     * @see #getQueryEngine
+     */
+    private QueryFuture<SteamPacket> handleResponseForRequestAsync(int requestType, boolean repeatOnFailure) {
+        return this.handleResponseForRequestAsync(requestType, repeatOnFailure, false);
+    }
+
+    /**
+     * Sends the specified request to the server using the query engine and
+     * handles the returned response asynchronously
+     *
+     * @param requestType The type of request to send to the server
+     * @param repeatOnFailure Whether the request should be repeated, if
+     *        the replied packet isn't expected
+     * @param updatePing Whether the ping of this server should be updated
+     *        with the round trip time of the request that has been answered
+     *        with the expected response
+     * @return The pending response packet that has been handled
+     * @see QueryFuture#getRoundTripTime
+     */
+    private QueryFuture<SteamPacket> handleResponseForRequestAsync(final int requestType, final boolean repeatOnFailure, final boolean updatePing) {
+        final QueryFuture<SteamPacket> result = new QueryFuture<SteamPacket>();
+
+        QueryEngine engine;
+        try {
+            engine = this.getQueryEngine();
+        } catch(SteamCondenserException e) {
+            result.fail(e);
+            return result;
+        }
+
+        final QueryFuture<SteamPacket> query = this.sendQuery(engine, this.createRequestPacket(requestType));
+        query.addListener(new QueryListener<SteamPacket>() {
+            public void queryCompleted(SteamPacket responsePacket) {
+                Class<? extends SteamPacket> expectedResponse;
+                try {
+                    expectedResponse = handleResponse(requestType, responsePacket);
+                } catch(SteamCondenserException e) {
+                    result.fail(e);
+                    return;
+                }
+
+                if(expectedResponse != null && repeatOnFailure) {
+                    handleResponseForRequestAsync(requestType, false, updatePing).addListener(new QueryListener<SteamPacket>() {
+                        public void queryCompleted(SteamPacket repeatedResponsePacket) {
+                            result.set(repeatedResponsePacket);
+                        }
 
+                        public void queryFailed(Throwable error) {
+                            result.fail(error);
+                        }
+                    });
+                } else {
+                    if(updatePing && expectedResponse == null && query.getRoundTripTime() >= 0) {
+                        setPing((int) TimeUnit.NANOSECONDS.toMillis(query.getRoundTripTime()));
+                    }
+                    result.set(responsePacket);
+                }
+            }
+
+            public void queryFailed(Throwable error) {
+                result.fail(error);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Fills the data attributes of this server object with the data of the
+     * given response packet
+     *
+     * @param requestType The type of request the response belongs to
+     * @param responsePacket The response packet replied by the server
+     * @return The type of the expected response if the response has another
+     *         type, <code>null</code> otherwise
+     * @throws SteamCondenserException if the response cannot be handled
+     * @see #getSnapshot
+     */
+    private Class<? extends SteamPacket> handleResponse(int requestType, SteamPacket responsePacket)
+            throws SteamCondenserException {
+        synchronized(this.snapshotLock) {
+            if(responsePacket instanceof S2A_INFO_BasePacket) {
+                if(responsePacket != this.infoPacket) {
+                    this.infoPacket = (S2A_INFO_BasePacket) responsePacket;
+                    this.serverInfo = null;
+                    this.snapshot   = this.snapshot.withServerInfo(this.infoPacket.getServerInfo());
+                }
+            } else if(responsePacket instanceof S2A_PLAYER_Packet) {
+                this.playerHash = ((S2A_PLAYER_Packet) responsePacket).getPlayerHash();
+                this.snapshot   = this.snapshot.withPlayers(this.playerHash);
+            } else if(responsePacket instanceof S2A_RULES_Packet) {
+                if(responsePacket != this.rulesPacket) {
+                    this.rulesPacket = (S2A_RULES_Packet) responsePacket;
+                    this.rulesHash   = this.rulesPacket.getRulesHash();
+                    this.snapshot    = this.snapshot.withRules(this.rulesHash);
+                }
+            } else if(responsePacket instanceof S2C_CHALLENGE_Packet) {
+                this.challengeNumber = ((S2C_CHALLENGE_Packet) responsePacket).getChallengeNumber();
+                this.snapshot        = this.snapshot.withChallengeNumber(this.challengeNumber);
+                ChallengeCache.getDefault().put(this.getSocketAddress(), this.challengeNumber);
+            } else {
+                throw new SteamCondenserException("Response of type " + responsePacket.getClass() + " cannot be handled by this method.");
+            }
+        }
+
+        Class<? extends SteamPacket> expectedResponse = null;
         switch(requestType) {
             case GameServer.REQUEST_CHALLENGE:
                 expectedResponse = S2C_CHALLENGE_Packet.class;
-                requestPacket = new A2S_SERVERQUERY_GETCHALLENGE_Packet();
                 break;
             case GameServer.REQUEST_INFO:
                 expectedResponse = S2A_INFO_BasePacket.class;
-                requestPacket = new A2S_INFO_Packet();
                 break;
             case GameServer.REQUEST_PLAYER:
                 expectedResponse = S2A_PLAYER_Packet.class;
-                requestPacket = new A2S_PLAYER_Packet(this.challengeNumber);
                 break;
             case GameServer.REQUEST_RULES:
                 expectedResponse = S2A_RULES_Packet.class;
-                requestPacket = new A2S_RULES_Packet(this.challengeNumber);
                 break;
         }
 
-        this.sendRequest(requestPacket);
-
-        SteamPacket responsePacket = this.getReply();
-
-        if(responsePacket.getClass().getSuperclass().equals(S2A_INFO_BasePacket.class)) {
-            this.serverInfo = ((S2A_INFO_BasePacket) responsePacket).getInfoHash();
-        } else if(responsePacket instanceof S2A_PLAYER_Packet) {
-            this.playerHash = ((S2A_PLAYER_Packet) responsePacket).getPlayerHash();
-        } else if(responsePacket instanceof S2A_RULES_Packet) {
-            this.rulesHash = ((S2A_RULES_Packet) responsePacket).getRulesHash();
-        } else if(responsePacket instanceof S2C_CHALLENGE_Packet) {
-            this.challengeNumber = ((S2C_CHALLENGE_Packet) responsePacket).getChallengeNumber();
-        } else {
-            throw new SteamCondenserException("Response of type " + responsePacket.getClass() + " cannot be handled by this method.");
+        if(expectedResponse.isInstance(responsePacket)) {
+            return null;
         }
 
-        if(responsePacket.getClass() != expectedResponse) {
-            Logger.getLogger("com.github.koraktor.steamcondenser").warning("Expected " + expectedResponse + ", got " + responsePacket.getClass() + ".");
-            if(repeatOnFailure) {
-                this.handleResponseForRequest(requestType, false);
-            }
-        }
+        Logger.getLogger("com.github.koraktor.steamcondenser").warning("Expected " + expectedResponse + ", got " + responsePacket.getClass() + ".");
+
+        return expectedResponse;
     }
 
     /**
@@ -394,6 +632,58 @@ public abstract class GameServer extends Server {
     abstract public String rconExec(String command)
             throws SteamCondenserException, TimeoutException;
 
+    /**
+     * Returns whether this server uses the GoldSrc format for split packets
+     *
+     * @return <code>true</code> if this server is a GoldSrc server
+     */
+    protected boolean isGoldSrc() {
+        return false;
+    }
+
+    /**
+     * Measures the latency of this server using a series of A2S_INFO probes
+     * sent by the query engine
+     * <p>
+     * Unlike {@link #updatePing} this uses several samples and reports the
+     * latency distribution and the loss rate of the server. The ping of this
+     * server is updated with the median latency.
+     *
+     * @param count The number of probes to send
+     * @param interval The time to wait between two probes in milliseconds
+     * @return The latency distribution of this server
+     * @see #getQueryEngine
+     * @see LatencyProbe
+     * @throws SteamCondenserException if a probe fails for another reason
+     *         than a timeout
+     */
+    public LatencyHistogram probeLatency(int count, int interval)
+            throws SteamCondenserException {
+        LatencyProbe probe = new LatencyProbe(this.getQueryEngine(), this.getSocketAddress(), this.isGoldSrc());
+        LatencyHistogram histogram = probe.probe(count, interval);
+        if(histogram.getSampleCount() > 0) {
+            this.setPing((int) TimeUnit.NANOSECONDS.toMillis(histogram.getMedian()));
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Sends a request packet to the server using this server's own socket
+     * and receives the response
+     *
+     * @param requestPacket The request packet to send to the server
+     * @return The response packet replied by the server
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    private SteamPacket query(SteamPacket requestPacket)
+            throws SteamCondenserException, TimeoutException {
+        this.sendRequest(requestPacket);
+
+        return this.getReply();
+    }
+
     /**
      * Sends a request packet to the server
      *
@@ -405,6 +695,222 @@ public abstract class GameServer extends Server {
         this.socket.send(requestData);
     }
 
+    /**
+     * Sends a request packet to the server using the given query engine
+     * <p>
+     * If a health tracker is set, the outcome of the request is recorded.
+     * Requests to a server that is backed off fail at once with a
+     * {@link ServerUnavailableException}. Once its backoff has elapsed, a
+     * single A2S_INFO probe is sent first and the request is only sent if
+     * the probe has been answered.
+     *
+     * @param engine The query engine to use
+     * @param requestPacket The request packet to send to the server
+     * @return The pending response packet
+     * @see #setHealthTracker
+     */
+    private QueryFuture<SteamPacket> sendQuery(final QueryEngine engine, final SteamPacket requestPacket) {
+        final HealthTracker tracker = this.healthTracker;
+        if(tracker == null) {
+            return this.sendQueryToAddresses(engine, requestPacket);
+        }
+
+        final InetSocketAddress address = this.getSocketAddress();
+        ServerHealth.Status status = tracker.admit(address);
+        if(status == ServerHealth.Status.BACKING_OFF) {
+            QueryFuture<SteamPacket> result = new QueryFuture<SteamPacket>();
+            result.fail(new ServerUnavailableException(address));
+            return result;
+        }
+
+        if(status == ServerHealth.Status.HEALTHY) {
+            QueryFuture<SteamPacket> query = this.sendQueryToAddresses(engine, requestPacket);
+            query.addListener(new QueryListener<SteamPacket>() {
+                public void queryCompleted(SteamPacket responsePacket) {
+                    tracker.recordSuccess(address);
+                }
+
+                public void queryFailed(Throwable error) {
+                    if(error instanceof TimeoutException) {
+                        tracker.recordTimeout(address);
+                    }
+                }
+            });
+            return query;
+        }
+
+        Logger.getLogger("com.github.koraktor.steamcondenser").info("Probing " + address + " after backoff");
+        QueryFuture<SteamPacket> probe = engine.query(address, new A2S_INFO_Packet(), this.isGoldSrc(), 0);
+        if(requestPacket instanceof A2S_INFO_Packet) {
+            probe.addListener(new QueryListener<SteamPacket>() {
+                public void queryCompleted(SteamPacket responsePacket) {
+                    tracker.recordSuccess(address);
+                }
+
+                public void queryFailed(Throwable error) {
+                    recordProbeFailure(tracker, address, error);
+                }
+            });
+            return probe;
+        }
+
+        final QueryFuture<SteamPacket> result = new QueryFuture<SteamPacket>();
+        probe.addListener(new QueryListener<SteamPacket>() {
+            public void queryCompleted(SteamPacket responsePacket) {
+                tracker.recordSuccess(address);
+                sendQuery(engine, requestPacket).addListener(new QueryListener<SteamPacket>() {
+                    public void queryCompleted(SteamPacket responsePacket) {
+                        result.set(responsePacket);
+                    }
+
+                    public void queryFailed(Throwable error) {
+                        result.fail(error);
+                    }
+                });
+            }
+
+            public void queryFailed(Throwable error) {
+                recordProbeFailure(tracker, address, error);
+                result.fail(error);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Sends a request packet to the server using the given query engine
+     * <p>
+     * If address racing is enabled and this server has multiple IP
+     * addresses, the request is raced between all of them, starting with the
+     * address currently used. The address replying first is used for all
+     * further communication with this server.
+     *
+     * @param engine The query engine to use
+     * @param requestPacket The request packet to send to the server
+     * @return The pending response packet
+     * @see #setAddressRacing
+     */
+    private QueryFuture<SteamPacket> sendQueryToAddresses(QueryEngine engine, SteamPacket requestPacket) {
+        List<InetAddress> ipAddresses = this.getIpAddresses();
+        if(this.addressRacing <= 0 || ipAddresses.size() < 2) {
+            return engine.query(this.getSocketAddress(), requestPacket, this.isGoldSrc());
+        }
+
+        int ipIndex = this.ipIndex;
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>(ipAddresses.size());
+        for(int i = 0; i < ipAddresses.size(); i ++) {
+            addresses.add(new InetSocketAddress(ipAddresses.get((ipIndex + i) % ipAddresses.size()), this.port));
+        }
+
+        final QueryFuture<SteamPacket> query = engine.race(addresses, requestPacket, this.isGoldSrc(), this.addressRacing);
+        query.addListener(new QueryListener<SteamPacket>() {
+            public void queryCompleted(SteamPacket responsePacket) {
+                int winningIndex = getIpAddresses().indexOf(query.getAddress().getAddress());
+                if(winningIndex < 0 || winningIndex == GameServer.this.ipIndex) {
+                    return;
+                }
+
+                try {
+                    selectIp(winningIndex);
+                } catch(SteamCondenserException e) {
+                    Logger.getLogger("com.github.koraktor.steamcondenser").warning("Cannot switch to address " + query.getAddress() + ": " + e.getMessage());
+                }
+            }
+
+            public void queryFailed(Throwable error) {}
+        });
+
+        return query;
+    }
+
+    /**
+     * Records the failure of a probe sent to a server that has been backed
+     * off
+     *
+     * @param tracker The health tracker of this server
+     * @param address The address the probe has been sent to
+     * @param error The error that caused the probe to fail
+     */
+    private void recordProbeFailure(HealthTracker tracker, InetSocketAddress address, Throwable error) {
+        if(error instanceof TimeoutException) {
+            tracker.recordTimeout(address);
+        } else {
+            tracker.releaseProbe(address);
+        }
+    }
+
+    /**
+     * Enables or disables racing requests between the IP addresses of this
+     * server
+     * <p>
+     * Servers with multiple IP addresses, e.g. resolved from a host name with
+     * IPv4 and IPv6 addresses, may not be reachable using every address. If
+     * racing is enabled, requests are sent using the query engine to the
+     * address currently used first and to each further address after the
+     * given delay if no reply has been received yet. The first address
+     * replying is used from then on until it stops replying. Servers with a
+     * single IP address are not affected.
+     * <p>
+     * A delay of about 250 milliseconds keeps the additional traffic low
+     * while still falling back quickly.
+     *
+     * @param stagger The delay in milliseconds before the request is sent to
+     *        the next address or <code>0</code> to disable racing
+     * @see QueryEngine#race
+     */
+    public void setAddressRacing(int stagger) {
+        this.addressRacing = stagger;
+    }
+
+    /**
+     * Sets the health tracker used to back off this server if it does not
+     * reply
+     * <p>
+     * Servers that timed out repeatedly are not queried again until their
+     * backoff has elapsed, so scanning a list containing many unreachable
+     * servers does not wait for their timeouts over and over again. Requests
+     * that are skipped fail with a {@link ServerUnavailableException}.
+     * <p>
+     * Trackers can be shared between any number of servers. If a tracker is
+     * set, requests are sent using the query engine.
+     *
+     * @param healthTracker The health tracker to use, e.g.
+     *        {@link HealthTracker#getDefault}, or <code>null</code> to
+     *        disable tracking
+     * @see HealthTracker
+     */
+    public void setHealthTracker(HealthTracker healthTracker) {
+        this.healthTracker = healthTracker;
+    }
+
+    /**
+     * Updates the latency of this server and publishes a new snapshot
+     *
+     * @param ping The latency of this server in milliseconds
+     */
+    private void setPing(int ping) {
+        synchronized(this.snapshotLock) {
+            this.ping     = ping;
+            this.snapshot = this.snapshot.withPing(ping);
+        }
+    }
+
+    /**
+     * Sets the query engine used to send queries to this server
+     * <p>
+     * A single query engine can be shared between any number of servers. This
+     * allows to query thousands of servers using a single UDP channel instead
+     * of one socket per server. RCON communication is not affected by this.
+     *
+     * @param queryEngine The query engine to use or <code>null</code> to use
+     *        this server's own socket again
+     * @see QueryEngine
+     */
+    public void setQueryEngine(QueryEngine queryEngine) {
+        this.queryEngine = queryEngine;
+    }
+
     /**
      * Returns a human-readable text representation of the server
      *
@@ -418,9 +924,9 @@ public abstract class GameServer extends Server {
         returnString += "Ping: " + this.ping + "\n";
         returnString += "Challenge number: " + this.challengeNumber + "\n";
 
-        if(this.serverInfo != null) {
+        if(this.infoPacket != null) {
             returnString += "Info:" + "\n";
-            for(Entry<String, Object> info : this.serverInfo.entrySet()) {
+            for(Entry<String, Object> info : this.getInfoHash().entrySet()) {
                 returnString += "  " + info.getKey() + ": " + info.getValue() + "\n";
             }
         }
@@ -460,6 +966,25 @@ public abstract class GameServer extends Server {
         this.handleResponseForRequest(GameServer.REQUEST_CHALLENGE);
     }
 
+    /**
+     * Sends a A2S_SERVERQUERY_GETCHALLENGE request to the server using the
+     * query engine and updates the challenge number asynchronously
+     *
+     * @return The pending challenge number of this server
+     * @see #getQueryEngine
+     * @see #updateChallengeNumber
+     */
+    public QueryFuture<Integer> updateChallengeNumberAsync() {
+        final QueryFuture<Integer> result = new QueryFuture<Integer>();
+        this.handleResponseForRequestAsync(GameServer.REQUEST_CHALLENGE, true).addListener(new ResponseListener<Integer>(result) {
+            protected Integer getResult(ServerSnapshot snapshot) {
+                return snapshot.getChallengeNumber();
+            }
+        });
+
+        return result;
+    }
+
     /**
      * Sends a A2S_INFO request to the server and measures the time needed for
      * the reply
@@ -474,11 +999,47 @@ public abstract class GameServer extends Server {
      */
     public void updatePing()
             throws SteamCondenserException, TimeoutException {
-        this.sendRequest(new A2S_INFO_Packet());
-        long startTime = System.currentTimeMillis();
-        this.getReply();
-        long endTime = System.currentTimeMillis();
-        this.ping = Long.valueOf(endTime - startTime).intValue();
+        if(this.usesQueryEngine()) {
+            this.updatePingAsync().getReply();
+            return;
+        }
+
+        this.query(new A2S_INFO_Packet());
+        this.setPing((int) TimeUnit.NANOSECONDS.toMillis(this.socket.getRoundTripTime()));
+    }
+
+    /**
+     * Sends a A2S_INFO request to the server using the query engine and
+     * measures the time needed for the reply asynchronously
+     *
+     * @return The pending latency of this server in milliseconds
+     * @see #getQueryEngine
+     * @see #updatePing
+     */
+    public QueryFuture<Integer> updatePingAsync() {
+        final QueryFuture<Integer> result = new QueryFuture<Integer>();
+
+        QueryEngine engine;
+        try {
+            engine = this.getQueryEngine();
+        } catch(SteamCondenserException e) {
+            result.fail(e);
+            return result;
+        }
+
+        final QueryFuture<SteamPacket> query = this.sendQuery(engine, new A2S_INFO_Packet());
+        query.addListener(new ResponseListener<Integer>(result) {
+            public void queryCompleted(SteamPacket responsePacket) {
+                setPing((int) TimeUnit.NANOSECONDS.toMillis(query.getRoundTripTime()));
+                super.queryCompleted(responsePacket);
+            }
+
+            protected Integer getResult(ServerSnapshot snapshot) {
+                return snapshot.getPing();
+            }
+        });
+
+        return result;
     }
 
     /**
@@ -540,6 +1101,37 @@ public abstract class GameServer extends Server {
                 this.playerHash.get(playerName).addInformation(playerData);
             }
         }
+
+        synchronized(this.snapshotLock) {
+            this.snapshot = this.snapshot.withPlayers(this.playerHash);
+        }
+    }
+
+    /**
+     * Sends a A2S_PLAYERS request to the server using the query engine and
+     * updates the players' data for this server asynchronously
+     * <p>
+     * Additional player information from RCON is not available using this
+     * method.
+     *
+     * @return The pending players of this server
+     * @see #getQueryEngine
+     * @see #updatePlayers
+     */
+    public QueryFuture<HashMap<String, SteamPlayer>> updatePlayersAsync() {
+        final QueryFuture<HashMap<String, SteamPlayer>> result = new QueryFuture<HashMap<String, SteamPlayer>>();
+        this.handleResponseForRequestAsync(GameServer.REQUEST_PLAYER, true).addListener(new ResponseListener<HashMap<String, SteamPlayer>>(result) {
+            protected HashMap<String, SteamPlayer> getResult(ServerSnapshot snapshot) {
+                HashMap<String, SteamPlayer> players = new HashMap<String, SteamPlayer>();
+                for(Entry<String, SteamPlayer> player : snapshot.getPlayers().entrySet()) {
+                    players.put(player.getKey(), new SteamPlayer(player.getValue()));
+                }
+
+                return players;
+            }
+        });
+
+        return result;
     }
 
     /**
@@ -560,6 +1152,25 @@ public abstract class GameServer extends Server {
         this.handleResponseForRequest(GameServer.REQUEST_RULES);
     }
 
+    /**
+     * Sends a A2S_RULES request to the server using the query engine and
+     * updates the rules of this server asynchronously
+     *
+     * @return The pending rules of this server
+     * @see #getQueryEngine
+     * @see #updateRules
+     */
+    public QueryFuture<HashMap<String, String>> updateRulesAsync() {
+        final QueryFuture<HashMap<String, String>> result = new QueryFuture<HashMap<String, String>>();
+        this.handleResponseForRequestAsync(GameServer.REQUEST_RULES, true).addListener(new ResponseListener<HashMap<String, String>>(result) {
+            protected HashMap<String, String> getResult(ServerSnapshot snapshot) {
+                return new HashMap<String, String>(snapshot.getRules());
+            }
+        });
+
+        return result;
+    }
+
     /**
      * Sends a A2S_INFO request to the server and updates this server's basic
      * information
@@ -578,4 +1189,212 @@ public abstract class GameServer extends Server {
             throws SteamCondenserException, TimeoutException {
         this.handleResponseForRequest(GameServer.REQUEST_INFO);
     }
+
+    /**
+     * Sends a A2S_INFO request to the server using the query engine and
+     * updates this server's basic information asynchronously
+     *
+     * @return The pending information of this server
+     * @see #getQueryEngine
+     * @see #updateServerInfo
+     */
+    public QueryFuture<HashMap<String, Object>> updateServerInfoAsync() {
+        final QueryFuture<HashMap<String, Object>> result = new QueryFuture<HashMap<String, Object>>();
+        this.handleResponseForRequestAsync(GameServer.REQUEST_INFO, true).addListener(new ResponseListener<HashMap<String, Object>>(result) {
+            protected HashMap<String, Object> getResult(ServerSnapshot snapshot) {
+                return new HashMap<String, Object>(snapshot.getServerInfo());
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Updates the information, players and rules of this server using
+     * pipelined requests
+     * <p/>
+     * The A2S_INFO, A2S_PLAYER and A2S_RULES requests are sent back to back
+     * and the replies are matched to the requests by their type. If the
+     * challenge number of this server is already known this needs a single
+     * round trip, otherwise the requests needing a challenge number are
+     * repeated once the server has sent it. The ping of this server is
+     * updated with the round trip time measured by the socket if the
+     * A2S_INFO reply is received first, otherwise with the time between
+     * sending the A2S_INFO request and receiving its reply.
+     *
+     * @see #getPing
+     * @see #getPlayers
+     * @see #getRules
+     * @see #getServerInfo
+     * @see #updateSnapshotAsync
+     * @throws SteamCondenserException if a request fails
+     * @throws TimeoutException if a request times out
+     */
+    public void updateSnapshot()
+            throws SteamCondenserException, TimeoutException {
+        if(this.usesQueryEngine()) {
+            this.updateSnapshotAsync().getReply();
+            return;
+        }
+
+        List<Integer> pendingRequests = new ArrayList<Integer>(3);
+        pendingRequests.add(GameServer.REQUEST_INFO);
+        pendingRequests.add(GameServer.REQUEST_PLAYER);
+        pendingRequests.add(GameServer.REQUEST_RULES);
+
+        long infoSendTime = System.nanoTime();
+        for(int requestType : pendingRequests) {
+            this.sendRequest(this.createRequestPacket(requestType));
+        }
+
+        boolean challengeReceived = false;
+        boolean firstReply = true;
+        while(!pendingRequests.isEmpty()) {
+            SteamPacket responsePacket = this.getReply();
+            long roundTripTime = firstReply ? this.socket.getRoundTripTime() : -1;
+            firstReply = false;
+
+            if(responsePacket instanceof S2C_CHALLENGE_Packet) {
+                this.handleResponse(GameServer.REQUEST_CHALLENGE, responsePacket);
+                if(!challengeReceived) {
+                    challengeReceived = true;
+                    for(int requestType : pendingRequests) {
+                        if(requestType != GameServer.REQUEST_INFO) {
+                            this.sendRequest(this.createRequestPacket(requestType));
+                        }
+                    }
+                }
+            } else if(responsePacket instanceof S2A_INFO_BasePacket) {
+                if(roundTripTime < 0) {
+                    roundTripTime = this.socket.getReceiveTime() - infoSendTime;
+                }
+                this.setPing((int) TimeUnit.NANOSECONDS.toMillis(roundTripTime));
+                this.handleResponse(GameServer.REQUEST_INFO, responsePacket);
+                pendingRequests.remove(Integer.valueOf(GameServer.REQUEST_INFO));
+            } else if(responsePacket instanceof S2A_PLAYER_Packet) {
+                this.handleResponse(GameServer.REQUEST_PLAYER, responsePacket);
+                pendingRequests.remove(Integer.valueOf(GameServer.REQUEST_PLAYER));
+            } else if(responsePacket instanceof S2A_RULES_Packet) {
+                this.handleResponse(GameServer.REQUEST_RULES, responsePacket);
+                pendingRequests.remove(Integer.valueOf(GameServer.REQUEST_RULES));
+            } else {
+                Logger.getLogger("com.github.koraktor.steamcondenser").warning("Ignoring unexpected response of type " + responsePacket.getClass() + ".");
+            }
+        }
+    }
+
+    /**
+     * Updates the information, players and rules of this server using
+     * pipelined requests sent by the query engine
+     * <p>
+     * The requests needing a challenge number are sent first, so challenge
+     * replies are matched to them instead of the A2S_INFO request.
+     *
+     * @return The pending update of this server, completed with this server
+     *         once all replies have been handled
+     * @see #getQueryEngine
+     * @see #updateSnapshot
+     */
+    public QueryFuture<GameServer> updateSnapshotAsync() {
+        QueryFuture<GameServer> result = new QueryFuture<GameServer>();
+        final SnapshotListener listener = new SnapshotListener(result, 3);
+
+        this.handleResponseForRequestAsync(GameServer.REQUEST_PLAYER, true).addListener(listener);
+        this.handleResponseForRequestAsync(GameServer.REQUEST_RULES, true).addListener(listener);
+
+        this.handleResponseForRequestAsync(GameServer.REQUEST_INFO, true, true).addListener(listener);
+
+        return result;
+    }
+
+    /**
+     * Returns whether requests to this server are sent using a query engine
+     * <p>
+     * This is the case if a query engine or a health tracker has been set or
+     * if requests are raced between multiple IP addresses.
+     *
+     * @return <code>true</code> if requests are sent using a query engine
+     * @see #getQueryEngine
+     * @see #setAddressRacing
+     * @see #setHealthTracker
+     */
+    private boolean usesQueryEngine() {
+        return this.queryEngine != null || this.healthTracker != null ||
+               (this.addressRacing > 0 && this.getIpAddresses().size() > 1);
+    }
+
+    /**
+     * This listener completes a query with data of the server object once
+     * the response to a request has been handled
+     * <p>
+     * The result is copied from the snapshot published after handling the
+     * response, so it is neither changed by later responses nor by the
+     * caller.
+     */
+    private abstract class ResponseListener<T>
+            implements QueryListener<SteamPacket> {
+
+        private QueryFuture<T> result;
+
+        /**
+         * Creates a new listener completing the given query
+         *
+         * @param result The query to complete
+         */
+        ResponseListener(QueryFuture<T> result) {
+            this.result = result;
+        }
+
+        /**
+         * Returns the result of the query
+         *
+         * @param snapshot The current snapshot of the server
+         * @return A copy of the data of the server
+         */
+        protected abstract T getResult(ServerSnapshot snapshot);
+
+        public void queryCompleted(SteamPacket responsePacket) {
+            this.result.set(this.getResult(snapshot));
+        }
+
+        public void queryFailed(Throwable error) {
+            this.result.fail(error);
+        }
+    }
+
+    /**
+     * This listener completes a query with the server object once the
+     * responses to all pipelined requests have been handled
+     */
+    private class SnapshotListener implements QueryListener<SteamPacket> {
+
+        private int pendingResponses;
+
+        private QueryFuture<GameServer> result;
+
+        /**
+         * Creates a new listener completing the given query
+         *
+         * @param result The query to complete
+         * @param pendingResponses The number of responses to wait for
+         */
+        SnapshotListener(QueryFuture<GameServer> result, int pendingResponses) {
+            this.pendingResponses = pendingResponses;
+            this.result           = result;
+        }
+
+        public void queryCompleted(SteamPacket responsePacket) {
+            synchronized(this) {
+                if(--this.pendingResponses > 0) {
+                    return;
+                }
+            }
+
+            this.result.set(GameServer.this);
+        }
+
+        public void queryFailed(Throwable error) {
+            this.result.fail(error);
+        }
+    }
 }
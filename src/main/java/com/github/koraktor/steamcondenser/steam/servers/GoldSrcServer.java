@@ -136,6 +136,16 @@ public class GoldSrcServer extends GameServer {
         this.socket = new GoldSrcSocket(this.ipAddress, this.port, this.isHLTV);
     }
 
+    /**
+     * Returns whether this server uses the GoldSrc format for split packets
+     *
+     * @return Always <code>true</code>
+     */
+    @Override
+    protected boolean isGoldSrc() {
+        return true;
+    }
+
     /**
      * Saves the password for authenticating the RCON communication with the
      * server
@@ -0,0 +1,43 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import java.net.InetSocketAddress;
+
+/**
+ * This interface is implemented by classes that want to be notified about
+ * the replies of master servers to the heartbeats sent by a
+ * {@link HeartbeatService}
+ * <p>
+ * Listeners are called by the I/O thread of the heartbeat service, so they
+ * should never block.
+ *
+ * @author Sebastian Staudt
+ * @see HeartbeatService#addListener
+ */
+public interface HeartbeatListener {
+
+    /**
+     * Called when a master server sent a new challenge number
+     *
+     * @param master The address of the master server
+     * @param challenge The new challenge number
+     */
+    public void challengeReceived(InetSocketAddress master, int challenge);
+
+    /**
+     * Called when a master server requested a restart, e.g. because the
+     * version sent in a heartbeat is outdated
+     * <p>
+     * As all heartbeats are sent using the same socket, the request cannot
+     * be assigned to a single game server.
+     *
+     * @param master The address of the master server
+     */
+    public void restartRequested(InetSocketAddress master);
+}
@@ -0,0 +1,531 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.steam.packets.C2M_CHECKMD5_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.M2C_ISVALIDMD5_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.M2S_REQUESTRESTART_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.S2M_HEARTBEAT2_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
+import com.github.koraktor.steamcondenser.steam.packets.SteamPacketFactory;
+import com.github.koraktor.steamcondenser.steam.sockets.ChallengeCache;
+import com.github.koraktor.steamcondenser.steam.sockets.Pacer;
+import com.github.koraktor.steamcondenser.steam.sockets.QueryStatistics;
+import com.github.koraktor.steamcondenser.steam.sockets.ServiceLoop;
+import com.github.koraktor.steamcondenser.steam.sockets.SteamSocket;
+
+/**
+ * This class sends heartbeats for a large number of game servers to one or
+ * more master servers
+ * <p>
+ * All heartbeats are sent using a single UDP channel. The challenge number of
+ * every master server is requested once and reused for the heartbeats of all
+ * game servers until it expires. Heartbeats waiting for a challenge number
+ * are sent as soon as it has been received.
+ * <p>
+ * Replies are read by a single thread waiting on a selector, so no thread is
+ * blocked waiting for replies that may never be sent. Challenge numbers and
+ * restart requests sent by the master servers are passed to the registered
+ * {@link HeartbeatListener}s.
+ *
+ * @author Sebastian Staudt
+ * @see MasterServer#sendHeartbeat
+ */
+public class HeartbeatService extends ServiceLoop {
+
+    private ByteBuffer buffer;
+
+    private DatagramChannel channel;
+
+    private ChallengeCache challenges;
+
+    private Map<String, Instance> instances;
+
+    private long interval;
+
+    private List<HeartbeatListener> listeners;
+
+    private Map<InetSocketAddress, Master> masters;
+
+    private Pacer pacer;
+
+    private PriorityQueue<Instance> schedule;
+
+    private Selector selector;
+
+    private QueryStatistics statistics;
+
+    /**
+     * Creates a new heartbeat service using a new UDP channel bound to an
+     * ephemeral local port
+     * <p>
+     * By default heartbeats are sent every five minutes and challenge numbers
+     * are reused for fifteen minutes.
+     *
+     * @throws SteamCondenserException if the channel cannot be opened
+     */
+    public HeartbeatService() throws SteamCondenserException {
+        super("heartbeat service");
+
+        this.buffer     = ByteBuffer.allocate(1500);
+        this.challenges = new ChallengeCache((int) TimeUnit.MINUTES.toMillis(15), 1024);
+        this.instances  = new HashMap<String, Instance>();
+        this.interval   = TimeUnit.MINUTES.toNanos(5);
+        this.listeners  = new CopyOnWriteArrayList<HeartbeatListener>();
+        this.masters    = new HashMap<InetSocketAddress, Master>();
+        this.pacer      = Pacer.getDefault();
+        this.schedule   = new PriorityQueue<Instance>();
+        this.statistics = new QueryStatistics();
+
+        try {
+            this.channel = DatagramChannel.open();
+            this.channel.configureBlocking(false);
+            this.channel.socket().bind(null);
+            this.selector = Selector.open();
+            this.channel.register(this.selector, SelectionKey.OP_READ);
+        } catch(IOException e) {
+            throw new SteamCondenserException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Adds a listener that is notified about the replies of the master
+     * servers
+     *
+     * @param listener The listener to add
+     */
+    public void addListener(HeartbeatListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Adds a master server to send heartbeats to
+     *
+     * @param address The address of the master server
+     */
+    public synchronized void addMaster(InetSocketAddress address) {
+        if(!this.masters.containsKey(address)) {
+            Master master = new Master(address);
+            for(Instance instance : this.instances.values()) {
+                master.pendingInstances.add(instance);
+            }
+            this.masters.put(address, master);
+            this.selector.wakeup();
+        }
+    }
+
+    /**
+     * Adds all IP addresses of a master server to send heartbeats to
+     *
+     * @param address Either an IP address, a DNS name or one of them combined
+     *        with the port number, e.g.
+     *        {@link MasterServer#SOURCE_MASTER_SERVER}
+     * @throws SteamCondenserException if the address cannot be resolved
+     */
+    public void addMaster(String address) throws SteamCondenserException {
+        MasterServer masterServer = new MasterServer(address);
+        try {
+            for(InetAddress ipAddress : masterServer.getIpAddresses()) {
+                this.addMaster(new InetSocketAddress(ipAddress, masterServer.port));
+            }
+        } finally {
+            masterServer.close();
+        }
+    }
+
+    /**
+     * Adds a game server to send heartbeats for or updates the data of a game
+     * server added before
+     * <p>
+     * The first heartbeat of a new game server is sent at once, updated data
+     * is sent with the next scheduled heartbeat.
+     *
+     * @param id A unique identifier of the game server
+     * @param data The data to send with the heartbeats, see
+     *        {@link S2M_HEARTBEAT2_Packet}. The challenge number is added
+     *        automatically.
+     */
+    public synchronized void addServer(String id, Map<String, Object> data) {
+        Instance instance = this.instances.get(id);
+        if(instance != null) {
+            instance.data = new HashMap<String, Object>(data);
+            return;
+        }
+
+        instance = new Instance(new HashMap<String, Object>(data));
+        instance.nextHeartbeat = System.nanoTime();
+        this.instances.put(id, instance);
+        this.schedule.add(instance);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Stops the I/O thread of this service and closes the underlying channel
+     */
+    public void close() {
+        this.stop();
+
+        try {
+            this.selector.close();
+            this.channel.close();
+        } catch(IOException e) {}
+    }
+
+    /**
+     * Returns the current challenge number of the given master server
+     *
+     * @param master The address of the master server
+     * @return The challenge number or <code>null</code> if no valid challenge
+     *         number is known
+     */
+    public Integer getChallenge(InetSocketAddress master) {
+        return this.challenges.get(master);
+    }
+
+    /**
+     * Returns the statistics of the packets sent and received by this service
+     *
+     * @return The statistics of this service
+     */
+    public QueryStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Removes a listener
+     *
+     * @param listener The listener to remove
+     */
+    public void removeListener(HeartbeatListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Removes a master server
+     *
+     * @param address The address of the master server
+     */
+    public synchronized void removeMaster(InetSocketAddress address) {
+        this.masters.remove(address);
+    }
+
+    /**
+     * Removes a game server, so no more heartbeats are sent for it
+     *
+     * @param id The identifier of the game server
+     */
+    public synchronized void removeServer(String id) {
+        Instance instance = this.instances.remove(id);
+        if(instance != null) {
+            this.schedule.remove(instance);
+            for(Master master : this.masters.values()) {
+                master.pendingInstances.remove(instance);
+            }
+        }
+    }
+
+    /**
+     * Sets the time between two heartbeats of the same game server
+     *
+     * @param interval The heartbeat interval in milliseconds
+     */
+    public synchronized void setInterval(int interval) {
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+    }
+
+    /**
+     * Sets the pacer limiting the rate of packets sent by this service
+     * <p>
+     * By default the pacer shared with all query sockets is used.
+     *
+     * @param pacer The pacer to use
+     * @see Pacer#getDefault
+     */
+    public synchronized void setPacer(Pacer pacer) {
+        this.pacer = pacer;
+    }
+
+    /**
+     * Runs a single iteration of the I/O loop of this service
+     * <p>
+     * This schedules and sends heartbeats and challenge requests, waits for
+     * the next packet to be sent or a reply to arrive and reads all available
+     * replies.
+     *
+     * @throws IOException if reading from or writing to the channel fails
+     */
+    @Override
+    protected void runIteration() throws IOException {
+        long now = System.nanoTime();
+        long wakeupTime;
+        synchronized(this) {
+            this.scheduleHeartbeats(now);
+            wakeupTime = this.sendHeartbeats(now);
+            Instance nextInstance = this.schedule.peek();
+            if(nextInstance != null && (wakeupTime == 0 || nextInstance.nextHeartbeat - wakeupTime < 0)) {
+                wakeupTime = nextInstance.nextHeartbeat;
+            }
+        }
+
+        long timeout = 0;
+        if(wakeupTime != 0) {
+            timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(wakeupTime - now) + 1);
+        }
+
+        this.selector.select(timeout);
+        this.selector.selectedKeys().clear();
+        this.receiveReplies();
+    }
+
+    /**
+     * Wakes up the I/O thread of this service waiting for replies
+     */
+    @Override
+    protected void wakeup() {
+        this.selector.wakeup();
+    }
+
+    /**
+     * Handles a reply received from a master server
+     *
+     * @param master The master server the reply was received from
+     * @param packet The reply
+     */
+    private void handleReply(Master master, SteamPacket packet) {
+        if(packet instanceof M2C_ISVALIDMD5_Packet) {
+            int challenge = ((M2C_ISVALIDMD5_Packet) packet).getChallenge();
+            this.challenges.put(master.address, challenge);
+            master.challengeRequestTime = 0;
+
+            for(HeartbeatListener listener : this.listeners) {
+                listener.challengeReceived(master.address, challenge);
+            }
+        } else if(packet instanceof M2S_REQUESTRESTART_Packet) {
+            Logger.getLogger("com.github.koraktor.steamcondenser").info("Master server " + master.address + " requested a restart.");
+
+            for(HeartbeatListener listener : this.listeners) {
+                listener.restartRequested(master.address);
+            }
+        }
+    }
+
+    /**
+     * Reads all replies that are currently available from the channel
+     * <p>
+     * Packets not sent by a known master server are ignored.
+     *
+     * @throws IOException if reading from the channel fails
+     */
+    private void receiveReplies() throws IOException {
+        InetSocketAddress address;
+        while(true) {
+            this.buffer.clear();
+            address = (InetSocketAddress) this.channel.receive(this.buffer);
+            if(address == null) {
+                break;
+            }
+            this.buffer.flip();
+            this.statistics.recordPacketReceived(this.buffer.remaining());
+
+            if(this.buffer.remaining() < 5 || this.buffer.getInt() != -1) {
+                continue;
+            }
+
+            Master master;
+            synchronized(this) {
+                master = this.masters.get(address);
+            }
+            if(master == null) {
+                continue;
+            }
+
+            try {
+                SteamPacket packet = SteamPacketFactory.getPacketFromData(this.buffer);
+                Logger.getLogger("com.github.koraktor.steamcondenser").info("Received reply of type \"" + packet.getClass().getSimpleName() + "\" from " + address);
+                synchronized(this) {
+                    this.handleReply(master, packet);
+                }
+            } catch(SteamCondenserException e) {
+                Logger.getLogger("com.github.koraktor.steamcondenser").warning("Discarding reply from " + address + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Queues the heartbeats of all game servers that are due for every
+     * master server
+     *
+     * @param now The current time in nanoseconds
+     */
+    private void scheduleHeartbeats(long now) {
+        Instance instance;
+        while((instance = this.schedule.peek()) != null &&
+              instance.nextHeartbeat - now <= 0) {
+            this.schedule.poll();
+            for(Master master : this.masters.values()) {
+                master.pendingInstances.add(instance);
+            }
+
+            instance.nextHeartbeat += this.interval;
+            if(instance.nextHeartbeat - now <= 0) {
+                instance.nextHeartbeat = now + this.interval;
+            }
+            this.schedule.add(instance);
+        }
+    }
+
+    /**
+     * Sends all queued heartbeats to master servers with a known challenge
+     * number and requests the challenge number of all other master servers
+     * <p>
+     * A challenge request is repeated after the socket timeout if no reply
+     * has been received.
+     *
+     * @param now The current time in nanoseconds
+     * @return The time when this should be called again in nanoseconds, or
+     *         <code>0</code> if no packets are waiting to be sent
+     * @throws IOException if writing to the channel fails
+     * @see SteamSocket#setTimeout
+     */
+    private long sendHeartbeats(long now) throws IOException {
+        long wakeupTime = 0;
+        long timeout = TimeUnit.MILLISECONDS.toNanos(SteamSocket.getTimeout());
+
+        for(Master master : this.masters.values()) {
+            if(master.pendingInstances.isEmpty()) {
+                continue;
+            }
+
+            long nextTime;
+            Integer challenge = this.challenges.get(master.address);
+            if(challenge == null) {
+                long delay;
+                if(master.challengeRequestTime != 0 && now - master.challengeRequestTime < timeout) {
+                    nextTime = master.challengeRequestTime + timeout;
+                } else if((delay = this.send(master.address, new C2M_CHECKMD5_Packet(), now)) == 0) {
+                    master.challengeRequestTime = now;
+                    nextTime = now + timeout;
+                } else {
+                    nextTime = now + delay;
+                }
+            } else {
+                nextTime = 0;
+                Iterator<Instance> iterator = master.pendingInstances.iterator();
+                while(iterator.hasNext()) {
+                    Instance instance = iterator.next();
+                    Map<String, Object> data = new HashMap<String, Object>(instance.data);
+                    data.put("challenge", challenge);
+
+                    SteamPacket heartbeat;
+                    try {
+                        heartbeat = new S2M_HEARTBEAT2_Packet(data);
+                    } catch(SteamCondenserException e) {
+                        iterator.remove();
+                        continue;
+                    }
+
+                    long delay = this.send(master.address, heartbeat, now);
+                    if(delay > 0) {
+                        nextTime = now + delay;
+                        break;
+                    }
+                    iterator.remove();
+                }
+            }
+
+            if(nextTime != 0 && (wakeupTime == 0 || nextTime - wakeupTime < 0)) {
+                wakeupTime = nextTime;
+            }
+        }
+
+        return wakeupTime;
+    }
+
+    /**
+     * Sends a packet to a master server if the pacer allows it
+     *
+     * @param address The address of the master server
+     * @param packet The packet to send
+     * @param now The current time in nanoseconds
+     * @return <code>0</code> if the packet has been sent, otherwise the time
+     *         to wait before trying again in nanoseconds
+     * @throws IOException if writing to the channel fails
+     */
+    private long send(InetSocketAddress address, SteamPacket packet, long now)
+            throws IOException {
+        long delay = this.pacer.tryAcquire(address, now);
+        if(delay > 0) {
+            this.statistics.recordPacedRequest();
+            return delay;
+        }
+
+        Logger.getLogger("com.github.koraktor.steamcondenser").info("Sending data packet of type \"" + packet.getClass().getSimpleName() + "\" to " + address);
+        byte[] data = packet.getBytes();
+        if(this.channel.send(ByteBuffer.wrap(data), address) == 0) {
+            return TimeUnit.MILLISECONDS.toNanos(1);
+        }
+        this.statistics.recordPacketSent(data.length);
+
+        return 0;
+    }
+
+    /**
+     * This class holds the data and the schedule of a single game server
+     */
+    private static class Instance implements Comparable<Instance> {
+
+        Map<String, Object> data;
+
+        long nextHeartbeat;
+
+        Instance(Map<String, Object> data) {
+            this.data = data;
+        }
+
+        public int compareTo(Instance other) {
+            long difference = this.nextHeartbeat - other.nextHeartbeat;
+
+            return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+        }
+    }
+
+    /**
+     * This class holds the state of a single master server
+     */
+    private static class Master {
+
+        InetSocketAddress address;
+
+        long challengeRequestTime;
+
+        LinkedHashSet<Instance> pendingInstances;
+
+        Master(InetSocketAddress address) {
+            this.address          = address;
+            this.pendingInstances = new LinkedHashSet<Instance>();
+        }
+    }
+}
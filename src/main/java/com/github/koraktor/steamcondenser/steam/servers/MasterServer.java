@@ -22,6 +22,7 @@ import com.github.koraktor.steamcondenser.steam.packets.M2A_SERVER_BATCH_Paket;
 import com.github.koraktor.steamcondenser.steam.packets.M2C_ISVALIDMD5_Packet;
 import com.github.koraktor.steamcondenser.steam.packets.S2M_HEARTBEAT2_Packet;
 import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
+import com.github.koraktor.steamcondenser.steam.packets.ServerAddressList;
 import com.github.koraktor.steamcondenser.steam.sockets.MasterServerSocket;
 
 /**
@@ -259,32 +260,158 @@ public class MasterServer extends Server {
      */
     public Vector<InetSocketAddress> getServers(byte regionCode, String filter, boolean force)
             throws SteamCondenserException, TimeoutException {
+        return new Vector<InetSocketAddress>(this.getServerAddresses(regionCode, filter, force).toList());
+    }
+
+    /**
+     * Receives a list of game servers matching the given region and filters
+     * and passes every batch of servers to the given listener as soon as it
+     * has been received
+     * <p/>
+     * This allows to process the first servers, e.g. query them, while the
+     * rest of the list is still being received. The method returns once the
+     * whole list has been received.
+     *
+     * @param regionCode The region code to specify a location of the game
+     *        servers
+     * @param filter The filters that game servers should match
+     * @param force Whether to keep trying even if all IP addresses of the
+     *        master server failed
+     * @param listener The listener to pass the servers to
+     * @see #getServers(byte, String, boolean)
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if too many timeouts occur while querying the
+     *         master server
+     */
+    public void getServers(byte regionCode, String filter, boolean force, final MasterServerListener listener)
+            throws SteamCondenserException, TimeoutException {
+        this.receiveServers(regionCode, filter, force, 0, new BatchHandler() {
+            public void batchReceived(ServerAddressList servers) {
+                listener.serversReceived(servers.toList());
+            }
+        });
+    }
+
+    /**
+     * Returns a compact list of game servers matching the given region and
+     * filters
+     * <p/>
+     * The servers are returned as packed primitive values, which needs a lot
+     * less memory than a list of socket addresses for large server lists.
+     *
+     * @param regionCode The region code to specify a location of the game
+     *        servers
+     * @param filter The filters that game servers should match
+     * @param force Whether to keep trying even if all IP addresses of the
+     *        master server failed
+     * @return The packed addresses of the game servers matching the given
+     *         region and filters
+     * @see #getServers(byte, String, boolean)
+     * @see ServerAddressList
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if too many timeouts occur while querying the
+     *         master server
+     */
+    public ServerAddressList getServerAddresses(byte regionCode, String filter, boolean force)
+            throws SteamCondenserException, TimeoutException {
+        final ServerAddressList serverAddresses = new ServerAddressList();
+
+        this.receiveServers(regionCode, filter, force, 0, new BatchHandler() {
+            public void batchReceived(ServerAddressList servers) {
+                serverAddresses.addAll(servers);
+            }
+        });
+
+        return serverAddresses;
+    }
+
+    /**
+     * Returns a compact list of game servers matching the given region and
+     * filters and checkpoints the progress in the given snapshot
+     * <p/>
+     * Every received batch is stored in the snapshot immediately. If the
+     * snapshot holds an incomplete list for the same region and filters, e.g.
+     * because an earlier request timed out, the request resumes after the
+     * last server stored in the snapshot. Otherwise the whole list is
+     * requested again. A complete list already stored in the snapshot stays
+     * readable until the new list has been received completely.
+     *
+     * @param regionCode The region code to specify a location of the game
+     *        servers
+     * @param filter The filters that game servers should match
+     * @param force Whether to keep trying even if all IP addresses of the
+     *        master server failed
+     * @param snapshot The snapshot to store the progress in
+     * @return The packed addresses of the game servers matching the given
+     *         region and filters
+     * @see ServerListSnapshot
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if too many timeouts occur while querying the
+     *         master server. The servers received so far are kept in the
+     *         snapshot.
+     */
+    public ServerAddressList getServerAddresses(byte regionCode, String filter, boolean force, final ServerListSnapshot snapshot)
+            throws SteamCondenserException, TimeoutException {
+        snapshot.start(regionCode, filter);
+
+        this.receiveServers(regionCode, filter, force, snapshot.getSeed(), new BatchHandler() {
+            public void batchReceived(ServerAddressList servers)
+                    throws SteamCondenserException {
+                snapshot.append(servers, servers.get(servers.size() - 1));
+            }
+        });
+        snapshot.finish();
+
+        return snapshot.getAddresses();
+    }
+
+    /**
+     * Receives a list of game servers matching the given region and filters
+     * and passes every batch of packed server addresses to the given handler
+     *
+     * @param regionCode The region code to specify a location of the game
+     *        servers
+     * @param filter The filters that game servers should match
+     * @param force Whether to keep trying even if all IP addresses of the
+     *        master server failed
+     * @param seed The packed address of the last server already received, or
+     *        <code>0</code> to request the list from the beginning
+     * @param handler The handler to pass the servers to
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if too many timeouts occur while querying the
+     *         master server
+     */
+    void receiveServers(byte regionCode, String filter, boolean force, long seed, BatchHandler handler)
+            throws SteamCondenserException, TimeoutException {
         int failCount    = 0;
         boolean finished = false;
-        int portNumber   = 0;
-        String hostName  = "0.0.0.0";
-        Vector<String> serverStringArray;
-        Vector<InetSocketAddress> serverArray = new Vector<InetSocketAddress>();
+        long lastAddress = seed;
+        ServerAddressList serverAddresses;
 
         while(true) {
             try {
                 do {
-                    this.socket.send(new A2M_GET_SERVERS_BATCH2_Paket(regionCode, hostName + ":" + portNumber, filter));
+                    this.socket.send(new A2M_GET_SERVERS_BATCH2_Paket(regionCode, ServerAddressList.toString(lastAddress), filter));
                     try {
-                        serverStringArray = ((M2A_SERVER_BATCH_Paket) this.socket.getReply()).getServers();
+                        serverAddresses = ((M2A_SERVER_BATCH_Paket) this.socket.getReply()).getServerAddresses();
+                        ServerAddressList servers = new ServerAddressList(serverAddresses.size());
 
-                        for(String serverString : serverStringArray) {
-                            hostName = serverString.substring(0, serverString.lastIndexOf(":"));
-                            portNumber = Integer.valueOf(serverString.substring(serverString.lastIndexOf(":") + 1));
+                        for(int i = 0; i < serverAddresses.size(); i ++) {
+                            lastAddress = serverAddresses.get(i);
 
-                            if(!hostName.equals("0.0.0.0") && portNumber != 0) {
-                                serverArray.add(new InetSocketAddress(hostName, portNumber));
+                            if(ServerAddressList.getIpAddress(lastAddress) != 0 &&
+                               ServerAddressList.getPort(lastAddress) != 0) {
+                                servers.add(lastAddress);
                             }
                             else {
                                 finished = true;
                             }
                         }
                         failCount = 0;
+
+                        if(!servers.isEmpty()) {
+                            handler.batchReceived(servers);
+                        }
                     } catch(TimeoutException e) {
                         failCount ++;
                         if(failCount == retries) {
@@ -299,8 +426,13 @@ public class MasterServer extends Server {
                 }
             }
         }
+    }
 
-        return serverArray;
+    /**
+     * Closes the socket used to communicate with the master server
+     */
+    public void close() {
+        this.socket.close();
     }
 
     /**
@@ -323,6 +455,7 @@ public class MasterServer extends Server {
      *         there was a timeout. So usually it's best to repeat a heartbeat
      *         a few times when not receiving any packets.
      * @throws SteamCondenserException if the request fails
+     * @see HeartbeatService
      */
     public List<SteamPacket> sendHeartbeat(Map<String, Object> data)
             throws SteamCondenserException {
@@ -338,4 +471,21 @@ public class MasterServer extends Server {
         return replyPackets;
     }
 
+    /**
+     * This interface is implemented by classes that process the batches of
+     * packed server addresses received from a master server
+     */
+    interface BatchHandler {
+
+        /**
+         * Called for every batch of game servers received from the master
+         * server
+         *
+         * @param servers The packed addresses of the game servers in this
+         *        batch
+         * @throws SteamCondenserException if the batch cannot be processed
+         */
+        void batchReceived(ServerAddressList servers)
+                throws SteamCondenserException;
+    }
 }
@@ -0,0 +1,305 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.steam.packets.ServerAddressList;
+
+/**
+ * This class receives the server list of a master server using several
+ * concurrent requests
+ * <p>
+ * The list is split into shards by region and by filter partitions, e.g. one
+ * partition per game directory. Each shard is crawled separately using its own
+ * chain of batch requests, and the shards are spread over all IP addresses the
+ * master server's name resolves to. As a crawl is bound by round trips
+ * rather than bandwidth, this receives the list a lot faster than a single
+ * {@link MasterServer#getServers} call.
+ * <p>
+ * The results of all shards are merged and duplicates are removed using a
+ * {@link ServerAddressSet}.
+ * <p>
+ * <strong>Note:</strong> Servers that are not assigned to any region by the
+ * master server are only returned for {@link MasterServer#REGION_ALL}, so
+ * crawling all single regions may return fewer servers.
+ *
+ * @author Sebastian Staudt
+ * @see MasterServer
+ */
+public class MasterServerCrawler {
+
+    private String baseFilter;
+
+    private List<String> filterPartitions;
+
+    private List<InetAddress> ipAddresses;
+
+    private int port;
+
+    private byte[] regions;
+
+    private int threads;
+
+    /**
+     * Creates a new crawler for the master server at the given address
+     * <p>
+     * By default all single regions are crawled without any filters.
+     *
+     * @param address Either an IP address, a DNS name or one of them combined
+     *        with the port number, e.g.
+     *        {@link MasterServer#SOURCE_MASTER_SERVER}
+     * @throws SteamCondenserException if the address cannot be resolved
+     */
+    public MasterServerCrawler(String address) throws SteamCondenserException {
+        MasterServer masterServer = new MasterServer(address);
+        try {
+            this.init(masterServer.getIpAddresses(), masterServer.port);
+        } finally {
+            masterServer.close();
+        }
+    }
+
+    /**
+     * Creates a new crawler for the master server with the given IP addresses
+     * <p>
+     * By default all single regions are crawled without any filters.
+     *
+     * @param ipAddresses The IP addresses of the master server the shards are
+     *        spread over
+     * @param port The port the master server is listening on
+     */
+    public MasterServerCrawler(List<InetAddress> ipAddresses, int port) {
+        this.init(ipAddresses, port);
+    }
+
+    /**
+     * Returns all game servers of all shards
+     *
+     * @return The addresses of all game servers without duplicates
+     * @throws SteamCondenserException if a shard fails
+     * @throws TimeoutException if a shard times out using all IP addresses
+     *         of the master server
+     * @see #getServers(MasterServerListener)
+     */
+    public Vector<InetSocketAddress> getServers()
+            throws SteamCondenserException, TimeoutException {
+        return new Vector<InetSocketAddress>(this.getServerAddresses().toAddressList().toList());
+    }
+
+    /**
+     * Returns all game servers of all shards as a compact set of packed
+     * addresses
+     *
+     * @return The packed addresses of all game servers
+     * @throws SteamCondenserException if a shard fails
+     * @throws TimeoutException if a shard times out using all IP addresses
+     *         of the master server
+     * @see ServerAddressList
+     */
+    public ServerAddressSet getServerAddresses()
+            throws SteamCondenserException, TimeoutException {
+        return this.crawl(null);
+    }
+
+    /**
+     * Crawls all shards concurrently and passes every game server to the
+     * given listener once
+     * <p>
+     * The listener is called for every batch received by any shard, but it
+     * is never called concurrently and only receives servers that have not
+     * been passed to it before. This method returns once all shards have been
+     * crawled.
+     *
+     * @param listener The listener to pass the servers to
+     * @throws SteamCondenserException if a shard fails
+     * @throws TimeoutException if a shard times out using all IP addresses
+     *         of the master server
+     */
+    public void getServers(MasterServerListener listener)
+            throws SteamCondenserException, TimeoutException {
+        this.crawl(listener);
+    }
+
+    /**
+     * Sets the filters to apply to the server list
+     * <p>
+     * Every filter partition is crawled as a separate shard using the base
+     * filter combined with the partition. The partitions should be disjoint,
+     * e.g. <code>\gamedir\cstrike</code> and <code>\gamedir\tf</code>.
+     *
+     * @param baseFilter The filter applied to all shards
+     * @param filterPartitions The filters used to split the list into shards
+     * @see MasterServer#getServers(byte, String, boolean)
+     */
+    public void setFilters(String baseFilter, String... filterPartitions) {
+        this.baseFilter       = baseFilter;
+        this.filterPartitions = new ArrayList<String>();
+        for(String filterPartition : filterPartitions) {
+            this.filterPartitions.add(filterPartition);
+        }
+        if(this.filterPartitions.isEmpty()) {
+            this.filterPartitions.add("");
+        }
+    }
+
+    /**
+     * Sets the regions to crawl
+     *
+     * @param regions The region codes of the regions to crawl, e.g.
+     *        {@link MasterServer#REGION_EUROPE}
+     */
+    public void setRegions(byte... regions) {
+        this.regions = regions;
+    }
+
+    /**
+     * Sets the maximum number of shards crawled at once
+     *
+     * @param threads The number of concurrent shards (default: 16)
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Crawls all shards concurrently and merges the results
+     *
+     * @param listener The listener to pass new servers to, may be
+     *        <code>null</code>
+     * @return The packed addresses of all game servers
+     * @throws SteamCondenserException if a shard fails
+     * @throws TimeoutException if a shard times out using all IP addresses
+     *         of the master server
+     */
+    private ServerAddressSet crawl(final MasterServerListener listener)
+            throws SteamCondenserException, TimeoutException {
+        final ServerAddressSet knownServers = new ServerAddressSet();
+        final MasterServer.BatchHandler mergingHandler = new MasterServer.BatchHandler() {
+            public void batchReceived(ServerAddressList servers) {
+                ServerAddressList newServers;
+                synchronized(knownServers) {
+                    newServers = knownServers.addAll(servers);
+                }
+
+                if(listener != null && !newServers.isEmpty()) {
+                    synchronized(listener) {
+                        listener.serversReceived(newServers.toList());
+                    }
+                }
+            }
+        };
+
+        List<Callable<Void>> shards = new ArrayList<Callable<Void>>();
+        int shardIndex = 0;
+        for(final byte region : this.regions) {
+            for(String filterPartition : this.filterPartitions) {
+                final String filter = this.baseFilter + filterPartition;
+                final int firstIp = shardIndex ++ % this.ipAddresses.size();
+                shards.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        crawlShard(region, filter, firstIp, mergingHandler);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threads, shards.size()));
+        try {
+            for(Future<Void> shard : executor.invokeAll(shards)) {
+                try {
+                    shard.get();
+                } catch(ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if(cause instanceof TimeoutException) {
+                        throw (TimeoutException) cause;
+                    } else if(cause instanceof SteamCondenserException) {
+                        throw (SteamCondenserException) cause;
+                    }
+                    throw new SteamCondenserException(cause.getMessage(), cause);
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SteamCondenserException("Interrupted while crawling the master server.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return knownServers;
+    }
+
+    /**
+     * Crawls a single shard
+     * <p>
+     * If the shard fails using one IP address of the master server, it is
+     * crawled again using the next one. Servers already passed to the
+     * listener are removed by the merging handler.
+     *
+     * @param region The region code of the shard
+     * @param filter The filter of the shard
+     * @param firstIp The index of the IP address to use first
+     * @param handler The handler to pass the servers to
+     * @throws SteamCondenserException if the shard fails
+     * @throws TimeoutException if the shard times out using all IP addresses
+     */
+    private void crawlShard(byte region, String filter, int firstIp, MasterServer.BatchHandler handler)
+            throws SteamCondenserException, TimeoutException {
+        for(int i = 0; i < this.ipAddresses.size(); i ++) {
+            InetAddress ipAddress = this.ipAddresses.get((firstIp + i) % this.ipAddresses.size());
+            MasterServer masterServer = new MasterServer(ipAddress.getHostAddress(), this.port);
+            try {
+                masterServer.receiveServers(region, filter, false, 0, handler);
+                return;
+            } catch(TimeoutException e) {
+                Logger.getLogger("com.github.koraktor.steamcondenser").warning("Crawling region " + region + " with filter \"" + filter + "\" using " + ipAddress.getHostAddress() + " timed out.");
+                if(i == this.ipAddresses.size() - 1) {
+                    throw e;
+                }
+            } finally {
+                masterServer.close();
+            }
+        }
+    }
+
+    /**
+     * Initializes this crawler for the master server with the given IP
+     * addresses
+     *
+     * @param ipAddresses The IP addresses of the master server
+     * @param port The port the master server is listening on
+     */
+    private void init(List<InetAddress> ipAddresses, int port) {
+        this.ipAddresses = new ArrayList<InetAddress>(ipAddresses);
+        this.port        = port;
+
+        this.baseFilter       = "";
+        this.filterPartitions = new ArrayList<String>();
+        this.filterPartitions.add("");
+        this.regions = new byte[] {
+            MasterServer.REGION_US_EAST_COAST, MasterServer.REGION_US_WEST_COAST,
+            MasterServer.REGION_SOUTH_AMERICA, MasterServer.REGION_EUROPE,
+            MasterServer.REGION_ASIA, MasterServer.REGION_AUSTRALIA,
+            MasterServer.REGION_MIDDLE_EAST, MasterServer.REGION_AFRICA
+        };
+        this.threads = 16;
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * This interface is implemented by classes that want to process the game
+ * servers returned by a master server while the server list is still being
+ * received
+ *
+ * @author Sebastian Staudt
+ * @see MasterServer#getServers(byte, String, boolean, MasterServerListener)
+ */
+public interface MasterServerListener {
+
+    /**
+     * Called for every batch of game servers received from the master server
+     * <p>
+     * This is called by the thread receiving the server list, so no further
+     * batches are requested until this method returns.
+     *
+     * @param servers The addresses of the game servers in this batch
+     */
+    public void serversReceived(List<InetSocketAddress> servers);
+}
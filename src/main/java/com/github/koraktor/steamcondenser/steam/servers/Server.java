@@ -7,10 +7,13 @@
 
 package com.github.koraktor.steamcondenser.steam.servers;
 
+import java.io.Closeable;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
 
@@ -19,10 +22,18 @@ import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
  * <p/>
  * It provides basic name resolution features and the ability to rotate
  * between different IP addresses belonging to a single DNS name.
+ * <p/>
+ * Host names are resolved using the {@link AddressResolver#getDefault
+ * default resolver}, so they are looked up only once for any number of
+ * servers and the number of concurrent lookups is limited. The host names of
+ * the IP addresses are only looked up when {@link #getHostNames} is called.
+ * <p/>
+ * Sockets only open their channels when they are used. Servers should be
+ * closed using {@link #close} once they are no longer needed.
  *
  * @author Sebastian Staudt
  */
-public abstract class Server {
+public abstract class Server implements Closeable {
 
     private List<String> hostNames;
 
@@ -41,8 +52,10 @@ public abstract class Server {
      *        with the port number. If a port number is given, e.g.
      *        'server.example.com:27016' it will override the second argument.
      * @param port The port the server is listening on
+     * @see AddressResolver
      * @see #initSocket
      * @throws SteamCondenserException if an host name cannot be resolved
+     *         within the {@link AddressResolver#getTimeout resolver timeout}
      */
     protected Server(String address, Integer port)
             throws SteamCondenserException {
@@ -56,18 +69,13 @@ public abstract class Server {
             port = 27015;
         }
 
-        this.hostNames   = new ArrayList<String>();
-        this.ipAddresses = new ArrayList<InetAddress>();
         this.ipIndex     = 0;
         this.port        = port;
 
         try {
-            for(InetAddress ipAddress : InetAddress.getAllByName(address)) {
-                this.hostNames.add(ipAddress.getHostName());
-                this.ipAddresses.add(ipAddress);
-            }
-        } catch(UnknownHostException e) {
-            throw new SteamCondenserException("Cannot resolve " + address + ": " + e.getMessage());
+            this.ipAddresses = AddressResolver.getDefault().resolve(address).getReply(AddressResolver.getTimeout(), TimeUnit.MILLISECONDS);
+        } catch(TimeoutException e) {
+            throw new SteamCondenserException("Cannot resolve " + address + ": The lookup timed out.", e);
         }
 
         this.ipAddress = this.ipAddresses.get(0);
@@ -75,12 +83,32 @@ public abstract class Server {
         this.initSocket();
     }
 
+    /**
+     * Closes the sockets used to communicate with the server
+     * <p/>
+     * The server may be used again afterwards, in this case its sockets are
+     * opened again.
+     */
+    public abstract void close();
+
     /**
      * Returns a list of host names associated with this server
+     * <p/>
+     * The host names are looked up when calling this method for the first
+     * time. This needs a reverse DNS lookup for every IP address that has
+     * not been resolved from a host name.
      *
      * @return The host names of this server
      */
-    public List<String> getHostNames() {
+    public synchronized List<String> getHostNames() {
+        if(this.hostNames == null) {
+            List<String> hostNames = new ArrayList<String>(this.ipAddresses.size());
+            for(InetAddress ipAddress : this.ipAddresses) {
+                hostNames.add(ipAddress.getHostName());
+            }
+            this.hostNames = Collections.unmodifiableList(hostNames);
+        }
+
         return this.hostNames;
     }
 
@@ -114,14 +142,30 @@ public abstract class Server {
             return true;
         }
 
-        this.ipIndex   = (this.ipIndex + 1) % this.ipAddresses.size();
-        this.ipAddress = this.ipAddresses.get(this.ipIndex);
-
-        this.initSocket();
+        this.selectIp((this.ipIndex + 1) % this.ipAddresses.size());
 
         return this.ipIndex == 0;
     }
 
+    /**
+     * Switches this server to the IP address with the given index in the IP
+     * list
+     * <p/>
+     * The sockets of this server are closed and initialized again for the new
+     * address.
+     *
+     * @param ipIndex The index of the IP address to use
+     * @see #initSocket
+     * @throws SteamCondenserException if initializing the socket fails
+     */
+    protected void selectIp(int ipIndex) throws SteamCondenserException {
+        this.ipIndex   = ipIndex;
+        this.ipAddress = this.ipAddresses.get(ipIndex);
+
+        this.close();
+        this.initSocket();
+    }
+
     /**
      * Initializes the socket(s) to communicate with the server
      * <p/>
@@ -0,0 +1,179 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import com.github.koraktor.steamcondenser.steam.packets.ServerAddressList;
+
+/**
+ * This class is a set of packed IPv4 game server addresses
+ * <p>
+ * The addresses are stored in an open addressing hash table of primitive
+ * values, so no objects are created per address.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Sebastian Staudt
+ * @see ServerAddressList
+ */
+public class ServerAddressSet {
+
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    private boolean containsZero;
+
+    private int size;
+
+    private long[] table;
+
+    /**
+     * Creates a new empty set
+     */
+    public ServerAddressSet() {
+        this(16);
+    }
+
+    /**
+     * Creates a new empty set that can hold the given number of addresses
+     * without growing
+     *
+     * @param expectedSize The expected number of addresses
+     */
+    public ServerAddressSet(int expectedSize) {
+        int capacity = 16;
+        while(capacity * MAX_LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+
+        this.table = new long[capacity];
+    }
+
+    /**
+     * Adds a packed server address to this set
+     *
+     * @param address The packed server address
+     * @return <code>true</code> if the address has not been in this set
+     *         before
+     */
+    public boolean add(long address) {
+        if(address == 0) {
+            if(this.containsZero) {
+                return false;
+            }
+            this.containsZero = true;
+        } else {
+            int index = this.indexOf(address);
+            if(this.table[index] == address) {
+                return false;
+            }
+            this.table[index] = address;
+        }
+
+        this.size ++;
+        if(this.size > this.table.length * MAX_LOAD_FACTOR) {
+            this.rehash();
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds all addresses of the given list to this set
+     *
+     * @param addresses The packed server addresses to add
+     * @return The addresses that have not been in this set before
+     */
+    public ServerAddressList addAll(ServerAddressList addresses) {
+        ServerAddressList newAddresses = new ServerAddressList(addresses.size());
+        for(int i = 0; i < addresses.size(); i ++) {
+            long address = addresses.get(i);
+            if(this.add(address)) {
+                newAddresses.add(address);
+            }
+        }
+
+        return newAddresses;
+    }
+
+    /**
+     * Returns whether the given packed server address is contained in this
+     * set
+     *
+     * @param address The packed server address
+     * @return <code>true</code> if the address is contained in this set
+     */
+    public boolean contains(long address) {
+        if(address == 0) {
+            return this.containsZero;
+        }
+
+        return this.table[this.indexOf(address)] == address;
+    }
+
+    /**
+     * Returns the number of addresses in this set
+     *
+     * @return The number of addresses
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the addresses in this set in no particular order
+     *
+     * @return The packed server addresses in this set
+     */
+    public ServerAddressList toAddressList() {
+        ServerAddressList addresses = new ServerAddressList(this.size);
+        if(this.containsZero) {
+            addresses.add(0);
+        }
+        for(long address : this.table) {
+            if(address != 0) {
+                addresses.add(address);
+            }
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Returns the slot of the given address in the hash table, i.e. the slot
+     * holding the address or the empty slot where it would be inserted
+     *
+     * @param address The packed server address
+     * @return The index of the slot
+     */
+    private int indexOf(long address) {
+        long hash = address;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+
+        int mask  = this.table.length - 1;
+        int index = (int) hash & mask;
+        while(this.table[index] != 0 && this.table[index] != address) {
+            index = (index + 1) & mask;
+        }
+
+        return index;
+    }
+
+    /**
+     * Doubles the size of the hash table
+     */
+    private void rehash() {
+        long[] oldTable = this.table;
+        this.table = new long[oldTable.length * 2];
+        for(long address : oldTable) {
+            if(address != 0) {
+                this.table[this.indexOf(address)] = address;
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+/**
+ * This class represents a single change of a game server detected between
+ * two refreshes
+ *
+ * @author Sebastian Staudt
+ * @see ServerChangeDetector
+ */
+public class ServerChange {
+
+    /**
+     * The types of changes detected for a game server
+     */
+    public enum Type {
+        /**
+         * The server changed the map, the key is <code>mapName</code>
+         */
+        MAP_CHANGED,
+
+        /**
+         * Any other server information changed, the key is the name of the
+         * changed information, e.g. <code>numberOfPlayers</code>
+         */
+        INFO_CHANGED,
+
+        /**
+         * A player joined the server, the key is the player's name and the
+         * new value is the player
+         */
+        PLAYER_JOINED,
+
+        /**
+         * A player left the server, the key is the player's name and the old
+         * value is the player
+         */
+        PLAYER_LEFT,
+
+        /**
+         * The score of a player changed, the key is the player's name and the
+         * values are the old and new scores
+         */
+        SCORE_CHANGED,
+
+        /**
+         * A rule has been added, changed or removed, the key is the name of
+         * the rule. The old value is <code>null</code> for added rules and
+         * the new value is <code>null</code> for removed rules.
+         */
+        RULE_CHANGED,
+
+        /**
+         * The server did not reply anymore
+         */
+        SERVER_DOWN,
+
+        /**
+         * The server replied again after being down
+         */
+        SERVER_UP
+    }
+
+    private String key;
+
+    private Object newValue;
+
+    private Object oldValue;
+
+    private GameServer server;
+
+    private Type type;
+
+    /**
+     * Creates a new change
+     *
+     * @param server The server that changed
+     * @param type The type of the change
+     * @param key The name of the changed attribute, player or rule
+     * @param oldValue The value before the change
+     * @param newValue The value after the change
+     */
+    public ServerChange(GameServer server, Type type, String key, Object oldValue, Object newValue) {
+        this.key      = key;
+        this.newValue = newValue;
+        this.oldValue = oldValue;
+        this.server   = server;
+        this.type     = type;
+    }
+
+    /**
+     * Returns the name of the changed attribute, player or rule
+     *
+     * @return The key of this change or <code>null</code> if this change
+     *         affects the whole server
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * Returns the value after the change
+     *
+     * @return The new value
+     */
+    public Object getNewValue() {
+        return this.newValue;
+    }
+
+    /**
+     * Returns the value before the change
+     *
+     * @return The old value
+     */
+    public Object getOldValue() {
+        return this.oldValue;
+    }
+
+    /**
+     * Returns the server that changed
+     *
+     * @return The changed server
+     */
+    public GameServer getServer() {
+        return this.server;
+    }
+
+    /**
+     * Returns the type of this change
+     *
+     * @return The type of this change
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Returns a human-readable representation of this change
+     *
+     * @return The type, key and values of this change
+     */
+    @Override
+    public String toString() {
+        return this.type + " " + this.key + ": " + this.oldValue + " -> " + this.newValue;
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.github.koraktor.steamcondenser.steam.ServerInfo;
+import com.github.koraktor.steamcondenser.steam.SteamPlayer;
+
+/**
+ * This class compares successive refreshes of game servers and notifies its
+ * listeners about the changes only
+ * <p>
+ * A detector is usually added as a listener to a {@link ServerMonitor}. The
+ * first refresh of every server is used as the baseline and does not cause
+ * any changes. After that, only the data that has actually been refreshed is
+ * compared, e.g. players and rules are ignored unless the monitor refreshes
+ * full snapshots.
+ *
+ * @author Sebastian Staudt
+ * @see ServerChange
+ * @see ServerMonitor#addListener
+ */
+public class ServerChangeDetector implements ServerMonitorListener {
+
+    private List<ServerChangeListener> listeners;
+
+    private Map<GameServer, State> states;
+
+    /**
+     * Creates a new change detector
+     */
+    public ServerChangeDetector() {
+        this.listeners = new CopyOnWriteArrayList<ServerChangeListener>();
+        this.states    = new HashMap<GameServer, State>();
+    }
+
+    /**
+     * Adds a listener that is notified about detected changes
+     *
+     * @param listener The listener to add
+     */
+    public void addListener(ServerChangeListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Compares the current snapshot of the given server to the snapshot seen
+     * in its last refresh and notifies the listeners about all changes
+     *
+     * @param server The server to check for changes
+     * @return The detected changes
+     */
+    public List<ServerChange> detectChanges(GameServer server) {
+        List<ServerChange> changes = new ArrayList<ServerChange>();
+
+        synchronized(this) {
+            State state = this.states.get(server);
+            if(state == null) {
+                state = new State();
+                this.states.put(server, state);
+            } else if(state.down) {
+                changes.add(new ServerChange(server, ServerChange.Type.SERVER_UP, null, null, null));
+            }
+            state.down = false;
+
+            ServerSnapshot snapshot = server.getSnapshot();
+
+            ServerInfo info = snapshot.getInfo();
+            if(state.info != null && info != null && info != state.info) {
+                this.compareServerInfo(server, state.info.toMap(), info.toMap(), changes);
+            }
+            if(info != null) {
+                state.info = info;
+            }
+
+            Map<String, SteamPlayer> players = snapshot.getPlayers();
+            if(state.players != null && players != null && players != state.players) {
+                this.comparePlayers(server, state.players, players, changes);
+            }
+            if(players != null) {
+                state.players = players;
+            }
+
+            Map<String, String> rules = snapshot.getRules();
+            if(state.rules != null && rules != null && rules != state.rules) {
+                this.compareRules(server, state.rules, rules, changes);
+            }
+            if(rules != null) {
+                state.rules = rules;
+            }
+        }
+
+        this.notifyListeners(server, changes);
+
+        return changes;
+    }
+
+    /**
+     * Removes a listener
+     *
+     * @param listener The listener to remove
+     */
+    public void removeListener(ServerChangeListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Forgets the data seen for the given server
+     * <p>
+     * The next refresh of this server will be used as a new baseline.
+     *
+     * @param server The server to forget
+     */
+    public synchronized void removeServer(GameServer server) {
+        this.states.remove(server);
+    }
+
+    /**
+     * Detects the changes of a server that has been refreshed by a monitor
+     *
+     * @param server The refreshed server
+     * @see #detectChanges
+     */
+    public void serverRefreshed(GameServer server) {
+        this.detectChanges(server);
+    }
+
+    /**
+     * Reports a server as down when a refresh failed for the first time
+     *
+     * @param server The server that could not be refreshed
+     * @param error The error that caused the refresh to fail
+     */
+    public void serverRefreshFailed(GameServer server, Throwable error) {
+        List<ServerChange> changes = new ArrayList<ServerChange>();
+
+        synchronized(this) {
+            State state = this.states.get(server);
+            if(state == null || state.down) {
+                return;
+            }
+            state.down = true;
+            changes.add(new ServerChange(server, ServerChange.Type.SERVER_DOWN, null, null, error));
+        }
+
+        this.notifyListeners(server, changes);
+    }
+
+    /**
+     * Compares the players of two refreshes
+     *
+     * @param server The refreshed server
+     * @param oldPlayers The players seen in the last refresh
+     * @param newPlayers The players seen in this refresh
+     * @param changes The list to add the changes to
+     */
+    private void comparePlayers(GameServer server, Map<String, SteamPlayer> oldPlayers, Map<String, SteamPlayer> newPlayers, List<ServerChange> changes) {
+        for(Map.Entry<String, SteamPlayer> entry : newPlayers.entrySet()) {
+            SteamPlayer oldPlayer = oldPlayers.get(entry.getKey());
+            SteamPlayer newPlayer = entry.getValue();
+            if(oldPlayer == null) {
+                changes.add(new ServerChange(server, ServerChange.Type.PLAYER_JOINED, entry.getKey(), null, newPlayer));
+            } else if(oldPlayer.getScore() != newPlayer.getScore()) {
+                changes.add(new ServerChange(server, ServerChange.Type.SCORE_CHANGED, entry.getKey(), oldPlayer.getScore(), newPlayer.getScore()));
+            }
+        }
+
+        for(Map.Entry<String, SteamPlayer> entry : oldPlayers.entrySet()) {
+            if(!newPlayers.containsKey(entry.getKey())) {
+                changes.add(new ServerChange(server, ServerChange.Type.PLAYER_LEFT, entry.getKey(), entry.getValue(), null));
+            }
+        }
+    }
+
+    /**
+     * Compares the rules of two refreshes
+     *
+     * @param server The refreshed server
+     * @param oldRules The rules seen in the last refresh
+     * @param newRules The rules seen in this refresh
+     * @param changes The list to add the changes to
+     */
+    private void compareRules(GameServer server, Map<String, String> oldRules, Map<String, String> newRules, List<ServerChange> changes) {
+        for(Map.Entry<String, String> entry : newRules.entrySet()) {
+            String oldValue = oldRules.get(entry.getKey());
+            if(!equal(oldValue, entry.getValue())) {
+                changes.add(new ServerChange(server, ServerChange.Type.RULE_CHANGED, entry.getKey(), oldValue, entry.getValue()));
+            }
+        }
+
+        for(Map.Entry<String, String> entry : oldRules.entrySet()) {
+            if(!newRules.containsKey(entry.getKey())) {
+                changes.add(new ServerChange(server, ServerChange.Type.RULE_CHANGED, entry.getKey(), entry.getValue(), null));
+            }
+        }
+    }
+
+    /**
+     * Compares the server information of two refreshes
+     *
+     * @param server The refreshed server
+     * @param oldInfo The information seen in the last refresh
+     * @param newInfo The information seen in this refresh
+     * @param changes The list to add the changes to
+     */
+    private void compareServerInfo(GameServer server, Map<String, Object> oldInfo, Map<String, Object> newInfo, List<ServerChange> changes) {
+        for(Map.Entry<String, Object> entry : newInfo.entrySet()) {
+            Object oldValue = oldInfo.get(entry.getKey());
+            if(!equal(oldValue, entry.getValue())) {
+                ServerChange.Type type = entry.getKey().equals("mapName") ?
+                    ServerChange.Type.MAP_CHANGED : ServerChange.Type.INFO_CHANGED;
+                changes.add(new ServerChange(server, type, entry.getKey(), oldValue, entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Returns whether two values are equal, allowing <code>null</code>
+     *
+     * @param value1 The first value
+     * @param value2 The second value
+     * @return <code>true</code> if both values are equal
+     */
+    private static boolean equal(Object value1, Object value2) {
+        return (value1 == null) ? value2 == null : value1.equals(value2);
+    }
+
+    /**
+     * Notifies all listeners about the changes of a server
+     *
+     * @param server The server that changed
+     * @param changes The detected changes
+     */
+    private void notifyListeners(GameServer server, List<ServerChange> changes) {
+        if(changes.isEmpty()) {
+            return;
+        }
+
+        changes = Collections.unmodifiableList(changes);
+        for(ServerChangeListener listener : this.listeners) {
+            listener.serverChanged(server, changes);
+        }
+    }
+
+    /**
+     * This class holds the data seen in the last refresh of a server
+     */
+    private static class State {
+
+        boolean down;
+
+        ServerInfo info;
+
+        Map<String, SteamPlayer> players;
+
+        Map<String, String> rules;
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import java.util.List;
+
+/**
+ * This interface is implemented by classes that want to be notified about
+ * the changes detected by a {@link ServerChangeDetector}
+ * <p>
+ * Listeners are usually called by the I/O thread of a query engine, so they
+ * should never block.
+ *
+ * @author Sebastian Staudt
+ * @see ServerChangeDetector#addListener
+ */
+public interface ServerChangeListener {
+
+    /**
+     * Called with all changes detected in a single refresh of a server
+     * <p>
+     * This is only called if anything has changed.
+     *
+     * @param server The server that changed
+     * @param changes The detected changes
+     */
+    public void serverChanged(GameServer server, List<ServerChange> changes);
+}
@@ -0,0 +1,436 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.steam.packets.ServerAddressList;
+
+/**
+ * This class stores a server list received from a master server in a
+ * memory-mapped file
+ * <p>
+ * The snapshot is updated after every batch received from the master server
+ * and holds the addresses received so far together with the last address
+ * used to request the next batch. If receiving the list fails, e.g. because
+ * the master server times out, a later request can resume where the failed
+ * one stopped instead of starting over.
+ * <p>
+ * As the snapshot survives a restart, a complete list from an earlier run can
+ * be used right away, e.g. using {@link #getAddresses}, while a fresh list is
+ * requested in the background. A fresh list is written to a separate region
+ * of the file, so the complete list stays readable until the new one has been
+ * received completely and replaces it.
+ *
+ * @author Sebastian Staudt
+ * @see MasterServer#getServerAddresses(byte, String, boolean, ServerListSnapshot)
+ */
+public class ServerListSnapshot {
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final int MAGIC = 0x53434C32;
+
+    private MappedByteBuffer buffer;
+
+    private FileChannel channel;
+
+    private boolean complete;
+
+    private int count;
+
+    private File file;
+
+    private int filterHash;
+
+    private long lastUpdate;
+
+    private int offset;
+
+    private int pendingCount;
+
+    private int pendingFilterHash;
+
+    private int pendingOffset;
+
+    private byte pendingRegionCode;
+
+    private long pendingSeed;
+
+    private boolean refreshing;
+
+    private byte regionCode;
+
+    private long seed;
+
+    /**
+     * Opens the snapshot stored in the given file
+     * <p>
+     * If the file does not exist or does not contain a valid snapshot, a new
+     * empty snapshot is created.
+     *
+     * @param file The file to store the snapshot in
+     * @throws SteamCondenserException if the file cannot be opened
+     */
+    public ServerListSnapshot(File file) throws SteamCondenserException {
+        this.file = file;
+
+        try {
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            long size = this.channel.size();
+            this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, HEADER_SIZE + 8 * 1024));
+        } catch(IOException e) {
+            throw new SteamCondenserException("Could not open server list snapshot " + file + ".", e);
+        }
+
+        if(this.buffer.getInt(0) == MAGIC) {
+            this.regionCode        = this.buffer.get(4);
+            this.complete          = this.buffer.get(5) != 0;
+            this.refreshing        = this.buffer.get(6) != 0;
+            this.filterHash        = this.buffer.getInt(8);
+            this.count             = this.buffer.getInt(12);
+            this.seed              = this.buffer.getLong(16);
+            this.lastUpdate        = this.buffer.getLong(24);
+            this.offset            = this.buffer.getInt(32);
+            this.pendingRegionCode = this.buffer.get(36);
+            this.pendingFilterHash = this.buffer.getInt(40);
+            this.pendingCount      = this.buffer.getInt(44);
+            this.pendingSeed       = this.buffer.getLong(48);
+            this.pendingOffset     = this.buffer.getInt(56);
+
+            if(!this.isValidRegion(this.offset, this.count)) {
+                this.reset(this.regionCode, "");
+            } else if(this.refreshing &&
+                      !this.isValidRegion(this.pendingOffset, this.pendingCount)) {
+                this.refreshing = false;
+                this.writeHeader();
+            }
+        } else {
+            this.reset(MasterServer.REGION_ALL, "");
+        }
+    }
+
+    /**
+     * Closes the file of this snapshot
+     * <p>
+     * All changes are written to disk before the file is closed.
+     */
+    public synchronized void close() {
+        try {
+            this.buffer.force();
+            this.channel.close();
+        } catch(IOException e) {}
+    }
+
+    /**
+     * Returns the addresses stored in this snapshot
+     * <p>
+     * While a complete list is refreshed, this is still the previous complete
+     * list.
+     *
+     * @return The packed addresses of the game servers stored in this
+     *         snapshot
+     */
+    public synchronized ServerAddressList getAddresses() {
+        ServerAddressList addresses = new ServerAddressList(this.count);
+        for(int i = 0; i < this.count; i ++) {
+            addresses.add(this.buffer.getLong(this.offset + 8 * i));
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Returns the file this snapshot is stored in
+     *
+     * @return The file of this snapshot
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the time this snapshot has been updated for the last time
+     *
+     * @return The time of the last update in milliseconds since the epoch
+     */
+    public synchronized long getLastUpdate() {
+        return this.lastUpdate;
+    }
+
+    /**
+     * Returns the region code of the server list stored in this snapshot
+     *
+     * @return The region code of the server list
+     */
+    public synchronized byte getRegionCode() {
+        return this.regionCode;
+    }
+
+    /**
+     * Returns the address to use as the seed when requesting the next batch
+     * of servers
+     * <p>
+     * While a complete list is refreshed, this is the seed of the new list.
+     *
+     * @return The packed address of the last server received, or
+     *         <code>0</code> if no server has been received yet
+     */
+    public synchronized long getSeed() {
+        return this.refreshing ? this.pendingSeed : this.seed;
+    }
+
+    /**
+     * Returns whether the whole server list has been received
+     *
+     * @return <code>true</code> if this snapshot holds a complete server
+     *         list
+     */
+    public synchronized boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * Returns whether a new server list is currently received to replace the
+     * complete list stored in this snapshot
+     *
+     * @return <code>true</code> if the complete list of this snapshot is
+     *         being refreshed
+     */
+    public synchronized boolean isRefreshing() {
+        return this.refreshing;
+    }
+
+    /**
+     * Returns whether this snapshot holds the server list for the given
+     * region and filter
+     *
+     * @param regionCode The region code of the server list
+     * @param filter The filter of the server list
+     * @return <code>true</code> if this snapshot belongs to the given region
+     *         and filter
+     */
+    public synchronized boolean matches(byte regionCode, String filter) {
+        return this.regionCode == regionCode && this.filterHash == filter.hashCode();
+    }
+
+    /**
+     * Returns the number of addresses stored in this snapshot
+     *
+     * @return The number of addresses
+     */
+    public synchronized int size() {
+        return this.count;
+    }
+
+    /**
+     * Appends a batch of servers to this snapshot
+     * <p>
+     * While a complete list is refreshed, the servers are appended to the new
+     * list. The addresses are written before the header is updated, so an
+     * interrupted write never leaves a snapshot pointing to missing
+     * addresses.
+     *
+     * @param addresses The packed addresses of the servers in the batch
+     * @param seed The packed address to use as the seed of the next request
+     * @throws SteamCondenserException if the file cannot be extended
+     */
+    synchronized void append(ServerAddressList addresses, long seed)
+            throws SteamCondenserException {
+        if(this.refreshing) {
+            this.writeAddresses(this.pendingOffset, this.pendingCount, addresses);
+            this.pendingCount += addresses.size();
+            this.pendingSeed   = seed;
+        } else {
+            this.writeAddresses(this.offset, this.count, addresses);
+            this.count += addresses.size();
+            this.seed   = seed;
+        }
+
+        this.writeHeader();
+    }
+
+    /**
+     * Marks the server list in this snapshot as complete and writes it to
+     * disk
+     * <p>
+     * If a complete list has been refreshed, the new list replaces it.
+     */
+    synchronized void finish() {
+        if(this.refreshing) {
+            this.count      = this.pendingCount;
+            this.filterHash = this.pendingFilterHash;
+            this.offset     = this.pendingOffset;
+            this.refreshing = false;
+            this.regionCode = this.pendingRegionCode;
+            this.seed       = this.pendingSeed;
+        }
+        this.complete = true;
+
+        this.writeHeader();
+        this.buffer.force();
+    }
+
+    /**
+     * Prepares this snapshot to receive the server list for the given region
+     * and filter
+     * <p>
+     * An incomplete list for the same region and filter is resumed, an
+     * incomplete list for another region or filter is cleared. A complete
+     * list is kept and a new list is received into a separate region of the
+     * file until {@link #finish} replaces the old list.
+     *
+     * @param regionCode The region code of the new server list
+     * @param filter The filter of the new server list
+     */
+    synchronized void start(byte regionCode, String filter) {
+        int filterHash = filter.hashCode();
+
+        if(this.refreshing) {
+            if(this.pendingRegionCode == regionCode &&
+               this.pendingFilterHash == filterHash) {
+                return;
+            }
+        } else if(!this.complete) {
+            if(!this.matches(regionCode, filter)) {
+                this.reset(regionCode, filter);
+            }
+            return;
+        }
+
+        this.refreshing = false;
+        this.writeHeader();
+        this.compact();
+
+        this.pendingCount      = 0;
+        this.pendingFilterHash = filterHash;
+        this.pendingOffset     = this.offset + 8 * this.count;
+        this.pendingRegionCode = regionCode;
+        this.pendingSeed       = 0;
+        this.refreshing        = true;
+
+        this.writeHeader();
+    }
+
+    /**
+     * Moves the complete list to the start of the file if it fits into the
+     * space before it
+     * <p>
+     * This keeps the file from growing with every refresh. The addresses are
+     * copied before the header is updated and the regions do not overlap, so
+     * an interrupted copy leaves the old list intact.
+     */
+    private void compact() {
+        if(this.offset == HEADER_SIZE ||
+           this.offset - HEADER_SIZE < 8L * this.count) {
+            return;
+        }
+
+        for(int i = 0; i < this.count; i ++) {
+            this.buffer.putLong(HEADER_SIZE + 8 * i, this.buffer.getLong(this.offset + 8 * i));
+        }
+        this.offset = HEADER_SIZE;
+
+        this.writeHeader();
+    }
+
+    /**
+     * Grows the file of this snapshot so it has at least the given size
+     *
+     * @param size The size in bytes the file has to have
+     * @throws SteamCondenserException if the file cannot be extended
+     */
+    private void ensureCapacity(long size) throws SteamCondenserException {
+        if(size <= this.buffer.capacity()) {
+            return;
+        }
+
+        try {
+            this.buffer.force();
+            this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, 2L * this.buffer.capacity()));
+        } catch(IOException e) {
+            throw new SteamCondenserException("Could not extend server list snapshot " + this.file + ".", e);
+        }
+    }
+
+    /**
+     * Returns whether the given list fits into the file of this snapshot
+     *
+     * @param offset The offset of the list in the file
+     * @param count The number of addresses in the list
+     * @return <code>true</code> if the list is inside the file
+     */
+    private boolean isValidRegion(int offset, int count) {
+        return offset >= HEADER_SIZE && count >= 0 &&
+               offset + 8L * count <= this.buffer.capacity();
+    }
+
+    /**
+     * Removes all addresses from this snapshot and assigns it to the given
+     * region and filter
+     *
+     * @param regionCode The region code of the new server list
+     * @param filter The filter of the new server list
+     */
+    private void reset(byte regionCode, String filter) {
+        this.complete   = false;
+        this.count      = 0;
+        this.filterHash = filter.hashCode();
+        this.offset     = HEADER_SIZE;
+        this.refreshing = false;
+        this.regionCode = regionCode;
+        this.seed       = 0;
+
+        this.writeHeader();
+    }
+
+    /**
+     * Writes the given addresses after the given number of addresses of the
+     * list at the given offset
+     *
+     * @param offset The offset of the list in the file
+     * @param count The number of addresses already in the list
+     * @param addresses The packed addresses to write
+     * @throws SteamCondenserException if the file cannot be extended
+     */
+    private void writeAddresses(int offset, int count, ServerAddressList addresses)
+            throws SteamCondenserException {
+        this.ensureCapacity(offset + 8L * (count + addresses.size()));
+
+        for(int i = 0; i < addresses.size(); i ++) {
+            this.buffer.putLong(offset + 8 * (count + i), addresses.get(i));
+        }
+    }
+
+    /**
+     * Writes the header of this snapshot
+     */
+    private void writeHeader() {
+        this.lastUpdate = System.currentTimeMillis();
+
+        this.buffer.putInt(0, MAGIC);
+        this.buffer.put(4, this.regionCode);
+        this.buffer.put(5, (byte) (this.complete ? 1 : 0));
+        this.buffer.putInt(8, this.filterHash);
+        this.buffer.putLong(16, this.seed);
+        this.buffer.putLong(24, this.lastUpdate);
+        this.buffer.putInt(32, this.offset);
+        this.buffer.put(36, this.pendingRegionCode);
+        this.buffer.putInt(40, this.pendingFilterHash);
+        this.buffer.putLong(48, this.pendingSeed);
+        this.buffer.putInt(56, this.pendingOffset);
+        this.buffer.putInt(44, this.pendingCount);
+        this.buffer.put(6, (byte) (this.refreshing ? 1 : 0));
+        this.buffer.putInt(12, this.count);
+    }
+}
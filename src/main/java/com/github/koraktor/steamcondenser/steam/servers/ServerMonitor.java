@@ -0,0 +1,434 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.github.koraktor.steamcondenser.steam.sockets.QueryFuture;
+import com.github.koraktor.steamcondenser.steam.sockets.QueryListener;
+import com.github.koraktor.steamcondenser.steam.sockets.ServiceLoop;
+
+/**
+ * This class refreshes a large number of game servers continuously
+ * <p>
+ * Every server is refreshed in its own interval with some random jitter, so
+ * refreshes of servers added at the same time spread out over time. Refreshes
+ * are sent using the servers' query engines and the number of refreshes in
+ * flight is limited.
+ * <p>
+ * When more servers are due than refreshes may be in flight, the servers that
+ * are due for the longest time are refreshed first. More important servers
+ * may overtake less important ones, but only by a bounded amount of time, so
+ * no server is starved even if the monitor is permanently overloaded.
+ *
+ * @author Sebastian Staudt
+ * @see GameServer#updateServerInfoAsync
+ * @see GameServer#updateSnapshotAsync
+ */
+public class ServerMonitor extends ServiceLoop {
+
+    private int inFlight;
+
+    private long importanceBonus;
+
+    private double jitter;
+
+    private List<ServerMonitorListener> listeners;
+
+    private int maxInFlight;
+
+    private Random random;
+
+    private PriorityQueue<Target> readyTargets;
+
+    private boolean snapshots;
+
+    private Map<GameServer, Target> targets;
+
+    private PriorityQueue<Target> waitingTargets;
+
+    /**
+     * Creates a new monitor allowing the given number of refreshes in flight
+     *
+     * @param maxInFlight The maximum number of refreshes in flight
+     */
+    public ServerMonitor(int maxInFlight) {
+        super("server monitor");
+
+        this.importanceBonus = TimeUnit.SECONDS.toNanos(1);
+        this.jitter          = 0.1;
+        this.listeners       = new CopyOnWriteArrayList<ServerMonitorListener>();
+        this.maxInFlight     = maxInFlight;
+        this.random          = new Random();
+        this.readyTargets    = new PriorityQueue<Target>(11, new ReadyComparator());
+        this.targets         = new HashMap<GameServer, Target>();
+        this.waitingTargets  = new PriorityQueue<Target>(11, new WaitingComparator());
+    }
+
+    /**
+     * Adds a listener that is notified about every refresh
+     *
+     * @param listener The listener to add
+     */
+    public void addListener(ServerMonitorListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Adds a server that is refreshed in the given interval
+     *
+     * @param server The server to refresh
+     * @param interval The time between two refreshes in milliseconds
+     * @see #addServer(GameServer, int, int)
+     */
+    public void addServer(GameServer server, int interval) {
+        this.addServer(server, interval, 1);
+    }
+
+    /**
+     * Adds a server that is refreshed in the given interval
+     * <p>
+     * The first refresh is scheduled at a random time within the jitter of
+     * the interval. If the server has been added before, its interval and
+     * importance are updated at once, i.e. a waiting server is rescheduled
+     * using the new interval.
+     *
+     * @param server The server to refresh
+     * @param interval The time between two refreshes in milliseconds
+     * @param importance The importance of this server, <code>1</code> for
+     *        normal servers. Due servers with a higher importance are
+     *        refreshed earlier when the monitor is overloaded.
+     * @see #setImportanceBonus
+     */
+    public synchronized void addServer(GameServer server, int interval, int importance) {
+        Target target = this.targets.get(server);
+        if(target != null) {
+            boolean ready   = this.readyTargets.remove(target);
+            boolean waiting = this.waitingTargets.remove(target);
+            long newInterval = TimeUnit.MILLISECONDS.toNanos(interval);
+            target.importance = Math.max(1, importance);
+            if(waiting) {
+                target.nextRefresh += newInterval - target.interval;
+            }
+            target.interval = newInterval;
+            if(ready) {
+                this.readyTargets.add(target);
+            } else if(waiting) {
+                this.waitingTargets.add(target);
+            }
+            this.notifyAll();
+            return;
+        }
+
+        target = new Target(server, TimeUnit.MILLISECONDS.toNanos(interval), Math.max(1, importance));
+        target.nextRefresh = System.nanoTime() + (long) (this.random.nextDouble() * this.jitter * target.interval);
+        this.targets.put(server, target);
+        this.waitingTargets.add(target);
+        this.notifyAll();
+    }
+
+    /**
+     * Returns the number of refreshes currently in flight
+     *
+     * @return The number of refreshes in flight
+     */
+    public synchronized int getInFlightCount() {
+        return this.inFlight;
+    }
+
+    /**
+     * Returns the number of servers that are due but waiting for a free
+     * slot
+     * <p>
+     * A steadily growing number means that the monitor is overloaded.
+     *
+     * @return The number of overdue servers
+     */
+    public synchronized int getOverdueCount() {
+        return this.readyTargets.size();
+    }
+
+    /**
+     * Returns the servers refreshed by this monitor
+     *
+     * @return The servers of this monitor
+     */
+    public synchronized List<GameServer> getServers() {
+        return new ArrayList<GameServer>(this.targets.keySet());
+    }
+
+    /**
+     * Removes a listener
+     *
+     * @param listener The listener to remove
+     */
+    public void removeListener(ServerMonitorListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Removes a server from this monitor
+     * <p>
+     * A refresh of this server that is currently in flight will still be
+     * completed, but the server won't be refreshed again.
+     *
+     * @param server The server to remove
+     */
+    public synchronized void removeServer(GameServer server) {
+        Target target = this.targets.remove(server);
+        if(target != null) {
+            target.removed = true;
+            this.readyTargets.remove(target);
+            this.waitingTargets.remove(target);
+        }
+    }
+
+    /**
+     * Sets the time a due server may overtake less important servers for
+     * every level of importance
+     * <p>
+     * The default is one second, i.e. a due server with importance 3 is
+     * refreshed before a due server with importance 1 unless the latter is
+     * due for more than two seconds longer.
+     *
+     * @param importanceBonus The bonus per level of importance in
+     *        milliseconds
+     */
+    public synchronized void setImportanceBonus(int importanceBonus) {
+        this.importanceBonus = TimeUnit.MILLISECONDS.toNanos(importanceBonus);
+
+        List<Target> readyTargets = new ArrayList<Target>(this.readyTargets);
+        this.readyTargets.clear();
+        this.readyTargets.addAll(readyTargets);
+    }
+
+    /**
+     * Sets the random variation of the refresh intervals
+     *
+     * @param jitter The maximum variation as a fraction of the interval,
+     *        e.g. <code>0.1</code> for ±10 %
+     */
+    public synchronized void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+
+    /**
+     * Sets whether the servers' information, players and rules are refreshed
+     * instead of their information only
+     *
+     * @param snapshots <code>true</code> to refresh full snapshots
+     * @see GameServer#updateSnapshotAsync
+     */
+    public void setSnapshots(boolean snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Stops the scheduling thread of this monitor
+     * <p>
+     * Refreshes that are currently in flight will still be completed.
+     */
+    @Override
+    public void stop() {
+        super.stop();
+    }
+
+    /**
+     * Runs a single iteration of the scheduling loop of this monitor
+     * <p>
+     * This sends the refreshes of all due servers as long as there are free
+     * slots or waits until the next server is due or a refresh has been
+     * completed.
+     */
+    @Override
+    protected void runIteration() {
+        List<Target> dueTargets = new ArrayList<Target>();
+
+        synchronized(this) {
+            if(!this.isRunning()) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            Target target;
+            while((target = this.waitingTargets.peek()) != null &&
+                  target.nextRefresh - now <= 0) {
+                this.waitingTargets.poll();
+                this.readyTargets.add(target);
+            }
+
+            while(this.inFlight < this.maxInFlight &&
+                  (target = this.readyTargets.poll()) != null) {
+                this.inFlight ++;
+                target.refreshing = true;
+                dueTargets.add(target);
+            }
+
+            if(dueTargets.isEmpty()) {
+                long timeout = 0;
+                if(this.inFlight < this.maxInFlight && (target = this.waitingTargets.peek()) != null) {
+                    timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(target.nextRefresh - now) + 1);
+                }
+                try {
+                    this.wait(timeout);
+                } catch(InterruptedException e) {
+                    super.stop();
+                }
+                return;
+            }
+        }
+
+        for(Target target : dueTargets) {
+            try {
+                this.refresh(target);
+            } catch(RuntimeException e) {
+                this.refreshFailed(target, e);
+            }
+        }
+    }
+
+    /**
+     * Wakes up the scheduling thread of this monitor
+     */
+    @Override
+    protected void wakeup() {
+        this.notifyAll();
+    }
+
+    /**
+     * Schedules the next refresh of a server after a refresh has been
+     * completed
+     * <p>
+     * This does nothing if the refresh has already been completed.
+     *
+     * @param target The server that has been refreshed
+     * @return <code>false</code> if the refresh has already been completed
+     */
+    private synchronized boolean refreshed(Target target) {
+        if(!target.refreshing) {
+            return false;
+        }
+        target.refreshing = false;
+        this.inFlight --;
+
+        if(!target.removed) {
+            long now = System.nanoTime();
+            double variation = (this.random.nextDouble() * 2 - 1) * this.jitter;
+            target.nextRefresh = now + (long) (target.interval * (1 + variation));
+            this.waitingTargets.add(target);
+        }
+
+        this.notifyAll();
+
+        return true;
+    }
+
+    /**
+     * Sends the refresh of a server
+     *
+     * @param target The server to refresh
+     */
+    private void refresh(final Target target) {
+        QueryFuture<?> refresh;
+        if(this.snapshots) {
+            refresh = target.server.updateSnapshotAsync();
+        } else {
+            refresh = target.server.updateServerInfoAsync();
+        }
+
+        refresh.addListener(new QueryListener<Object>() {
+            public void queryCompleted(Object result) {
+                if(!refreshed(target)) {
+                    return;
+                }
+                for(ServerMonitorListener listener : listeners) {
+                    listener.serverRefreshed(target.server);
+                }
+            }
+
+            public void queryFailed(Throwable error) {
+                refreshFailed(target, error);
+            }
+        });
+    }
+
+    /**
+     * Schedules the next refresh of a server after a refresh has failed and
+     * notifies the listeners
+     *
+     * @param target The server that could not be refreshed
+     * @param error The error that caused the refresh to fail
+     */
+    private void refreshFailed(Target target, Throwable error) {
+        if(!this.refreshed(target)) {
+            return;
+        }
+        Logger.getLogger("com.github.koraktor.steamcondenser").info("Refreshing " + target.server.getSocketAddress() + " failed: " + error);
+        for(ServerMonitorListener listener : this.listeners) {
+            listener.serverRefreshFailed(target.server, error);
+        }
+    }
+
+    /**
+     * This comparator orders due servers by the time they are due reduced by
+     * the bonus for their importance
+     */
+    private class ReadyComparator implements Comparator<Target> {
+        public int compare(Target target1, Target target2) {
+            long key1 = target1.nextRefresh - (target1.importance - 1) * importanceBonus;
+            long key2 = target2.nextRefresh - (target2.importance - 1) * importanceBonus;
+            long difference = key1 - key2;
+
+            return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+        }
+    }
+
+    /**
+     * This class holds the scheduling state of a single server
+     */
+    private static class Target {
+
+        int importance;
+
+        long interval;
+
+        long nextRefresh;
+
+        boolean refreshing;
+
+        boolean removed;
+
+        GameServer server;
+
+        Target(GameServer server, long interval, int importance) {
+            this.importance = importance;
+            this.interval   = interval;
+            this.server     = server;
+        }
+    }
+
+    /**
+     * This comparator orders waiting servers by the time they are due
+     */
+    private static class WaitingComparator implements Comparator<Target> {
+        public int compare(Target target1, Target target2) {
+            long difference = target1.nextRefresh - target2.nextRefresh;
+
+            return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+        }
+    }
+}
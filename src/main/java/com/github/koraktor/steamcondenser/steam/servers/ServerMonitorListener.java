@@ -0,0 +1,37 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+/**
+ * This interface is implemented by classes that want to be notified about
+ * the refreshes done by a {@link ServerMonitor}
+ * <p>
+ * Listeners are usually called by the I/O thread of a query engine, so they
+ * should never block.
+ *
+ * @author Sebastian Staudt
+ * @see ServerMonitor#addListener
+ */
+public interface ServerMonitorListener {
+
+    /**
+     * Called when a server has been refreshed successfully
+     *
+     * @param server The refreshed server
+     */
+    public void serverRefreshed(GameServer server);
+
+    /**
+     * Called when refreshing a server failed
+     *
+     * @param server The server that could not be refreshed
+     * @param error The error that caused the refresh to fail, e.g. a
+     *        {@link java.util.concurrent.TimeoutException}
+     */
+    public void serverRefreshFailed(GameServer server, Throwable error);
+}
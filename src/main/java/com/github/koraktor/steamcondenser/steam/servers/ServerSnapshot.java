@@ -0,0 +1,255 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.koraktor.steamcondenser.steam.ServerInfo;
+import com.github.koraktor.steamcondenser.steam.SteamPlayer;
+
+/**
+ * This class represents an immutable view of the data of a game server
+ * <p>
+ * A game server publishes a new snapshot whenever one of its replies has been
+ * handled. Snapshots can be read from any number of threads without locking
+ * and never change, so all data read from a single snapshot is consistent.
+ * Data that did not change is shared between successive snapshots, so
+ * comparing references is enough to detect unchanged data.
+ * <p>
+ * Players are copied when a snapshot is published, so additional information
+ * added to the players of the game server using RCON is only visible in the
+ * next snapshot.
+ *
+ * @author Sebastian Staudt
+ * @see GameServer#getSnapshot
+ */
+public class ServerSnapshot {
+
+    private final int challengeNumber;
+
+    private final ServerInfo info;
+
+    private final int ping;
+
+    private final Map<String, SteamPlayer> players;
+
+    private final Map<String, String> rules;
+
+    private volatile Map<String, Object> serverInfo;
+
+    private final long timestamp;
+
+    private final long version;
+
+    /**
+     * Creates the initial snapshot of a game server that has not been queried
+     * yet
+     */
+    ServerSnapshot() {
+        this(0xFFFFFFFF, 0, null, null, null, 0, 0);
+    }
+
+    /**
+     * Creates a new snapshot with the given data
+     *
+     * @param challengeNumber The challenge number of the server
+     * @param ping The latency of the server
+     * @param players The players on the server
+     * @param rules The rules of the server
+     * @param info The information of the server
+     * @param timestamp The time this snapshot has been created
+     * @param version The version of this snapshot
+     */
+    private ServerSnapshot(int challengeNumber, int ping, Map<String, SteamPlayer> players, Map<String, String> rules, ServerInfo info, long timestamp, long version) {
+        this.challengeNumber = challengeNumber;
+        this.info            = info;
+        this.ping            = ping;
+        this.players         = players;
+        this.rules           = rules;
+        this.timestamp       = timestamp;
+        this.version         = version;
+    }
+
+    /**
+     * Returns the challenge number used to query the server
+     *
+     * @return The challenge number of the server
+     */
+    public int getChallengeNumber() {
+        return this.challengeNumber;
+    }
+
+    /**
+     * Returns the basic information of the server
+     *
+     * @return The information of the server or <code>null</code> if it has
+     *         not been queried yet
+     */
+    public ServerInfo getInfo() {
+        return this.info;
+    }
+
+    /**
+     * Returns the measured latency of the server
+     *
+     * @return The latency of the server in milliseconds or <code>0</code>
+     *         if it has not been measured yet
+     */
+    public int getPing() {
+        return this.ping;
+    }
+
+    /**
+     * Returns the players currently playing on the server
+     *
+     * @return The players on the server or <code>null</code> if they have
+     *         not been queried yet
+     */
+    public Map<String, SteamPlayer> getPlayers() {
+        return this.players;
+    }
+
+    /**
+     * Returns the rules of the server
+     *
+     * @return The rules of the server or <code>null</code> if they have not
+     *         been queried yet
+     */
+    public Map<String, String> getRules() {
+        return this.rules;
+    }
+
+    /**
+     * Returns the basic information of the server as a map
+     * <p>
+     * The map is created when this is called for the first time. Use
+     * {@link #getInfo} to access the information without creating a map.
+     *
+     * @return The information of the server or <code>null</code> if it has
+     *         not been queried yet
+     * @see ServerInfo#toMap
+     */
+    public Map<String, Object> getServerInfo() {
+        if(this.serverInfo == null && this.info != null) {
+            this.serverInfo = Collections.unmodifiableMap(this.info.toMap());
+        }
+
+        return this.serverInfo;
+    }
+
+    /**
+     * Returns the time this snapshot has been published
+     *
+     * @return The time this snapshot has been published in milliseconds since
+     *         the epoch or <code>0</code> for the initial snapshot
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Returns the version of this snapshot
+     * <p>
+     * The version is incremented for every snapshot published by the same
+     * game server, starting with <code>0</code> for the initial snapshot.
+     *
+     * @return The version of this snapshot
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns a copy of this snapshot with the given challenge number
+     *
+     * @param challengeNumber The new challenge number
+     * @return The next snapshot
+     */
+    ServerSnapshot withChallengeNumber(int challengeNumber) {
+        return new ServerSnapshot(challengeNumber, this.ping, this.players, this.rules, this.info, System.currentTimeMillis(), this.version + 1);
+    }
+
+    /**
+     * Returns a copy of this snapshot with the given latency
+     *
+     * @param ping The new latency
+     * @return The next snapshot
+     */
+    ServerSnapshot withPing(int ping) {
+        return new ServerSnapshot(this.challengeNumber, ping, this.players, this.rules, this.info, System.currentTimeMillis(), this.version + 1);
+    }
+
+    /**
+     * Returns a copy of this snapshot with the given players
+     *
+     * @param players The new players, these are copied together with the
+     *        map
+     * @return The next snapshot
+     */
+    ServerSnapshot withPlayers(Map<String, SteamPlayer> players) {
+        return new ServerSnapshot(this.challengeNumber, this.ping, copyPlayers(players), this.rules, this.info, System.currentTimeMillis(), this.version + 1);
+    }
+
+    /**
+     * Returns a copy of this snapshot with the given rules
+     *
+     * @param rules The new rules, these are copied
+     * @return The next snapshot
+     */
+    ServerSnapshot withRules(Map<String, String> rules) {
+        return new ServerSnapshot(this.challengeNumber, this.ping, this.players, copy(rules), this.info, System.currentTimeMillis(), this.version + 1);
+    }
+
+    /**
+     * Returns a copy of this snapshot with the given server information
+     *
+     * @param info The new server information
+     * @return The next snapshot
+     */
+    ServerSnapshot withServerInfo(ServerInfo info) {
+        return new ServerSnapshot(this.challengeNumber, this.ping, this.players, this.rules, info, System.currentTimeMillis(), this.version + 1);
+    }
+
+    /**
+     * Returns an unmodifiable copy of the given map
+     *
+     * @param map The map to copy
+     * @return The copy of the map or <code>null</code>
+     */
+    private static <V> Map<String, V> copy(Map<String, V> map) {
+        if(map == null) {
+            return null;
+        }
+
+        return Collections.unmodifiableMap(new HashMap<String, V>(map));
+    }
+
+    /**
+     * Returns an unmodifiable copy of the given players
+     * <p>
+     * Every player is copied, too, as the players of a game server are
+     * changed when additional information is added using RCON.
+     *
+     * @param players The players to copy
+     * @return The copy of the players or <code>null</code>
+     */
+    private static Map<String, SteamPlayer> copyPlayers(Map<String, SteamPlayer> players) {
+        if(players == null) {
+            return null;
+        }
+
+        Map<String, SteamPlayer> copy = new HashMap<String, SteamPlayer>(players.size());
+        for(Map.Entry<String, SteamPlayer> player : players.entrySet()) {
+            copy.put(player.getKey(), new SteamPlayer(player.getValue()));
+        }
+
+        return Collections.unmodifiableMap(copy);
+    }
+}
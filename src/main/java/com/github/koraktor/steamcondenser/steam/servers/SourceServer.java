@@ -107,6 +107,18 @@ public class SourceServer extends GameServer {
         super(address.toString(), port);
     }
 
+    /**
+     * Closes the sockets used to query and control this server
+     * <p/>
+     * Closing the RCON connection invalidates its authentication.
+     */
+    @Override
+    public void close() {
+        super.close();
+        this.rconSocket.close();
+        this.rconAuthenticated = false;
+    }
+
     /**
      * Initializes the sockets to communicate with the Source server
      *
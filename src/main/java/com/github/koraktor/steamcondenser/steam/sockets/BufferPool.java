@@ -0,0 +1,127 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class provides a pool of reusable byte buffers used to receive packets
+ * <p>
+ * Sockets acquire a buffer once and reuse it for every packet they receive,
+ * so receiving packets does not allocate new buffers in the steady state.
+ * Buffers are returned to the pool when the socket is closed.
+ *
+ * @author Sebastian Staudt
+ */
+public abstract class BufferPool {
+
+    /**
+     * The capacity of pooled buffers which is large enough for any UDP packet
+     * sent by game and master servers
+     */
+    public static final int BUFFER_SIZE = 1500;
+
+    private static ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private static boolean direct = false;
+
+    private static int maxPooledBuffers = 1024;
+
+    private static AtomicInteger pooledBuffers = new AtomicInteger();
+
+    /**
+     * Returns a buffer with at least the given capacity
+     * <p>
+     * The buffer is cleared and its limit is set to the requested size. Its
+     * byte order is big-endian.
+     *
+     * @param size The required size of the buffer
+     * @return A buffer taken from the pool or a newly allocated buffer if the
+     *         pool is empty or the requested size exceeds
+     *         {@link #BUFFER_SIZE}
+     */
+    public static ByteBuffer acquire(int size) {
+        ByteBuffer buffer = null;
+        if(size <= BUFFER_SIZE) {
+            buffer = buffers.poll();
+            if(buffer != null) {
+                pooledBuffers.decrementAndGet();
+            }
+        }
+
+        if(buffer == null) {
+            int capacity = Math.max(size, BUFFER_SIZE);
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        buffer.clear();
+        buffer.limit(size);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+
+        return buffer;
+    }
+
+    /**
+     * Returns whether newly allocated buffers are direct buffers
+     *
+     * @return <code>true</code> if direct buffers are allocated
+     */
+    public static boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Returns the given buffer to the pool
+     * <p>
+     * Buffers with a capacity different from {@link #BUFFER_SIZE} and
+     * buffers exceeding the maximum size of the pool are discarded.
+     *
+     * @param buffer The buffer to return to the pool
+     */
+    public static void release(ByteBuffer buffer) {
+        if(buffer == null || buffer.capacity() != BUFFER_SIZE ||
+           buffer.isDirect() != direct) {
+            return;
+        }
+
+        if(pooledBuffers.incrementAndGet() > maxPooledBuffers) {
+            pooledBuffers.decrementAndGet();
+            return;
+        }
+
+        buffers.add(buffer);
+    }
+
+    /**
+     * Sets whether newly allocated buffers should be direct buffers
+     * <p>
+     * Direct buffers avoid an additional copy when reading from a channel,
+     * but are more expensive to allocate. Changing this setting discards all
+     * currently pooled buffers.
+     *
+     * @param direct <code>true</code> if direct buffers should be allocated
+     */
+    public static void setDirect(boolean direct) {
+        BufferPool.direct = direct;
+        while(buffers.poll() != null) {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Sets the maximum number of buffers kept in the pool (default: 1024)
+     *
+     * @param maxPooledBuffers The maximum number of pooled buffers
+     */
+    public static void setMaxPooledBuffers(int maxPooledBuffers) {
+        BufferPool.maxPooledBuffers = maxPooledBuffers;
+    }
+}
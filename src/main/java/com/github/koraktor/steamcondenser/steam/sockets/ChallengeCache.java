@@ -0,0 +1,147 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class caches the challenge numbers assigned by game servers
+ * <p>
+ * Challenge numbers are stored per server address, so they are shared by all
+ * objects communicating with the same server. Cached challenge numbers expire
+ * after a configurable time and the number of cached servers is limited by
+ * discarding the least recently used entries.
+ *
+ * @author Sebastian Staudt
+ * @see com.github.koraktor.steamcondenser.steam.servers.GameServer
+ */
+public class ChallengeCache {
+
+    private static ChallengeCache defaultCache;
+
+    private static int defaultTtl = 60000;
+
+    private Map<InetSocketAddress, Challenge> challenges;
+
+    private int maxEntries;
+
+    private long ttl;
+
+    /**
+     * Returns the challenge cache shared by all servers and query engines
+     *
+     * @return The default challenge cache
+     */
+    public static synchronized ChallengeCache getDefault() {
+        if(defaultCache == null) {
+            defaultCache = new ChallengeCache(defaultTtl, 65536);
+        }
+
+        return defaultCache;
+    }
+
+    /**
+     * Sets the time after which challenge numbers in the default cache
+     * expire
+     * <p>
+     * This has to be called before the default cache is used for the first
+     * time.
+     *
+     * @param ttl The time to live of a challenge number in milliseconds
+     */
+    public static void setDefaultTtl(int ttl) {
+        ChallengeCache.defaultTtl = ttl;
+    }
+
+    /**
+     * Creates a new challenge cache
+     *
+     * @param ttl The time to live of a challenge number in milliseconds
+     * @param maxEntries The maximum number of servers to cache challenge
+     *        numbers for
+     */
+    public ChallengeCache(int ttl, int maxEntries) {
+        this.challenges = new LinkedHashMap<InetSocketAddress, Challenge>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, Challenge> eldest) {
+                return this.size() > ChallengeCache.this.maxEntries;
+            }
+        };
+        this.maxEntries = maxEntries;
+        this.ttl        = TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    /**
+     * Returns the cached challenge number of the server at the given address
+     *
+     * @param address The address of the server
+     * @return The challenge number of the server or <code>null</code> if
+     *         no valid challenge number is cached
+     */
+    public synchronized Integer get(InetSocketAddress address) {
+        Challenge challenge = this.challenges.get(address);
+        if(challenge == null) {
+            return null;
+        }
+
+        if(challenge.expires - System.nanoTime() <= 0) {
+            this.challenges.remove(address);
+            return null;
+        }
+
+        return challenge.challengeNumber;
+    }
+
+    /**
+     * Stores the challenge number assigned by the server at the given
+     * address
+     *
+     * @param address The address of the server
+     * @param challengeNumber The challenge number of the server
+     */
+    public synchronized void put(InetSocketAddress address, int challengeNumber) {
+        this.challenges.put(address, new Challenge(challengeNumber, System.nanoTime() + this.ttl));
+    }
+
+    /**
+     * Removes the challenge number of the server at the given address
+     *
+     * @param address The address of the server
+     */
+    public synchronized void remove(InetSocketAddress address) {
+        this.challenges.remove(address);
+    }
+
+    /**
+     * Returns the number of cached challenge numbers
+     *
+     * @return The number of cached challenge numbers, including expired
+     *         ones that have not been removed yet
+     */
+    public synchronized int size() {
+        return this.challenges.size();
+    }
+
+    /**
+     * This class holds a cached challenge number and its expiry time
+     */
+    private static class Challenge {
+
+        int challengeNumber;
+
+        long expires;
+
+        Challenge(int challengeNumber, long expires) {
+            this.challengeNumber = challengeNumber;
+            this.expires         = expires;
+        }
+    }
+}
@@ -8,7 +8,6 @@
 package com.github.koraktor.steamcondenser.steam.sockets;
 
 import java.net.InetAddress;
-import java.util.ArrayList;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
@@ -16,7 +15,6 @@ import com.github.koraktor.steamcondenser.exceptions.RCONBanException;
 import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
 import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
-import com.github.koraktor.steamcondenser.steam.packets.SteamPacketFactory;
 import com.github.koraktor.steamcondenser.steam.packets.rcon.RCONGoldSrcRequestPacket;
 import com.github.koraktor.steamcondenser.steam.packets.rcon.RCONGoldSrcResponsePacket;
 
@@ -30,6 +28,7 @@ public class GoldSrcSocket extends QuerySocket {
 
     private boolean isHLTV;
     private long rconChallenge = -1;
+    private SplitPacketReassembler splitPacketReassembler;
 
     /**
      * Creates a new socket to communicate with the server on the given IP
@@ -41,8 +40,7 @@ public class GoldSrcSocket extends QuerySocket {
      */
     public GoldSrcSocket(InetAddress ipAddress, int portNumber)
             throws SteamCondenserException {
-        super(ipAddress, portNumber);
-        this.isHLTV = false;
+        this(ipAddress, portNumber, false);
     }
 
     /**
@@ -60,6 +58,9 @@ public class GoldSrcSocket extends QuerySocket {
             throws SteamCondenserException {
         super(ipAddress, portNumber);
         this.isHLTV = isHLTV;
+        this.splitPacketReassembler = new SplitPacketReassembler();
+        this.splitPacketReassembler.setPayloadCache(this.getPayloadCache());
+        this.splitPacketReassembler.setStatistics(QuerySocket.getStatistics());
     }
 
     /**
@@ -68,6 +69,10 @@ public class GoldSrcSocket extends QuerySocket {
      * The Source query protocol specifies a maximum packet size of 1,400
      * bytes. Bigger packets will be split over several UDP packets. This
      * method reassembles split packets into single packet objects.
+     * <p>
+     * Parts of split packets may arrive in any order. If parts are still
+     * missing when the timeout is reached, a {@link TimeoutException} is
+     * thrown instead of returning an incomplete packet.
      *
      * @return The packet replied from the server
      * @throws SteamCondenserException if an error occurs while communicating
@@ -76,45 +81,25 @@ public class GoldSrcSocket extends QuerySocket {
      */
     public SteamPacket getReply()
             throws SteamCondenserException, TimeoutException {
-        int bytesRead;
-        SteamPacket packet;
-
-        bytesRead = this.receivePacket(1400);
-
-        if(this.packetIsSplit()) {
-            byte[] splitData;
-            int packetCount, packetNumber;
-            int requestId;
-            byte packetNumberAndCount;
-            ArrayList<byte[]> splitPackets = new ArrayList<byte[]>();
-
-            do {
-                requestId = Integer.reverseBytes(this.buffer.getInt());
-                packetNumberAndCount = this.buffer.get();
-                packetCount = packetNumberAndCount & 0xF;
-                packetNumber = (packetNumberAndCount >> 4) + 1;
-
-                splitData = new byte[this.buffer.remaining()];
-                this.buffer.get(splitData);
-                splitPackets.ensureCapacity(packetCount);
-                splitPackets.add(packetNumber - 1, splitData);
-
-                Logger.getLogger("com.github.koraktor.steamcondenser").info("Received packet #" + packetNumber + " of " + packetCount + " for request ID " + requestId + ".");
-
-                if(splitPackets.size() < packetCount) {
-                    try {
-                        bytesRead = this.receivePacket();
-                    } catch(TimeoutException e) {
-                        bytesRead = 0;
-                    }
-                } else {
-                    bytesRead = 0;
+        SteamPacket packet = null;
+
+        try {
+            this.receivePacket(1400);
+
+            while(this.packetIsSplit()) {
+                packet = this.splitPacketReassembler.addPacket(this.remoteSocket, this.buffer, true, this.getSplitPacketDeadline());
+                if(packet != null) {
+                    break;
                 }
-            } while(bytesRead > 0 && this.packetIsSplit());
 
-            packet = SteamPacketFactory.reassemblePacket(splitPackets);
-        } else {
-            packet = this.getPacketFromData();
+                this.receiveSplitPacket(this.splitPacketReassembler);
+            }
+
+            if(packet == null) {
+                packet = this.getPacketFromData();
+            }
+        } finally {
+            this.finishReply();
         }
 
         Logger.getLogger("com.github.koraktor.steamcondenser").info("Received packet of type \"" + packet.getClass().getSimpleName() + "\"");
@@ -0,0 +1,284 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class tracks the servers that do not reply and backs them off
+ * <p>
+ * Every request to a server that timed out is recorded. Once a server timed
+ * out a given number of times in a row, requests to it are skipped for a
+ * while instead of waiting for another timeout. After this backoff has
+ * elapsed, a single probe may be sent. If the probe is answered, the server
+ * is healthy again, otherwise the backoff is doubled up to a maximum.
+ * <p>
+ * Only servers that timed out are tracked and the number of tracked servers
+ * is limited by discarding the least recently used entries. The default
+ * tracker backs off servers after two consecutive timeouts for 30 seconds,
+ * doubling up to one hour.
+ *
+ * @author Sebastian Staudt
+ * @see com.github.koraktor.steamcondenser.steam.servers.GameServer#setHealthTracker
+ */
+public class HealthTracker {
+
+    /**
+     * The maximum number of servers tracked
+     */
+    private static final int MAX_ENTRIES = 65536;
+
+    private static int defaultBaseBackoff = 30000;
+
+    private static int defaultMaxBackoff = 3600000;
+
+    private static int defaultThreshold = 2;
+
+    private static HealthTracker defaultTracker;
+
+    private long baseBackoff;
+
+    private Map<InetSocketAddress, Health> entries;
+
+    private long maxBackoff;
+
+    private int threshold;
+
+    /**
+     * Returns the health tracker shared by all servers
+     *
+     * @return The default health tracker
+     */
+    public static synchronized HealthTracker getDefault() {
+        if(defaultTracker == null) {
+            defaultTracker = new HealthTracker(defaultThreshold, defaultBaseBackoff, defaultMaxBackoff);
+        }
+
+        return defaultTracker;
+    }
+
+    /**
+     * Sets the backoff of the default tracker after a server reached the
+     * threshold of consecutive timeouts
+     * <p>
+     * This has to be called before the default tracker is used for the first
+     * time.
+     *
+     * @param baseBackoff The initial backoff in milliseconds
+     */
+    public static void setDefaultBaseBackoff(int baseBackoff) {
+        HealthTracker.defaultBaseBackoff = baseBackoff;
+    }
+
+    /**
+     * Sets the maximum backoff of the default tracker
+     * <p>
+     * This has to be called before the default tracker is used for the first
+     * time.
+     *
+     * @param maxBackoff The maximum backoff in milliseconds
+     */
+    public static void setDefaultMaxBackoff(int maxBackoff) {
+        HealthTracker.defaultMaxBackoff = maxBackoff;
+    }
+
+    /**
+     * Sets the number of consecutive timeouts after which the default
+     * tracker backs off a server
+     * <p>
+     * This has to be called before the default tracker is used for the first
+     * time.
+     *
+     * @param threshold The number of consecutive timeouts
+     */
+    public static void setDefaultThreshold(int threshold) {
+        HealthTracker.defaultThreshold = threshold;
+    }
+
+    /**
+     * Creates a new health tracker
+     *
+     * @param threshold The number of consecutive timeouts after which a
+     *        server is backed off
+     * @param baseBackoff The initial backoff in milliseconds
+     * @param maxBackoff The maximum backoff in milliseconds
+     */
+    public HealthTracker(int threshold, int baseBackoff, int maxBackoff) {
+        this.baseBackoff = TimeUnit.MILLISECONDS.toNanos(baseBackoff);
+        this.entries     = new LinkedHashMap<InetSocketAddress, Health>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, Health> eldest) {
+                return this.size() > MAX_ENTRIES;
+            }
+        };
+        this.maxBackoff  = TimeUnit.MILLISECONDS.toNanos(maxBackoff);
+        this.threshold   = Math.max(threshold, 1);
+    }
+
+    /**
+     * Decides whether a request may be sent to the server at the given
+     * address
+     * <p>
+     * If the backoff of the server has elapsed, the server is marked as
+     * being probed and {@link ServerHealth.Status#PROBING} is returned. The
+     * caller is expected to send a single probe and to record its outcome.
+     * Until then, all other requests to the server are skipped.
+     *
+     * @param address The address of the server
+     * @return {@link ServerHealth.Status#HEALTHY} if the request may be sent
+     *         as usual, {@link ServerHealth.Status#PROBING} if a probe should
+     *         be sent instead or {@link ServerHealth.Status#BACKING_OFF} if
+     *         the request should be skipped
+     */
+    public synchronized ServerHealth.Status admit(InetSocketAddress address) {
+        Health health = this.entries.get(address);
+        if(health == null || health.consecutiveTimeouts < this.threshold) {
+            return ServerHealth.Status.HEALTHY;
+        }
+
+        if(health.probing || health.retryTime - System.nanoTime() > 0) {
+            return ServerHealth.Status.BACKING_OFF;
+        }
+
+        health.probing = true;
+        return ServerHealth.Status.PROBING;
+    }
+
+    /**
+     * Discards the health of all servers
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * Returns the current health of the server at the given address
+     *
+     * @param address The address of the server
+     * @return The health of the server
+     */
+    public synchronized ServerHealth getHealth(InetSocketAddress address) {
+        return this.toServerHealth(this.entries.get(address), System.nanoTime());
+    }
+
+    /**
+     * Returns the current health of all servers that timed out since their
+     * last reply
+     *
+     * @return The health of the servers that timed out
+     */
+    public synchronized Map<InetSocketAddress, ServerHealth> getUnhealthyServers() {
+        long now = System.nanoTime();
+        Map<InetSocketAddress, ServerHealth> servers = new HashMap<InetSocketAddress, ServerHealth>(this.entries.size() * 2);
+        for(Map.Entry<InetSocketAddress, Health> entry : this.entries.entrySet()) {
+            servers.put(entry.getKey(), this.toServerHealth(entry.getValue(), now));
+        }
+
+        return servers;
+    }
+
+    /**
+     * Records that the server at the given address replied
+     * <p>
+     * The server is healthy afterwards.
+     *
+     * @param address The address of the server
+     */
+    public synchronized void recordSuccess(InetSocketAddress address) {
+        this.entries.remove(address);
+    }
+
+    /**
+     * Records that a request to the server at the given address timed out
+     * <p>
+     * If the server reached the threshold of consecutive timeouts, it is
+     * backed off. Every further timeout doubles the backoff.
+     *
+     * @param address The address of the server
+     */
+    public synchronized void recordTimeout(InetSocketAddress address) {
+        Health health = this.entries.get(address);
+        if(health == null) {
+            health = new Health();
+            this.entries.put(address, health);
+        }
+
+        health.consecutiveTimeouts ++;
+        health.probing = false;
+
+        if(health.consecutiveTimeouts >= this.threshold) {
+            int doublings = Math.min(health.consecutiveTimeouts - this.threshold, 30);
+            health.backoff   = Math.min(this.baseBackoff << doublings, this.maxBackoff);
+            if(health.backoff < 0) {
+                health.backoff = this.maxBackoff;
+            }
+            health.retryTime = System.nanoTime() + health.backoff;
+        }
+    }
+
+    /**
+     * Releases the probe of the server at the given address without
+     * recording its outcome
+     * <p>
+     * This has to be called if a probe neither received a reply nor timed
+     * out, e.g. because it has been cancelled. Another probe may be sent
+     * afterwards.
+     *
+     * @param address The address of the server
+     */
+    public synchronized void releaseProbe(InetSocketAddress address) {
+        Health health = this.entries.get(address);
+        if(health != null) {
+            health.probing = false;
+        }
+    }
+
+    /**
+     * Creates the public view of the given health state
+     *
+     * @param health The health state of a server or <code>null</code>
+     * @param now The current time in nanoseconds
+     * @return The health of the server
+     */
+    private ServerHealth toServerHealth(Health health, long now) {
+        if(health == null) {
+            return new ServerHealth(ServerHealth.Status.HEALTHY, 0, 0, 0);
+        }
+
+        ServerHealth.Status status;
+        if(health.consecutiveTimeouts < this.threshold) {
+            status = ServerHealth.Status.HEALTHY;
+        } else if(health.probing) {
+            status = ServerHealth.Status.PROBING;
+        } else {
+            status = ServerHealth.Status.BACKING_OFF;
+        }
+
+        return new ServerHealth(status, health.consecutiveTimeouts,
+            TimeUnit.NANOSECONDS.toMillis(health.backoff),
+            Math.max(TimeUnit.NANOSECONDS.toMillis(health.retryTime - now), 0));
+    }
+
+    /**
+     * This class holds the health state of a single server
+     */
+    private static class Health {
+
+        long backoff;
+
+        int consecutiveTimeouts;
+
+        boolean probing;
+
+        long retryTime;
+    }
+}
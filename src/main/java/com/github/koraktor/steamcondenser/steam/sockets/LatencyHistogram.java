@@ -0,0 +1,290 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class records latency samples with a fixed relative precision
+ * <p>
+ * Samples are counted in log-linear buckets similar to HdrHistogram: Every
+ * power of two is divided into 64 buckets of equal width, so any recorded
+ * value is accurate to about 1.6 percent, independent of its magnitude.
+ * Samples are recorded with a resolution of one microsecond and up to about
+ * 19 hours.
+ * <p>
+ * Histograms of several servers can be merged using {@link #add}, e.g. to get
+ * the latency distribution of a whole region. Lost probes are counted
+ * separately.
+ *
+ * @author Sebastian Staudt
+ * @see LatencyProbe
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 128;
+
+    private static final int MAX_MAGNITUDE = 36;
+
+    private static final int SUB_BUCKETS = 64;
+
+    private long[] counts;
+
+    private long jitterCount;
+
+    private long jitterSum;
+
+    private long lastValue = -1;
+
+    private long lossCount;
+
+    private long max;
+
+    private long min = Long.MAX_VALUE;
+
+    private long sampleCount;
+
+    private long sum;
+
+    /**
+     * Returns the bucket a value is counted in
+     *
+     * @param value The value in microseconds
+     * @return The index of the bucket
+     */
+    private static int getBucket(long value) {
+        if(value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - 6;
+
+        return LINEAR_BUCKETS + (magnitude - 7) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Returns the lowest value counted in the given bucket
+     *
+     * @param bucket The index of the bucket
+     * @return The lowest value of the bucket in microseconds
+     */
+    private static long getBucketValue(int bucket) {
+        if(bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+
+        int magnitude = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 7;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+
+        return (long) (SUB_BUCKETS + subBucket) << (magnitude - 6);
+    }
+
+    /**
+     * Creates a new empty histogram
+     */
+    public LatencyHistogram() {
+        this.counts = new long[LINEAR_BUCKETS + (MAX_MAGNITUDE - 6) * SUB_BUCKETS];
+    }
+
+    /**
+     * Adds all samples and losses recorded by another histogram to this
+     * histogram
+     *
+     * @param other The histogram to merge into this one
+     */
+    public void add(LatencyHistogram other) {
+        long[] otherCounts;
+        long otherJitterCount, otherJitterSum, otherLossCount, otherMax, otherMin, otherSampleCount, otherSum;
+        synchronized(other) {
+            otherCounts      = other.counts.clone();
+            otherJitterCount = other.jitterCount;
+            otherJitterSum   = other.jitterSum;
+            otherLossCount   = other.lossCount;
+            otherMax         = other.max;
+            otherMin         = other.min;
+            otherSampleCount = other.sampleCount;
+            otherSum         = other.sum;
+        }
+
+        synchronized(this) {
+            for(int i = 0; i < this.counts.length; i ++) {
+                this.counts[i] += otherCounts[i];
+            }
+            this.jitterCount += otherJitterCount;
+            this.jitterSum   += otherJitterSum;
+            this.lossCount   += otherLossCount;
+            this.max          = Math.max(this.max, otherMax);
+            this.min          = Math.min(this.min, otherMin);
+            this.sampleCount += otherSampleCount;
+            this.sum         += otherSum;
+        }
+    }
+
+    /**
+     * Returns the number of lost probes
+     *
+     * @return The number of lost probes
+     */
+    public synchronized long getLossCount() {
+        return this.lossCount;
+    }
+
+    /**
+     * Returns the ratio of lost probes to all probes
+     *
+     * @return The loss rate between <code>0</code> and <code>1</code>
+     */
+    public synchronized double getLossRate() {
+        long total = this.sampleCount + this.lossCount;
+        if(total == 0) {
+            return 0;
+        }
+
+        return (double) this.lossCount / total;
+    }
+
+    /**
+     * Returns the mean difference between consecutive samples
+     * <p>
+     * This is the average variation of the latency as seen by a client
+     * sending packets regularly. For merged histograms this is the mean over
+     * all differences recorded by the single histograms.
+     *
+     * @return The jitter in nanoseconds
+     */
+    public synchronized long getJitter() {
+        if(this.jitterCount == 0) {
+            return 0;
+        }
+
+        return TimeUnit.MICROSECONDS.toNanos(this.jitterSum / this.jitterCount);
+    }
+
+    /**
+     * Returns the highest recorded sample
+     *
+     * @return The maximum latency in nanoseconds
+     */
+    public synchronized long getMax() {
+        return TimeUnit.MICROSECONDS.toNanos(this.max);
+    }
+
+    /**
+     * Returns the mean of all recorded samples
+     *
+     * @return The mean latency in nanoseconds
+     */
+    public synchronized long getMean() {
+        if(this.sampleCount == 0) {
+            return 0;
+        }
+
+        return TimeUnit.MICROSECONDS.toNanos(this.sum / this.sampleCount);
+    }
+
+    /**
+     * Returns the median of all recorded samples
+     *
+     * @return The median latency in nanoseconds
+     * @see #getPercentile
+     */
+    public long getMedian() {
+        return this.getPercentile(50);
+    }
+
+    /**
+     * Returns the lowest recorded sample
+     *
+     * @return The minimum latency in nanoseconds
+     */
+    public synchronized long getMin() {
+        if(this.sampleCount == 0) {
+            return 0;
+        }
+
+        return TimeUnit.MICROSECONDS.toNanos(this.min);
+    }
+
+    /**
+     * Returns the value below which the given percentage of samples fall
+     *
+     * @param percentile The percentile to return, e.g. <code>95</code> or
+     *        <code>99.9</code>
+     * @return The latency at the given percentile in nanoseconds
+     */
+    public synchronized long getPercentile(double percentile) {
+        if(this.sampleCount == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile / 100 * this.sampleCount);
+        rank = Math.max(1, Math.min(this.sampleCount, rank));
+
+        long seen = 0;
+        for(int i = 0; i < this.counts.length; i ++) {
+            seen += this.counts[i];
+            if(seen >= rank) {
+                long value = Math.max(this.min, Math.min(this.max, getBucketValue(i)));
+                return TimeUnit.MICROSECONDS.toNanos(value);
+            }
+        }
+
+        return TimeUnit.MICROSECONDS.toNanos(this.max);
+    }
+
+    /**
+     * Returns the number of recorded samples
+     *
+     * @return The number of samples
+     */
+    public synchronized long getSampleCount() {
+        return this.sampleCount;
+    }
+
+    /**
+     * Records a lost probe
+     */
+    public synchronized void recordLoss() {
+        this.lossCount ++;
+    }
+
+    /**
+     * Records a latency sample
+     *
+     * @param latency The latency in nanoseconds
+     */
+    public synchronized void recordValue(long latency) {
+        long value = TimeUnit.NANOSECONDS.toMicros(Math.max(0, latency));
+        int bucket = Math.min(getBucket(value), this.counts.length - 1);
+
+        this.counts[bucket] ++;
+        this.max = Math.max(this.max, value);
+        this.min = Math.min(this.min, value);
+        this.sampleCount ++;
+        this.sum += value;
+
+        if(this.lastValue >= 0) {
+            this.jitterCount ++;
+            this.jitterSum += Math.abs(value - this.lastValue);
+        }
+        this.lastValue = value;
+    }
+
+    /**
+     * Returns a human-readable summary of this histogram
+     *
+     * @return The latency distribution in milliseconds
+     */
+    @Override
+    public String toString() {
+        return String.format("min: %.3f ms, median: %.3f ms, p95: %.3f ms, p99: %.3f ms, jitter: %.3f ms, loss: %.1f %%",
+            this.getMin() / 1e6, this.getMedian() / 1e6, this.getPercentile(95) / 1e6,
+            this.getPercentile(99) / 1e6, this.getJitter() / 1e6, this.getLossRate() * 100);
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeoutException;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.steam.packets.A2S_INFO_Packet;
+
+/**
+ * This class measures the latency of a server using a series of A2S_INFO
+ * probes
+ * <p>
+ * The probes are sent one after another using a query engine without any
+ * retries, as replies to A2S_INFO cannot be matched to one of several
+ * requests in flight. The round trip time of each probe is taken when the
+ * reply is received, so decoding the reply is not included. Probes that time
+ * out are recorded as lost.
+ *
+ * @author Sebastian Staudt
+ * @see LatencyHistogram
+ */
+public class LatencyProbe {
+
+    private InetSocketAddress address;
+
+    private QueryEngine engine;
+
+    private boolean goldSrc;
+
+    /**
+     * Creates a new probe for the server at the given address
+     *
+     * @param engine The query engine used to send the probes
+     * @param address The address of the server
+     * @param goldSrc Whether the server uses the GoldSrc format for split
+     *        packets
+     */
+    public LatencyProbe(QueryEngine engine, InetSocketAddress address, boolean goldSrc) {
+        this.address = address;
+        this.engine  = engine;
+        this.goldSrc = goldSrc;
+    }
+
+    /**
+     * Sends the given number of probes to the server and records their
+     * round trip times in a new histogram
+     *
+     * @param count The number of probes to send
+     * @param interval The time to wait between two probes in milliseconds
+     * @return The latency distribution of the server
+     * @throws SteamCondenserException if a probe fails for another reason
+     *         than a timeout
+     * @see #probe(int, int, LatencyHistogram)
+     */
+    public LatencyHistogram probe(int count, int interval)
+            throws SteamCondenserException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        this.probe(count, interval, histogram);
+
+        return histogram;
+    }
+
+    /**
+     * Sends the given number of probes to the server and records their
+     * round trip times in the given histogram
+     * <p>
+     * This method blocks until all probes have been answered or timed out.
+     * The interval is the time between a reply or timeout and the next
+     * probe. Recording into a shared histogram allows to measure the latency
+     * distribution of several servers at once.
+     *
+     * @param count The number of probes to send
+     * @param interval The time to wait between two probes in milliseconds
+     * @param histogram The histogram to record the round trip times in
+     * @throws SteamCondenserException if a probe fails for another reason
+     *         than a timeout
+     */
+    public void probe(int count, int interval, LatencyHistogram histogram)
+            throws SteamCondenserException {
+        try {
+            for(int i = 0; i < count; i ++) {
+                if(i > 0 && interval > 0) {
+                    Thread.sleep(interval);
+                }
+
+                QueryFuture<?> probe = this.engine.query(this.address, new A2S_INFO_Packet(), this.goldSrc, 0);
+                try {
+                    probe.getReply();
+                    histogram.recordValue(probe.getRoundTripTime());
+                } catch(TimeoutException e) {
+                    histogram.recordLoss();
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SteamCondenserException("Interrupted while sending probes.", e);
+        }
+    }
+}
@@ -16,6 +16,10 @@ import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
 
 /**
  * This class represents a socket used to communicate with master servers
+ * <p>
+ * Master servers may need much longer than the round trip time to reply, so
+ * this socket always uses the configured socket timeout and never hedges
+ * requests.
  *
  * @author     Sebastian Staudt
  */
@@ -45,13 +49,28 @@ public class MasterServerSocket extends QuerySocket {
      */
     public SteamPacket getReply()
             throws SteamCondenserException, TimeoutException {
-        this.receivePacket(1500);
+        try {
+            this.receivePacket(1500);
 
-        if(this.buffer.getInt() != -1) {
-            throw new PacketFormatException("Master query response has wrong packet header.");
+            if(this.buffer.getInt() != -1) {
+                throw new PacketFormatException("Master query response has wrong packet header.");
+            }
+
+            return this.getPacketFromData();
+        } finally {
+            this.finishReply();
         }
+    }
 
-        return this.getPacketFromData();
+    /**
+     * Returns <code>false</code> as the replies of master servers are not
+     * bound by the round trip time
+     *
+     * @return <code>false</code>
+     */
+    @Override
+    protected boolean isRttBound() {
+        return false;
     }
 
 }
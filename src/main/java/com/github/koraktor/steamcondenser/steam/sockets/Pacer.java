@@ -0,0 +1,304 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class limits the rate of outgoing query packets using token buckets
+ * <p>
+ * There's a global budget for all packets, a budget for each destination
+ * address and a budget for each subnet (/24 for IPv4, /56 for IPv6). A packet
+ * may only be sent if all three buckets contain a token. Packets exceeding
+ * the budget are delayed, never dropped: {@link QueryEngine} keeps the
+ * request queued and query sockets wait for a token if pacing has been
+ * enabled using {@link QuerySocket#setPacer}.
+ * <p>
+ * A rate of <code>0</code> disables the respective budget. The default pacer
+ * is shared by all query engines and the heartbeat service.
+ *
+ * @author Sebastian Staudt
+ */
+public class Pacer {
+
+    /**
+     * The maximum number of destinations and subnets to keep buckets for
+     */
+    private static final int MAX_BUCKETS = 65536;
+
+    private static Pacer defaultPacer;
+
+    private Map<InetSocketAddress, TokenBucket> destinationBuckets;
+
+    private int destinationBurst;
+
+    private int destinationRate;
+
+    private TokenBucket globalBucket;
+
+    private Map<Long, TokenBucket> subnetBuckets;
+
+    private int subnetBurst;
+
+    private int subnetRate;
+
+    /**
+     * Returns the pacer shared by all query engines
+     * <p>
+     * The default pacer allows 2,000 packets per second in total, 500 per
+     * subnet and 50 per destination.
+     *
+     * @return The default pacer
+     */
+    public static synchronized Pacer getDefault() {
+        if(defaultPacer == null) {
+            defaultPacer = new Pacer();
+            defaultPacer.setGlobalRate(2000, 200);
+            defaultPacer.setSubnetRate(500, 50);
+            defaultPacer.setDestinationRate(50, 10);
+        }
+
+        return defaultPacer;
+    }
+
+    /**
+     * Creates a new pacer without any limits
+     */
+    public Pacer() {
+        this.destinationBuckets = new LinkedHashMap<InetSocketAddress, TokenBucket>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, TokenBucket> eldest) {
+                return this.size() > MAX_BUCKETS;
+            }
+        };
+        this.globalBucket = new TokenBucket(0, 0);
+        this.subnetBuckets = new LinkedHashMap<Long, TokenBucket>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, TokenBucket> eldest) {
+                return this.size() > MAX_BUCKETS;
+            }
+        };
+    }
+
+    /**
+     * Waits until a packet may be sent to the given address and takes the
+     * tokens needed
+     *
+     * @param address The address the packet is sent to
+     * @throws InterruptedException if the current thread is interrupted while
+     *         waiting
+     */
+    public void acquire(InetSocketAddress address)
+            throws InterruptedException {
+        long delay;
+        while((delay = this.tryAcquire(address, System.nanoTime())) > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+
+    /**
+     * Returns the time until the global budget allows to send a packet
+     *
+     * @param now The current time in nanoseconds
+     * @return The delay in nanoseconds, <code>0</code> if a packet may be sent
+     *         immediately
+     */
+    public synchronized long getGlobalDelay(long now) {
+        return this.globalBucket.getDelay(now);
+    }
+
+    /**
+     * Sets the budget for packets sent to a single destination address
+     *
+     * @param rate The number of packets per second, <code>0</code> for no
+     *        limit
+     * @param burst The number of packets that may be sent at once
+     */
+    public synchronized void setDestinationRate(int rate, int burst) {
+        this.destinationBuckets.clear();
+        this.destinationBurst = burst;
+        this.destinationRate  = rate;
+    }
+
+    /**
+     * Sets the budget for all packets
+     *
+     * @param rate The number of packets per second, <code>0</code> for no
+     *        limit
+     * @param burst The number of packets that may be sent at once
+     */
+    public synchronized void setGlobalRate(int rate, int burst) {
+        this.globalBucket = new TokenBucket(rate, burst);
+    }
+
+    /**
+     * Sets the budget for packets sent to a single subnet
+     *
+     * @param rate The number of packets per second, <code>0</code> for no
+     *        limit
+     * @param burst The number of packets that may be sent at once
+     */
+    public synchronized void setSubnetRate(int rate, int burst) {
+        this.subnetBuckets.clear();
+        this.subnetBurst = burst;
+        this.subnetRate  = rate;
+    }
+
+    /**
+     * Takes the tokens needed to send a packet to the given address if all
+     * budgets allow it
+     *
+     * @param address The address the packet is sent to
+     * @param now The current time in nanoseconds
+     * @return <code>0</code> if the packet may be sent, otherwise the time in
+     *         nanoseconds until it may be sent
+     */
+    public synchronized long tryAcquire(InetSocketAddress address, long now) {
+        TokenBucket destinationBucket = this.getDestinationBucket(address);
+        TokenBucket subnetBucket = this.getSubnetBucket(address);
+
+        long delay = this.globalBucket.getDelay(now);
+        if(destinationBucket != null) {
+            delay = Math.max(delay, destinationBucket.getDelay(now));
+        }
+        if(subnetBucket != null) {
+            delay = Math.max(delay, subnetBucket.getDelay(now));
+        }
+        if(delay > 0) {
+            return delay;
+        }
+
+        this.globalBucket.take();
+        if(destinationBucket != null) {
+            destinationBucket.take();
+        }
+        if(subnetBucket != null) {
+            subnetBucket.take();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns the bucket for the given destination address
+     *
+     * @param address The destination address
+     * @return The bucket of the destination or <code>null</code> if there's
+     *         no budget per destination
+     */
+    private TokenBucket getDestinationBucket(InetSocketAddress address) {
+        if(this.destinationRate <= 0) {
+            return null;
+        }
+
+        TokenBucket bucket = this.destinationBuckets.get(address);
+        if(bucket == null) {
+            bucket = new TokenBucket(this.destinationRate, this.destinationBurst);
+            this.destinationBuckets.put(address, bucket);
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Returns the bucket for the subnet of the given destination address
+     *
+     * @param address The destination address
+     * @return The bucket of the subnet or <code>null</code> if there's no
+     *         budget per subnet
+     */
+    private TokenBucket getSubnetBucket(InetSocketAddress address) {
+        InetAddress ipAddress = address.getAddress();
+        if(this.subnetRate <= 0 || ipAddress == null) {
+            return null;
+        }
+
+        byte[] bytes = ipAddress.getAddress();
+        long subnet;
+        if(bytes.length == 4) {
+            subnet = (1L << 56) | ((bytes[0] & 0xFF) << 16) | ((bytes[1] & 0xFF) << 8) | (bytes[2] & 0xFF);
+        } else {
+            subnet = 0;
+            for(int i = 0; i < 7; i ++) {
+                subnet = (subnet << 8) | (bytes[i] & 0xFF);
+            }
+        }
+
+        TokenBucket bucket = this.subnetBuckets.get(subnet);
+        if(bucket == null) {
+            bucket = new TokenBucket(this.subnetRate, this.subnetBurst);
+            this.subnetBuckets.put(subnet, bucket);
+        }
+
+        return bucket;
+    }
+
+    /**
+     * This class implements a single token bucket
+     */
+    private static class TokenBucket {
+
+        private double burst;
+
+        private long lastRefill;
+
+        private double rate;
+
+        private double tokens;
+
+        /**
+         * Creates a new full token bucket
+         *
+         * @param rate The number of tokens added per second, <code>0</code>
+         *        for an unlimited bucket
+         * @param burst The maximum number of tokens
+         */
+        TokenBucket(int rate, int burst) {
+            this.burst      = Math.max(1, burst);
+            this.lastRefill = System.nanoTime();
+            this.rate       = rate / 1e9;
+            this.tokens     = this.burst;
+        }
+
+        /**
+         * Returns the time until a token is available
+         *
+         * @param now The current time in nanoseconds
+         * @return The delay in nanoseconds
+         */
+        long getDelay(long now) {
+            if(this.rate <= 0) {
+                return 0;
+            }
+
+            if(now - this.lastRefill > 0) {
+                this.tokens = Math.min(this.burst, this.tokens + (now - this.lastRefill) * this.rate);
+                this.lastRefill = now;
+            }
+
+            if(this.tokens >= 1) {
+                return 0;
+            }
+
+            return Math.max(1, (long) Math.ceil((1 - this.tokens) / this.rate));
+        }
+
+        /**
+         * Takes a token from this bucket
+         */
+        void take() {
+            if(this.rate > 0) {
+                this.tokens --;
+            }
+        }
+    }
+}
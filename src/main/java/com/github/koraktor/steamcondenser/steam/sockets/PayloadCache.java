@@ -0,0 +1,203 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
+import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
+import com.github.koraktor.steamcondenser.steam.packets.SteamPacketFactory;
+
+/**
+ * This class caches the last decoded information and rules reply of game
+ * servers together with a hash of its raw data
+ * <p>
+ * Servers usually reply with exactly the same data as long as nothing has
+ * changed. If the hash of a new reply matches the hash of the last reply of
+ * the same type from the same server, the packet decoded before is returned
+ * instead of decoding the reply again. As the returned packet is the same
+ * object, consumers can skip any further processing by comparing references.
+ * Cached packets are shared and never changed, e.g. the rules of a
+ * {@link com.github.koraktor.steamcondenser.steam.packets.S2A_RULES_Packet}
+ * are copied whenever they are read.
+ * <p>
+ * Replies are hashed using the 64-bit FNV-1a hash function.
+ *
+ * @author Sebastian Staudt
+ */
+public class PayloadCache {
+
+    private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private long hits;
+
+    private int maxEntries;
+
+    private long misses;
+
+    private Map<PayloadKey, Payload> payloads;
+
+    /**
+     * Returns the 64-bit FNV-1a hash of the remaining data in the given
+     * buffer
+     * <p>
+     * The position of the buffer is not changed.
+     *
+     * @param buffer The buffer containing the data
+     * @return The hash of the data
+     */
+    public static long hash(ByteBuffer buffer) {
+        long hash = FNV_OFFSET_BASIS;
+        for(int i = buffer.position(); i < buffer.limit(); i ++) {
+            hash ^= buffer.get(i) & 0xFF;
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Creates a new payload cache
+     *
+     * @param maxEntries The maximum number of replies to cache. If there are
+     *        more, the replies of the least recently seen servers are
+     *        discarded.
+     */
+    public PayloadCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.payloads   = new LinkedHashMap<PayloadKey, Payload>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PayloadKey, Payload> eldest) {
+                return this.size() > PayloadCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Discards the cached replies of all servers
+     */
+    public synchronized void clear() {
+        this.payloads.clear();
+    }
+
+    /**
+     * Returns the number of replies that did not have to be decoded
+     *
+     * @return The number of cache hits
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Returns the number of cacheable replies that had to be decoded
+     *
+     * @return The number of cache misses
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Returns the packet for the reply in the given buffer
+     * <p>
+     * The buffer has to be positioned at the header byte of the reply. If the
+     * reply is identical to the last reply of the same type received from the
+     * same server, the previously decoded packet is returned. Otherwise the
+     * reply is decoded using {@link SteamPacketFactory#getPacketFromData}.
+     *
+     * @param address The address the reply was received from
+     * @param buffer The buffer containing the reply
+     * @return The packet object of the reply
+     * @throws PacketFormatException if the reply cannot be decoded
+     */
+    public synchronized SteamPacket getPacket(InetSocketAddress address, ByteBuffer buffer)
+            throws PacketFormatException {
+        byte header = buffer.get(buffer.position());
+        if(!isCacheable(header)) {
+            return SteamPacketFactory.getPacketFromData(buffer);
+        }
+
+        long hash = PayloadCache.hash(buffer);
+        PayloadKey key = new PayloadKey(address, header);
+        Payload payload = this.payloads.get(key);
+        if(payload != null && payload.hash == hash) {
+            buffer.position(buffer.limit());
+            this.hits ++;
+            return payload.packet;
+        }
+
+        this.misses ++;
+        SteamPacket packet = SteamPacketFactory.getPacketFromData(buffer);
+        this.payloads.put(key, new Payload(hash, packet));
+
+        return packet;
+    }
+
+    /**
+     * Returns whether replies with the given header are cached
+     *
+     * @param header The header byte of the reply
+     * @return <code>true</code> for server information and rules replies
+     */
+    private static boolean isCacheable(byte header) {
+        return header == SteamPacket.S2A_INFO2_HEADER ||
+               header == SteamPacket.S2A_INFO_DETAILED_HEADER ||
+               header == SteamPacket.S2A_RULES_HEADER;
+    }
+
+    /**
+     * This class holds a decoded reply and the hash of its raw data
+     */
+    private static class Payload {
+
+        long hash;
+
+        SteamPacket packet;
+
+        Payload(long hash, SteamPacket packet) {
+            this.hash   = hash;
+            this.packet = packet;
+        }
+    }
+
+    /**
+     * This class identifies the replies of a single type from a single server
+     */
+    private static class PayloadKey {
+
+        InetSocketAddress address;
+
+        byte header;
+
+        PayloadKey(InetSocketAddress address, byte header) {
+            this.address = address;
+            this.header  = header;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if(!(object instanceof PayloadKey)) {
+                return false;
+            }
+
+            PayloadKey other = (PayloadKey) object;
+            return this.header == other.header && this.address.equals(other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.address.hashCode() * 31 + this.header;
+        }
+    }
+}
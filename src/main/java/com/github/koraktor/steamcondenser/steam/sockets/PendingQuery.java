@@ -0,0 +1,141 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.net.InetSocketAddress;
+
+import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
+
+/**
+ * This class holds the state of a single query sent by a {@link QueryEngine}
+ * that is still waiting for its reply
+ *
+ * @author Sebastian Staudt
+ */
+class PendingQuery implements Comparable<PendingQuery> {
+
+    InetSocketAddress address;
+
+    boolean answered;
+
+    int attempts;
+
+    boolean challenged;
+
+    long deadline;
+
+    QueryFuture<SteamPacket> future;
+
+    boolean goldSrc;
+
+    boolean hedged;
+
+    long hedgeTime;
+
+    long notBefore;
+
+    boolean paced;
+
+    SteamPacket request;
+
+    int retries;
+
+    long sendTime;
+
+    int splitRetransmissions;
+
+    /**
+     * Creates a new pending query for the given request
+     *
+     * @param address The address of the server the request is sent to
+     * @param request The request packet to send
+     * @param goldSrc Whether the server uses the GoldSrc format for split
+     *        packets
+     * @param retries The number of times the request is repeated if no
+     *        reply has been received in time
+     */
+    PendingQuery(InetSocketAddress address, SteamPacket request, boolean goldSrc, int retries) {
+        this.address = address;
+        this.future  = new QueryFuture<SteamPacket>();
+        this.goldSrc = goldSrc;
+        this.request = request;
+        this.retries = retries;
+    }
+
+    /**
+     * Creates a new pending query repeating the given query with another
+     * request
+     * <p>
+     * Both queries share the same future, so the new query completes the
+     * original one.
+     *
+     * @param query The query to repeat
+     * @param request The request packet to send instead
+     */
+    PendingQuery(PendingQuery query, SteamPacket request) {
+        this.address = query.address;
+        this.future  = query.future;
+        this.goldSrc = query.goldSrc;
+        this.request = request;
+        this.retries = query.retries;
+    }
+
+    /**
+     * Returns whether a reply with the given header is an answer to this
+     * query
+     * <p>
+     * Requests requiring a challenge number may be answered with a
+     * S2C_CHALLENGE packet instead of the requested data.
+     *
+     * @param header The header byte of the reply packet
+     * @return <code>true</code> if the reply belongs to this query
+     */
+    boolean accepts(byte header) {
+        return PendingQuery.accepts(this.request.getHeader(), header);
+    }
+
+    /**
+     * Returns whether a reply with the given header is an answer to a
+     * request with the given header
+     *
+     * @param requestHeader The header byte of the request packet
+     * @param header The header byte of the reply packet
+     * @return <code>true</code> if the reply belongs to the request
+     * @see #accepts(byte)
+     */
+    static boolean accepts(byte requestHeader, byte header) {
+        switch(requestHeader) {
+            case SteamPacket.A2S_INFO_HEADER:
+                return header == SteamPacket.S2A_INFO2_HEADER ||
+                       header == SteamPacket.S2A_INFO_DETAILED_HEADER ||
+                       header == SteamPacket.S2C_CHALLENGE_HEADER;
+            case SteamPacket.A2S_PLAYER_HEADER:
+                return header == SteamPacket.S2A_PLAYER_HEADER ||
+                       header == SteamPacket.S2C_CHALLENGE_HEADER;
+            case SteamPacket.A2S_RULES_HEADER:
+                return header == SteamPacket.S2A_RULES_HEADER ||
+                       header == SteamPacket.S2C_CHALLENGE_HEADER;
+            case SteamPacket.A2S_SERVERQUERY_GETCHALLENGE_HEADER:
+                return header == SteamPacket.S2C_CHALLENGE_HEADER;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Compares the deadlines of two pending queries
+     *
+     * @param other The query to compare with
+     * @return A negative value if this query times out earlier
+     */
+    public int compareTo(PendingQuery other) {
+        long difference = this.deadline - other.deadline;
+
+        return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+    }
+}
@@ -0,0 +1,866 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.steam.packets.A2S_PLAYER_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.A2S_RULES_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.S2C_CHALLENGE_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
+
+/**
+ * This class implements a query engine that is able to communicate with a
+ * large number of game servers at once
+ * <p>
+ * Instead of using one socket per server, all requests are sent using a
+ * single unconnected UDP channel. Replies are read by a single thread waiting
+ * on a long-lived selector and are matched to the pending queries using the
+ * address they have been sent from and the type of the reply. This allows
+ * a single thread to keep thousands of queries in flight.
+ *
+ * @author Sebastian Staudt
+ * @see com.github.koraktor.steamcondenser.steam.servers.GameServer#setQueryEngine
+ */
+public class QueryEngine extends ServiceLoop {
+
+    /**
+     * The size of the socket receive buffer requested from the operating
+     * system, big enough to hold the replies of many servers at once
+     */
+    private static final int RECEIVE_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The maximum number of servers a round trip time estimation is kept
+     * for
+     */
+    private static final int MAX_RTT_ESTIMATORS = 65536;
+
+    /**
+     * The maximum number of additional attempts of a query whose split reply
+     * is incomplete
+     */
+    private static final int MAX_SPLIT_RETRANSMISSIONS = 2;
+
+    private static QueryEngine defaultEngine;
+
+    private static int retries = 1;
+
+    private ByteBuffer buffer;
+
+    private DatagramChannel channel;
+
+    private PriorityQueue<PendingQuery> deadlines;
+
+    private double hedgeFraction;
+
+    private PriorityQueue<PendingQuery> hedges;
+
+    private long nextSendTime;
+
+    private Pacer pacer;
+
+    private PayloadCache payloadCache;
+
+    private Map<InetSocketAddress, LinkedList<PendingQuery>> pendingQueries;
+
+    private Map<InetSocketAddress, RttEstimator> rttEstimators;
+
+    private SelectionKey selectionKey;
+
+    private Selector selector;
+
+    private SplitPacketReassembler splitPacketReassembler;
+
+    private QueryStatistics statistics;
+
+    private ConcurrentLinkedQueue<PendingQuery> submittedQueries;
+
+    private LinkedList<PendingQuery> unsentQueries;
+
+    /**
+     * Returns the query engine that is shared by all servers not using an
+     * engine of their own
+     * <p>
+     * The engine is created and started when this method is called for the
+     * first time.
+     *
+     * @return The default query engine
+     * @throws SteamCondenserException if the engine cannot be created
+     */
+    public static synchronized QueryEngine getDefault()
+            throws SteamCondenserException {
+        if(defaultEngine == null || !defaultEngine.isRunning()) {
+            defaultEngine = new QueryEngine();
+            defaultEngine.start();
+        }
+
+        return defaultEngine;
+    }
+
+    /**
+     * Returns the number of times a request is repeated if no reply has been
+     * received in time
+     *
+     * @return The number of retries
+     */
+    public static int getRetries() {
+        return QueryEngine.retries;
+    }
+
+    /**
+     * Sets the number of times a request is repeated if no reply has been
+     * received in time
+     * <p>
+     * The timeout for each attempt is derived from the round trip times
+     * measured for the server and doubled after every timeout.
+     *
+     * @param retries The number of retries
+     * @see RttEstimator
+     */
+    public static void setRetries(int retries) {
+        QueryEngine.retries = retries;
+    }
+
+    /**
+     * Creates a new query engine using a new UDP channel bound to an
+     * ephemeral local port
+     *
+     * @throws SteamCondenserException if the channel cannot be opened
+     */
+    public QueryEngine() throws SteamCondenserException {
+        super("query engine");
+
+        this.buffer = BufferPool.acquire(BufferPool.BUFFER_SIZE);
+        this.deadlines        = new PriorityQueue<PendingQuery>();
+        this.hedges           = new PriorityQueue<PendingQuery>(11, new Comparator<PendingQuery>() {
+            public int compare(PendingQuery query1, PendingQuery query2) {
+                long difference = query1.hedgeTime - query2.hedgeTime;
+
+                return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+            }
+        });
+        this.pacer            = Pacer.getDefault();
+        this.payloadCache     = new PayloadCache(MAX_RTT_ESTIMATORS);
+        this.pendingQueries   = new HashMap<InetSocketAddress, LinkedList<PendingQuery>>();
+        this.rttEstimators    = new LinkedHashMap<InetSocketAddress, RttEstimator>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, RttEstimator> eldest) {
+                return this.size() > MAX_RTT_ESTIMATORS;
+            }
+        };
+        this.splitPacketReassembler = new SplitPacketReassembler();
+        this.splitPacketReassembler.setPayloadCache(this.payloadCache);
+        this.statistics       = new QueryStatistics();
+        this.splitPacketReassembler.setStatistics(this.statistics);
+        this.submittedQueries = new ConcurrentLinkedQueue<PendingQuery>();
+        this.unsentQueries    = new LinkedList<PendingQuery>();
+
+        try {
+            this.channel = DatagramChannel.open();
+            this.channel.configureBlocking(false);
+            this.channel.socket().setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+            this.channel.socket().bind(null);
+            this.selector = Selector.open();
+            this.selectionKey = this.channel.register(this.selector, SelectionKey.OP_READ);
+        } catch(IOException e) {
+            throw new SteamCondenserException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stops the I/O thread of this engine and closes the underlying channel
+     * <p>
+     * All queries that are still pending will fail.
+     */
+    public void close() {
+        this.stop();
+        if(!this.channel.isOpen()) {
+            return;
+        }
+
+        try {
+            this.selector.close();
+            this.channel.close();
+        } catch(IOException e) {}
+        BufferPool.release(this.buffer);
+
+        SteamCondenserException closed = new SteamCondenserException("The query engine has been closed.");
+        PendingQuery query;
+        while((query = this.submittedQueries.poll()) != null) {
+            query.future.fail(closed);
+        }
+        for(PendingQuery pendingQuery : this.deadlines) {
+            pendingQuery.future.fail(closed);
+        }
+        for(PendingQuery unsentQuery : this.unsentQueries) {
+            unsentQuery.future.fail(closed);
+        }
+    }
+
+    /**
+     * Returns the cache used to skip decoding unchanged replies
+     *
+     * @return The payload cache of this engine
+     */
+    public PayloadCache getPayloadCache() {
+        return this.payloadCache;
+    }
+
+    /**
+     * Returns the statistics of the packets sent and received by this engine
+     *
+     * @return The statistics of this engine
+     */
+    public QueryStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Sends the given request to the server at the given address
+     * <p>
+     * The server is expected to use the Source format for split packets.
+     *
+     * @param address The address of the server
+     * @param request The request packet to send
+     * @return The pending reply of the server
+     * @see #query(InetSocketAddress, SteamPacket, boolean)
+     */
+    public QueryFuture<SteamPacket> query(InetSocketAddress address, SteamPacket request) {
+        return this.query(address, request, false);
+    }
+
+    /**
+     * Sends the given request to the server at the given address
+     * <p>
+     * The request is handed over to the I/O thread of this engine, so this
+     * method will never block. The returned future will be completed with
+     * the reply of the server or fail with a {@link TimeoutException} if no
+     * reply has been received in time. The timeout is derived from the round
+     * trip times measured for the server and the request is repeated after
+     * a timeout as configured using {@link #setRetries}.
+     *
+     * @param address The address of the server
+     * @param request The request packet to send
+     * @param goldSrc Whether the server uses the GoldSrc format for split
+     *        packets
+     * @return The pending reply of the server
+     * @see #query(InetSocketAddress, SteamPacket, boolean, int)
+     */
+    public QueryFuture<SteamPacket> query(InetSocketAddress address, SteamPacket request, boolean goldSrc) {
+        return this.query(address, request, goldSrc, QueryEngine.retries);
+    }
+
+    /**
+     * Sends the given request to the server at the given address and repeats
+     * it the given number of times if no reply has been received in time
+     * <p>
+     * The round trip time of the reply is available from the returned
+     * future once it has been completed.
+     *
+     * @param address The address of the server
+     * @param request The request packet to send
+     * @param goldSrc Whether the server uses the GoldSrc format for split
+     *        packets
+     * @param retries The number of retries, <code>0</code> to let the query
+     *        fail after the first timeout
+     * @return The pending reply of the server
+     * @see QueryFuture#getRoundTripTime
+     */
+    public QueryFuture<SteamPacket> query(InetSocketAddress address, SteamPacket request, boolean goldSrc, int retries) {
+        PendingQuery query = new PendingQuery(address, request, goldSrc, retries);
+
+        synchronized(this) {
+            if(!this.isRunning()) {
+                query.future.fail(new SteamCondenserException("The query engine is not running."));
+                return query.future;
+            }
+
+            this.submittedQueries.add(query);
+            this.selector.wakeup();
+        }
+
+        return query.future;
+    }
+
+    /**
+     * Sends the given request to multiple addresses of the same server and
+     * completes with the first reply received
+     * <p>
+     * The request is sent to the first address at once and to each further
+     * address after the given delay, unless a reply has been received
+     * before. Once a reply has been received, the queries to all other
+     * addresses are cancelled. The returned future only fails if the queries
+     * to all addresses failed, in that case with the error of the last one.
+     * <p>
+     * The address that replied is available from the returned future once
+     * it has been completed.
+     *
+     * @param addresses The addresses of the server in the order of
+     *        preference
+     * @param request The request packet to send
+     * @param goldSrc Whether the server uses the GoldSrc format for split
+     *        packets
+     * @param stagger The delay in milliseconds between sending the request to
+     *        successive addresses
+     * @return The pending reply of the server
+     * @see QueryFuture#getAddress
+     */
+    public QueryFuture<SteamPacket> race(List<InetSocketAddress> addresses, SteamPacket request, boolean goldSrc, int stagger) {
+        final QueryFuture<SteamPacket> result = new QueryFuture<SteamPacket>();
+        final List<PendingQuery> queries = new ArrayList<PendingQuery>(addresses.size());
+        final AtomicInteger remaining = new AtomicInteger(addresses.size());
+
+        if(addresses.isEmpty()) {
+            result.fail(new SteamCondenserException("The server has no addresses."));
+            return result;
+        }
+        long now = System.nanoTime();
+        for(int i = 0; i < addresses.size(); i ++) {
+            final PendingQuery query = new PendingQuery(addresses.get(i), request, goldSrc, QueryEngine.retries);
+            query.notBefore = now + TimeUnit.MILLISECONDS.toNanos((long) i * stagger);
+            query.future.addListener(new QueryListener<SteamPacket>() {
+                public void queryCompleted(SteamPacket reply) {
+                    result.setAddress(query.future.getAddress());
+                    result.setRoundTripTime(query.future.getRoundTripTime());
+                    result.set(reply);
+                }
+
+                public void queryFailed(Throwable failure) {
+                    if(remaining.decrementAndGet() == 0) {
+                        result.fail(failure);
+                    }
+                }
+            });
+            queries.add(query);
+        }
+
+        result.addListener(new QueryListener<SteamPacket>() {
+            public void queryCompleted(SteamPacket reply) {
+                cancelQueries();
+            }
+
+            public void queryFailed(Throwable failure) {
+                cancelQueries();
+            }
+
+            private void cancelQueries() {
+                for(PendingQuery query : queries) {
+                    query.future.cancel(false);
+                }
+            }
+        });
+
+        synchronized(this) {
+            if(!this.isRunning()) {
+                result.fail(new SteamCondenserException("The query engine is not running."));
+                return result;
+            }
+
+            this.submittedQueries.addAll(queries);
+            this.selector.wakeup();
+        }
+
+        return result;
+    }
+
+    /**
+     * Enables or disables hedging of requests sent by this engine
+     * <p>
+     * If hedging is enabled, a request that has not been answered within the
+     * 95th percentile of the round trip times measured for the server is
+     * sent again at once instead of waiting for the timeout. Whichever reply
+     * arrives first completes the query. This lowers the tail latency on
+     * lossy paths at the cost of a few additional packets. Requests are only
+     * hedged once enough round trip times have been measured for the server
+     * and while no other query to the same server is pending.
+     * <p>
+     * Hedging is disabled by default.
+     *
+     * @param maxFraction The maximum fraction of hedged requests of all
+     *        packets sent by this engine, e.g. <code>0.05</code> for 5 %, or
+     *        <code>0</code> to disable hedging
+     * @see RttEstimator#getHedgeDelay
+     * @see QueryStatistics#getHedgedRequests
+     */
+    public void setHedging(double maxFraction) {
+        this.hedgeFraction = maxFraction;
+    }
+
+    /**
+     * Sets the pacer limiting the rate of packets sent by this engine
+     * <p>
+     * By default the pacer shared with all query sockets is used.
+     *
+     * @param pacer The pacer to use
+     * @see Pacer#getDefault
+     */
+    public void setPacer(Pacer pacer) {
+        this.pacer = pacer;
+    }
+
+    /**
+     * Runs a single iteration of the I/O loop of this engine
+     * <p>
+     * This repeats or expires queries that did not receive a reply in time,
+     * sends submitted queries and reads all available replies.
+     *
+     * @throws IOException if reading from or writing to the channel fails
+     */
+    @Override
+    protected void runIteration() throws IOException {
+        long now = System.nanoTime();
+        this.expireQueries(now);
+        this.sendHedges(now);
+        this.sendQueries(now);
+        this.splitPacketReassembler.expire();
+
+        long timeout = 0;
+        PendingQuery nextQuery = this.deadlines.peek();
+        if(nextQuery != null) {
+            timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextQuery.deadline - now) + 1);
+        }
+        PendingQuery nextHedge = this.hedges.peek();
+        if(nextHedge != null) {
+            long hedgeTimeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextHedge.hedgeTime - now) + 1);
+            timeout = (timeout == 0) ? hedgeTimeout : Math.min(timeout, hedgeTimeout);
+        }
+        if(this.nextSendTime != 0) {
+            long sendTimeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(this.nextSendTime - now) + 1);
+            timeout = (timeout == 0) ? sendTimeout : Math.min(timeout, sendTimeout);
+        }
+
+        this.selector.select(timeout);
+        this.selector.selectedKeys().clear();
+
+        if(this.selectionKey.isValid()) {
+            this.receiveReplies();
+        }
+    }
+
+    /**
+     * Wakes up the I/O thread of this engine waiting for replies
+     */
+    @Override
+    protected void wakeup() {
+        this.selector.wakeup();
+    }
+
+    /**
+     * Completes a query with the given reply
+     * <p>
+     * Challenge numbers are stored in the shared challenge cache. If an
+     * A2S_PLAYER or A2S_RULES request is answered with a challenge number,
+     * it is sent again with the new challenge number at once instead of
+     * completing the query. This is done only once per query.
+     *
+     * @param query The query that has been answered
+     * @param packet The reply to the query
+     * @see ChallengeCache#getDefault
+     */
+    private void completeQuery(PendingQuery query, SteamPacket packet) {
+        this.statistics.recordReply();
+
+        if(packet instanceof S2C_CHALLENGE_Packet) {
+            int challengeNumber = ((S2C_CHALLENGE_Packet) packet).getChallengeNumber();
+            ChallengeCache.getDefault().put(query.address, challengeNumber);
+
+            if(!query.challenged) {
+                SteamPacket request = null;
+                switch(query.request.getHeader()) {
+                    case SteamPacket.A2S_PLAYER_HEADER:
+                        request = new A2S_PLAYER_Packet(challengeNumber);
+                        break;
+                    case SteamPacket.A2S_RULES_HEADER:
+                        request = new A2S_RULES_Packet(challengeNumber);
+                        break;
+                }
+
+                if(request != null) {
+                    PendingQuery challengedQuery = new PendingQuery(query, request);
+                    challengedQuery.challenged = true;
+                    this.unsentQueries.add(challengedQuery);
+                    return;
+                }
+            }
+        }
+
+        query.future.set(packet);
+    }
+
+    /**
+     * Matches a reply to the oldest pending query sent to the same address
+     * that accepts replies of this type and completes it
+     *
+     * <p>
+     * The reply is decoded directly from the receive buffer unless it is
+     * identical to the last reply of the same type from this server.
+     *
+     * @param address The address the reply was received from
+     * @param now The time the reply has been received in nanoseconds
+     */
+    private void dispatchReply(InetSocketAddress address, long now) {
+        PendingQuery query = this.removePendingQuery(address, this.buffer.get(this.buffer.position()));
+        if(query == null) {
+            return;
+        }
+        this.updateRttEstimation(query, now);
+
+        try {
+            SteamPacket packet = this.payloadCache.getPacket(address, this.buffer);
+            Logger.getLogger("com.github.koraktor.steamcondenser").info("Received reply of type \"" + packet.getClass().getSimpleName() + "\" from " + address);
+            this.completeQuery(query, packet);
+        } catch(RuntimeException e) {
+            query.future.fail(new SteamCondenserException("Invalid reply from " + address + ": " + e, e));
+        } catch(SteamCondenserException e) {
+            query.future.fail(e);
+        }
+    }
+
+    /**
+     * Repeats or lets fail all queries that did not receive a reply until
+     * their deadline
+     * <p>
+     * If parts of a split reply to a query have been received from the
+     * server, the received parts are kept and the query is repeated to
+     * receive the missing parts, even if it has no retries left. This is done
+     * at most twice per query.
+     * <p>
+     * Answered and completed queries are not removed from the deadline
+     * queue when their reply is received, they are skipped here instead.
+     *
+     * @param now The current time in nanoseconds
+     */
+    private void expireQueries(long now) {
+        PendingQuery query;
+        while((query = this.deadlines.peek()) != null &&
+              (query.answered || query.future.isDone() || query.deadline - now <= 0)) {
+            this.deadlines.poll();
+            if(query.answered) {
+                continue;
+            }
+            if(!query.future.isDone()) {
+                this.statistics.recordTimeout();
+                this.getRttEstimator(query.address).backoff();
+                boolean retransmit = query.attempts <= query.retries;
+                if(retransmit || query.splitRetransmissions < MAX_SPLIT_RETRANSMISSIONS) {
+                    long deadline = now + this.getRttEstimator(query.address).getTimeoutNanos();
+                    if(this.splitPacketReassembler.awaitRetransmission(query.address, query.request.getHeader(), deadline) && !retransmit) {
+                        query.splitRetransmissions ++;
+                        retransmit = true;
+                    }
+                }
+                if(retransmit) {
+                    Logger.getLogger("com.github.koraktor.steamcondenser").info("Repeating request of type \"" + query.request.getClass().getSimpleName() + "\" to " + query.address);
+                    this.unsentQueries.add(query);
+                    continue;
+                }
+                this.removePendingQuery(query);
+                query.future.fail(new TimeoutException());
+            } else if(query.future.isCancelled()) {
+                this.removePendingQuery(query);
+            }
+        }
+    }
+
+    /**
+     * Returns the round trip time estimation for the server at the given
+     * address
+     *
+     * @param address The address of the server
+     * @return The round trip time estimation of the server
+     */
+    private RttEstimator getRttEstimator(InetSocketAddress address) {
+        RttEstimator rttEstimator = this.rttEstimators.get(address);
+        if(rttEstimator == null) {
+            rttEstimator = new RttEstimator();
+            this.rttEstimators.put(address, rttEstimator);
+        }
+
+        return rttEstimator;
+    }
+
+    /**
+     * Reads all replies that are currently available from the channel
+     *
+     * @throws IOException if reading from the channel fails
+     */
+    private void receiveReplies() throws IOException {
+        InetSocketAddress address;
+        while(true) {
+            this.buffer.clear();
+            address = (InetSocketAddress) this.channel.receive(this.buffer);
+            if(address == null) {
+                break;
+            }
+            this.buffer.flip();
+            this.statistics.recordPacketReceived(this.buffer.remaining());
+
+            if(this.buffer.remaining() < 5) {
+                continue;
+            }
+
+            long now = System.nanoTime();
+            int packetType = Integer.reverseBytes(this.buffer.getInt());
+            if(packetType == -1) {
+                this.dispatchReply(address, now);
+            } else if(packetType == -2) {
+                this.receiveSplitPacket(address, now);
+            }
+        }
+    }
+
+    /**
+     * Collects a part of a split reply and dispatches the reply once all
+     * parts have been received
+     * <p>
+     * The split packet format is determined by the queries sent to the
+     * address the packet was received from.
+     *
+     * @param address The address the packet was received from
+     * @param now The time the packet has been received in nanoseconds
+     */
+    private void receiveSplitPacket(InetSocketAddress address, long now) {
+        LinkedList<PendingQuery> queries = this.pendingQueries.get(address);
+        if(queries == null) {
+            return;
+        }
+
+        SteamPacket packet;
+        try {
+            long deadline = now + this.getRttEstimator(address).getTimeoutNanos();
+            packet = this.splitPacketReassembler.addPacket(address, this.buffer, queries.getFirst().goldSrc, deadline);
+        } catch(SteamCondenserException e) {
+            Logger.getLogger("com.github.koraktor.steamcondenser").warning("Discarding split reply from " + address + ": " + e.getMessage());
+            return;
+        }
+
+        if(packet != null) {
+            PendingQuery query = this.removePendingQuery(address, packet.getHeader());
+            if(query != null) {
+                this.updateRttEstimation(query, now);
+                this.completeQuery(query, packet);
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest pending query for the given address accepting a
+     * reply with the given header
+     * <p>
+     * Queries that have been completed in the meantime, e.g. because they
+     * have been cancelled by {@link #race}, are removed without accepting the
+     * reply.
+     *
+     * @param address The address of the server
+     * @param header The header byte of the reply
+     * @return The matching query or <code>null</code>
+     */
+    private PendingQuery removePendingQuery(InetSocketAddress address, byte header) {
+        LinkedList<PendingQuery> queries = this.pendingQueries.get(address);
+        if(queries == null) {
+            return null;
+        }
+
+        PendingQuery match = null;
+        Iterator<PendingQuery> iterator = queries.iterator();
+        while(iterator.hasNext()) {
+            PendingQuery query = iterator.next();
+            if(query.future.isDone()) {
+                iterator.remove();
+            } else if(query.accepts(header)) {
+                query.answered = true;
+                iterator.remove();
+                match = query;
+                break;
+            }
+        }
+
+        if(queries.isEmpty()) {
+            this.pendingQueries.remove(address);
+        }
+
+        return match;
+    }
+
+    /**
+     * Removes the given query from the list of pending queries
+     *
+     * @param query The query to remove
+     */
+    private void removePendingQuery(PendingQuery query) {
+        LinkedList<PendingQuery> queries = this.pendingQueries.get(query.address);
+        if(queries != null) {
+            queries.remove(query);
+            if(queries.isEmpty()) {
+                this.pendingQueries.remove(query.address);
+            }
+        }
+    }
+
+    /**
+     * Sends the requests of all queries that did not receive a reply until
+     * their hedge time once more
+     * <p>
+     * Hedges are skipped if they would exceed the configured fraction of
+     * hedged requests or the budget of the pacer, or if other queries to the
+     * same server are pending, as duplicate replies could not be told apart
+     * from their replies.
+     *
+     * @param now The current time in nanoseconds
+     * @throws IOException if writing to the channel fails
+     * @see #setHedging
+     */
+    private void sendHedges(long now) throws IOException {
+        PendingQuery query;
+        while((query = this.hedges.peek()) != null && query.hedgeTime - now <= 0) {
+            this.hedges.poll();
+            if(query.answered || query.future.isDone() || query.attempts != 1) {
+                continue;
+            }
+
+            LinkedList<PendingQuery> queries = this.pendingQueries.get(query.address);
+            if(queries == null || queries.size() > 1 ||
+               !this.statistics.mayHedge(this.hedgeFraction) ||
+               this.pacer.tryAcquire(query.address, now) > 0) {
+                continue;
+            }
+
+            Logger.getLogger("com.github.koraktor.steamcondenser").info("Hedging request of type \"" + query.request.getClass().getSimpleName() + "\" to " + query.address);
+            byte[] data = query.request.getBytes();
+            if(this.channel.send(ByteBuffer.wrap(data), query.address) == 0) {
+                continue;
+            }
+            this.statistics.recordPacketSent(data.length);
+            this.statistics.recordHedgedRequest();
+            query.hedged = true;
+        }
+    }
+
+    /**
+     * Sends all queries that have been submitted since the last iteration
+     * of the I/O loop
+     * <p>
+     * Queries that must not be sent yet or that exceed the budget of the
+     * pacer stay queued and the time when the next one may be sent is
+     * remembered. Queries to other
+     * destinations are still sent unless the global budget is exhausted.
+     *
+     * @param now The current time in nanoseconds
+     * @throws IOException if writing to the channel fails
+     * @see Pacer
+     */
+    private void sendQueries(long now) throws IOException {
+        PendingQuery query;
+        while((query = this.submittedQueries.poll()) != null) {
+            this.unsentQueries.add(query);
+        }
+
+        this.nextSendTime = 0;
+        Iterator<PendingQuery> iterator = this.unsentQueries.iterator();
+        while(iterator.hasNext()) {
+            query = iterator.next();
+            if(query.answered || query.future.isDone()) {
+                iterator.remove();
+                continue;
+            }
+
+            if(query.notBefore - now > 0) {
+                if(this.nextSendTime == 0 || query.notBefore - this.nextSendTime < 0) {
+                    this.nextSendTime = query.notBefore;
+                }
+                continue;
+            }
+
+            long delay = this.pacer.tryAcquire(query.address, now);
+            if(delay > 0) {
+                if(!query.paced) {
+                    query.paced = true;
+                    this.statistics.recordPacedRequest();
+                }
+                if(this.nextSendTime == 0 || now + delay - this.nextSendTime < 0) {
+                    this.nextSendTime = now + delay;
+                }
+                if(this.pacer.getGlobalDelay(now) > 0) {
+                    break;
+                }
+                continue;
+            }
+
+            Logger.getLogger("com.github.koraktor.steamcondenser").info("Sending data packet of type \"" + query.request.getClass().getSimpleName() + "\" to " + query.address);
+            byte[] data = query.request.getBytes();
+            if(this.channel.send(ByteBuffer.wrap(data), query.address) == 0) {
+                this.selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            iterator.remove();
+            this.statistics.recordPacketSent(data.length);
+
+            query.attempts ++;
+            query.deadline = now + this.getRttEstimator(query.address).getTimeoutNanos();
+            query.sendTime = now;
+            if(query.attempts == 1) {
+                LinkedList<PendingQuery> queries = this.pendingQueries.get(query.address);
+                if(queries == null) {
+                    queries = new LinkedList<PendingQuery>();
+                    this.pendingQueries.put(query.address, queries);
+                }
+                queries.add(query);
+
+                if(this.hedgeFraction > 0) {
+                    long hedgeDelay = this.getRttEstimator(query.address).getHedgeDelay();
+                    if(hedgeDelay > 0) {
+                        query.hedgeTime = now + hedgeDelay;
+                        this.hedges.add(query);
+                    }
+                }
+            }
+            this.deadlines.add(query);
+        }
+
+        this.selectionKey.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Records the round trip time of a query and updates the round trip time
+     * estimation of the server it has been sent to
+     * <p>
+     * Replies to repeated or hedged requests are not used, as they cannot be
+     * matched to a single request.
+     *
+     * @param query The query that received a reply
+     * @param now The time the reply has been received in nanoseconds
+     */
+    private void updateRttEstimation(PendingQuery query, long now) {
+        query.future.setAddress(query.address);
+        query.future.setRoundTripTime(now - query.sendTime);
+        if(query.attempts == 1 && !query.hedged) {
+            this.getRttEstimator(query.address).addSample(now - query.sendTime);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+
+/**
+ * This class represents the pending result of a query sent using a
+ * {@link QueryEngine}
+ * <p>
+ * The result is set by the engine's I/O thread once the reply has been
+ * received or the query failed, e.g. because it timed out. Listeners can be
+ * added to process the result asynchronously instead of waiting for it.
+ *
+ * @author Sebastian Staudt
+ * @see QueryEngine#query
+ */
+public class QueryFuture<T> implements Future<T> {
+
+    private InetSocketAddress address;
+
+    private boolean cancelled;
+
+    private boolean done;
+
+    private Throwable failure;
+
+    private List<QueryListener<? super T>> listeners;
+
+    private T result;
+
+    private long roundTripTime = -1;
+
+    /**
+     * Adds a listener that is notified when this query is completed
+     * <p>
+     * If this query has already been completed, the listener is notified
+     * immediately in the current thread.
+     *
+     * @param listener The listener to notify
+     * @return This query
+     */
+    public QueryFuture<T> addListener(QueryListener<? super T> listener) {
+        synchronized(this) {
+            if(!this.done) {
+                if(this.listeners == null) {
+                    this.listeners = new ArrayList<QueryListener<? super T>>(1);
+                }
+                this.listeners.add(listener);
+                return this;
+            }
+        }
+
+        this.notifyListener(listener);
+
+        return this;
+    }
+
+    /**
+     * Cancels this query
+     * <p>
+     * The query will not be completed by the engine anymore. A reply that is
+     * still received from the server will be ignored.
+     *
+     * @param mayInterruptIfRunning This is ignored as there is no thread
+     *        running a query
+     * @return <code>true</code> if the query has been cancelled
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized(this) {
+            if(this.done) {
+                return false;
+            }
+
+            this.cancelled = true;
+            this.done = true;
+            this.notifyAll();
+        }
+
+        this.notifyListeners();
+
+        return true;
+    }
+
+    /**
+     * Marks this query as failed with the given error
+     *
+     * @param failure The error that caused the query to fail
+     * @return <code>true</code> if this query has not been completed before
+     */
+    public boolean fail(Throwable failure) {
+        synchronized(this) {
+            if(this.done) {
+                return false;
+            }
+
+            this.failure = failure;
+            this.done = true;
+            this.notifyAll();
+        }
+
+        this.notifyListeners();
+
+        return true;
+    }
+
+    /**
+     * Waits for the result of this query
+     *
+     * @return The result of the query
+     * @throws ExecutionException if the query failed
+     * @throws InterruptedException if the current thread is interrupted while
+     *         waiting
+     */
+    public synchronized T get()
+            throws ExecutionException, InterruptedException {
+        while(!this.done) {
+            this.wait();
+        }
+
+        return this.getResult();
+    }
+
+    /**
+     * Waits at most the given time for the result of this query
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The time unit of the <code>timeout</code> argument
+     * @return The result of the query
+     * @throws ExecutionException if the query failed
+     * @throws InterruptedException if the current thread is interrupted while
+     *         waiting
+     * @throws TimeoutException if the result is not available in time
+     */
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws ExecutionException, InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while(!this.done) {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+
+        return this.getResult();
+    }
+
+    /**
+     * Waits for the result of this query and unwraps any error into the
+     * exception types used by the blocking API of Steam Condenser
+     *
+     * @return The result of the query
+     * @throws SteamCondenserException if the query failed
+     * @throws TimeoutException if the query timed out
+     */
+    public T getReply()
+            throws SteamCondenserException, TimeoutException {
+        return this.getReply(-1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits at most the given time for the result of this query and unwraps
+     * any error into the exception types used by the blocking API of Steam
+     * Condenser
+     *
+     * @param timeout The maximum time to wait. If it is negative, this waits
+     *        until the query is done.
+     * @param unit The time unit of the <code>timeout</code> argument
+     * @return The result of the query
+     * @throws SteamCondenserException if the query failed
+     * @throws TimeoutException if the query timed out or the result is not
+     *         available in time
+     */
+    public T getReply(long timeout, TimeUnit unit)
+            throws SteamCondenserException, TimeoutException {
+        try {
+            if(timeout < 0) {
+                return this.get();
+            }
+            return this.get(timeout, unit);
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof TimeoutException) {
+                throw (TimeoutException) cause;
+            } else if(cause instanceof SteamCondenserException) {
+                throw (SteamCondenserException) cause;
+            }
+            throw new SteamCondenserException(cause.getMessage(), cause);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SteamCondenserException("Interrupted while waiting for a reply.", e);
+        } catch(CancellationException e) {
+            throw new SteamCondenserException("The query has been cancelled.", e);
+        }
+    }
+
+    /**
+     * Returns the address of the server that sent the reply to this query
+     * <p>
+     * If a query has been sent to multiple addresses of the same server, this
+     * is the address that replied first.
+     *
+     * @return The address of the server or <code>null</code> if no reply has
+     *         been received
+     * @see QueryEngine#race
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return this.address;
+    }
+
+    /**
+     * Returns the time between sending the request and receiving the reply
+     * <p>
+     * The time is taken when the reply is received, so decoding the reply
+     * is not included. If the request had to be repeated, the time is
+     * measured from the last attempt.
+     *
+     * @return The round trip time in nanoseconds or <code>-1</code> if no
+     *         reply has been received
+     */
+    public synchronized long getRoundTripTime() {
+        return this.roundTripTime;
+    }
+
+    /**
+     * Returns whether this query has been cancelled
+     *
+     * @return <code>true</code> if this query has been cancelled
+     */
+    public synchronized boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Returns whether this query has been completed, i.e. it succeeded,
+     * failed or has been cancelled
+     *
+     * @return <code>true</code> if this query is completed
+     */
+    public synchronized boolean isDone() {
+        return this.done;
+    }
+
+    /**
+     * Completes this query with the given result
+     *
+     * @param result The result of the query
+     * @return <code>true</code> if this query has not been completed before
+     */
+    public boolean set(T result) {
+        synchronized(this) {
+            if(this.done) {
+                return false;
+            }
+
+            this.result = result;
+            this.done = true;
+            this.notifyAll();
+        }
+
+        this.notifyListeners();
+
+        return true;
+    }
+
+    /**
+     * Sets the address of the server that sent the reply to this query
+     *
+     * @param address The address of the server
+     */
+    synchronized void setAddress(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Sets the time between sending the request and receiving the reply
+     *
+     * @param roundTripTime The round trip time in nanoseconds
+     */
+    synchronized void setRoundTripTime(long roundTripTime) {
+        this.roundTripTime = roundTripTime;
+    }
+
+    /**
+     * Notifies the given listener about the completion of this query
+     *
+     * @param listener The listener to notify
+     */
+    private void notifyListener(QueryListener<? super T> listener) {
+        try {
+            if(this.cancelled) {
+                listener.queryFailed(new CancellationException());
+            } else if(this.failure != null) {
+                listener.queryFailed(this.failure);
+            } else {
+                listener.queryCompleted(this.result);
+            }
+        } catch(RuntimeException e) {
+            Logger.getLogger("com.github.koraktor.steamcondenser").warning("Query listener failed: " + e);
+        }
+    }
+
+    /**
+     * Notifies all listeners about the completion of this query
+     */
+    private void notifyListeners() {
+        List<QueryListener<? super T>> listeners;
+        synchronized(this) {
+            listeners = this.listeners;
+            this.listeners = null;
+        }
+
+        if(listeners != null) {
+            for(QueryListener<? super T> listener : listeners) {
+                this.notifyListener(listener);
+            }
+        }
+    }
+
+    /**
+     * Returns the result or throws the error of this completed query
+     *
+     * @return The result of the query
+     * @throws ExecutionException if the query failed
+     */
+    private T getResult() throws ExecutionException {
+        if(this.cancelled) {
+            throw new CancellationException();
+        }
+        if(this.failure != null) {
+            throw new ExecutionException(this.failure);
+        }
+
+        return this.result;
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+/**
+ * This interface is implemented by classes that want to be notified when a
+ * {@link QueryFuture} has been completed
+ * <p>
+ * Listeners are usually called by the I/O thread of a {@link QueryEngine}, so
+ * they should never block.
+ *
+ * @author Sebastian Staudt
+ * @see QueryFuture#addListener
+ */
+public interface QueryListener<T> {
+
+    /**
+     * Called when the query has been completed successfully
+     *
+     * @param result The result of the query
+     */
+    public void queryCompleted(T result);
+
+    /**
+     * Called when the query failed or has been cancelled
+     *
+     * @param error The error that caused the query to fail, e.g. a
+     *        {@link java.util.concurrent.TimeoutException}
+     */
+    public void queryFailed(Throwable error);
+}
@@ -11,19 +11,161 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
+import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
 import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
 
 /**
  * This class implements basic functionality for UDP based sockets
+ * <p>
+ * Open query sockets are accounted for by the default {@link SocketBudget},
+ * which may release the channel of a socket that has not been used for some
+ * time. The channel is opened again transparently when it is needed.
+ * <p>
+ * Requests can be hedged using {@link #setHedging}: If no reply has been
+ * received within the 95th percentile of the server's round trip times, the
+ * request is sent once more while still waiting for the reply.
+ * <p>
+ * If parts of a split reply are lost, the request is sent again and the
+ * parts received before are kept, see {@link #receiveSplitPacket}.
+ * <p>
+ * Requests sent by query sockets are not paced by default. Pacing can be
+ * enabled for all query sockets using {@link #setPacer}.
+ * <p>
+ * Query sockets wait for replies using the timeout configured with
+ * {@link SteamSocket#setTimeout}. Timeouts derived from the measured round
+ * trip times can be enabled using {@link #setAdaptiveTimeouts}.
  *
  * @author Sebastian Staudt
  */
 public abstract class QuerySocket extends SteamSocket {
 
+    /**
+     * The maximum number of times a request is sent again because parts of
+     * its split reply have been lost
+     */
+    private static final int MAX_SPLIT_RETRANSMISSIONS = 2;
+
+    private static boolean adaptiveTimeouts;
+
+    private static double hedgeFraction;
+
+    private static Pacer pacer;
+
+    private static QueryStatistics statistics = new QueryStatistics();
+
+    private volatile boolean awaitingReply;
+
+    private boolean hedged;
+
+    private byte[] lastRequest;
+
+    private ReentrantLock lock;
+
+    private PayloadCache payloadCache;
+
+    private long receiveTime;
+
+    private long roundTripTime = -1;
+
+    private RttEstimator rttEstimator;
+
+    private long sendTime;
+
+    private int splitRetransmissions;
+
+    /**
+     * Returns the pacer used by all query sockets
+     *
+     * @return The pacer used by query sockets or <code>null</code> if
+     *         requests are not paced
+     */
+    public static Pacer getPacer() {
+        return QuerySocket.pacer;
+    }
+
+    /**
+     * Returns the statistics of the packets sent and received by all query
+     * sockets
+     *
+     * @return The statistics of all query sockets
+     */
+    public static QueryStatistics getStatistics() {
+        return QuerySocket.statistics;
+    }
+
+    /**
+     * Returns whether query sockets derive their timeouts from the measured
+     * round trip times
+     *
+     * @return <code>true</code> if adaptive timeouts are enabled
+     * @see #setAdaptiveTimeouts
+     */
+    public static boolean isAdaptiveTimeouts() {
+        return QuerySocket.adaptiveTimeouts;
+    }
+
+    /**
+     * Enables or disables timeouts derived from the round trip times measured
+     * for each server
+     * <p>
+     * If enabled, query sockets wait for a reply only as long as the round
+     * trip times of the server suggest, see {@link RttEstimator}. The
+     * configured socket timeout is then only used until the first reply of a
+     * server has been received. Sockets used to communicate with master
+     * servers always use the configured timeout.
+     * <p>
+     * Adaptive timeouts are disabled by default.
+     *
+     * @param adaptiveTimeouts <code>true</code> to enable adaptive timeouts
+     * @see RttEstimator#setMinTimeout
+     */
+    public static void setAdaptiveTimeouts(boolean adaptiveTimeouts) {
+        QuerySocket.adaptiveTimeouts = adaptiveTimeouts;
+    }
+
+    /**
+     * Enables or disables hedging of requests sent by query sockets
+     * <p>
+     * If hedging is enabled, a request that has not been answered within the
+     * 95th percentile of the round trip times measured for the server is
+     * sent again while waiting for the reply. This lowers the tail latency
+     * on lossy paths at the cost of a few additional packets. Only single
+     * requests are hedged, not multiple requests sent before receiving the
+     * replies.
+     * <p>
+     * Hedging is disabled by default.
+     *
+     * @param maxFraction The maximum fraction of hedged requests of all
+     *        packets sent by query sockets, e.g. <code>0.05</code> for 5 %,
+     *        or <code>0</code> to disable hedging
+     * @see RttEstimator#getHedgeDelay
+     * @see QueryStatistics#getHedgedRequests
+     */
+    public static void setHedging(double maxFraction) {
+        QuerySocket.hedgeFraction = maxFraction;
+    }
+
+    /**
+     * Sets the pacer used by all query sockets
+     * <p>
+     * If a pacer is set, sending a request waits until the budgets of the
+     * pacer allow it. Requests are not paced by default, use
+     * {@link Pacer#getDefault} to share the budgets of the query engines.
+     *
+     * @param pacer The pacer to use or <code>null</code> to send requests
+     *        without pacing
+     */
+    public static void setPacer(Pacer pacer) {
+        QuerySocket.pacer = pacer;
+    }
+
     /**
      * Creates a new socket to communicate with the server on the given IP
      * address and port
@@ -36,13 +178,173 @@ public abstract class QuerySocket extends SteamSocket {
             throws  SteamCondenserException {
         super(ipAddress, portNumber);
 
+        this.lock         = new ReentrantLock();
+        this.payloadCache = new PayloadCache(4);
+        this.rttEstimator = new RttEstimator();
+    }
+
+    /**
+     * Closes the underlying socket and releases its buffer
+     *
+     * @see SteamSocket#close
+     */
+    @Override
+    public void close() {
+        this.lock.lock();
         try {
-            this.channel = DatagramChannel.open();
-            this.channel.configureBlocking(false);
-            ((DatagramChannel) this.channel).connect(this.remoteSocket);
+            super.close();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the cache used to skip decoding unchanged replies of the
+     * server this socket is connected to
+     *
+     * @return The payload cache of this socket
+     */
+    public PayloadCache getPayloadCache() {
+        return this.payloadCache;
+    }
+
+    /**
+     * Returns the time between sending the last request and receiving the
+     * first packet of its reply
+     * <p>
+     * The time is taken when the packet is received, so decoding the reply is
+     * not included.
+     *
+     * @return The round trip time in nanoseconds or <code>-1</code> if no
+     *         reply has been received
+     */
+    public long getRoundTripTime() {
+        return this.roundTripTime;
+    }
+
+    /**
+     * Returns the time the last packet has been received by this socket
+     * <p>
+     * The time is taken when the packet is read from the socket, so decoding
+     * the reply is not included.
+     *
+     * @return The time the last packet has been received in nanoseconds, see
+     *         {@link System#nanoTime}, or <code>0</code> if no packet has been
+     *         received
+     */
+    public long getReceiveTime() {
+        return this.receiveTime;
+    }
+
+    /**
+     * Returns the round trip time estimation for the server this socket is
+     * connected to
+     *
+     * @return The round trip time estimation of this socket
+     */
+    public RttEstimator getRttEstimator() {
+        return this.rttEstimator;
+    }
+
+    /**
+     * Marks the reply to the last request as received or timed out
+     * <p>
+     * Subclasses call this when {@link #getReply} returns or fails, so the
+     * socket budget may release the channel of this socket again.
+     *
+     * @see #release
+     */
+    protected void finishReply() {
+        this.awaitingReply = false;
+        SocketBudget.getDefault().touch(this);
+    }
+
+    /**
+     * Returns the packet for the reply in the buffer
+     * <p>
+     * If the reply is identical to the last reply of the same type, the
+     * packet decoded before is returned.
+     *
+     * @return The packet object of the reply
+     * @throws PacketFormatException if the reply cannot be decoded
+     * @see PayloadCache#getPacket
+     */
+    @Override
+    protected SteamPacket getPacketFromData() throws PacketFormatException {
+        return this.payloadCache.getPacket(this.remoteSocket, this.buffer);
+    }
+
+    /**
+     * Returns the time to wait for a reply from the server
+     * <p>
+     * If adaptive timeouts are enabled, this is the timeout derived from the
+     * round trip times measured for the server this socket is connected to,
+     * otherwise the configured socket timeout.
+     *
+     * @return The timeout in milliseconds
+     * @see #isRttBound
+     * @see #setAdaptiveTimeouts
+     * @see RttEstimator#getTimeout
+     */
+    @Override
+    protected int getReceiveTimeout() {
+        if(QuerySocket.adaptiveTimeouts && this.isRttBound()) {
+            return this.rttEstimator.getTimeout();
+        }
+
+        return super.getReceiveTimeout();
+    }
+
+    /**
+     * Returns whether the time until a reply of the server arrives is
+     * bound by the round trip time
+     * <p>
+     * Only then timeouts are derived from the round trip times and requests
+     * are hedged. This is the case for game servers, but not e.g. for master
+     * servers that need some time to compile their replies.
+     *
+     * @return <code>true</code> if replies arrive within the round trip time
+     */
+    protected boolean isRttBound() {
+        return true;
+    }
+
+    /**
+     * Returns the time after which an incomplete split reply is discarded if
+     * no further part is received
+     * <p>
+     * This uses the current timeout of the server, so it follows both
+     * changes of the socket timeout and the measured round trip times.
+     *
+     * @return The deadline in nanoseconds
+     * @see SplitPacketReassembler#addPacket
+     */
+    protected long getSplitPacketDeadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.getReceiveTimeout());
+    }
+
+    /**
+     * Opens a new UDP channel connected to the server and registers it with
+     * the default socket budget
+     *
+     * @return The new channel
+     * @throws IOException if the channel cannot be opened
+     * @see SocketBudget#getDefault
+     */
+    @Override
+    protected SelectableChannel openChannel() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.connect(this.remoteSocket);
         } catch(IOException e) {
-            throw new SteamCondenserException(e.getMessage(), e);
+            channel.close();
+            throw e;
         }
+
+        SocketBudget.getDefault().add(this);
+
+        return channel;
     }
 
     /**
@@ -67,8 +369,100 @@ public abstract class QuerySocket extends SteamSocket {
         return this.receivePacket(0);
     }
 
+    /**
+     * Reads an UDP packet into the buffer
+     * <p>
+     * The first packet received after sending a request is used to update
+     * the round trip time estimation unless the request has been hedged, a
+     * timeout will increase the timeout for the next request.
+     *
+     * @param bufferLength The data length to read from the socket
+     * @return The number of bytes received
+     * @throws SteamCondenserException if an error occurs while reading from
+     *         the socket
+     * @throws TimeoutException if no UDP packet was received
+     */
+    @Override
+    protected int receivePacket(int bufferLength)
+            throws SteamCondenserException, TimeoutException {
+        int bytesRead;
+        this.lock.lock();
+        try {
+            if(this.sendTime != 0 && this.lastRequest != null && !this.hedged &&
+               QuerySocket.hedgeFraction > 0 && this.isRttBound()) {
+                this.hedge();
+            }
+            bytesRead = super.receivePacket(bufferLength);
+            this.receiveTime = System.nanoTime();
+        } catch(TimeoutException e) {
+            QuerySocket.statistics.recordTimeout();
+            this.rttEstimator.backoff();
+            this.roundTripTime = -1;
+            this.sendTime = 0;
+            throw e;
+        } finally {
+            SocketBudget.getDefault().touch(this);
+            this.lock.unlock();
+        }
+
+        QuerySocket.statistics.recordPacketReceived(bytesRead);
+        if(this.sendTime != 0) {
+            QuerySocket.statistics.recordReply();
+            this.roundTripTime = this.receiveTime - this.sendTime;
+            if(!this.hedged) {
+                this.rttEstimator.addSample(this.roundTripTime);
+            }
+            this.sendTime = 0;
+        }
+
+        return bytesRead;
+    }
+
+    /**
+     * Reads the next part of a split reply into the buffer
+     * <p>
+     * If no part is received in time, the last request is sent again and
+     * the parts received before are kept by the given reassembler, so the
+     * retransmitted parts fill the gaps. This is done at most twice per
+     * request and only if a single request has been sent.
+     *
+     * @param reassembler The reassembler holding the parts received before
+     * @return The number of bytes received
+     * @throws SteamCondenserException if an error occurs while communicating
+     *         with the server
+     * @throws TimeoutException if no part was received after the last
+     *         retransmission
+     * @see SplitPacketReassembler#awaitRetransmission
+     */
+    protected int receiveSplitPacket(SplitPacketReassembler reassembler)
+            throws SteamCondenserException, TimeoutException {
+        while(true) {
+            try {
+                return this.receivePacket();
+            } catch(TimeoutException e) {
+                if(this.lastRequest == null ||
+                   this.splitRetransmissions >= MAX_SPLIT_RETRANSMISSIONS ||
+                   !reassembler.awaitRetransmission(this.remoteSocket, this.lastRequest[4], this.getSplitPacketDeadline())) {
+                    throw e;
+                }
+                this.splitRetransmissions ++;
+                this.resendLastRequest();
+            }
+        }
+    }
+
     /**
      * Sends the given packet to the server
+     * <p>
+     * If pacing is enabled and sending the packet now would exceed the budget
+     * of the pacer, this waits until the packet may be sent. The socket is
+     * not locked while waiting. Duplicate replies to a previously hedged or
+     * repeated request are discarded first.
+     * <p>
+     * The channel of this socket is not released by the socket budget until
+     * the reply has been received or timed out, see {@link #finishReply}.
+     *
+     * @see #setPacer
      *
      * @param dataPacket The packet to send to the server
      * @throws SteamCondenserException if an error occurs while writing to the
@@ -78,12 +472,189 @@ public abstract class QuerySocket extends SteamSocket {
             throws SteamCondenserException {
         Logger.getLogger("com.github.koraktor.steamcondenser").info("Sending data packet of type \"" + dataPacket.getClass().getSimpleName() + "\"");
 
+        this.pace();
+
+        this.lock.lock();
+        try {
+            if(this.sendTime == 0 && (this.hedged || this.splitRetransmissions > 0)) {
+                this.discardPackets();
+            }
+
+            byte[] data = dataPacket.getBytes();
+            ((DatagramChannel) this.getChannel()).send(ByteBuffer.wrap(data), this.remoteSocket);
+            QuerySocket.statistics.recordPacketSent(data.length);
+            this.awaitingReply = true;
+            if(this.sendTime == 0) {
+                this.hedged               = false;
+                this.lastRequest          = data;
+                this.sendTime             = System.nanoTime();
+                this.splitRetransmissions = 0;
+            } else {
+                this.lastRequest = null;
+            }
+        } catch(IOException e) {
+            throw new SteamCondenserException(e.getMessage(), e);
+        } finally {
+            SocketBudget.getDefault().touch(this);
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the channel of this socket unless it is in use at the moment
+     * <p>
+     * A socket is in use while it is sending or receiving and while it is
+     * waiting for the reply to a request, as releasing the channel would
+     * lose the reply. This is called by the socket budget for sockets that
+     * have not been used for some time.
+     *
+     * @return <code>true</code> if the channel has been released
+     * @see SocketBudget
+     */
+    boolean release() {
+        if(!this.lock.tryLock()) {
+            return false;
+        }
+
+        try {
+            if(this.awaitingReply) {
+                return false;
+            }
+            this.releaseChannel();
+        } finally {
+            this.lock.unlock();
+        }
+
+        return true;
+    }
+
+    /**
+     * Closes the underlying channel and unregisters it from the default
+     * socket budget
+     *
+     * @see SocketBudget#remove
+     */
+    @Override
+    protected void releaseChannel() {
+        if(this.isOpen()) {
+            SocketBudget.getDefault().remove(this);
+        }
+
+        super.releaseChannel();
+    }
+
+    /**
+     * Discards all packets that are currently available from the channel
+     * <p>
+     * This removes duplicate replies to a hedged or repeated request, so they
+     * are not mistaken for the reply to the next request.
+     *
+     * @throws IOException if reading from the channel fails
+     * @throws SteamCondenserException if the channel cannot be opened
+     */
+    private void discardPackets()
+            throws IOException, SteamCondenserException {
+        DatagramChannel channel = (DatagramChannel) this.getChannel();
+        ByteBuffer discardBuffer = BufferPool.acquire(BufferPool.BUFFER_SIZE);
+        try {
+            discardBuffer.clear();
+            while(channel.read(discardBuffer) > 0) {
+                discardBuffer.clear();
+            }
+        } finally {
+            BufferPool.release(discardBuffer);
+        }
+    }
+
+    /**
+     * Waits for the reply to the last request until its hedge delay elapsed
+     * and sends the request once more if no reply has been received
+     * <p>
+     * The request is not hedged if there are not enough round trip times
+     * measured yet or if hedging would exceed the configured fraction of
+     * hedged requests or the budget of the pacer.
+     *
+     * @throws SteamCondenserException if an error occurs while communicating
+     *         with the server
+     * @see RttEstimator#getHedgeDelay
+     */
+    private void hedge() throws SteamCondenserException {
+        long hedgeDelay = this.rttEstimator.getHedgeDelay();
+        if(hedgeDelay == 0) {
+            return;
+        }
+
+        try {
+            long remaining = this.sendTime + hedgeDelay - System.nanoTime();
+            if(remaining > 0 && this.waitForPacket(TimeUnit.NANOSECONDS.toMillis(remaining))) {
+                return;
+            }
+            Pacer pacer = QuerySocket.pacer;
+            if(!QuerySocket.statistics.mayHedge(QuerySocket.hedgeFraction) ||
+               (pacer != null && pacer.tryAcquire(this.remoteSocket, System.nanoTime()) > 0)) {
+                return;
+            }
+
+            Logger.getLogger("com.github.koraktor.steamcondenser").info("Hedging request to " + this.remoteSocket);
+            ((DatagramChannel) this.getChannel()).send(ByteBuffer.wrap(this.lastRequest), this.remoteSocket);
+        } catch(IOException e) {
+            throw new SteamCondenserException(e.getMessage(), e);
+        }
+
+        QuerySocket.statistics.recordPacketSent(this.lastRequest.length);
+        QuerySocket.statistics.recordHedgedRequest();
+        this.hedged = true;
+    }
+
+    /**
+     * Waits until the pacer allows to send a packet to the server
+     * <p>
+     * This returns immediately if pacing is disabled.
+     *
+     * @throws SteamCondenserException if the current thread is interrupted
+     *         while waiting
+     * @see #setPacer
+     */
+    private void pace() throws SteamCondenserException {
+        Pacer pacer = QuerySocket.pacer;
+        if(pacer == null) {
+            return;
+        }
+
+        try {
+            if(pacer.tryAcquire(this.remoteSocket, System.nanoTime()) > 0) {
+                QuerySocket.statistics.recordPacedRequest();
+                pacer.acquire(this.remoteSocket);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SteamCondenserException("Interrupted while waiting to send a packet.", e);
+        }
+    }
+
+    /**
+     * Sends the last request to the server again
+     * <p>
+     * The request is not used to measure the round trip time, as the reply
+     * cannot be matched to a single request.
+     *
+     * @throws SteamCondenserException if an error occurs while writing to the
+     *         socket
+     */
+    private void resendLastRequest() throws SteamCondenserException {
+        Logger.getLogger("com.github.koraktor.steamcondenser").info("Repeating request to " + this.remoteSocket + " to receive missing parts of the split reply");
+
+        this.pace();
+
+        this.lock.lock();
         try {
-            this.buffer = ByteBuffer.wrap(dataPacket.getBytes());
-            ((DatagramChannel) this.channel).send(this.buffer, this.remoteSocket);
-            this.buffer.flip();
+            ((DatagramChannel) this.getChannel()).send(ByteBuffer.wrap(this.lastRequest), this.remoteSocket);
+            QuerySocket.statistics.recordPacketSent(this.lastRequest.length);
         } catch(IOException e) {
             throw new SteamCondenserException(e.getMessage(), e);
+        } finally {
+            SocketBudget.getDefault().touch(this);
+            this.lock.unlock();
         }
     }
 }
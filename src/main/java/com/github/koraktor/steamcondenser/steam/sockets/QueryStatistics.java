@@ -0,0 +1,295 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class counts the packets sent and received by query sockets or a
+ * query engine
+ * <p>
+ * The counters can be used to tune the limits of the {@link Pacer}: A rising
+ * loss rate usually means that packets are sent faster than the network or
+ * the servers can handle them.
+ *
+ * @author Sebastian Staudt
+ * @see QueryEngine#getStatistics
+ * @see QuerySocket#getStatistics
+ */
+public class QueryStatistics {
+
+    private AtomicLong bytesReceived = new AtomicLong();
+
+    private AtomicLong bytesSent = new AtomicLong();
+
+    private AtomicLong hedgedRequests = new AtomicLong();
+
+    private AtomicLong packetsReceived = new AtomicLong();
+
+    private AtomicLong packetsSent = new AtomicLong();
+
+    private AtomicLong pacedRequests = new AtomicLong();
+
+    private AtomicLong recoveredSplitReplies = new AtomicLong();
+
+    private AtomicLong replies = new AtomicLong();
+
+    private AtomicLong splitRetransmissions = new AtomicLong();
+
+    private volatile long startTime = System.nanoTime();
+
+    private AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * Returns the number of bytes received
+     *
+     * @return The number of bytes received
+     */
+    public long getBytesReceived() {
+        return this.bytesReceived.get();
+    }
+
+    /**
+     * Returns the number of bytes sent
+     *
+     * @return The number of bytes sent
+     */
+    public long getBytesSent() {
+        return this.bytesSent.get();
+    }
+
+    /**
+     * Returns the number of requests that have been sent again because no
+     * reply has been received within the usual round trip time
+     *
+     * @return The number of hedged requests
+     */
+    public long getHedgedRequests() {
+        return this.hedgedRequests.get();
+    }
+
+    /**
+     * Returns the ratio of requests that timed out to all requests that have
+     * been answered or timed out
+     *
+     * @return The loss rate between <code>0</code> and <code>1</code>
+     */
+    public double getLossRate() {
+        long timeouts = this.timeouts.get();
+        long total = timeouts + this.replies.get();
+        if(total == 0) {
+            return 0;
+        }
+
+        return (double) timeouts / total;
+    }
+
+    /**
+     * Returns the number of requests that have been delayed to stay within
+     * the budget of the pacer
+     *
+     * @return The number of delayed requests
+     */
+    public long getPacedRequests() {
+        return this.pacedRequests.get();
+    }
+
+    /**
+     * Returns the number of packets received
+     *
+     * @return The number of packets received
+     */
+    public long getPacketsReceived() {
+        return this.packetsReceived.get();
+    }
+
+    /**
+     * Returns the number of packets sent
+     *
+     * @return The number of packets sent
+     */
+    public long getPacketsSent() {
+        return this.packetsSent.get();
+    }
+
+    /**
+     * Returns the average number of packets received per second since these
+     * statistics have been reset
+     *
+     * @return The receive rate in packets per second
+     */
+    public double getReceiveRate() {
+        return this.packetsReceived.get() / this.getElapsedSeconds();
+    }
+
+    /**
+     * Returns the number of split replies that have been completed using
+     * retransmitted parts
+     *
+     * @return The number of recovered split replies
+     */
+    public long getRecoveredSplitReplies() {
+        return this.recoveredSplitReplies.get();
+    }
+
+    /**
+     * Returns the number of requests that have been answered
+     *
+     * @return The number of replies
+     */
+    public long getReplies() {
+        return this.replies.get();
+    }
+
+    /**
+     * Returns the average number of packets sent per second since these
+     * statistics have been reset
+     *
+     * @return The send rate in packets per second
+     */
+    public double getSendRate() {
+        return this.packetsSent.get() / this.getElapsedSeconds();
+    }
+
+    /**
+     * Returns the number of requests that have been sent again because
+     * parts of a split reply have been lost
+     *
+     * @return The number of split reply retransmissions
+     */
+    public long getSplitRetransmissions() {
+        return this.splitRetransmissions.get();
+    }
+
+    /**
+     * Returns the number of requests that timed out
+     *
+     * @return The number of timeouts
+     */
+    public long getTimeouts() {
+        return this.timeouts.get();
+    }
+
+    /**
+     * Returns whether another request may be hedged without exceeding the
+     * given fraction of all packets sent
+     *
+     * @param maxFraction The maximum fraction of hedged requests, e.g.
+     *        <code>0.05</code> for 5 %
+     * @return <code>true</code> if another request may be hedged
+     */
+    public boolean mayHedge(double maxFraction) {
+        return this.hedgedRequests.get() + 1 <= maxFraction * (this.packetsSent.get() + 1);
+    }
+
+    /**
+     * Records a request that has been hedged
+     * <p>
+     * Hedged requests have to be recorded as sent packets, too.
+     */
+    public void recordHedgedRequest() {
+        this.hedgedRequests.incrementAndGet();
+    }
+
+    /**
+     * Records a request that has been delayed by the pacer
+     */
+    public void recordPacedRequest() {
+        this.pacedRequests.incrementAndGet();
+    }
+
+    /**
+     * Records a received packet
+     *
+     * @param bytes The size of the packet
+     */
+    public void recordPacketReceived(int bytes) {
+        this.bytesReceived.addAndGet(bytes);
+        this.packetsReceived.incrementAndGet();
+    }
+
+    /**
+     * Records a sent packet
+     *
+     * @param bytes The size of the packet
+     */
+    public void recordPacketSent(int bytes) {
+        this.bytesSent.addAndGet(bytes);
+        this.packetsSent.incrementAndGet();
+    }
+
+    /**
+     * Records a split reply that has been completed using retransmitted parts
+     */
+    public void recordRecoveredSplitReply() {
+        this.recoveredSplitReplies.incrementAndGet();
+    }
+
+    /**
+     * Records an answered request
+     */
+    public void recordReply() {
+        this.replies.incrementAndGet();
+    }
+
+    /**
+     * Records a request that has been sent again because parts of its split
+     * reply have been lost
+     */
+    public void recordSplitRetransmission() {
+        this.splitRetransmissions.incrementAndGet();
+    }
+
+    /**
+     * Records a request that timed out
+     */
+    public void recordTimeout() {
+        this.timeouts.incrementAndGet();
+    }
+
+    /**
+     * Resets all counters
+     */
+    public void reset() {
+        this.bytesReceived.set(0);
+        this.bytesSent.set(0);
+        this.hedgedRequests.set(0);
+        this.packetsReceived.set(0);
+        this.packetsSent.set(0);
+        this.pacedRequests.set(0);
+        this.recoveredSplitReplies.set(0);
+        this.replies.set(0);
+        this.splitRetransmissions.set(0);
+        this.timeouts.set(0);
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Returns a human-readable summary of these statistics
+     *
+     * @return The counters and rates of these statistics
+     */
+    @Override
+    public String toString() {
+        return String.format("sent: %d packets (%.1f/s), received: %d packets (%.1f/s), replies: %d, timeouts: %d (%.1f %% loss), paced: %d, hedged: %d, split retransmissions: %d (%d recovered)",
+            this.getPacketsSent(), this.getSendRate(), this.getPacketsReceived(),
+            this.getReceiveRate(), this.getReplies(), this.getTimeouts(),
+            this.getLossRate() * 100, this.getPacedRequests(),
+            this.getHedgedRequests(), this.getSplitRetransmissions(),
+            this.getRecoveredSplitReplies());
+    }
+
+    /**
+     * Returns the time since these statistics have been reset
+     *
+     * @return The elapsed time in seconds
+     */
+    private double getElapsedSeconds() {
+        return Math.max(1, System.nanoTime() - this.startTime) / 1e9;
+    }
+}
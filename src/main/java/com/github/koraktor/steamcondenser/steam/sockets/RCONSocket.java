@@ -10,9 +10,8 @@ package com.github.koraktor.steamcondenser.steam.sockets;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.TimeoutException;
 
 import com.github.koraktor.steamcondenser.exceptions.RCONBanException;
@@ -34,6 +33,8 @@ public class RCONSocket extends SteamSocket {
     /**
      * Creates a new TCP socket to communicate with the server on the given IP
      * address and port
+     * <p>
+     * The TCP connection is established when the first packet is sent.
      *
      * @param ipAddress Either the IP address or the DNS name of the server
      * @param portNumber The port the server is listening on
@@ -42,24 +43,20 @@ public class RCONSocket extends SteamSocket {
     public RCONSocket(InetAddress ipAddress, int portNumber)
             throws SteamCondenserException {
         super(ipAddress, portNumber);
-
-        try {
-            this.channel = SocketChannel.open();
-        } catch(IOException e) {
-            throw new SteamCondenserException(e.getMessage(), e);
-        }
     }
 
     /**
-     * Closes the underlying TCP socket if it is connected
+     * Opens a new TCP channel
+     * <p>
+     * RCON sockets are not accounted for by the socket budget, because
+     * releasing the connection would lose its authentication.
      *
-     * @see SteamSocket#close
+     * @return The new channel
+     * @throws IOException if the channel cannot be opened
      */
     @Override
-    public void close() {
-        if(((SocketChannel)this.channel).isConnected()) {
-            super.close();
-        }
+    protected SelectableChannel openChannel() throws IOException {
+        return SocketChannel.open();
     }
 
     /**
@@ -72,13 +69,13 @@ public class RCONSocket extends SteamSocket {
     public void send(RCONPacket dataPacket)
             throws SteamCondenserException {
         try {
-            if(!((SocketChannel)this.channel).isConnected()) {
-                ((SocketChannel)this.channel).connect(this.remoteSocket);
-                this.channel.configureBlocking(false);
+            SocketChannel channel = (SocketChannel) this.getChannel();
+            if(!channel.isConnected()) {
+                channel.connect(this.remoteSocket);
+                channel.configureBlocking(false);
             }
 
-            this.buffer = ByteBuffer.wrap(dataPacket.getBytes());
-            ((SocketChannel)this.channel).write(this.buffer);
+            channel.write(ByteBuffer.wrap(dataPacket.getBytes()));
         } catch(IOException e) {
             throw new SteamCondenserException(e.getMessage(), e);
         }
@@ -106,24 +103,16 @@ public class RCONSocket extends SteamSocket {
         int packetSize = Integer.reverseBytes(this.buffer.getInt());
         int remainingBytes = packetSize;
 
-        byte[] packetData;
-        List<Byte> packetDataList = new ArrayList<Byte>();
+        byte[] packetData = new byte[packetSize];
         int receivedBytes;
         do {
             receivedBytes = this.receivePacket(remainingBytes);
-
-            packetData = this.buffer.array();
-            for(int i = 0; i < this.buffer.limit(); i ++){
-                packetDataList.add(packetData[i]);
+            if(receivedBytes > 0) {
+                this.buffer.get(packetData, packetSize - remainingBytes, receivedBytes);
+                remainingBytes -= receivedBytes;
             }
-            remainingBytes -= receivedBytes;
         } while(remainingBytes > 0);
 
-        packetData = new byte[packetDataList.size()];
-        for(int i = 0; i < packetData.length; i ++) {
-            packetData[i] = packetDataList.get(i);
-        }
-
         return RCONPacketFactory.getPacketFromData(packetData);
     }
 }
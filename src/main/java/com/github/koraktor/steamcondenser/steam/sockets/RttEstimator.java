@@ -0,0 +1,224 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class estimates the round trip time to a single server and derives
+ * the timeout for requests sent to it
+ * <p>
+ * The estimation follows the retransmission timer of TCP (RFC 6298): Every
+ * reply updates the smoothed round trip time and its variation, the timeout
+ * is the smoothed round trip time plus four times the variation. Timeouts
+ * double the current timeout until a new sample is available. Replies to
+ * requests that have been sent more than once should not be used as samples
+ * as they cannot be matched to a single request (Karn's algorithm).
+ * <p>
+ * Additionally, the 95th percentile of the round trip time is estimated using
+ * a streaming quantile estimator, i.e. it is moved up by a large step for
+ * every sample above and down by a small step for every sample below the
+ * estimate. This is used to decide when a request is hedged.
+ * <p>
+ * Until the first reply has been received, the timeout configured using
+ * {@link SteamSocket#setTimeout} is used. Every timeout is limited by the
+ * floor and ceiling set using {@link #setMinTimeout} and {@link
+ * #setMaxTimeout}. Query sockets only use these timeouts if enabled using
+ * {@link QuerySocket#setAdaptiveTimeouts}.
+ *
+ * @author Sebastian Staudt
+ */
+public class RttEstimator {
+
+    /**
+     * The clock granularity used as the minimum variation added to the
+     * smoothed round trip time
+     */
+    private static final long GRANULARITY = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The number of samples needed before requests are hedged
+     */
+    private static final int MIN_HEDGE_SAMPLES = 8;
+
+    private static int maxTimeout = 5000;
+
+    private static int minTimeout = 200;
+
+    private long rtt95;
+
+    private long rttVariation;
+
+    private int sampleCount;
+
+    private long smoothedRtt;
+
+    private long timeout;
+
+    /**
+     * Returns the maximum timeout for requests
+     *
+     * @return The maximum timeout in milliseconds
+     */
+    public static int getMaxTimeout() {
+        return RttEstimator.maxTimeout;
+    }
+
+    /**
+     * Returns the minimum timeout for requests
+     *
+     * @return The minimum timeout in milliseconds
+     */
+    public static int getMinTimeout() {
+        return RttEstimator.minTimeout;
+    }
+
+    /**
+     * Sets the maximum timeout for requests
+     * <p>
+     * This limits the timeout for servers with a high or unstable latency
+     * and the exponential backoff after timeouts.
+     *
+     * @param maxTimeout The maximum timeout in milliseconds
+     */
+    public static void setMaxTimeout(int maxTimeout) {
+        RttEstimator.maxTimeout = maxTimeout;
+    }
+
+    /**
+     * Sets the minimum timeout for requests
+     * <p>
+     * This prevents spurious timeouts for servers with a very low latency,
+     * e.g. in the local network.
+     *
+     * @param minTimeout The minimum timeout in milliseconds
+     */
+    public static void setMinTimeout(int minTimeout) {
+        RttEstimator.minTimeout = minTimeout;
+    }
+
+    /**
+     * Creates a new estimator without any samples
+     */
+    public RttEstimator() {
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(SteamSocket.getTimeout());
+    }
+
+    /**
+     * Updates the estimation with the round trip time of a reply
+     *
+     * @param rtt The time between sending the request and receiving the
+     *        reply in nanoseconds
+     */
+    public synchronized void addSample(long rtt) {
+        if(this.sampleCount == 0) {
+            this.smoothedRtt  = rtt;
+            this.rttVariation = rtt / 2;
+            this.rtt95        = rtt + this.rttVariation;
+        } else {
+            this.rttVariation = (3 * this.rttVariation + Math.abs(this.smoothedRtt - rtt)) / 4;
+            this.smoothedRtt  = (7 * this.smoothedRtt + rtt) / 8;
+
+            long step = Math.max(GRANULARITY, this.rttVariation) / 20;
+            if(rtt > this.rtt95) {
+                this.rtt95 += 19 * step;
+            } else {
+                this.rtt95 = Math.max(this.rtt95 - step, 0);
+            }
+        }
+        this.sampleCount ++;
+
+        this.timeout = this.smoothedRtt + Math.max(GRANULARITY, 4 * this.rttVariation);
+    }
+
+    /**
+     * Doubles the timeout after a request timed out
+     */
+    public synchronized void backoff() {
+        this.timeout = Math.min(this.getTimeoutNanos() * 2, TimeUnit.MILLISECONDS.toNanos(RttEstimator.maxTimeout));
+    }
+
+    /**
+     * Returns the time after which a request should be hedged, i.e. sent
+     * again without waiting for the timeout
+     * <p>
+     * This is the estimated 95th percentile of the round trip time. Requests
+     * are only hedged once enough replies have been received and if the
+     * percentile is below the current timeout.
+     *
+     * @return The hedge delay in nanoseconds or <code>0</code> if requests
+     *         should not be hedged
+     */
+    public synchronized long getHedgeDelay() {
+        if(this.sampleCount < MIN_HEDGE_SAMPLES || this.rtt95 >= this.getTimeoutNanos()) {
+            return 0;
+        }
+
+        return Math.max(this.rtt95, GRANULARITY);
+    }
+
+    /**
+     * Returns the estimated 95th percentile of the round trip time
+     *
+     * @return The 95th percentile of the round trip time in nanoseconds or
+     *         <code>0</code> if no reply has been received yet
+     */
+    public synchronized long getRtt95() {
+        return this.rtt95;
+    }
+
+    /**
+     * Returns the variation of the round trip time
+     *
+     * @return The round trip time variation in nanoseconds
+     */
+    public synchronized long getRttVariation() {
+        return this.rttVariation;
+    }
+
+    /**
+     * Returns the number of replies this estimation is based on
+     *
+     * @return The number of samples
+     */
+    public synchronized int getSampleCount() {
+        return this.sampleCount;
+    }
+
+    /**
+     * Returns the smoothed round trip time
+     *
+     * @return The smoothed round trip time in nanoseconds or <code>0</code>
+     *         if no reply has been received yet
+     */
+    public synchronized long getSmoothedRtt() {
+        return this.smoothedRtt;
+    }
+
+    /**
+     * Returns the timeout for the next request
+     *
+     * @return The timeout in milliseconds
+     */
+    public int getTimeout() {
+        return (int) TimeUnit.NANOSECONDS.toMillis(this.getTimeoutNanos());
+    }
+
+    /**
+     * Returns the timeout for the next request limited by the configured
+     * floor and ceiling
+     *
+     * @return The timeout in nanoseconds
+     */
+    public synchronized long getTimeoutNanos() {
+        long min = TimeUnit.MILLISECONDS.toNanos(RttEstimator.minTimeout);
+        long max = TimeUnit.MILLISECONDS.toNanos(RttEstimator.maxTimeout);
+
+        return Math.max(min, Math.min(max, this.timeout));
+    }
+}
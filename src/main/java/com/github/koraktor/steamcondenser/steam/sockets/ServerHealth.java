@@ -0,0 +1,118 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+/**
+ * This class represents the health of a single server as tracked by a
+ * {@link HealthTracker} at a given time
+ *
+ * @author Sebastian Staudt
+ * @see HealthTracker#getHealth
+ */
+public class ServerHealth {
+
+    /**
+     * The states of a server tracked by a health tracker
+     */
+    public enum Status {
+        /**
+         * The server replies or did not time out often enough to be backed
+         * off, requests are sent as usual
+         */
+        HEALTHY,
+
+        /**
+         * The server timed out repeatedly, requests are skipped until the
+         * backoff has elapsed
+         */
+        BACKING_OFF,
+
+        /**
+         * The backoff of the server has elapsed and a single probe has been
+         * sent to check whether it replies again
+         */
+        PROBING
+    }
+
+    private long backoff;
+
+    private int consecutiveTimeouts;
+
+    private long remainingBackoff;
+
+    private Status status;
+
+    /**
+     * Creates a new health state
+     *
+     * @param status The status of the server
+     * @param consecutiveTimeouts The number of timeouts since the last reply
+     * @param backoff The current backoff of the server in milliseconds
+     * @param remainingBackoff The remaining time of the backoff in
+     *        milliseconds
+     */
+    ServerHealth(Status status, int consecutiveTimeouts, long backoff, long remainingBackoff) {
+        this.backoff             = backoff;
+        this.consecutiveTimeouts = consecutiveTimeouts;
+        this.remainingBackoff    = remainingBackoff;
+        this.status              = status;
+    }
+
+    /**
+     * Returns the time requests to the server are skipped after the last
+     * timeout
+     * <p>
+     * The backoff doubles with every timeout after the server has been
+     * backed off for the first time.
+     *
+     * @return The backoff in milliseconds or <code>0</code> if the server
+     *         is not backed off
+     */
+    public long getBackoff() {
+        return this.backoff;
+    }
+
+    /**
+     * Returns the number of requests to the server that timed out since the
+     * last reply
+     *
+     * @return The number of consecutive timeouts
+     */
+    public int getConsecutiveTimeouts() {
+        return this.consecutiveTimeouts;
+    }
+
+    /**
+     * Returns the time until the server will be probed again
+     *
+     * @return The remaining backoff in milliseconds or <code>0</code> if the
+     *         backoff has elapsed
+     */
+    public long getRemainingBackoff() {
+        return this.remainingBackoff;
+    }
+
+    /**
+     * Returns the status of the server
+     *
+     * @return The status of the server
+     */
+    public Status getStatus() {
+        return this.status;
+    }
+
+    /**
+     * Returns a human-readable representation of this health state
+     *
+     * @return The status, timeouts and remaining backoff of the server
+     */
+    @Override
+    public String toString() {
+        return this.status + " (timeouts: " + this.consecutiveTimeouts + ", remaining backoff: " + this.remainingBackoff + " ms)";
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is the base class of services running a loop in a separate
+ * daemon thread
+ * <p>
+ * The loop runs while the service is running, i.e. between calls to
+ * {@link #start} and {@link #stop}. A failing iteration is logged, but does not
+ * end the loop, so the service stays usable. If the loop ends for any other
+ * reason the service is marked as stopped.
+ *
+ * @author Sebastian Staudt
+ * @see QueryEngine
+ * @see com.github.koraktor.steamcondenser.steam.servers.HeartbeatService
+ * @see com.github.koraktor.steamcondenser.steam.servers.ServerMonitor
+ */
+public abstract class ServiceLoop implements Runnable {
+
+    private String name;
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    /**
+     * Creates a new service with the given name
+     *
+     * @param name The name of the service, used for its thread and in log
+     *        messages
+     */
+    protected ServiceLoop(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns whether the thread of this service is running
+     *
+     * @return <code>true</code> if this service is running
+     */
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    /**
+     * Runs the loop of this service
+     * <p>
+     * This is usually run in a separate thread using {@link #start}. The loop
+     * ends immediately if the service has not been started or has been
+     * stopped in the meantime.
+     */
+    public final void run() {
+        try {
+            while(this.running) {
+                try {
+                    this.runIteration();
+                } catch(IOException e) {
+                    if(this.running) {
+                        Logger.getLogger("com.github.koraktor.steamcondenser").warning("The " + this.name + " failed: " + e.getMessage());
+                    }
+                } catch(RuntimeException e) {
+                    Logger.getLogger("com.github.koraktor.steamcondenser").log(Level.WARNING, "The " + this.name + " failed.", e);
+                }
+            }
+        } finally {
+            this.running = false;
+        }
+    }
+
+    /**
+     * Starts the thread of this service
+     * <p>
+     * This does nothing if the service is already running.
+     */
+    public synchronized void start() {
+        if(this.running) {
+            return;
+        }
+
+        this.running = true;
+        this.thread = new Thread(this, "steam-condenser-" + this.name.replace(' ', '-'));
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops the thread of this service and waits for it to end
+     * <p>
+     * The running flag is cleared while holding the lock of this service, so
+     * methods checking {@link #isRunning} while holding the same lock will not
+     * hand over any work after this method has started.
+     */
+    protected void stop() {
+        synchronized(this) {
+            this.running = false;
+            this.wakeup();
+        }
+
+        Thread thread = this.thread;
+        if(thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs a single iteration of the loop of this service
+     * <p>
+     * The iteration should wait for new work, but return when
+     * {@link #wakeup} is called.
+     *
+     * @throws IOException if the iteration fails to communicate
+     */
+    protected abstract void runIteration() throws IOException;
+
+    /**
+     * Wakes up the loop of this service if it is waiting for new work
+     * <p>
+     * This is called while holding the lock of this service.
+     */
+    protected abstract void wakeup();
+}
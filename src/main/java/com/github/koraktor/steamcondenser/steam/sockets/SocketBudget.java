@@ -0,0 +1,222 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class limits the number of open query sockets and releases sockets
+ * that have not been used for some time
+ * <p>
+ * Query sockets open their channel when they are used for the first time and
+ * register with the budget. If there are more open sockets than allowed, the
+ * channels of the least recently used sockets are released. Sockets that are
+ * sending, receiving or waiting for a reply at the moment are never released,
+ * so the budget may be exceeded temporarily. Released sockets simply open a new channel when they
+ * are used again.
+ * <p>
+ * The default budget is shared by all query sockets. It allows 1,024 open
+ * sockets and releases sockets idle for more than a minute.
+ *
+ * @author Sebastian Staudt
+ * @see QuerySocket
+ */
+public class SocketBudget {
+
+    private static SocketBudget defaultBudget;
+
+    private static int defaultIdleTimeout = 60000;
+
+    private static int defaultMaxSockets = 1024;
+
+    private long idleTimeout;
+
+    private int maxSockets;
+
+    private Map<QuerySocket, Long> sockets;
+
+    private Timer timer;
+
+    /**
+     * Returns the budget shared by all query sockets
+     *
+     * @return The default budget
+     */
+    public static synchronized SocketBudget getDefault() {
+        if(defaultBudget == null) {
+            defaultBudget = new SocketBudget(defaultMaxSockets, defaultIdleTimeout);
+        }
+
+        return defaultBudget;
+    }
+
+    /**
+     * Sets the time after which unused sockets of the default budget are
+     * released
+     * <p>
+     * This has to be called before the default budget is used for the first
+     * time.
+     *
+     * @param idleTimeout The time in milliseconds after which an unused socket
+     *        is released or <code>0</code> to keep sockets open
+     */
+    public static void setDefaultIdleTimeout(int idleTimeout) {
+        SocketBudget.defaultIdleTimeout = idleTimeout;
+    }
+
+    /**
+     * Sets the maximum number of open sockets of the default budget
+     * <p>
+     * This has to be called before the default budget is used for the first
+     * time.
+     *
+     * @param maxSockets The maximum number of open sockets
+     */
+    public static void setDefaultMaxSockets(int maxSockets) {
+        SocketBudget.defaultMaxSockets = maxSockets;
+    }
+
+    /**
+     * Creates a new socket budget
+     *
+     * @param maxSockets The maximum number of open sockets
+     * @param idleTimeout The time in milliseconds after which an unused socket
+     *        is released or <code>0</code> to keep sockets open
+     */
+    public SocketBudget(int maxSockets, int idleTimeout) {
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        this.maxSockets  = maxSockets;
+        this.sockets     = new LinkedHashMap<QuerySocket, Long>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the maximum number of open sockets
+     *
+     * @return The maximum number of open sockets
+     */
+    public int getMaxSockets() {
+        return this.maxSockets;
+    }
+
+    /**
+     * Returns the number of sockets that are currently open
+     *
+     * @return The number of open sockets
+     */
+    public synchronized int getOpenSockets() {
+        return this.sockets.size();
+    }
+
+    /**
+     * Releases the channels of all sockets that have not been used for longer
+     * than the idle timeout
+     * <p>
+     * This is called periodically while any sockets are open.
+     *
+     * @return The number of released sockets
+     */
+    public int releaseIdleSockets() {
+        if(this.idleTimeout <= 0) {
+            return 0;
+        }
+
+        List<QuerySocket> idleSockets = new ArrayList<QuerySocket>();
+        synchronized(this) {
+            long now = System.nanoTime();
+            for(Map.Entry<QuerySocket, Long> entry : this.sockets.entrySet()) {
+                if(now - entry.getValue() < this.idleTimeout) {
+                    break;
+                }
+                idleSockets.add(entry.getKey());
+            }
+        }
+
+        int released = 0;
+        for(QuerySocket socket : idleSockets) {
+            if(socket.release()) {
+                released ++;
+            }
+        }
+
+        return released;
+    }
+
+    /**
+     * Registers a socket that has just opened its channel
+     * <p>
+     * If this exceeds the budget, the least recently used sockets are
+     * released.
+     *
+     * @param socket The socket that has been opened
+     */
+    void add(QuerySocket socket) {
+        List<QuerySocket> evictedSockets = new ArrayList<QuerySocket>();
+        synchronized(this) {
+            this.sockets.put(socket, System.nanoTime());
+
+            int excess = this.sockets.size() - this.maxSockets;
+            Iterator<QuerySocket> iterator = this.sockets.keySet().iterator();
+            while(excess > 0 && iterator.hasNext()) {
+                QuerySocket evictedSocket = iterator.next();
+                if(evictedSocket != socket) {
+                    evictedSockets.add(evictedSocket);
+                    excess --;
+                }
+            }
+
+            if(this.timer == null && this.idleTimeout > 0) {
+                this.startTimer();
+            }
+        }
+
+        for(QuerySocket evictedSocket : evictedSockets) {
+            evictedSocket.release();
+        }
+    }
+
+    /**
+     * Unregisters a socket that has released or closed its channel
+     *
+     * @param socket The socket that has been released
+     */
+    synchronized void remove(QuerySocket socket) {
+        this.sockets.remove(socket);
+    }
+
+    /**
+     * Marks a socket as used right now
+     *
+     * @param socket The socket that is used
+     */
+    synchronized void touch(QuerySocket socket) {
+        if(this.sockets.containsKey(socket)) {
+            this.sockets.put(socket, System.nanoTime());
+        }
+    }
+
+    /**
+     * Starts the timer releasing idle sockets periodically
+     */
+    private void startTimer() {
+        long period = Math.max(TimeUnit.NANOSECONDS.toMillis(this.idleTimeout) / 2, 1);
+
+        this.timer = new Timer("steam-condenser-socket-budget", true);
+        this.timer.schedule(new TimerTask() {
+            public void run() {
+                releaseIdleSockets();
+            }
+        }, period, period);
+    }
+}
@@ -8,13 +8,11 @@
 package com.github.koraktor.steamcondenser.steam.sockets;
 
 import java.net.InetAddress;
-import java.util.ArrayList;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
 import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
-import com.github.koraktor.steamcondenser.steam.packets.SteamPacketFactory;
 
 /**
  * This class represents a socket used to communicate with game servers based
@@ -24,6 +22,8 @@ import com.github.koraktor.steamcondenser.steam.packets.SteamPacketFactory;
  */
 public class SourceSocket extends QuerySocket {
 
+    private SplitPacketReassembler splitPacketReassembler;
+
     /**
      * Creates a new socket to communicate with the server on the given IP
      * address and port
@@ -35,6 +35,10 @@ public class SourceSocket extends QuerySocket {
     public SourceSocket(InetAddress ipAddress, int portNumber)
             throws SteamCondenserException {
         super(ipAddress, portNumber);
+
+        this.splitPacketReassembler = new SplitPacketReassembler();
+        this.splitPacketReassembler.setPayloadCache(this.getPayloadCache());
+        this.splitPacketReassembler.setStatistics(QuerySocket.getStatistics());
     }
 
     /**
@@ -45,6 +49,10 @@ public class SourceSocket extends QuerySocket {
      * method reassembles split packets into single packet objects.
      * Additionally Source may compress big packets using bzip2. Those packets
      * will be compressed.
+     * <p>
+     * Parts of split packets may arrive in any order. If parts are still
+     * missing when the timeout is reached, a {@link TimeoutException} is
+     * thrown instead of returning an incomplete packet.
      *
      * @return SteamPacket The packet replied from the server
      * @throws SteamCondenserException if an error occurs while communicating
@@ -53,65 +61,27 @@ public class SourceSocket extends QuerySocket {
      */
     public SteamPacket getReply()
             throws SteamCondenserException, TimeoutException {
-        int bytesRead;
-        boolean isCompressed = false;
         SteamPacket packet;
 
-        bytesRead = this.receivePacket(1400);
-
-        if(this.packetIsSplit()) {
-            byte[] splitData;
-            int packetCount, packetNumber, requestId, splitSize;
-            int packetChecksum = 0;
-            ArrayList<byte[]> splitPackets = new ArrayList<byte[]>();
-
-            do {
-                requestId = Integer.reverseBytes(this.buffer.getInt());
-                isCompressed = ((requestId & 0x80000000) != 0);
-                packetCount = this.buffer.get();
-                packetNumber = this.buffer.get() + 1;
-
-                if(isCompressed) {
-                    splitSize = Integer.reverseBytes(this.buffer.getInt());
-                    packetChecksum = Integer.reverseBytes(this.buffer.getInt());
-                } else {
-                    splitSize = Short.reverseBytes(this.buffer.getShort());
-                }
-
-                splitData = new byte[Math.min(splitSize, this.buffer.remaining())];
-                this.buffer.get(splitData);
-                splitPackets.ensureCapacity(packetCount);
-                splitPackets.add(packetNumber - 1, splitData);
+        try {
+            this.receivePacket(1400);
 
-                if(splitPackets.size() < packetCount) {
-                    try {
-                        bytesRead = this.receivePacket();
-                    } catch(TimeoutException e) {
-                        bytesRead = 0;
-                    }
-                } else {
-                    bytesRead = 0;
+            while(this.packetIsSplit()) {
+                packet = this.splitPacketReassembler.addPacket(this.remoteSocket, this.buffer, false, this.getSplitPacketDeadline());
+                if(packet != null) {
+                    Logger.getLogger("com.github.koraktor.steamcondenser").info("Received reply of type \"" + packet.getClass().getSimpleName() + "\"");
+                    return packet;
                 }
 
-                Logger.getLogger("com.github.koraktor.steamcondenser").info("Received packet #" + packetNumber + " of " + packetCount + " for request ID " + requestId + ".");
-            } while(bytesRead > 0 && this.packetIsSplit());
-
-            if(isCompressed) {
-                packet = SteamPacketFactory.reassemblePacket(splitPackets, true, splitSize, packetChecksum);
-            } else {
-                packet = SteamPacketFactory.reassemblePacket(splitPackets);
+                this.receiveSplitPacket(this.splitPacketReassembler);
             }
-        } else {
+
             packet = this.getPacketFromData();
+        } finally {
+            this.finishReply();
         }
 
-        this.buffer.flip();
-
-        if(isCompressed) {
-            Logger.getLogger("com.github.koraktor.steamcondenser").info("Received compressed reply of type \"" + packet.getClass().getSimpleName() + "\"");
-        } else {
-            Logger.getLogger("com.github.koraktor.steamcondenser").info("Received reply of type \"" + packet.getClass().getSimpleName() + "\"");
-        }
+        Logger.getLogger("com.github.koraktor.steamcondenser").info("Received reply of type \"" + packet.getClass().getSimpleName() + "\"");
 
         return packet;
     }
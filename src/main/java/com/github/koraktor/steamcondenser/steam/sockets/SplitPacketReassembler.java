@@ -0,0 +1,581 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
+import com.github.koraktor.steamcondenser.steam.packets.SteamPacketFactory;
+
+/**
+ * This class reassembles replies that have been split into several UDP
+ * packets
+ * <p>
+ * Parts are collected per source address and request ID, so parts of
+ * different replies may arrive interleaved. Each part is stored at the slot
+ * given by its packet number, so parts may also arrive out of order.
+ * Incomplete replies are discarded after a deadline given by the caller for
+ * every part, usually derived from the current timeout of the server. The
+ * total amount of buffered data is limited by discarding the oldest
+ * incomplete replies.
+ * <p>
+ * If parts of a reply are lost, the request can be sent again after calling
+ * {@link #awaitRetransmission}. Servers resend all parts of the reply, maybe
+ * using another request ID. The parts received before are kept and the
+ * retransmitted parts fill the gaps. A reply using another request ID is
+ * only used as the retransmission once its first part shows that it answers
+ * the repeated request, so replies to different requests sent to the same
+ * server are never mixed. If the retransmitted reply differs from the parts
+ * received before, e.g. because the data on the server changed, the old
+ * parts are discarded.
+ *
+ * @author Sebastian Staudt
+ * @see SteamPacketFactory#reassemblePacket(byte[], boolean, int, int)
+ */
+public class SplitPacketReassembler {
+
+    private int bufferedBytes;
+
+    private int maxBufferedBytes;
+
+    private long nextDeadline;
+
+    private PayloadCache payloadCache;
+
+    private Map<InetSocketAddress, List<SplitPacketKey>> retransmissions;
+
+    private LinkedHashMap<SplitPacketKey, SplitPacket> splitPackets;
+
+    private QueryStatistics statistics;
+
+    /**
+     * Creates a new reassembler buffering at most 1 MiB of data
+     */
+    public SplitPacketReassembler() {
+        this(1024 * 1024);
+    }
+
+    /**
+     * Creates a new reassembler
+     *
+     * @param maxBufferedBytes The maximum number of bytes buffered for
+     *        incomplete replies
+     */
+    public SplitPacketReassembler(int maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.retransmissions  = new HashMap<InetSocketAddress, List<SplitPacketKey>>();
+        this.splitPackets     = new LinkedHashMap<SplitPacketKey, SplitPacket>();
+    }
+
+    /**
+     * Adds a part of a split reply read from the given buffer
+     * <p>
+     * The buffer has to be positioned right after the leading
+     * <code>0xFFFFFFFE</code> of the packet.
+     *
+     * @param address The address the packet was received from
+     * @param buffer The buffer containing the packet
+     * @param goldSrc Whether the packet uses the GoldSrc format for split
+     *        packets
+     * @param deadline The time in nanoseconds after which the reply is
+     *        discarded if it is still incomplete, see {@link System#nanoTime}
+     * @return The reassembled reply if this was the last missing part,
+     *         <code>null</code> otherwise
+     * @throws SteamCondenserException if the reassembled reply cannot be
+     *         decoded
+     */
+    public SteamPacket addPacket(InetSocketAddress address, ByteBuffer buffer, boolean goldSrc, long deadline)
+            throws SteamCondenserException {
+        int requestId = Integer.reverseBytes(buffer.getInt());
+        boolean isCompressed = false;
+        int packetCount, packetNumber;
+        int uncompressedSize = 0;
+        int packetChecksum = 0;
+
+        if(goldSrc) {
+            byte packetNumberAndCount = buffer.get();
+            packetCount  = packetNumberAndCount & 0xF;
+            packetNumber = (packetNumberAndCount >> 4) & 0xF;
+        } else {
+            isCompressed = (requestId & 0x80000000) != 0;
+            packetCount  = buffer.get() & 0xFF;
+            packetNumber = buffer.get() & 0xFF;
+            if(isCompressed) {
+                if(packetNumber == 0) {
+                    uncompressedSize = Integer.reverseBytes(buffer.getInt());
+                    packetChecksum = Integer.reverseBytes(buffer.getInt());
+                }
+            } else {
+                buffer.getShort();
+            }
+        }
+
+        Logger.getLogger("com.github.koraktor.steamcondenser").info("Received packet #" + (packetNumber + 1) + " of " + packetCount + " for request ID " + requestId + ".");
+
+        if(packetNumber >= packetCount) {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        this.expire(now);
+
+        SplitPacketKey key = new SplitPacketKey(address, requestId);
+        SplitPacket splitPacket = this.splitPackets.get(key);
+        if(splitPacket == null || splitPacket.parts.length != packetCount) {
+            if(splitPacket != null) {
+                this.remove(key);
+            }
+            splitPacket = new SplitPacket(packetCount);
+            this.splitPackets.put(key, splitPacket);
+        }
+        this.setDeadline(splitPacket, deadline);
+
+        byte[] storedPart = splitPacket.parts[packetNumber];
+        if(storedPart != null) {
+            if(!splitPacket.retransmitted || this.matches(storedPart, buffer)) {
+                return null;
+            }
+
+            Logger.getLogger("com.github.koraktor.steamcondenser").info("Retransmitted split packet for request ID " + requestId + " from " + address + " differs, discarding previous parts.");
+            this.remove(key);
+            splitPacket = new SplitPacket(packetCount);
+            this.setDeadline(splitPacket, deadline);
+            this.splitPackets.put(key, splitPacket);
+        }
+
+        int partSize = buffer.remaining();
+        this.bufferedBytes += partSize;
+        while(this.bufferedBytes > this.maxBufferedBytes && this.splitPackets.size() > 1) {
+            SplitPacketKey oldestKey = this.splitPackets.keySet().iterator().next();
+            if(oldestKey.equals(key)) {
+                break;
+            }
+            Logger.getLogger("com.github.koraktor.steamcondenser").warning("Discarding incomplete split packet for request ID " + oldestKey.requestId + " from " + oldestKey.address + ".");
+            this.remove(oldestKey);
+        }
+
+        byte[] part = new byte[partSize];
+        buffer.get(part);
+        splitPacket.parts[packetNumber] = part;
+        splitPacket.receivedBytes += partSize;
+        splitPacket.receivedParts ++;
+        if(isCompressed) {
+            splitPacket.compressed = true;
+            if(packetNumber == 0) {
+                splitPacket.uncompressedSize = uncompressedSize;
+                splitPacket.packetChecksum = packetChecksum;
+            }
+        }
+
+        if(!splitPacket.retransmitted && this.retransmissions.containsKey(address)) {
+            this.adoptRetransmission(key, splitPacket);
+        }
+
+        if(splitPacket.receivedParts < packetCount) {
+            return null;
+        }
+
+        this.remove(key);
+        if(splitPacket.retransmitted && this.statistics != null) {
+            this.statistics.recordRecoveredSplitReply();
+        }
+
+        byte[] packetData = new byte[splitPacket.receivedBytes];
+        int offset = 0;
+        for(byte[] receivedPart : splitPacket.parts) {
+            System.arraycopy(receivedPart, 0, packetData, offset, receivedPart.length);
+            offset += receivedPart.length;
+        }
+
+        if(this.payloadCache != null && !isCompressed && packetData.length >= 5) {
+            return this.payloadCache.getPacket(address, ByteBuffer.wrap(packetData, 4, packetData.length - 4));
+        }
+
+        return SteamPacketFactory.reassemblePacket(packetData, isCompressed, splitPacket.uncompressedSize, splitPacket.packetChecksum);
+    }
+
+    /**
+     * Keeps the parts of the latest incomplete reply to the given request
+     * from the given address until the reply is sent again
+     * <p>
+     * This has to be called before the request is sent again after parts of
+     * the reply have been lost. The deadline of the incomplete reply is
+     * extended and the parts of the next split reply to the same request
+     * from this address fill its gaps, even if the server uses another
+     * request ID.
+     * <p>
+     * The type of an incomplete reply is only known if its first part has
+     * been received. A reply of unknown type is only kept if it is the only
+     * one of unknown type from this address, so it cannot be confused with
+     * the reply to another request.
+     *
+     * @param address The address of the server
+     * @param requestHeader The header byte of the request that is sent again
+     * @param deadline The time in nanoseconds after which the reply is
+     *        discarded if no retransmitted part has been received
+     * @return <code>true</code> if there is an incomplete reply to the
+     *         request, <code>false</code> if sending the request again would
+     *         not help to complete a reply
+     */
+    public boolean awaitRetransmission(InetSocketAddress address, byte requestHeader, long deadline) {
+        SplitPacketKey latestKey = null;
+        SplitPacketKey unknownKey = null;
+        int unknownReplies = 0;
+        for(Map.Entry<SplitPacketKey, SplitPacket> entry : this.splitPackets.entrySet()) {
+            if(!entry.getKey().address.equals(address)) {
+                continue;
+            }
+            int header = entry.getValue().getHeader();
+            if(header == -1) {
+                unknownKey = entry.getKey();
+                unknownReplies ++;
+            } else if(PendingQuery.accepts(requestHeader, (byte) header)) {
+                latestKey = entry.getKey();
+            }
+        }
+        if(latestKey == null && unknownReplies == 1) {
+            latestKey = unknownKey;
+        }
+        if(latestKey == null) {
+            return false;
+        }
+
+        SplitPacket splitPacket = this.splitPackets.remove(latestKey);
+        splitPacket.requestHeader = requestHeader;
+        splitPacket.retransmitted = true;
+        this.setDeadline(splitPacket, deadline);
+        this.splitPackets.put(latestKey, splitPacket);
+
+        List<SplitPacketKey> keys = this.retransmissions.get(address);
+        if(keys == null) {
+            keys = new ArrayList<SplitPacketKey>();
+            this.retransmissions.put(address, keys);
+        }
+        if(!keys.contains(latestKey)) {
+            keys.add(latestKey);
+        }
+
+        List<Integer> missingParts = new ArrayList<Integer>();
+        for(int i = 0; i < splitPacket.parts.length; i ++) {
+            if(splitPacket.parts[i] == null) {
+                missingParts.add(i + 1);
+            }
+        }
+        Logger.getLogger("com.github.koraktor.steamcondenser").info("Awaiting retransmission of packets " + missingParts + " of " + splitPacket.parts.length + " for request ID " + latestKey.requestId + " from " + address + ".");
+
+        if(this.statistics != null) {
+            this.statistics.recordSplitRetransmission();
+        }
+
+        return true;
+    }
+
+    /**
+     * Discards all incomplete replies that passed their deadline
+     */
+    public void expire() {
+        this.expire(System.nanoTime());
+    }
+
+    /**
+     * Returns the number of bytes currently buffered for incomplete replies
+     *
+     * @return The number of buffered bytes
+     */
+    public int getBufferedBytes() {
+        return this.bufferedBytes;
+    }
+
+    /**
+     * Returns the number of incomplete replies
+     *
+     * @return The number of incomplete replies
+     */
+    public int getPendingCount() {
+        return this.splitPackets.size();
+    }
+
+    /**
+     * Returns whether there is an incomplete reply from the given address
+     *
+     * @param address The address of the server
+     * @return <code>true</code> if parts of a reply from the server have
+     *         been received
+     */
+    public boolean hasIncompleteReply(InetSocketAddress address) {
+        for(SplitPacketKey key : this.splitPackets.keySet()) {
+            if(key.address.equals(address)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Sets the cache used to skip decoding reassembled replies that did not
+     * change
+     * <p>
+     * Compressed replies are always decoded.
+     *
+     * @param payloadCache The payload cache to use or <code>null</code> to
+     *        decode all replies
+     */
+    public void setPayloadCache(PayloadCache payloadCache) {
+        this.payloadCache = payloadCache;
+    }
+
+    /**
+     * Sets the statistics used to count retransmitted and recovered split
+     * replies
+     *
+     * @param statistics The statistics to use or <code>null</code>
+     * @see QueryStatistics#getSplitRetransmissions
+     */
+    public void setStatistics(QueryStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Fills the gaps of the given reply with the parts of an incomplete reply
+     * from the same server awaiting a retransmission
+     * <p>
+     * This is only done once the first part of the given reply has been
+     * received and its header shows that it answers the request the
+     * incomplete reply awaits a retransmission for. Both replies also need
+     * the same number of parts and parts received for both have to be
+     * equal, otherwise the incomplete reply is discarded. Compressed replies
+     * are never adopted, as their type is not known before they are
+     * decompressed.
+     *
+     * @param key The source address and request ID of the given reply
+     * @param splitPacket The reply that might be a retransmission
+     */
+    private void adoptRetransmission(SplitPacketKey key, SplitPacket splitPacket) {
+        int header = splitPacket.getHeader();
+        if(header == -1) {
+            return;
+        }
+
+        SplitPacketKey retransmittedKey = null;
+        SplitPacket retransmittedPacket = null;
+        for(SplitPacketKey candidateKey : this.retransmissions.get(key.address)) {
+            SplitPacket candidate = this.splitPackets.get(candidateKey);
+            if(candidate != null && !candidateKey.equals(key) &&
+               candidate.parts.length == splitPacket.parts.length &&
+               PendingQuery.accepts(candidate.requestHeader, (byte) header)) {
+                retransmittedKey    = candidateKey;
+                retransmittedPacket = candidate;
+                break;
+            }
+        }
+        if(retransmittedKey == null) {
+            return;
+        }
+
+        this.remove(retransmittedKey);
+
+        for(int i = 0; i < splitPacket.parts.length; i ++) {
+            byte[] part = retransmittedPacket.parts[i];
+            if(part != null && splitPacket.parts[i] != null &&
+               !Arrays.equals(part, splitPacket.parts[i])) {
+                Logger.getLogger("com.github.koraktor.steamcondenser").info("Retransmitted split packet for request ID " + key.requestId + " from " + key.address + " differs, discarding previous parts.");
+                return;
+            }
+        }
+
+        for(int i = 0; i < splitPacket.parts.length; i ++) {
+            byte[] part = retransmittedPacket.parts[i];
+            if(part != null && splitPacket.parts[i] == null) {
+                splitPacket.parts[i] = part;
+                splitPacket.receivedBytes += part.length;
+                splitPacket.receivedParts ++;
+                this.bufferedBytes += part.length;
+            }
+        }
+        splitPacket.requestHeader = retransmittedPacket.requestHeader;
+        splitPacket.retransmitted = true;
+    }
+
+    /**
+     * Discards all incomplete replies that passed their deadline
+     *
+     * @param now The current time in nanoseconds
+     */
+    private void expire(long now) {
+        if(this.splitPackets.isEmpty() || this.nextDeadline - now > 0) {
+            return;
+        }
+
+        boolean first = true;
+        Iterator<Map.Entry<SplitPacketKey, SplitPacket>> iterator = this.splitPackets.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<SplitPacketKey, SplitPacket> entry = iterator.next();
+            SplitPacket splitPacket = entry.getValue();
+            if(splitPacket.deadline - now > 0) {
+                if(first || splitPacket.deadline - this.nextDeadline < 0) {
+                    this.nextDeadline = splitPacket.deadline;
+                }
+                first = false;
+                continue;
+            }
+            this.bufferedBytes -= splitPacket.receivedBytes;
+            if(splitPacket.retransmitted) {
+                this.forgetRetransmission(entry.getKey());
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes the given reply from the replies awaiting a retransmission
+     *
+     * @param key The source address and request ID of the reply
+     */
+    private void forgetRetransmission(SplitPacketKey key) {
+        List<SplitPacketKey> keys = this.retransmissions.get(key.address);
+        if(keys != null) {
+            keys.remove(key);
+            if(keys.isEmpty()) {
+                this.retransmissions.remove(key.address);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the remaining data in the given buffer equals the given
+     * part
+     * <p>
+     * The position of the buffer is not changed.
+     *
+     * @param part The part received before
+     * @param buffer The buffer containing the retransmitted part
+     * @return <code>true</code> if both parts are equal
+     */
+    private boolean matches(byte[] part, ByteBuffer buffer) {
+        byte[] retransmittedPart = new byte[buffer.remaining()];
+        buffer.duplicate().get(retransmittedPart);
+
+        return Arrays.equals(part, retransmittedPart);
+    }
+
+    /**
+     * Sets the deadline of the given incomplete reply
+     *
+     * @param splitPacket The incomplete reply
+     * @param deadline The time in nanoseconds after which the reply is
+     *        discarded
+     */
+    private void setDeadline(SplitPacket splitPacket, long deadline) {
+        splitPacket.deadline = deadline;
+        if(this.splitPackets.isEmpty() || deadline - this.nextDeadline < 0) {
+            this.nextDeadline = deadline;
+        }
+    }
+
+    /**
+     * Removes the incomplete reply with the given key
+     *
+     * @param key The source address and request ID of the reply
+     */
+    private void remove(SplitPacketKey key) {
+        SplitPacket splitPacket = this.splitPackets.remove(key);
+        if(splitPacket != null) {
+            this.bufferedBytes -= splitPacket.receivedBytes;
+            if(splitPacket.retransmitted) {
+                this.forgetRetransmission(key);
+            }
+        }
+    }
+
+    /**
+     * This class holds the parts of an incomplete reply
+     */
+    private static class SplitPacket {
+
+        boolean compressed;
+
+        long deadline;
+
+        int packetChecksum;
+
+        byte[][] parts;
+
+        int receivedBytes;
+
+        int receivedParts;
+
+        byte requestHeader;
+
+        boolean retransmitted;
+
+        int uncompressedSize;
+
+        SplitPacket(int packetCount) {
+            this.parts = new byte[packetCount][];
+        }
+
+        /**
+         * Returns the header byte of this reply
+         *
+         * @return The header byte or <code>-1</code> if the first part has
+         *         not been received yet or the reply is compressed
+         */
+        int getHeader() {
+            byte[] part = this.parts[0];
+            if(this.compressed || part == null || part.length < 5 ||
+               part[0] != (byte) 0xFF || part[1] != (byte) 0xFF ||
+               part[2] != (byte) 0xFF || part[3] != (byte) 0xFF) {
+                return -1;
+            }
+
+            return part[4] & 0xFF;
+        }
+    }
+
+    /**
+     * This class identifies a split reply by its source address and request
+     * ID
+     */
+    private static class SplitPacketKey {
+
+        InetSocketAddress address;
+
+        int requestId;
+
+        SplitPacketKey(InetSocketAddress address, int requestId) {
+            this.address   = address;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if(!(object instanceof SplitPacketKey)) {
+                return false;
+            }
+            SplitPacketKey key = (SplitPacketKey) object;
+
+            return this.requestId == key.requestId && this.address.equals(key.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.address.hashCode() * 31 + this.requestId;
+        }
+    }
+}
@@ -7,11 +7,11 @@
 
 package com.github.koraktor.steamcondenser.steam.sockets;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
@@ -26,16 +26,30 @@ import com.github.koraktor.steamcondenser.steam.packets.SteamPacketFactory;
 /**
  * This abstract class implements common functionality for sockets used to
  * connect to game and master servers
+ * <p>
+ * The underlying channel and the buffer are only allocated when the socket is
+ * used for the first time. Sockets have to be closed explicitly using
+ * {@link #close} once they are no longer needed.
  *
  * @author Sebastian Staudt
  */
-abstract public class SteamSocket {
+abstract public class SteamSocket implements Closeable {
 
     private static int timeout = 1000;
 
     protected ByteBuffer buffer;
     protected SelectableChannel channel;
     protected InetSocketAddress remoteSocket;
+    private Selector selector;
+
+    /**
+     * Returns the timeout for socket operations
+     *
+     * @return The amount of milliseconds before a request times out
+     */
+    public static int getTimeout() {
+        return SteamSocket.timeout;
+    }
 
     /**
      * Sets the timeout for socket operations
@@ -50,31 +64,81 @@ abstract public class SteamSocket {
     }
 
     /**
-     * Creates a new UDP socket to communicate with the server on the given IP
+     * Creates a new socket to communicate with the server on the given IP
      * address and port
+     * <p>
+     * No channel is opened until the socket is used.
      *
      * @param ipAddress Either the IP address or the DNS name of the server
      * @param portNumber The port the server is listening on
      */
     protected SteamSocket(InetAddress ipAddress, int portNumber) {
-        this.buffer = ByteBuffer.allocate(1400);
-        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
-
         this.remoteSocket = new InetSocketAddress(ipAddress, portNumber);
     }
 
+    /**
+     * Returns the channel of this socket, opening it if required
+     *
+     * @return The channel used to communicate with the server
+     * @throws SteamCondenserException if the channel cannot be opened
+     * @see #openChannel
+     */
+    protected SelectableChannel getChannel()
+            throws SteamCondenserException {
+        if(this.channel == null) {
+            try {
+                this.channel = this.openChannel();
+            } catch(IOException e) {
+                throw new SteamCondenserException(e.getMessage(), e);
+            }
+        }
+
+        return this.channel;
+    }
+
+    /**
+     * Returns the time to wait for a packet from the server
+     *
+     * @return The timeout in milliseconds
+     * @see #setTimeout
+     */
+    protected int getReceiveTimeout() {
+        return SteamSocket.timeout;
+    }
+
+    /**
+     * Returns whether the channel of this socket is currently open
+     *
+     * @return <code>true</code> if the channel has been opened and not been
+     *         released since
+     */
+    public boolean isOpen() {
+        return this.channel != null;
+    }
+
+    /**
+     * Opens the channel used to communicate with the server
+     * <p>
+     * This is called when the socket is used for the first time and after
+     * its channel has been released.
+     *
+     * @return The new channel
+     * @throws IOException if the channel cannot be opened
+     */
+    protected abstract SelectableChannel openChannel() throws IOException;
+
     /**
      * Reads a single packet from the buffer into a packet object
+     * <p>
+     * The packet keeps its own copy of the data, so the buffer may be reused
+     * for the next packet.
      *
      * @return The packet object created from the data in the buffer
      * @throws PacketFormatException if the data is not formatted correctly
      */
     protected SteamPacket getPacketFromData()
             throws PacketFormatException {
-        byte[] packetData = new byte[this.buffer.remaining()];
-        this.buffer.get(packetData);
-
-        return SteamPacketFactory.getPacketFromData(packetData);
+        return SteamPacketFactory.getPacketFromData(this.buffer);
     }
 
     /**
@@ -90,43 +154,49 @@ abstract public class SteamSocket {
             throws SteamCondenserException, TimeoutException;
 
     /**
-     * Reads the given amount of data from the socket and wraps it into the
-     * buffer
+     * Reads the given amount of data from the socket into the buffer
+     * <p>
+     * The buffer and the selector used to wait for data are reused for every
+     * packet. A bigger buffer is only acquired if the requested length
+     * exceeds the capacity of the current buffer.
      *
      * @param bufferLength The data length to read from the socket
      * @throws SteamCondenserException if an error occurs while reading from
      *         the socket
      * @throws TimeoutException if no packet is received on time
      * @return int The number of bytes that have been read from the socket
-     * @see ByteBuffer
+     * @see BufferPool
      */
     protected int receivePacket(int bufferLength)
             throws SteamCondenserException, TimeoutException {
         try {
-            Selector selector = Selector.open();
-            this.channel.register(selector, SelectionKey.OP_READ);
-
-            if(selector.select(SteamSocket.timeout) == 0) {
-                selector.close();
+            SelectableChannel channel = this.getChannel();
+            if(!this.waitForPacket(this.getReceiveTimeout())) {
                 throw new TimeoutException();
             }
 
             int bytesRead;
 
-            if (bufferLength == 0) {
+            if(this.buffer == null) {
+                this.buffer = BufferPool.acquire(BufferPool.BUFFER_SIZE);
+            }
+
+            if(bufferLength == 0) {
+                this.buffer.clear();
+            } else if(bufferLength <= this.buffer.capacity()) {
                 this.buffer.clear();
+                this.buffer.limit(bufferLength);
             } else {
-                this.buffer = ByteBuffer.allocate(bufferLength);
+                BufferPool.release(this.buffer);
+                this.buffer = BufferPool.acquire(bufferLength);
             }
 
-            bytesRead = ((ReadableByteChannel) this.channel).read(this.buffer);
+            bytesRead = ((ReadableByteChannel) channel).read(this.buffer);
             if(bytesRead > 0) {
                 this.buffer.rewind();
                 this.buffer.limit(bytesRead);
             }
 
-            selector.close();
-
             return bytesRead;
         } catch(IOException e) {
             throw new SteamCondenserException(e.getMessage(), e);
@@ -134,23 +204,66 @@ abstract public class SteamSocket {
     }
 
     /**
-     * Closes this socket
+     * Waits until data can be read from the channel of this socket
+     * <p>
+     * The selector used to wait for data is created when this is called for
+     * the first time.
+     *
+     * @param timeout The maximum time to wait in milliseconds
+     * @return <code>true</code> if data is available, <code>false</code> if
+     *         the time elapsed
+     * @throws IOException if waiting for the channel fails
+     * @throws SteamCondenserException if the channel cannot be opened
+     */
+    protected boolean waitForPacket(long timeout)
+            throws IOException, SteamCondenserException {
+        if(this.selector == null) {
+            this.selector = Selector.open();
+            this.getChannel().register(this.selector, SelectionKey.OP_READ);
+        }
+
+        int selected = this.selector.select(Math.max(timeout, 1));
+        this.selector.selectedKeys().clear();
+
+        return selected > 0;
+    }
+
+    /**
+     * Closes the underlying socket and releases its buffer
+     * <p>
+     * The socket may be used again afterwards, in this case a new channel is
+     * opened.
      *
-     * @see #close
+     * @see #releaseChannel
      */
-    @Override
-    public void finalize() {
-        this.close();
+    public void close() {
+        this.releaseChannel();
+
+        if(this.buffer != null) {
+            BufferPool.release(this.buffer);
+            this.buffer = null;
+        }
     }
 
     /**
-     * Closes the underlying socket
+     * Closes the underlying channel and the selector used to wait for data
+     * <p>
+     * The buffer of this socket is kept. A new channel is opened when the
+     * socket is used again.
      *
      * @see SelectableChannel#close
      */
-    public void close() {
+    protected void releaseChannel() {
         try {
-            this.channel.close();
+            if(this.selector != null) {
+                this.selector.close();
+            }
+            if(this.channel != null) {
+                this.channel.close();
+            }
         } catch (IOException e) {}
+
+        this.channel  = null;
+        this.selector = null;
     }
 }
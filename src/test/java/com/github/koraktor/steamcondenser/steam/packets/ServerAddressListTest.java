@@ -0,0 +1,67 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.packets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class ServerAddressListTest {
+
+	@Test
+	public void packAndUnpack() {
+		long address = ServerAddressList.pack(0xC0A80102, 27015);
+
+		assertEquals(0xC0A80102, ServerAddressList.getIpAddress(address));
+		assertEquals(27015, ServerAddressList.getPort(address));
+		assertEquals("192.168.1.2:27015", ServerAddressList.toString(address));
+	}
+
+	@Test
+	public void packSocketAddress() {
+		InetSocketAddress socketAddress = new InetSocketAddress("255.1.2.3", 65535);
+		long address = ServerAddressList.pack(socketAddress);
+
+		assertEquals("255.1.2.3:65535", ServerAddressList.toString(address));
+		assertEquals(socketAddress, ServerAddressList.toSocketAddress(address));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unresolvedAddressCannotBePacked() {
+		ServerAddressList.pack(InetSocketAddress.createUnresolved("example.com", 27015));
+	}
+
+	@Test
+	public void listGrows() {
+		ServerAddressList list = new ServerAddressList(1);
+		for(int i = 0; i < 100; i ++) {
+			list.add(ServerAddressList.pack(i, 27015));
+		}
+
+		ServerAddressList other = new ServerAddressList(1);
+		other.add(ServerAddressList.pack(100, 27015));
+		list.addAll(other);
+
+		assertEquals(101, list.size());
+		for(int i = 0; i <= 100; i ++) {
+			assertEquals(i, ServerAddressList.getIpAddress(list.get(i)));
+		}
+		assertTrue(list.toList().get(100).getAddress().getHostAddress().equals("0.0.0.100"));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void indexOutOfBounds() {
+		new ServerAddressList().get(0);
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.steam.sockets.QueryFuture;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class AddressResolverTest {
+
+	private AddressResolver resolver;
+
+	@Before
+	public void setUp() {
+		this.resolver = new AddressResolver(2, 100);
+	}
+
+	@Test
+	public void concurrentLookupsAreShared() throws Exception {
+		QueryFuture<List<InetAddress>> lookup1 = this.resolver.resolve("localhost");
+		QueryFuture<List<InetAddress>> lookup2 = this.resolver.resolve("localhost");
+
+		assertSame(lookup1, lookup2);
+		assertTrue(lookup1.get(1, TimeUnit.SECONDS).get(0).isLoopbackAddress());
+	}
+
+	@Test
+	public void resolvedHostNamesExpire() throws Exception {
+		QueryFuture<List<InetAddress>> lookup = this.resolver.resolve("localhost");
+		lookup.get(1, TimeUnit.SECONDS);
+		assertSame(lookup, this.resolver.resolve("localhost"));
+
+		Thread.sleep(150);
+
+		QueryFuture<List<InetAddress>> newLookup = this.resolver.resolve("localhost");
+		assertNotSame(lookup, newLookup);
+		assertEquals(lookup.get(), newLookup.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void clearedHostNamesAreLookedUpAgain() throws Exception {
+		QueryFuture<List<InetAddress>> lookup = this.resolver.resolve("localhost");
+		lookup.get(1, TimeUnit.SECONDS);
+
+		this.resolver.clear();
+
+		assertNotSame(lookup, this.resolver.resolve("localhost"));
+	}
+
+	@Test
+	public void failedLookupsAreNotCached() throws Exception {
+		QueryFuture<List<InetAddress>> lookup = this.resolver.resolve("nonexistent.invalid");
+		try {
+			lookup.get(5, TimeUnit.SECONDS);
+			throw new AssertionError("Expected the lookup to fail.");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof SteamCondenserException);
+		}
+
+		assertNotSame(lookup, this.resolver.resolve("nonexistent.invalid"));
+	}
+
+	@Test
+	public void ipAddressesAreNotLookedUp() throws Exception {
+		QueryFuture<List<InetAddress>> lookup = this.resolver.resolve("192.0.2.1");
+
+		assertTrue(lookup.isDone());
+		assertEquals(InetAddress.getByName("192.0.2.1"), lookup.get().get(0));
+		assertNotSame(lookup, this.resolver.resolve("192.0.2.1"));
+		assertTrue(this.resolver.resolve("::1").isDone());
+	}
+}
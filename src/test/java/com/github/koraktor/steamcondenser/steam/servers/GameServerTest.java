@@ -0,0 +1,217 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.steam.SteamPlayer;
+import com.github.koraktor.steamcondenser.steam.sockets.Pacer;
+import com.github.koraktor.steamcondenser.steam.sockets.QueryEngine;
+import com.github.koraktor.steamcondenser.steam.sockets.QueryFuture;
+import com.github.koraktor.steamcondenser.steam.sockets.RttEstimator;
+import com.github.koraktor.steamcondenser.steam.sockets.SteamSocket;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class GameServerTest {
+
+	private static final byte[] INFO_REPLY = new byte[] {
+		0x49, 17, 't', 'e', 's', 't', 0, 'm', 'a', 'p', 0, 'c', 's', 't', 'r', 'i', 'k', 'e', 0, 'C', 'S', 0,
+		(byte) 0xF0, 0, 1, 16, 0, 'd', 'l', 0, 1, '1', '.', '0', 0
+	};
+
+	private QueryEngine engine;
+
+	private GameServer gameServer;
+
+	private int minTimeout;
+
+	private DatagramSocket server;
+
+	private int timeout;
+
+	@Before
+	public void setUp() throws Exception {
+		this.minTimeout = RttEstimator.getMinTimeout();
+		this.timeout = SteamSocket.getTimeout();
+		RttEstimator.setMinTimeout(50);
+		SteamSocket.setTimeout(100);
+
+		this.server = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		this.server.setSoTimeout(2000);
+
+		this.engine = new QueryEngine();
+		this.engine.setPacer(new Pacer());
+		this.engine.start();
+		this.gameServer = new SourceServer("127.0.0.1", this.server.getLocalPort());
+		this.gameServer.setQueryEngine(this.engine);
+	}
+
+	@After
+	public void tearDown() {
+		this.gameServer.close();
+		this.engine.close();
+		this.server.close();
+		RttEstimator.setMinTimeout(this.minTimeout);
+		SteamSocket.setTimeout(this.timeout);
+	}
+
+	@Test
+	public void asyncPlayersAreCopiesOfTheSnapshot() throws Exception {
+		HashMap<String, SteamPlayer> players = this.updatePlayers('a');
+		players.clear();
+		assertEquals(1, this.gameServer.getSnapshot().getPlayers().size());
+
+		players = this.updatePlayers('a');
+		HashMap<String, SteamPlayer> newPlayers = this.updatePlayers('b');
+		assertTrue(players.containsKey("a"));
+		assertTrue(newPlayers.containsKey("b"));
+		assertEquals(1, players.size());
+	}
+
+	@Test
+	public void asyncRulesAreCopiesOfTheSnapshot() throws Exception {
+		HashMap<String, String> rules = this.updateRules('a');
+		rules.put("c", "d");
+		assertEquals(1, this.gameServer.getSnapshot().getRules().size());
+
+		rules = this.updateRules('a');
+		HashMap<String, String> newRules = this.updateRules('b');
+		assertEquals("b", rules.get("a"));
+		assertEquals("b", newRules.get("b"));
+		assertEquals(1, rules.size());
+	}
+
+	@Test
+	public void asyncServerInfoIsACopyOfTheSnapshot() throws Exception {
+		HashMap<String, Object> info = this.updateServerInfo();
+		info.put("serverName", "changed");
+		assertEquals("test", this.gameServer.getSnapshot().getServerInfo().get("serverName"));
+
+		info = this.updateServerInfo();
+		assertEquals("test", info.get("serverName"));
+	}
+
+	@Test
+	public void racedRequestsSwitchToTheFirstAddressReplying() throws Exception {
+		DatagramSocket server2 = new DatagramSocket(this.server.getLocalPort(), InetAddress.getByName("127.0.0.2"));
+		server2.setSoTimeout(2000);
+		GameServer racingServer = new RacingServer(this.server.getLocalPort());
+		try {
+			racingServer.setQueryEngine(this.engine);
+			racingServer.setAddressRacing(1);
+
+			QueryFuture<HashMap<String, Object>> info = racingServer.updateServerInfoAsync();
+			this.receive();
+			DatagramPacket request2 = new DatagramPacket(new byte[1400], 1400);
+			server2.receive(request2);
+
+			this.reply(server2, request2, INFO_REPLY);
+			assertEquals("test", info.get(1, TimeUnit.SECONDS).get("serverName"));
+			assertEquals(server2.getLocalSocketAddress(), racingServer.getSocketAddress());
+
+			this.server.setSoTimeout(300);
+			try {
+				this.receive();
+				throw new AssertionError("Expected the losing request to be cancelled.");
+			} catch(SocketTimeoutException e) {}
+		} finally {
+			racingServer.close();
+			server2.close();
+		}
+	}
+
+	private void answer(byte[] reply) throws Exception {
+		DatagramPacket request = this.receive();
+		byte[] data = request.getData();
+		int length = request.getLength();
+		if((data[4] == 0x55 || data[4] == 0x56) && data[length - 1] == (byte) 0xFF && data[length - 4] == (byte) 0xFF) {
+			this.reply(request, new byte[] { 0x41, 1, 0, 0, 0 });
+			request = this.receive();
+		}
+
+		this.reply(request, reply);
+	}
+
+	private DatagramPacket receive() throws Exception {
+		DatagramPacket packet = new DatagramPacket(new byte[1400], 1400);
+		this.server.receive(packet);
+
+		return packet;
+	}
+
+	private void reply(DatagramPacket request, byte[] payload) throws Exception {
+		this.reply(this.server, request, payload);
+	}
+
+	private void reply(DatagramSocket server, DatagramPacket request, byte[] payload) throws Exception {
+		byte[] data = new byte[payload.length + 4];
+		data[0] = data[1] = data[2] = data[3] = (byte) 0xFF;
+		System.arraycopy(payload, 0, data, 4, payload.length);
+		server.send(new DatagramPacket(data, data.length, request.getSocketAddress()));
+	}
+
+	private HashMap<String, SteamPlayer> updatePlayers(char name) throws Exception {
+		QueryFuture<HashMap<String, SteamPlayer>> players = this.gameServer.updatePlayersAsync();
+		this.answer(new byte[] { 0x44, 1, 0, (byte) name, 0, 1, 0, 0, 0, 0, 0, 0, 0 });
+
+		return players.get(1, TimeUnit.SECONDS);
+	}
+
+	private HashMap<String, String> updateRules(char name) throws Exception {
+		QueryFuture<HashMap<String, String>> rules = this.gameServer.updateRulesAsync();
+		this.answer(new byte[] { 0x45, 1, 0, (byte) name, 0, 'b', 0 });
+
+		return rules.get(1, TimeUnit.SECONDS);
+	}
+
+	private HashMap<String, Object> updateServerInfo() throws Exception {
+		QueryFuture<HashMap<String, Object>> info = this.gameServer.updateServerInfoAsync();
+		this.answer(INFO_REPLY);
+
+		return info.get(1, TimeUnit.SECONDS);
+	}
+
+	private static class RacingServer extends SourceServer {
+
+		private List<InetAddress> ipAddresses;
+
+		RacingServer(int port) throws Exception {
+			super("127.0.0.1", port);
+			this.ipAddresses = new ArrayList<InetAddress>();
+			this.ipAddresses.add(InetAddress.getByName("127.0.0.1"));
+			this.ipAddresses.add(InetAddress.getByName("127.0.0.2"));
+		}
+
+		@Override
+		public List<InetAddress> getIpAddresses() {
+			return this.ipAddresses;
+		}
+
+		@Override
+		protected void selectIp(int ipIndex) {
+			this.ipIndex   = ipIndex;
+			this.ipAddress = this.ipAddresses.get(ipIndex);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.steam.sockets.Pacer;
+import com.github.koraktor.steamcondenser.steam.sockets.SteamSocket;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class HeartbeatServiceTest {
+
+	private static final byte[] CHALLENGE_REQUEST = new byte[] { 0x4D, (byte) 0xFF };
+
+	private InetSocketAddress address;
+
+	private BlockingQueue<String> events;
+
+	private DatagramChannel master;
+
+	private HeartbeatService service;
+
+	private int timeout;
+
+	@Before
+	public void setUp() throws Exception {
+		this.timeout = SteamSocket.getTimeout();
+		SteamSocket.setTimeout(1000);
+
+		this.master = DatagramChannel.open();
+		this.master.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+		this.master.socket().setSoTimeout(2000);
+		this.address = new InetSocketAddress("127.0.0.1", this.master.socket().getLocalPort());
+
+		this.events = new LinkedBlockingQueue<String>();
+		this.service = new HeartbeatService();
+		this.service.setPacer(new Pacer());
+		this.service.addMaster(this.address);
+		this.service.addListener(new HeartbeatListener() {
+			public void challengeReceived(InetSocketAddress master, int challenge) {
+				events.add("challenge " + master.getPort() + " " + challenge);
+			}
+
+			public void restartRequested(InetSocketAddress master) {
+				events.add("restart " + master.getPort());
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.service.close();
+		this.master.close();
+		SteamSocket.setTimeout(this.timeout);
+	}
+
+	@Test
+	public void heartbeatsAreSentWithTheReceivedChallenge() throws Exception {
+		this.service.addServer("server", this.serverData("tf"));
+		this.service.start();
+
+		DatagramPacket request = this.receive();
+		assertArrayEquals(CHALLENGE_REQUEST, this.requestData(request));
+		this.reply(request, new byte[] { 0x4E, 0x0A, 0x78, 0x56, 0x34, 0x12 });
+
+		String heartbeat = new String(this.requestData(this.receive()));
+		assertEquals(0x30, heartbeat.charAt(0));
+		assertTrue(heartbeat.contains("\\challenge\\" + 0x12345678));
+		assertTrue(heartbeat.contains("\\gamedir\\tf"));
+		assertEquals("challenge " + this.address.getPort() + " " + 0x12345678, this.events.poll(1, TimeUnit.SECONDS));
+		assertEquals(Integer.valueOf(0x12345678), this.service.getChallenge(this.address));
+	}
+
+	@Test
+	public void challengeIsSharedByAllServers() throws Exception {
+		this.service.addServer("server1", this.serverData("tf"));
+		this.service.addServer("server2", this.serverData("cstrike"));
+		this.service.start();
+
+		DatagramPacket request = this.receive();
+		assertArrayEquals(CHALLENGE_REQUEST, this.requestData(request));
+		this.reply(request, new byte[] { 0x4E, 0x0A, 1, 0, 0, 0 });
+
+		String heartbeat1 = new String(this.requestData(this.receive()));
+		String heartbeat2 = new String(this.requestData(this.receive()));
+		assertTrue(heartbeat1.contains("\\challenge\\1"));
+		assertTrue(heartbeat2.contains("\\challenge\\1"));
+		assertFalse(heartbeat1.contains("\\gamedir\\tf") == heartbeat2.contains("\\gamedir\\tf"));
+		this.assertNoRequest();
+	}
+
+	@Test
+	public void challengeRequestIsRepeatedAfterTheSocketTimeout() throws Exception {
+		SteamSocket.setTimeout(100);
+		this.service.addServer("server", this.serverData("tf"));
+		this.service.start();
+
+		assertArrayEquals(CHALLENGE_REQUEST, this.requestData(this.receive()));
+		long start = System.nanoTime();
+		DatagramPacket request = this.receive();
+		assertArrayEquals(CHALLENGE_REQUEST, this.requestData(request));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+
+		this.reply(request, new byte[] { 0x4E, 0x0A, 1, 0, 0, 0 });
+		assertTrue(new String(this.requestData(this.receive())).contains("\\challenge\\1"));
+	}
+
+	@Test
+	public void restartRequestsArePassedToListeners() throws Exception {
+		this.service.addServer("server", this.serverData("tf"));
+		this.service.start();
+
+		this.reply(this.receive(), new byte[] { 0x4F, 0, 0, 0, 0 });
+
+		assertEquals("restart " + this.address.getPort(), this.events.poll(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void closedServiceStopsSending() throws Exception {
+		this.service.start();
+		this.service.close();
+
+		assertFalse(this.service.isRunning());
+		this.service.addServer("server", this.serverData("tf"));
+		this.assertNoRequest();
+	}
+
+	private void assertNoRequest() throws Exception {
+		this.master.socket().setSoTimeout(300);
+		try {
+			this.receive();
+			throw new AssertionError("Expected no more requests.");
+		} catch(SocketTimeoutException e) {}
+	}
+
+	private DatagramPacket receive() throws Exception {
+		DatagramPacket packet = new DatagramPacket(new byte[1400], 1400);
+		this.master.socket().receive(packet);
+
+		return packet;
+	}
+
+	private void reply(DatagramPacket request, byte[] payload) throws Exception {
+		byte[] data = new byte[payload.length + 4];
+		data[0] = data[1] = data[2] = data[3] = (byte) 0xFF;
+		System.arraycopy(payload, 0, data, 4, payload.length);
+		this.master.socket().send(new DatagramPacket(data, data.length, request.getSocketAddress()));
+	}
+
+	private byte[] requestData(DatagramPacket request) {
+		byte[] data = new byte[request.getLength()];
+		System.arraycopy(request.getData(), 0, data, 0, data.length);
+
+		return data;
+	}
+
+	private Map<String, Object> serverData(String gameDir) {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("gamedir", gameDir);
+
+		return data;
+	}
+}
@@ -0,0 +1,240 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.steam.sockets.SteamSocket;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class MasterServerCrawlerTest {
+
+	private static final String FIRST = "1.1.1.1:27015";
+
+	private FakeMaster master1;
+
+	private FakeMaster master2;
+
+	private Map<String, List<String>> serverLists;
+
+	private int timeout;
+
+	@Before
+	public void setUp() throws Exception {
+		this.timeout = SteamSocket.getTimeout();
+		SteamSocket.setTimeout(50);
+
+		this.serverLists = new HashMap<String, List<String>>();
+		this.master1 = new FakeMaster("127.0.0.1", 0);
+		this.master2 = new FakeMaster("127.0.0.2", this.master1.socket.getLocalPort());
+		this.master1.start();
+		this.master2.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.master1.close();
+		this.master2.close();
+		SteamSocket.setTimeout(this.timeout);
+	}
+
+	@Test
+	public void shardsAreSplitByRegionAndFilterPartition() throws Exception {
+		this.serve(MasterServer.REGION_EUROPE, "\\secure\\1\\gamedir\\tf", "1.0.0.1:27015", "1.0.0.2:27015", "1.0.0.3:27015");
+		this.serve(MasterServer.REGION_EUROPE, "\\secure\\1\\gamedir\\cstrike", "2.0.0.1:27015");
+		this.serve(MasterServer.REGION_ASIA, "\\secure\\1\\gamedir\\tf", "3.0.0.1:27015", "3.0.0.2:27015");
+		this.serve(MasterServer.REGION_ASIA, "\\secure\\1\\gamedir\\cstrike", "4.0.0.1:27015");
+
+		MasterServerCrawler crawler = this.createCrawler();
+		crawler.setRegions(MasterServer.REGION_EUROPE, MasterServer.REGION_ASIA);
+		crawler.setFilters("\\secure\\1", "\\gamedir\\tf", "\\gamedir\\cstrike");
+
+		List<InetSocketAddress> servers = crawler.getServers();
+
+		assertEquals(7, servers.size());
+		Set<String> shards = new HashSet<String>();
+		shards.addAll(this.master1.firstRequests());
+		shards.addAll(this.master2.firstRequests());
+		assertEquals(4, shards.size());
+		assertTrue(shards.contains(MasterServer.REGION_ASIA + "\\secure\\1\\gamedir\\cstrike"));
+		assertEquals(2, this.master1.firstRequests().size());
+		assertEquals(2, this.master2.firstRequests().size());
+	}
+
+	@Test
+	public void failingShardsRestartUsingTheNextIpAddress() throws Exception {
+		this.serve(MasterServer.REGION_EUROPE, "", FIRST, "1.1.1.2:27015", "1.1.1.3:27015");
+		this.master1.silentAfter = 1;
+
+		MasterServerCrawler crawler = this.createCrawler();
+		crawler.setRegions(MasterServer.REGION_EUROPE);
+		final List<InetSocketAddress> received = new ArrayList<InetSocketAddress>();
+
+		crawler.getServers(new MasterServerListener() {
+			public void serversReceived(List<InetSocketAddress> servers) {
+				received.addAll(servers);
+			}
+		});
+
+		assertEquals(1, this.master1.firstRequests().size());
+		assertEquals(4, this.master1.requests.size());
+		assertEquals("0.0.0.0:0", this.master2.requests.get(0));
+		assertEquals(3, received.size());
+	}
+
+	@Test
+	public void shardsFailIfAllIpAddressesTimeOut() throws Exception {
+		this.serve(MasterServer.REGION_EUROPE, "", FIRST, "1.1.1.2:27015", "1.1.1.3:27015");
+		this.master1.silentAfter = 0;
+		this.master2.silentAfter = 0;
+
+		MasterServerCrawler crawler = this.createCrawler();
+		crawler.setRegions(MasterServer.REGION_EUROPE);
+
+		try {
+			crawler.getServers();
+			throw new AssertionError("Expected a timeout.");
+		} catch(TimeoutException e) {}
+		assertEquals(3, this.master1.firstRequests().size());
+		assertEquals(3, this.master2.firstRequests().size());
+	}
+
+	@Test
+	public void duplicatesOfSeveralShardsAreMerged() throws Exception {
+		this.serve(MasterServer.REGION_EUROPE, "", FIRST, "1.0.0.1:27015", "1.0.0.2:27015");
+		this.serve(MasterServer.REGION_ASIA, "", FIRST, "1.0.0.2:27015", "2.0.0.1:27015");
+
+		MasterServerCrawler crawler = this.createCrawler();
+		crawler.setRegions(MasterServer.REGION_EUROPE, MasterServer.REGION_ASIA);
+		final List<InetSocketAddress> received = new ArrayList<InetSocketAddress>();
+
+		crawler.getServers(new MasterServerListener() {
+			public void serversReceived(List<InetSocketAddress> servers) {
+				received.addAll(servers);
+			}
+		});
+
+		assertEquals(4, received.size());
+		assertEquals(4, new HashSet<InetSocketAddress>(received).size());
+		assertEquals(4, crawler.getServerAddresses().size());
+	}
+
+	private MasterServerCrawler createCrawler() throws Exception {
+		List<InetAddress> ipAddresses = new ArrayList<InetAddress>();
+		ipAddresses.add(InetAddress.getByName("127.0.0.1"));
+		ipAddresses.add(InetAddress.getByName("127.0.0.2"));
+
+		return new MasterServerCrawler(ipAddresses, this.master1.socket.getLocalPort());
+	}
+
+	private void serve(byte region, String filter, String... servers) {
+		List<String> serverList = new ArrayList<String>();
+		for(String server : servers) {
+			serverList.add(server);
+		}
+		this.serverLists.put(region + filter, serverList);
+	}
+
+	private class FakeMaster extends Thread {
+
+		List<String> requests;
+
+		List<String> shards;
+
+		volatile int silentAfter;
+
+		DatagramSocket socket;
+
+		FakeMaster(String ipAddress, int port) throws IOException {
+			this.requests = new ArrayList<String>();
+			this.shards = new ArrayList<String>();
+			this.silentAfter = -1;
+			this.socket = new DatagramSocket(port, InetAddress.getByName(ipAddress));
+		}
+
+		void close() throws InterruptedException {
+			this.socket.close();
+			this.join();
+		}
+
+		synchronized List<String> firstRequests() {
+			List<String> firstRequests = new ArrayList<String>();
+			for(int i = 0; i < this.requests.size(); i ++) {
+				if(this.requests.get(i).equals("0.0.0.0:0")) {
+					firstRequests.add(this.shards.get(i));
+				}
+			}
+
+			return firstRequests;
+		}
+
+		public void run() {
+			try {
+				while(true) {
+					DatagramPacket request = new DatagramPacket(new byte[1400], 1400);
+					this.socket.receive(request);
+					String[] fields = new String(request.getData(), 2, request.getLength() - 2).split("\0", -1);
+					String shard = request.getData()[1] + fields[1];
+					int replies;
+					synchronized(this) {
+						this.requests.add(fields[0]);
+						this.shards.add(shard);
+						replies = this.requests.size() - 1;
+					}
+					if(this.silentAfter >= 0 && replies >= this.silentAfter) {
+						continue;
+					}
+
+					byte[] reply = this.batch(serverLists.get(shard), fields[0]);
+					this.socket.send(new DatagramPacket(reply, reply.length, request.getSocketAddress()));
+				}
+			} catch(IOException e) {}
+		}
+
+		private byte[] batch(List<String> servers, String seed) throws IOException {
+			ByteArrayOutputStream reply = new ByteArrayOutputStream();
+			reply.write(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x66, 0x0A });
+
+			int start = servers.indexOf(seed) + 1;
+			int end = Math.min(start + 2, servers.size());
+			List<String> batch = new ArrayList<String>(servers.subList(start, end));
+			if(end == servers.size()) {
+				batch.add("0.0.0.0:0");
+			}
+			for(String server : batch) {
+				String[] address = server.split(":");
+				int port = Integer.parseInt(address[1]);
+				reply.write(InetAddress.getByName(address[0]).getAddress());
+				reply.write(new byte[] { (byte) (port >> 8), (byte) port });
+			}
+
+			return reply.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.steam.packets.ServerAddressList;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class ServerAddressSetTest {
+
+	@Test
+	public void addAndContains() {
+		ServerAddressSet set = new ServerAddressSet();
+
+		assertTrue(set.add(ServerAddressList.pack(0x0A000001, 27015)));
+		assertTrue(set.add(ServerAddressList.pack(0x0A000001, 27016)));
+		assertEquals(2, set.size());
+
+		assertTrue(set.contains(ServerAddressList.pack(0x0A000001, 27015)));
+		assertTrue(set.contains(ServerAddressList.pack(0x0A000001, 27016)));
+		assertFalse(set.contains(ServerAddressList.pack(0x0A000002, 27015)));
+	}
+
+	@Test
+	public void duplicatesAreIgnored() {
+		ServerAddressSet set = new ServerAddressSet();
+
+		assertTrue(set.add(ServerAddressList.pack(0x0A000001, 27015)));
+		assertFalse(set.add(ServerAddressList.pack(0x0A000001, 27015)));
+		assertEquals(1, set.size());
+	}
+
+	@Test
+	public void zeroAddress() {
+		ServerAddressSet set = new ServerAddressSet();
+		assertFalse(set.contains(0));
+
+		assertTrue(set.add(0));
+		assertFalse(set.add(0));
+		assertTrue(set.contains(0));
+		assertEquals(1, set.size());
+
+		long[] addresses = set.toAddressList().toArray();
+		assertEquals(1, addresses.length);
+		assertEquals(0, addresses[0]);
+	}
+
+	@Test
+	public void rehashKeepsAllAddresses() {
+		ServerAddressSet set = new ServerAddressSet(1);
+		for(int i = 0; i < 10000; i ++) {
+			assertTrue(set.add(ServerAddressList.pack(0x0A000000 + i, 27015)));
+		}
+		assertTrue(set.add(0));
+
+		assertEquals(10001, set.size());
+		assertTrue(set.contains(0));
+		for(int i = 0; i < 10000; i ++) {
+			assertTrue(set.contains(ServerAddressList.pack(0x0A000000 + i, 27015)));
+			assertFalse(set.add(ServerAddressList.pack(0x0A000000 + i, 27015)));
+		}
+		assertFalse(set.contains(ServerAddressList.pack(0x0A000000 + 10000, 27015)));
+		assertEquals(10001, set.toAddressList().size());
+	}
+
+	@Test
+	public void addAllReturnsNewAddresses() {
+		ServerAddressSet set = new ServerAddressSet();
+		set.add(ServerAddressList.pack(0x0A000001, 27015));
+
+		ServerAddressList addresses = new ServerAddressList();
+		addresses.add(ServerAddressList.pack(0x0A000001, 27015));
+		addresses.add(ServerAddressList.pack(0x0A000002, 27015));
+		addresses.add(ServerAddressList.pack(0x0A000002, 27015));
+		addresses.add(ServerAddressList.pack(0x0A000003, 27015));
+
+		ServerAddressList newAddresses = set.addAll(addresses);
+
+		assertEquals(2, newAddresses.size());
+		assertEquals(ServerAddressList.pack(0x0A000002, 27015), newAddresses.get(0));
+		assertEquals(ServerAddressList.pack(0x0A000003, 27015), newAddresses.get(1));
+		assertEquals(3, set.size());
+	}
+
+	@Test
+	public void toAddressList() {
+		ServerAddressSet set = new ServerAddressSet();
+		long[] expected = new long[] {
+			ServerAddressList.pack(0x0A000001, 27015),
+			ServerAddressList.pack(0x0A000002, 27015),
+			ServerAddressList.pack(0x0A000003, 27015)
+		};
+		for(long address : expected) {
+			set.add(address);
+		}
+
+		long[] addresses = set.toAddressList().toArray();
+		Arrays.sort(addresses);
+		assertTrue(Arrays.equals(expected, addresses));
+	}
+}
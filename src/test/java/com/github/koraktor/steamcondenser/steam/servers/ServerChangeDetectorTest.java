@@ -0,0 +1,347 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.steam.SteamPlayer;
+import com.github.koraktor.steamcondenser.steam.sockets.Pacer;
+import com.github.koraktor.steamcondenser.steam.sockets.QueryEngine;
+import com.github.koraktor.steamcondenser.steam.sockets.RttEstimator;
+import com.github.koraktor.steamcondenser.steam.sockets.SteamSocket;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class ServerChangeDetectorTest {
+
+	private ServerChangeDetector detector;
+
+	private QueryEngine engine;
+
+	private FakeServer fakeServer;
+
+	private int minTimeout;
+
+	private BlockingQueue<List<ServerChange>> notifications;
+
+	private int retries;
+
+	private GameServer server;
+
+	private int timeout;
+
+	@Before
+	public void setUp() throws Exception {
+		this.minTimeout = RttEstimator.getMinTimeout();
+		this.retries = QueryEngine.getRetries();
+		this.timeout = SteamSocket.getTimeout();
+		RttEstimator.setMinTimeout(50);
+		QueryEngine.setRetries(0);
+		SteamSocket.setTimeout(100);
+
+		this.detector = new ServerChangeDetector();
+		this.notifications = new LinkedBlockingQueue<List<ServerChange>>();
+		this.detector.addListener(new ServerChangeListener() {
+			public void serverChanged(GameServer server, List<ServerChange> changes) {
+				notifications.add(changes);
+			}
+		});
+
+		this.fakeServer = new FakeServer();
+		this.fakeServer.start();
+		this.engine = new QueryEngine();
+		this.engine.setPacer(new Pacer());
+		this.engine.start();
+		this.server = new SourceServer("127.0.0.1", this.fakeServer.socket.getLocalPort());
+		this.server.setQueryEngine(this.engine);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.server.close();
+		this.engine.close();
+		this.fakeServer.close();
+		RttEstimator.setMinTimeout(this.minTimeout);
+		QueryEngine.setRetries(this.retries);
+		SteamSocket.setTimeout(this.timeout);
+	}
+
+	@Test
+	public void firstRefreshIsBaseline() throws Exception {
+		this.fakeServer.info("de_dust", 2);
+		this.server.updateServerInfoAsync().get(1, TimeUnit.SECONDS);
+
+		assertTrue(this.detector.detectChanges(this.server).isEmpty());
+		assertTrue(this.notifications.isEmpty());
+	}
+
+	@Test
+	public void unchangedRefreshHasNoChanges() throws Exception {
+		this.fakeServer.info("de_dust", 2);
+		this.refreshInfo();
+
+		this.refreshInfo();
+
+		assertTrue(this.detector.detectChanges(this.server).isEmpty());
+		assertTrue(this.notifications.isEmpty());
+	}
+
+	@Test
+	public void infoChanges() throws Exception {
+		this.fakeServer.info("de_dust", 2);
+		this.refreshInfo();
+
+		this.fakeServer.info("de_inferno", 3);
+		this.server.updateServerInfoAsync().get(1, TimeUnit.SECONDS);
+		List<ServerChange> changes = this.detector.detectChanges(this.server);
+
+		assertEquals(2, changes.size());
+		ServerChange mapChange = find(changes, ServerChange.Type.MAP_CHANGED, "mapName");
+		assertEquals("de_dust", mapChange.getOldValue());
+		assertEquals("de_inferno", mapChange.getNewValue());
+		assertSame(this.server, mapChange.getServer());
+		ServerChange infoChange = find(changes, ServerChange.Type.INFO_CHANGED, "numberOfPlayers");
+		assertEquals(2, infoChange.getOldValue());
+		assertEquals(3, infoChange.getNewValue());
+
+		assertEquals(changes, this.notifications.poll());
+		assertTrue(this.notifications.isEmpty());
+	}
+
+	@Test
+	public void playerChanges() throws Exception {
+		this.fakeServer.players("alice", 5, "bob", 7);
+		this.server.updatePlayersAsync().get(1, TimeUnit.SECONDS);
+		this.detector.detectChanges(this.server);
+
+		this.fakeServer.players("bob", 9, "carol", 0);
+		this.server.updatePlayersAsync().get(1, TimeUnit.SECONDS);
+		List<ServerChange> changes = this.detector.detectChanges(this.server);
+
+		assertEquals(3, changes.size());
+		ServerChange left = find(changes, ServerChange.Type.PLAYER_LEFT, "alice");
+		assertEquals("alice", ((SteamPlayer) left.getOldValue()).getName());
+		assertNull(left.getNewValue());
+		ServerChange joined = find(changes, ServerChange.Type.PLAYER_JOINED, "carol");
+		assertNull(joined.getOldValue());
+		assertEquals("carol", ((SteamPlayer) joined.getNewValue()).getName());
+		ServerChange score = find(changes, ServerChange.Type.SCORE_CHANGED, "bob");
+		assertEquals(7, score.getOldValue());
+		assertEquals(9, score.getNewValue());
+	}
+
+	@Test
+	public void ruleChanges() throws Exception {
+		this.fakeServer.rules("mp_friendlyfire", "0", "mp_timelimit", "20");
+		this.server.updateRulesAsync().get(1, TimeUnit.SECONDS);
+		this.detector.detectChanges(this.server);
+
+		this.fakeServer.rules("mp_friendlyfire", "1", "sv_gravity", "800");
+		this.server.updateRulesAsync().get(1, TimeUnit.SECONDS);
+		List<ServerChange> changes = this.detector.detectChanges(this.server);
+
+		assertEquals(3, changes.size());
+		ServerChange changed = find(changes, ServerChange.Type.RULE_CHANGED, "mp_friendlyfire");
+		assertEquals("0", changed.getOldValue());
+		assertEquals("1", changed.getNewValue());
+		ServerChange removed = find(changes, ServerChange.Type.RULE_CHANGED, "mp_timelimit");
+		assertEquals("20", removed.getOldValue());
+		assertNull(removed.getNewValue());
+		ServerChange added = find(changes, ServerChange.Type.RULE_CHANGED, "sv_gravity");
+		assertNull(added.getOldValue());
+		assertEquals("800", added.getNewValue());
+	}
+
+	@Test
+	public void monitoredServerGoesDownAndUp() throws Exception {
+		this.fakeServer.info("de_dust", 2);
+		ServerMonitor monitor = new ServerMonitor(1);
+		monitor.setJitter(0);
+		monitor.addListener(this.detector);
+		monitor.addServer(this.server, 50, 1);
+		monitor.start();
+		try {
+			this.fakeServer.waitForRequests(2);
+			this.fakeServer.silent = true;
+
+			List<ServerChange> changes = this.notifications.poll(1, TimeUnit.SECONDS);
+			assertEquals(1, changes.size());
+			assertEquals(ServerChange.Type.SERVER_DOWN, changes.get(0).getType());
+			assertTrue(changes.get(0).getNewValue() instanceof TimeoutException);
+
+			this.fakeServer.silent = false;
+			changes = this.notifications.poll(1, TimeUnit.SECONDS);
+			assertEquals(1, changes.size());
+			assertEquals(ServerChange.Type.SERVER_UP, changes.get(0).getType());
+		} finally {
+			monitor.stop();
+		}
+	}
+
+	@Test
+	public void unknownServerIsNotReportedDown() throws Exception {
+		this.fakeServer.silent = true;
+		try {
+			this.server.updateServerInfoAsync().get(1, TimeUnit.SECONDS);
+			throw new AssertionError("Expected a timeout.");
+		} catch(ExecutionException e) {
+			this.detector.serverRefreshFailed(this.server, e.getCause());
+		}
+
+		assertTrue(this.notifications.isEmpty());
+	}
+
+	@Test
+	public void removedServerGetsNewBaseline() throws Exception {
+		this.fakeServer.info("de_dust", 2);
+		this.refreshInfo();
+		this.detector.removeServer(this.server);
+
+		this.fakeServer.info("de_inferno", 2);
+		this.server.updateServerInfoAsync().get(1, TimeUnit.SECONDS);
+
+		assertTrue(this.detector.detectChanges(this.server).isEmpty());
+	}
+
+	private static ServerChange find(List<ServerChange> changes, ServerChange.Type type, String key) {
+		for(ServerChange change : changes) {
+			if(change.getType() == type && change.getKey().equals(key)) {
+				return change;
+			}
+		}
+
+		throw new AssertionError("No change of type " + type + " for " + key + " in " + changes);
+	}
+
+	private void refreshInfo() throws Exception {
+		this.server.updateServerInfoAsync().get(1, TimeUnit.SECONDS);
+		this.detector.serverRefreshed(this.server);
+	}
+
+	private static class FakeServer extends Thread {
+
+		private byte[] infoReply;
+
+		private byte[] playersReply;
+
+		private int requests;
+
+		private byte[] rulesReply;
+
+		volatile boolean silent;
+
+		DatagramSocket socket;
+
+		FakeServer() throws IOException {
+			this.socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		}
+
+		void close() throws InterruptedException {
+			this.socket.close();
+			this.join();
+		}
+
+		synchronized void info(String mapName, int numberOfPlayers) throws IOException {
+			ByteArrayOutputStream reply = new ByteArrayOutputStream();
+			reply.write(new byte[] { 0x49, 17 });
+			writeString(reply, "Test Server");
+			writeString(reply, mapName);
+			writeString(reply, "cstrike");
+			writeString(reply, "Counter-Strike: Source");
+			reply.write(new byte[] { (byte) 0xF0, 0, (byte) numberOfPlayers, 16, 0, 'd', 'l', 0, 1 });
+			writeString(reply, "1.0.0.0");
+			this.infoReply = reply.toByteArray();
+		}
+
+		synchronized void players(Object... players) throws IOException {
+			ByteArrayOutputStream reply = new ByteArrayOutputStream();
+			reply.write(new byte[] { 0x44, (byte) (players.length / 2) });
+			for(int i = 0; i < players.length; i += 2) {
+				int score = (Integer) players[i + 1];
+				reply.write(i / 2);
+				writeString(reply, (String) players[i]);
+				reply.write(new byte[] { (byte) score, (byte) (score >> 8), (byte) (score >> 16), (byte) (score >> 24) });
+				reply.write(new byte[] { 0, 0, (byte) 0x80, 0x3F });
+			}
+			this.playersReply = reply.toByteArray();
+		}
+
+		synchronized void rules(String... rules) throws IOException {
+			ByteArrayOutputStream reply = new ByteArrayOutputStream();
+			reply.write(new byte[] { 0x45, (byte) (rules.length / 2), 0 });
+			for(String rule : rules) {
+				writeString(reply, rule);
+			}
+			this.rulesReply = reply.toByteArray();
+		}
+
+		synchronized void waitForRequests(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 1000;
+			while(this.requests < count && System.currentTimeMillis() < end) {
+				this.wait(end - System.currentTimeMillis());
+			}
+		}
+
+		public void run() {
+			try {
+				while(true) {
+					DatagramPacket request = new DatagramPacket(new byte[1400], 1400);
+					this.socket.receive(request);
+					if(this.silent) {
+						continue;
+					}
+
+					byte[] reply = this.reply(request.getData(), request.getLength());
+					byte[] data = new byte[reply.length + 4];
+					data[0] = data[1] = data[2] = data[3] = (byte) 0xFF;
+					System.arraycopy(reply, 0, data, 4, reply.length);
+					this.socket.send(new DatagramPacket(data, data.length, request.getSocketAddress()));
+				}
+			} catch(IOException e) {}
+		}
+
+		private synchronized byte[] reply(byte[] request, int length) {
+			this.requests ++;
+			this.notifyAll();
+
+			if(request[4] == 0x54) {
+				return this.infoReply;
+			}
+			if(request[length - 1] == (byte) 0xFF && request[length - 4] == (byte) 0xFF) {
+				return new byte[] { 0x41, 1, 0, 0, 0 };
+			}
+
+			return (request[4] == 0x55) ? this.playersReply : this.rulesReply;
+		}
+
+		private static void writeString(ByteArrayOutputStream stream, String string) throws IOException {
+			stream.write(string.getBytes("UTF-8"));
+			stream.write(0);
+		}
+	}
+}
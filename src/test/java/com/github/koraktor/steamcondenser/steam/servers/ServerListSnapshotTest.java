@@ -0,0 +1,165 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.steam.packets.ServerAddressList;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class ServerListSnapshotTest {
+
+	private File file;
+
+	private ServerListSnapshot snapshot;
+
+	@Before
+	public void setUp() throws Exception {
+		this.file = File.createTempFile("snapshot", ".bin");
+		this.file.delete();
+		this.snapshot = new ServerListSnapshot(this.file);
+	}
+
+	@After
+	public void tearDown() {
+		this.snapshot.close();
+		this.file.delete();
+	}
+
+	@Test
+	public void incompleteListIsResumed() throws Exception {
+		this.snapshot.start(MasterServer.REGION_ALL, "");
+		this.snapshot.append(addresses(0, 10), address(9));
+		this.snapshot.close();
+
+		this.snapshot = new ServerListSnapshot(this.file);
+		this.snapshot.start(MasterServer.REGION_ALL, "");
+
+		assertFalse(this.snapshot.isComplete());
+		assertEquals(10, this.snapshot.size());
+		assertEquals(address(9), this.snapshot.getSeed());
+	}
+
+	@Test
+	public void incompleteListForOtherFilterIsCleared() throws Exception {
+		this.snapshot.start(MasterServer.REGION_ALL, "");
+		this.snapshot.append(addresses(0, 10), address(9));
+
+		this.snapshot.start(MasterServer.REGION_EUROPE, "");
+
+		assertEquals(0, this.snapshot.size());
+		assertEquals(0, this.snapshot.getSeed());
+		assertTrue(this.snapshot.matches(MasterServer.REGION_EUROPE, ""));
+	}
+
+	@Test
+	public void completeListIsReadableDuringRefresh() throws Exception {
+		this.receive(0, 100);
+
+		this.snapshot.start(MasterServer.REGION_ALL, "");
+		assertTrue(this.snapshot.isRefreshing());
+		assertEquals(0, this.snapshot.getSeed());
+
+		this.snapshot.append(addresses(1000, 50), address(1049));
+
+		assertTrue(this.snapshot.isComplete());
+		assertEquals(address(1049), this.snapshot.getSeed());
+		assertList(0, 100, this.snapshot.getAddresses());
+
+		this.snapshot.append(addresses(1050, 150), address(1199));
+		this.snapshot.finish();
+
+		assertFalse(this.snapshot.isRefreshing());
+		assertList(1000, 200, this.snapshot.getAddresses());
+	}
+
+	@Test
+	public void interruptedRefreshIsResumedAfterRestart() throws Exception {
+		this.receive(0, 100);
+
+		this.snapshot.start(MasterServer.REGION_ALL, "");
+		this.snapshot.append(addresses(1000, 50), address(1049));
+		this.snapshot.close();
+
+		this.snapshot = new ServerListSnapshot(this.file);
+		assertTrue(this.snapshot.isComplete());
+		assertTrue(this.snapshot.isRefreshing());
+		assertList(0, 100, this.snapshot.getAddresses());
+
+		this.snapshot.start(MasterServer.REGION_ALL, "");
+		assertEquals(address(1049), this.snapshot.getSeed());
+		this.snapshot.append(addresses(1050, 50), address(1099));
+		this.snapshot.finish();
+
+		assertList(1000, 100, this.snapshot.getAddresses());
+	}
+
+	@Test
+	public void refreshForOtherRegionReplacesList() throws Exception {
+		this.receive(0, 100);
+
+		this.snapshot.start(MasterServer.REGION_EUROPE, "");
+		assertTrue(this.snapshot.matches(MasterServer.REGION_ALL, ""));
+
+		this.snapshot.append(addresses(1000, 10), address(1009));
+		this.snapshot.finish();
+
+		assertTrue(this.snapshot.matches(MasterServer.REGION_EUROPE, ""));
+		assertList(1000, 10, this.snapshot.getAddresses());
+	}
+
+	@Test
+	public void refreshesDoNotGrowFile() throws Exception {
+		for(int i = 0; i < 10; i ++) {
+			this.receive(i * 10000, 5000);
+		}
+		this.snapshot.close();
+
+		assertTrue(this.file.length() <= 64 + 4 * 8 * 5000);
+
+		this.snapshot = new ServerListSnapshot(this.file);
+		assertTrue(this.snapshot.isComplete());
+		assertList(90000, 5000, this.snapshot.getAddresses());
+	}
+
+	private void receive(int first, int count) throws Exception {
+		this.snapshot.start(MasterServer.REGION_ALL, "");
+		this.snapshot.append(addresses(first, count), address(first + count - 1));
+		this.snapshot.finish();
+	}
+
+	private static long address(int i) {
+		return ServerAddressList.pack(0x0A000000 + i, 27015);
+	}
+
+	private static ServerAddressList addresses(int first, int count) {
+		ServerAddressList addresses = new ServerAddressList(count);
+		for(int i = 0; i < count; i ++) {
+			addresses.add(address(first + i));
+		}
+
+		return addresses;
+	}
+
+	private static void assertList(int first, int count, ServerAddressList addresses) {
+		assertEquals(count, addresses.size());
+		for(int i = 0; i < count; i ++) {
+			assertEquals(address(first + i), addresses.get(i));
+		}
+	}
+}
@@ -0,0 +1,289 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.steam.sockets.QueryFuture;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class ServerMonitorTest {
+
+	private BlockingQueue<Object> events;
+
+	private ServerMonitor monitor;
+
+	private BlockingQueue<MonitoredServer> refreshes;
+
+	private List<MonitoredServer> servers;
+
+	@Before
+	public void setUp() {
+		this.events = new LinkedBlockingQueue<Object>();
+		this.refreshes = new LinkedBlockingQueue<MonitoredServer>();
+		this.servers = new ArrayList<MonitoredServer>();
+	}
+
+	@After
+	public void tearDown() {
+		if(this.monitor != null) {
+			this.monitor.stop();
+		}
+		for(MonitoredServer server : this.servers) {
+			server.close();
+		}
+	}
+
+	@Test
+	public void serversAreRefreshedInTheOrderTheyAreDue() throws Exception {
+		this.createMonitor(1);
+		MonitoredServer blocker = this.addServer(1);
+		this.monitor.start();
+		assertSame(blocker, this.nextRefresh());
+
+		MonitoredServer server1 = this.addServer(1);
+		Thread.sleep(5);
+		MonitoredServer server2 = this.addServer(1);
+		Thread.sleep(5);
+		MonitoredServer server3 = this.addServer(1);
+		Thread.sleep(5);
+		assertEquals(3, this.monitor.getOverdueCount());
+
+		blocker.complete();
+		assertSame(server1, this.nextRefresh());
+		server1.complete();
+		assertSame(server2, this.nextRefresh());
+		server2.complete();
+		assertSame(server3, this.nextRefresh());
+	}
+
+	@Test
+	public void refreshesInFlightAreLimited() throws Exception {
+		this.createMonitor(2);
+		for(int i = 0; i < 5; i ++) {
+			this.addServer(1);
+		}
+		this.monitor.start();
+
+		MonitoredServer server1 = this.nextRefresh();
+		this.nextRefresh();
+		this.assertNoRefresh();
+		assertEquals(2, this.monitor.getInFlightCount());
+		assertEquals(3, this.monitor.getOverdueCount());
+
+		server1.complete();
+		this.nextRefresh();
+		this.assertNoRefresh();
+		assertEquals(2, this.monitor.getInFlightCount());
+		assertEquals(2, this.monitor.getOverdueCount());
+	}
+
+	@Test
+	public void importantServersOvertakeOthersWithinTheBonus() throws Exception {
+		this.createMonitor(1);
+		this.monitor.setImportanceBonus(1000);
+		MonitoredServer blocker = this.addServer(1);
+		this.monitor.start();
+		this.nextRefresh();
+
+		MonitoredServer normal = this.addServer(1);
+		Thread.sleep(20);
+		MonitoredServer important = this.addServer(3);
+		Thread.sleep(5);
+
+		blocker.complete();
+		assertSame(important, this.nextRefresh());
+		important.complete();
+		assertSame(normal, this.nextRefresh());
+	}
+
+	@Test
+	public void importanceBonusIsBounded() throws Exception {
+		this.createMonitor(1);
+		this.monitor.setImportanceBonus(10);
+		MonitoredServer blocker = this.addServer(1);
+		this.monitor.start();
+		this.nextRefresh();
+
+		MonitoredServer normal = this.addServer(1);
+		Thread.sleep(50);
+		MonitoredServer important = this.addServer(3);
+		Thread.sleep(5);
+
+		blocker.complete();
+		assertSame(normal, this.nextRefresh());
+		normal.complete();
+		assertSame(important, this.nextRefresh());
+	}
+
+	@Test
+	public void importanceOfScheduledServersCanBeChanged() throws Exception {
+		this.createMonitor(1);
+		this.monitor.setImportanceBonus(1000);
+		MonitoredServer blocker = this.addServer(1);
+		this.monitor.start();
+		this.nextRefresh();
+
+		MonitoredServer server1 = this.addServer(1);
+		Thread.sleep(20);
+		MonitoredServer server2 = this.addServer(1);
+		Thread.sleep(5);
+		this.monitor.addServer(server2, 60000, 3);
+
+		blocker.complete();
+		assertSame(server2, this.nextRefresh());
+		server2.complete();
+		assertSame(server1, this.nextRefresh());
+	}
+
+	@Test
+	public void intervalOfWaitingServersCanBeChanged() throws Exception {
+		this.createMonitor(1);
+		MonitoredServer server = this.addServer(1);
+		this.monitor.start();
+		this.nextRefresh().complete();
+		this.assertNoRefresh();
+
+		this.monitor.addServer(server, 50, 1);
+
+		assertSame(server, this.nextRefresh());
+	}
+
+	@Test
+	public void failingRefreshesAreRescheduled() throws Exception {
+		this.createMonitor(1);
+		MonitoredServer server = this.addServer(1);
+		this.monitor.addServer(server, 50, 1);
+		this.monitor.start();
+
+		this.nextRefresh().fail(new TimeoutException());
+		assertTrue(this.events.poll(1, TimeUnit.SECONDS) instanceof TimeoutException);
+
+		assertSame(server, this.nextRefresh());
+		server.complete();
+		assertSame(server, this.events.poll(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void throwingRefreshesReleaseTheirSlot() throws Exception {
+		this.createMonitor(1);
+		MonitoredServer broken = this.addServer(1);
+		broken.broken = true;
+		this.monitor.start();
+
+		assertTrue(this.events.poll(1, TimeUnit.SECONDS) instanceof IllegalStateException);
+		assertTrue(this.monitor.isRunning());
+		assertEquals(0, this.monitor.getInFlightCount());
+
+		MonitoredServer server = this.addServer(1);
+		assertSame(server, this.nextRefresh());
+	}
+
+	@Test
+	public void stoppedMonitorDoesNotRefresh() throws Exception {
+		this.createMonitor(1);
+		this.monitor.start();
+		this.monitor.stop();
+
+		this.addServer(1);
+
+		assertFalse(this.monitor.isRunning());
+		this.assertNoRefresh();
+	}
+
+	private MonitoredServer addServer(int importance) throws SteamCondenserException {
+		MonitoredServer server = new MonitoredServer(this.refreshes);
+		this.servers.add(server);
+		this.monitor.addServer(server, 60000, importance);
+
+		return server;
+	}
+
+	private void assertNoRefresh() throws InterruptedException {
+		MonitoredServer server = this.refreshes.poll(100, TimeUnit.MILLISECONDS);
+		if(server != null) {
+			throw new AssertionError("Unexpected refresh of " + server);
+		}
+	}
+
+	private void createMonitor(int maxInFlight) {
+		this.monitor = new ServerMonitor(maxInFlight);
+		this.monitor.setJitter(0);
+		this.monitor.addListener(new ServerMonitorListener() {
+			public void serverRefreshed(GameServer server) {
+				events.add(server);
+			}
+
+			public void serverRefreshFailed(GameServer server, Throwable error) {
+				events.add(error);
+			}
+		});
+	}
+
+	private MonitoredServer nextRefresh() throws InterruptedException {
+		MonitoredServer server = this.refreshes.poll(1, TimeUnit.SECONDS);
+		if(server == null) {
+			throw new AssertionError("Expected a refresh.");
+		}
+
+		return server;
+	}
+
+	private static class MonitoredServer extends SourceServer {
+
+		boolean broken;
+
+		private QueryFuture<HashMap<String, Object>> refresh;
+
+		private BlockingQueue<MonitoredServer> refreshes;
+
+		MonitoredServer(BlockingQueue<MonitoredServer> refreshes)
+				throws SteamCondenserException {
+			super("127.0.0.1", 27015);
+			this.refreshes = refreshes;
+		}
+
+		@Override
+		public synchronized QueryFuture<HashMap<String, Object>> updateServerInfoAsync() {
+			if(this.broken) {
+				throw new IllegalStateException();
+			}
+
+			this.refresh = new QueryFuture<HashMap<String, Object>>();
+			this.refreshes.add(this);
+
+			return this.refresh;
+		}
+
+		synchronized void complete() {
+			this.refresh.set(new HashMap<String, Object>());
+		}
+
+		synchronized void fail(Throwable error) {
+			this.refresh.fail(error);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.steam.SteamPlayer;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class ServerSnapshotTest {
+
+	@Test
+	public void playersAreCopied() throws Exception {
+		HashMap<String, SteamPlayer> players = new HashMap<String, SteamPlayer>();
+		SteamPlayer player = new SteamPlayer(1, "bob", 7, 30.0f);
+		players.put("bob", player);
+
+		ServerSnapshot snapshot = new ServerSnapshot().withPlayers(players);
+		SteamPlayer published = snapshot.getPlayers().get("bob");
+
+		assertNotSame(player, published);
+		assertEquals("bob", published.getName());
+		assertEquals(7, published.getScore());
+
+		Map<String, String> playerData = new HashMap<String, String>();
+		playerData.put("name", "bob");
+		playerData.put("userid", "2");
+		playerData.put("uniqueid", "STEAM_0:0:1");
+		playerData.put("loss", "0");
+		playerData.put("ping", "50");
+		player.addInformation(playerData);
+		players.remove("bob");
+
+		assertTrue(snapshot.getPlayers().containsKey("bob"));
+		assertFalse(published.isExtended());
+		assertNull(published.getSteamId());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void playersCannotBeChanged() {
+		HashMap<String, SteamPlayer> players = new HashMap<String, SteamPlayer>();
+		new ServerSnapshot().withPlayers(players).getPlayers().put("bob", null);
+	}
+
+	@Test
+	public void extendedPlayersArePublished() throws Exception {
+		HashMap<String, SteamPlayer> players = new HashMap<String, SteamPlayer>();
+		SteamPlayer player = new SteamPlayer(1, "bob", 7, 30.0f);
+		players.put("bob", player);
+		ServerSnapshot snapshot = new ServerSnapshot().withPlayers(players);
+
+		Map<String, String> playerData = new HashMap<String, String>();
+		playerData.put("name", "bob");
+		playerData.put("userid", "2");
+		playerData.put("uniqueid", "STEAM_0:0:1");
+		playerData.put("loss", "1");
+		playerData.put("ping", "50");
+		playerData.put("adr", "10.0.0.1:27005");
+		player.addInformation(playerData);
+
+		SteamPlayer published = snapshot.withPlayers(players).getPlayers().get("bob");
+		assertTrue(published.isExtended());
+		assertEquals("STEAM_0:0:1", published.getSteamId());
+		assertEquals(2, published.getRealId());
+		assertEquals(50, published.getPing());
+		assertEquals("10.0.0.1", published.getIpAddress());
+		assertEquals(27005, published.getClientPort());
+		assertFalse(snapshot.getPlayers().get("bob").isExtended());
+	}
+}
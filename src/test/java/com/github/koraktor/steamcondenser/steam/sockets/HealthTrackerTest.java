@@ -0,0 +1,207 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.exceptions.ServerUnavailableException;
+import com.github.koraktor.steamcondenser.steam.SteamPlayer;
+import com.github.koraktor.steamcondenser.steam.servers.GameServer;
+import com.github.koraktor.steamcondenser.steam.servers.SourceServer;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class HealthTrackerTest {
+
+	private static final byte[] INFO_REPLY = new byte[] {
+		0x49, 17, 't', 'e', 's', 't', 0, 'm', 'a', 'p', 0, 'c', 's', 't', 'r', 'i', 'k', 'e', 0, 'C', 'S', 0,
+		(byte) 0xF0, 0, 1, 16, 0, 'd', 'l', 0, 1, '1', '.', '0', 0
+	};
+
+	private InetSocketAddress address;
+
+	private QueryEngine engine;
+
+	private GameServer gameServer;
+
+	private int minTimeout;
+
+	private int retries;
+
+	private DatagramSocket server;
+
+	private int timeout;
+
+	private HealthTracker tracker;
+
+	@Before
+	public void setUp() throws Exception {
+		this.minTimeout = RttEstimator.getMinTimeout();
+		this.retries = QueryEngine.getRetries();
+		this.timeout = SteamSocket.getTimeout();
+		RttEstimator.setMinTimeout(50);
+		QueryEngine.setRetries(0);
+		SteamSocket.setTimeout(100);
+
+		this.server = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		this.server.setSoTimeout(2000);
+		this.address = new InetSocketAddress("127.0.0.1", this.server.getLocalPort());
+
+		this.engine = new QueryEngine();
+		this.engine.setPacer(new Pacer());
+		this.engine.start();
+		this.tracker = new HealthTracker(2, 300, 1000);
+		this.gameServer = new SourceServer("127.0.0.1", this.server.getLocalPort());
+		this.gameServer.setQueryEngine(this.engine);
+		this.gameServer.setHealthTracker(this.tracker);
+	}
+
+	@After
+	public void tearDown() {
+		this.gameServer.close();
+		this.engine.close();
+		this.server.close();
+		RttEstimator.setMinTimeout(this.minTimeout);
+		QueryEngine.setRetries(this.retries);
+		SteamSocket.setTimeout(this.timeout);
+	}
+
+	@Test
+	public void answeredQueriesKeepTheServerHealthy() throws Exception {
+		this.timeOut(this.gameServer.updateServerInfoAsync());
+
+		QueryFuture<HashMap<String, Object>> info = this.gameServer.updateServerInfoAsync();
+		this.reply(this.receive(), INFO_REPLY);
+		assertEquals("test", info.get(1, TimeUnit.SECONDS).get("serverName"));
+
+		this.timeOut(this.gameServer.updateServerInfoAsync());
+		assertEquals(ServerHealth.Status.HEALTHY, this.tracker.getHealth(this.address).getStatus());
+		assertEquals(1, this.tracker.getHealth(this.address).getConsecutiveTimeouts());
+	}
+
+	@Test
+	public void silentServerIsBackedOff() throws Exception {
+		this.timeOut(this.gameServer.updateServerInfoAsync());
+		this.timeOut(this.gameServer.updateServerInfoAsync());
+
+		this.assertUnavailable(this.gameServer.updateServerInfoAsync());
+		this.assertUnavailable(this.gameServer.updatePlayersAsync());
+		this.assertNoRequest();
+
+		ServerHealth health = this.tracker.getHealth(this.address);
+		assertEquals(ServerHealth.Status.BACKING_OFF, health.getStatus());
+		assertEquals(2, health.getConsecutiveTimeouts());
+		assertEquals(300, health.getBackoff());
+	}
+
+	@Test
+	public void answeredProbeMakesTheServerHealthy() throws Exception {
+		this.timeOut(this.gameServer.updateServerInfoAsync());
+		this.timeOut(this.gameServer.updateServerInfoAsync());
+		Thread.sleep(350);
+
+		QueryFuture<HashMap<String, SteamPlayer>> players = this.gameServer.updatePlayersAsync();
+		DatagramPacket probe = this.receive();
+		assertEquals(0x54, probe.getData()[4]);
+		this.assertUnavailable(this.gameServer.updateRulesAsync());
+		this.reply(probe, INFO_REPLY);
+
+		DatagramPacket request = this.receive();
+		this.reply(request, new byte[] { 0x41, 1, 0, 0, 0 });
+		this.reply(this.receive(), new byte[] { 0x44, 1, 0, 'a', 0, 1, 0, 0, 0, 0, 0, 0, 0 });
+		assertTrue(players.get(1, TimeUnit.SECONDS).containsKey("a"));
+
+		ServerHealth health = this.tracker.getHealth(this.address);
+		assertEquals(ServerHealth.Status.HEALTHY, health.getStatus());
+		assertEquals(0, health.getConsecutiveTimeouts());
+	}
+
+	@Test
+	public void unansweredProbeDoublesTheBackoff() throws Exception {
+		this.timeOut(this.gameServer.updateServerInfoAsync());
+		this.timeOut(this.gameServer.updateServerInfoAsync());
+		Thread.sleep(350);
+
+		QueryFuture<HashMap<String, SteamPlayer>> players = this.gameServer.updatePlayersAsync();
+		assertEquals(0x54, this.receive().getData()[4]);
+		this.assertFailure(players, TimeoutException.class);
+
+		ServerHealth health = this.tracker.getHealth(this.address);
+		assertEquals(ServerHealth.Status.BACKING_OFF, health.getStatus());
+		assertEquals(3, health.getConsecutiveTimeouts());
+		assertEquals(600, health.getBackoff());
+		this.assertUnavailable(this.gameServer.updateServerInfoAsync());
+		this.assertNoRequest();
+	}
+
+	@Test
+	public void backoffIsLimited() {
+		for(int i = 0; i < 40; i ++) {
+			this.tracker.recordTimeout(this.address);
+		}
+
+		assertEquals(1000, this.tracker.getHealth(this.address).getBackoff());
+	}
+
+	private void assertFailure(QueryFuture<?> query, Class<? extends Throwable> errorClass) throws Exception {
+		try {
+			query.get(1, TimeUnit.SECONDS);
+			throw new AssertionError("Expected the query to fail.");
+		} catch(ExecutionException e) {
+			assertTrue(errorClass.isInstance(e.getCause()));
+		}
+	}
+
+	private void assertNoRequest() throws Exception {
+		this.server.setSoTimeout(300);
+		try {
+			this.receive();
+			throw new AssertionError("Expected no more requests.");
+		} catch(SocketTimeoutException e) {}
+	}
+
+	private void assertUnavailable(QueryFuture<?> query) throws Exception {
+		assertTrue(query.isDone());
+		this.assertFailure(query, ServerUnavailableException.class);
+	}
+
+	private DatagramPacket receive() throws Exception {
+		DatagramPacket packet = new DatagramPacket(new byte[1400], 1400);
+		this.server.receive(packet);
+
+		return packet;
+	}
+
+	private void reply(DatagramPacket request, byte[] payload) throws Exception {
+		byte[] data = new byte[payload.length + 4];
+		data[0] = data[1] = data[2] = data[3] = (byte) 0xFF;
+		System.arraycopy(payload, 0, data, 4, payload.length);
+		this.server.send(new DatagramPacket(data, data.length, request.getSocketAddress()));
+	}
+
+	private void timeOut(QueryFuture<?> query) throws Exception {
+		this.receive();
+		this.assertFailure(query, TimeoutException.class);
+	}
+}
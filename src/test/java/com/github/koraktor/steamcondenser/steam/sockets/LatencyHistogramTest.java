@@ -0,0 +1,113 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void emptyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		assertEquals(0, histogram.getSampleCount());
+		assertEquals(0, histogram.getMin());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getMean());
+		assertEquals(0, histogram.getPercentile(99));
+		assertEquals(0, histogram.getLossRate(), 0);
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(int i = 1; i <= 100; i ++) {
+			histogram.recordValue(micros(i));
+		}
+
+		assertEquals(micros(1), histogram.getMin());
+		assertEquals(micros(50), histogram.getMedian());
+		assertEquals(micros(95), histogram.getPercentile(95));
+		assertEquals(micros(100), histogram.getPercentile(100));
+		assertEquals(micros(100), histogram.getMax());
+	}
+
+	@Test
+	public void percentilesHaveRelativePrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(int i = 1; i <= 10000; i ++) {
+			histogram.recordValue(micros(i * 100));
+		}
+
+		assertPercentile(histogram, 50, micros(500000));
+		assertPercentile(histogram, 90, micros(900000));
+		assertPercentile(histogram, 99, micros(990000));
+		assertPercentile(histogram, 99.9, micros(999000));
+		assertEquals(micros(1000000), histogram.getMax());
+		assertEquals(micros(500050), histogram.getMean());
+	}
+
+	@Test
+	public void lossRate() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.recordValue(micros(100));
+		histogram.recordValue(micros(100));
+		histogram.recordValue(micros(100));
+		histogram.recordLoss();
+
+		assertEquals(1, histogram.getLossCount());
+		assertEquals(0.25, histogram.getLossRate(), 0.0001);
+	}
+
+	@Test
+	public void jitter() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.recordValue(micros(100));
+		histogram.recordValue(micros(120));
+		histogram.recordValue(micros(90));
+
+		assertEquals(micros(25), histogram.getJitter());
+	}
+
+	@Test
+	public void mergedHistograms() {
+		LatencyHistogram histogram1 = new LatencyHistogram();
+		LatencyHistogram histogram2 = new LatencyHistogram();
+		for(int i = 1; i <= 50; i ++) {
+			histogram1.recordValue(micros(i));
+			histogram2.recordValue(micros(50 + i));
+		}
+		histogram2.recordLoss();
+
+		histogram1.add(histogram2);
+
+		assertEquals(100, histogram1.getSampleCount());
+		assertEquals(1, histogram1.getLossCount());
+		assertEquals(micros(1), histogram1.getMin());
+		assertEquals(micros(100), histogram1.getMax());
+		assertEquals(micros(50), histogram1.getMedian());
+		assertEquals(50, histogram2.getSampleCount());
+	}
+
+	private static void assertPercentile(LatencyHistogram histogram, double percentile, long expected) {
+		long value = histogram.getPercentile(percentile);
+		assertTrue("p" + percentile + " was " + value, Math.abs(value - expected) <= expected / 60);
+	}
+
+	private static long micros(long micros) {
+		return TimeUnit.MICROSECONDS.toNanos(micros);
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class LatencyProbeTest {
+
+	private static final byte[] INFO_REPLY = new byte[] {
+		(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x49, 17,
+		't', 'e', 's', 't', 0, 'm', 'a', 'p', 0, 'c', 's', 't', 'r', 'i', 'k', 'e', 0, 'C', 'S', 0,
+		(byte) 0xF0, 0, 1, 16, 0, 'd', 'l', 0, 1, '1', '.', '0', 0
+	};
+
+	private QueryEngine engine;
+
+	private int minTimeout;
+
+	private LatencyProbe probe;
+
+	private Thread responder;
+
+	private DatagramSocket server;
+
+	@Before
+	public void setUp() throws Exception {
+		this.minTimeout = RttEstimator.getMinTimeout();
+		RttEstimator.setMinTimeout(100);
+
+		this.server = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		this.engine = new QueryEngine();
+		this.engine.setPacer(new Pacer());
+		this.engine.start();
+		this.probe = new LatencyProbe(this.engine, new InetSocketAddress("127.0.0.1", this.server.getLocalPort()), false);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.server.close();
+		if(this.responder != null) {
+			this.responder.join();
+		}
+		this.engine.close();
+		RttEstimator.setMinTimeout(this.minTimeout);
+	}
+
+	@Test
+	public void roundTripTimesAreRecorded() throws Exception {
+		this.respond(20, 0);
+
+		LatencyHistogram histogram = this.probe.probe(5, 0);
+
+		assertEquals(5, histogram.getSampleCount());
+		assertEquals(0, histogram.getLossCount());
+		assertTrue(histogram.getMin() >= TimeUnit.MILLISECONDS.toNanos(19));
+		assertTrue(histogram.getMax() < TimeUnit.MILLISECONDS.toNanos(500));
+	}
+
+	@Test
+	public void unansweredProbesAreLost() throws Exception {
+		this.respond(0, 2);
+
+		LatencyHistogram histogram = this.probe.probe(6, 0);
+
+		assertEquals(3, histogram.getSampleCount());
+		assertEquals(3, histogram.getLossCount());
+		assertEquals(0.5, histogram.getLossRate(), 0.0001);
+	}
+
+	@Test
+	public void probesAreSentAfterInterval() throws Exception {
+		this.respond(0, 0);
+
+		long start = System.nanoTime();
+		LatencyHistogram histogram = this.probe.probe(3, 50);
+
+		assertEquals(3, histogram.getSampleCount());
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	@Test
+	public void probesOfSeveralServersAreMerged() throws Exception {
+		this.respond(0, 0);
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		this.probe.probe(2, 0, histogram);
+		this.probe.probe(3, 0, histogram);
+
+		assertEquals(5, histogram.getSampleCount());
+	}
+
+	private void respond(final int delay, final int dropInterval) {
+		this.responder = new Thread() {
+			public void run() {
+				try {
+					for(int i = 1; ; i ++) {
+						DatagramPacket request = new DatagramPacket(new byte[1400], 1400);
+						server.receive(request);
+						if(dropInterval > 0 && i % dropInterval == 0) {
+							continue;
+						}
+						Thread.sleep(delay);
+						server.send(new DatagramPacket(INFO_REPLY, INFO_REPLY.length, request.getSocketAddress()));
+					}
+				} catch(IOException e) {
+				} catch(InterruptedException e) {}
+			}
+		};
+		this.responder.start();
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class PacerTest {
+
+	private static final InetSocketAddress SERVER1 = new InetSocketAddress("10.0.0.1", 27015);
+
+	private static final InetSocketAddress SERVER2 = new InetSocketAddress("10.0.0.2", 27015);
+
+	private static final InetSocketAddress SERVER3 = new InetSocketAddress("10.0.1.1", 27015);
+
+	private Pacer pacer;
+
+	private long start;
+
+	@Before
+	public void setUp() {
+		this.pacer = new Pacer();
+		this.start = System.nanoTime();
+	}
+
+	@Test
+	public void unlimitedPacer() {
+		for(int i = 0; i < 1000; i ++) {
+			assertEquals(0, this.pacer.tryAcquire(SERVER1, this.start));
+		}
+	}
+
+	@Test
+	public void burstIsAllowedAtOnce() {
+		this.pacer.setDestinationRate(10, 3);
+
+		assertEquals(0, this.pacer.tryAcquire(SERVER1, this.start));
+		assertEquals(0, this.pacer.tryAcquire(SERVER1, this.start));
+		assertEquals(0, this.pacer.tryAcquire(SERVER1, this.start));
+
+		long delay = this.pacer.tryAcquire(SERVER1, this.start);
+		assertTrue(delay > millis(90));
+		assertTrue(delay <= millis(100));
+	}
+
+	@Test
+	public void tokensAreRefilled() {
+		this.pacer.setDestinationRate(10, 3);
+		for(int i = 0; i < 3; i ++) {
+			this.pacer.tryAcquire(SERVER1, this.start);
+		}
+
+		long now = this.start + millis(150);
+		assertEquals(0, this.pacer.tryAcquire(SERVER1, now));
+		assertTrue(this.pacer.tryAcquire(SERVER1, now) > 0);
+	}
+
+	@Test
+	public void refillIsLimitedByBurst() {
+		this.pacer.setDestinationRate(10, 3);
+		this.pacer.tryAcquire(SERVER1, this.start);
+
+		long now = this.start + TimeUnit.SECONDS.toNanos(10);
+		for(int i = 0; i < 3; i ++) {
+			assertEquals(0, this.pacer.tryAcquire(SERVER1, now));
+		}
+		assertTrue(this.pacer.tryAcquire(SERVER1, now) > 0);
+	}
+
+	@Test
+	public void destinationsHaveSeparateBudgets() {
+		this.pacer.setDestinationRate(10, 1);
+
+		assertEquals(0, this.pacer.tryAcquire(SERVER1, this.start));
+		assertTrue(this.pacer.tryAcquire(SERVER1, this.start) > 0);
+		assertEquals(0, this.pacer.tryAcquire(SERVER2, this.start));
+	}
+
+	@Test
+	public void subnetsShareBudgets() {
+		this.pacer.setSubnetRate(10, 1);
+
+		assertEquals(0, this.pacer.tryAcquire(SERVER1, this.start));
+		assertTrue(this.pacer.tryAcquire(SERVER2, this.start) > 0);
+		assertEquals(0, this.pacer.tryAcquire(SERVER3, this.start));
+	}
+
+	@Test
+	public void globalBudget() {
+		this.pacer.setGlobalRate(10, 2);
+
+		assertEquals(0, this.pacer.tryAcquire(SERVER1, this.start));
+		assertEquals(0, this.pacer.tryAcquire(SERVER3, this.start));
+		assertTrue(this.pacer.tryAcquire(SERVER2, this.start) > 0);
+		assertTrue(this.pacer.getGlobalDelay(this.start) > 0);
+	}
+
+	@Test
+	public void delayedPacketsDoNotTakeTokens() {
+		this.pacer.setGlobalRate(10, 1);
+		this.pacer.setDestinationRate(10, 1);
+
+		assertEquals(0, this.pacer.tryAcquire(SERVER1, this.start));
+		assertTrue(this.pacer.tryAcquire(SERVER2, this.start) > 0);
+
+		long now = this.start + millis(150);
+		assertEquals(0, this.pacer.tryAcquire(SERVER2, now));
+	}
+
+	private static long millis(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+}
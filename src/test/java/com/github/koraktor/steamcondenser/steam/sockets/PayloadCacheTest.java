@@ -0,0 +1,129 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.steam.packets.S2A_RULES_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class PayloadCacheTest {
+
+	private static final InetSocketAddress SERVER1 = new InetSocketAddress("127.0.0.1", 27015);
+
+	private static final InetSocketAddress SERVER2 = new InetSocketAddress("127.0.0.1", 27016);
+
+	private static final InetSocketAddress SERVER3 = new InetSocketAddress("127.0.0.1", 27017);
+
+	private PayloadCache cache;
+
+	@Before
+	public void setUp() {
+		this.cache = new PayloadCache(2);
+	}
+
+	@Test
+	public void identicalReplyIsHit() throws Exception {
+		SteamPacket packet = this.cache.getPacket(SERVER1, rules(10));
+		assertSame(packet, this.cache.getPacket(SERVER1, rules(10)));
+
+		assertEquals(1, this.cache.getHits());
+		assertEquals(1, this.cache.getMisses());
+	}
+
+	@Test
+	public void hitConsumesBuffer() throws Exception {
+		this.cache.getPacket(SERVER1, rules(10));
+		ByteBuffer buffer = rules(10);
+		this.cache.getPacket(SERVER1, buffer);
+
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void changedReplyReplacesCachedPacket() throws Exception {
+		SteamPacket packet = this.cache.getPacket(SERVER1, rules(10));
+		SteamPacket changed = this.cache.getPacket(SERVER1, rules(11));
+
+		assertNotSame(packet, changed);
+		assertEquals(11, ((S2A_RULES_Packet) changed).getRulesHash().size());
+		assertSame(changed, this.cache.getPacket(SERVER1, rules(11)));
+		assertEquals(2, this.cache.getMisses());
+	}
+
+	@Test
+	public void repliesAreCachedPerServer() throws Exception {
+		SteamPacket packet1 = this.cache.getPacket(SERVER1, rules(10));
+		SteamPacket packet2 = this.cache.getPacket(SERVER2, rules(10));
+
+		assertNotSame(packet1, packet2);
+		assertSame(packet1, this.cache.getPacket(SERVER1, rules(10)));
+		assertSame(packet2, this.cache.getPacket(SERVER2, rules(10)));
+	}
+
+	@Test
+	public void leastRecentlySeenServerIsEvicted() throws Exception {
+		SteamPacket packet1 = this.cache.getPacket(SERVER1, rules(10));
+		SteamPacket packet2 = this.cache.getPacket(SERVER2, rules(10));
+		assertSame(packet1, this.cache.getPacket(SERVER1, rules(10)));
+
+		this.cache.getPacket(SERVER3, rules(10));
+
+		assertSame(packet1, this.cache.getPacket(SERVER1, rules(10)));
+		assertNotSame(packet2, this.cache.getPacket(SERVER2, rules(10)));
+	}
+
+	@Test
+	public void clearDiscardsReplies() throws Exception {
+		SteamPacket packet = this.cache.getPacket(SERVER1, rules(10));
+		this.cache.clear();
+
+		assertNotSame(packet, this.cache.getPacket(SERVER1, rules(10)));
+	}
+
+	@Test
+	public void otherRepliesAreNotCached() throws Exception {
+		ByteBuffer challenge = ByteBuffer.wrap(new byte[] { SteamPacket.S2C_CHALLENGE_HEADER, 1, 2, 3, 4 });
+		SteamPacket packet = this.cache.getPacket(SERVER1, challenge);
+		challenge.rewind();
+
+		assertNotSame(packet, this.cache.getPacket(SERVER1, challenge));
+		assertEquals(0, this.cache.getHits());
+		assertEquals(0, this.cache.getMisses());
+	}
+
+	@Test
+	public void cachedRulesCannotBeChanged() throws Exception {
+		S2A_RULES_Packet packet = (S2A_RULES_Packet) this.cache.getPacket(SERVER1, rules(10));
+		HashMap<String, String> rules = packet.getRulesHash();
+		rules.put("rule0", "changed");
+		rules.remove("rule1");
+
+		packet = (S2A_RULES_Packet) this.cache.getPacket(SERVER1, rules(10));
+		assertEquals(10, packet.getRulesHash().size());
+		assertEquals("value0", packet.getRulesHash().get("rule0"));
+	}
+
+	private static ByteBuffer rules(int count) {
+		byte[] payload = SplitPacketReassemblerTest.rulesPayload(count);
+		return ByteBuffer.wrap(payload, 4, payload.length - 4);
+	}
+}
@@ -0,0 +1,411 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.steam.packets.A2S_PLAYER_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.A2S_RULES_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.S2A_PLAYER_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.S2A_RULES_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class QueryEngineTest {
+
+	private InetSocketAddress address;
+
+	private QueryEngine engine;
+
+	private int minTimeout;
+
+	private DatagramSocket server;
+
+	private int timeout;
+
+	@Before
+	public void setUp() throws Exception {
+		this.minTimeout = RttEstimator.getMinTimeout();
+		this.timeout = SteamSocket.getTimeout();
+		RttEstimator.setMinTimeout(50);
+		SteamSocket.setTimeout(100);
+
+		this.server = this.openServer();
+		this.address = new InetSocketAddress("127.0.0.1", this.server.getLocalPort());
+
+		this.engine = new QueryEngine();
+		this.engine.setPacer(new Pacer());
+		this.engine.start();
+	}
+
+	@After
+	public void tearDown() {
+		this.engine.close();
+		this.server.close();
+		RttEstimator.setMinTimeout(this.minTimeout);
+		SteamSocket.setTimeout(this.timeout);
+	}
+
+	@Test
+	public void repliesAreMatchedByHeader() throws Exception {
+		QueryFuture<SteamPacket> players = this.engine.query(this.address, new A2S_PLAYER_Packet(1234));
+		QueryFuture<SteamPacket> rules = this.engine.query(this.address, new A2S_RULES_Packet(1234));
+		DatagramPacket request1 = this.receive();
+		DatagramPacket request2 = this.receive();
+
+		this.reply(request2, rulesReply());
+		assertTrue(rules.get(1, TimeUnit.SECONDS) instanceof S2A_RULES_Packet);
+		assertFalse(players.isDone());
+
+		this.reply(request1, playerReply());
+		S2A_PLAYER_Packet reply = (S2A_PLAYER_Packet) players.get(1, TimeUnit.SECONDS);
+		assertEquals(1, reply.getPlayerHash().size());
+		assertEquals(this.address, players.getAddress());
+	}
+
+	@Test
+	public void unexpectedRepliesAreIgnored() throws Exception {
+		QueryFuture<SteamPacket> players = this.engine.query(this.address, new A2S_PLAYER_Packet(1234));
+		DatagramPacket request = this.receive();
+
+		this.reply(request, rulesReply());
+		Thread.sleep(20);
+		assertFalse(players.isDone());
+
+		this.reply(request, playerReply());
+		assertTrue(players.get(1, TimeUnit.SECONDS) instanceof S2A_PLAYER_Packet);
+	}
+
+	@Test
+	public void queriesAreRepeatedAndExpire() throws Exception {
+		QueryFuture<SteamPacket> players = this.engine.query(this.address, new A2S_PLAYER_Packet(1234), false, 2);
+
+		byte[] data = new A2S_PLAYER_Packet(1234).getBytes();
+		for(int i = 0; i < 3; i ++) {
+			assertArrayEquals(data, this.requestData(this.receive()));
+		}
+
+		try {
+			players.get(2, TimeUnit.SECONDS);
+			throw new AssertionError("Expected a timeout.");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertEquals(3, this.engine.getStatistics().getTimeouts());
+		this.assertNoRequest();
+	}
+
+	@Test
+	public void repeatedQueryIsCompletedByLateReply() throws Exception {
+		QueryFuture<SteamPacket> players = this.engine.query(this.address, new A2S_PLAYER_Packet(1234), false, 1);
+		this.receive();
+		DatagramPacket request = this.receive();
+
+		this.reply(request, playerReply());
+
+		assertTrue(players.get(1, TimeUnit.SECONDS) instanceof S2A_PLAYER_Packet);
+		this.assertNoRequest();
+	}
+
+	@Test
+	public void challengedQueryIsResent() throws Exception {
+		QueryFuture<SteamPacket> players = this.engine.query(this.address, new A2S_PLAYER_Packet(-1));
+		DatagramPacket request = this.receive();
+		assertArrayEquals(new A2S_PLAYER_Packet(-1).getBytes(), this.requestData(request));
+
+		this.reply(request, new byte[] { 0x41, 0x78, 0x56, 0x34, 0x12 });
+
+		request = this.receive();
+		assertArrayEquals(new A2S_PLAYER_Packet(0x12345678).getBytes(), this.requestData(request));
+		assertFalse(players.isDone());
+		assertEquals(Integer.valueOf(0x12345678), ChallengeCache.getDefault().get(this.address));
+
+		this.reply(request, playerReply());
+		assertTrue(players.get(1, TimeUnit.SECONDS) instanceof S2A_PLAYER_Packet);
+	}
+
+	@Test
+	public void challengedQueryIsResentOnlyOnce() throws Exception {
+		QueryFuture<SteamPacket> players = this.engine.query(this.address, new A2S_PLAYER_Packet(-1));
+		this.reply(this.receive(), new byte[] { 0x41, 1, 0, 0, 0 });
+		this.reply(this.receive(), new byte[] { 0x41, 2, 0, 0, 0 });
+
+		assertEquals(SteamPacket.S2C_CHALLENGE_HEADER, players.get(1, TimeUnit.SECONDS).getHeader());
+	}
+
+	@Test
+	public void invalidReplyFailsOnlyItsQuery() throws Exception {
+		QueryFuture<SteamPacket> players = this.engine.query(this.address, new A2S_PLAYER_Packet(1234));
+		this.reply(this.receive(), new byte[] { 0x44, 1, 0, 'a', 0, 1 });
+
+		try {
+			players.get(1, TimeUnit.SECONDS);
+			throw new AssertionError("Expected an invalid reply.");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof SteamCondenserException);
+		}
+		assertTrue(this.engine.isRunning());
+
+		players = this.engine.query(this.address, new A2S_PLAYER_Packet(1234));
+		this.reply(this.receive(), playerReply());
+		assertTrue(players.get(1, TimeUnit.SECONDS) instanceof S2A_PLAYER_Packet);
+	}
+
+	@Test
+	public void closeFailsPendingQueries() throws Exception {
+		QueryFuture<SteamPacket> players = this.engine.query(this.address, new A2S_PLAYER_Packet(1234), false, 10);
+		this.receive();
+
+		this.engine.close();
+
+		assertFalse(this.engine.isRunning());
+		try {
+			players.get(1, TimeUnit.SECONDS);
+			throw new AssertionError("Expected the query to fail.");
+		} catch(ExecutionException e) {
+			assertEquals("The query engine has been closed.", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void queriesAfterCloseFail() throws Exception {
+		this.engine.close();
+
+		QueryFuture<SteamPacket> players = this.engine.query(this.address, new A2S_PLAYER_Packet(1234));
+
+		assertTrue(players.isDone());
+		try {
+			players.get();
+			throw new AssertionError("Expected the query to fail.");
+		} catch(ExecutionException e) {
+			assertEquals("The query engine is not running.", e.getCause().getMessage());
+		}
+		this.assertNoRequest();
+	}
+
+	@Test
+	public void queriesRacingCloseAreCompleted() throws Exception {
+		final QueryFuture<?>[] futures = new QueryFuture<?>[1000];
+		Thread submitter = new Thread() {
+			public void run() {
+				for(int i = 0; i < futures.length; i ++) {
+					futures[i] = engine.query(address, new A2S_PLAYER_Packet(i), false, 10);
+				}
+			}
+		};
+		submitter.start();
+		Thread.sleep(1);
+		this.engine.close();
+		submitter.join();
+
+		for(QueryFuture<?> future : futures) {
+			assertTrue(future.isDone());
+		}
+	}
+
+	@Test
+	public void raceIsWonByTheFirstReply() throws Exception {
+		DatagramSocket server2 = this.openServer();
+		try {
+			QueryFuture<SteamPacket> players = this.engine.race(this.addresses(server2), new A2S_PLAYER_Packet(1234), false, 1);
+			this.receive();
+			DatagramPacket request2 = this.receive(server2);
+
+			this.reply(server2, request2, playerReply());
+			assertTrue(players.get(1, TimeUnit.SECONDS) instanceof S2A_PLAYER_Packet);
+			assertEquals(server2.getLocalSocketAddress(), players.getAddress());
+			this.assertNoRequest();
+			this.assertNoRequest(server2);
+		} finally {
+			server2.close();
+		}
+	}
+
+	@Test
+	public void raceIsStaggered() throws Exception {
+		DatagramSocket server2 = this.openServer();
+		try {
+			QueryFuture<SteamPacket> players = this.engine.race(this.addresses(server2), new A2S_PLAYER_Packet(1234), false, 500);
+			this.reply(this.receive(), playerReply());
+
+			assertTrue(players.get(1, TimeUnit.SECONDS) instanceof S2A_PLAYER_Packet);
+			assertEquals(this.address, players.getAddress());
+			server2.setSoTimeout(700);
+			try {
+				this.receive(server2);
+				throw new AssertionError("Expected the race to be cancelled.");
+			} catch(SocketTimeoutException e) {}
+		} finally {
+			server2.close();
+		}
+	}
+
+	@Test
+	public void raceFailsIfAllAddressesFail() throws Exception {
+		int retries = QueryEngine.getRetries();
+		QueryEngine.setRetries(0);
+		DatagramSocket server2 = this.openServer();
+		try {
+			QueryFuture<SteamPacket> players = this.engine.race(this.addresses(server2), new A2S_PLAYER_Packet(1234), false, 1);
+			this.receive();
+			this.receive(server2);
+
+			try {
+				players.get(1, TimeUnit.SECONDS);
+				throw new AssertionError("Expected a timeout.");
+			} catch(ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+			assertEquals(2, this.engine.getStatistics().getTimeouts());
+		} finally {
+			QueryEngine.setRetries(retries);
+			server2.close();
+		}
+	}
+
+	@Test
+	public void requestsAreHedgedAtThe95thPercentile() throws Exception {
+		this.engine.setHedging(1.0);
+		this.sampleRoundTripTimes(8, 10);
+
+		QueryFuture<SteamPacket> players = this.engine.query(this.address, new A2S_PLAYER_Packet(1234));
+		DatagramPacket request = this.receive();
+		long start = System.nanoTime();
+		DatagramPacket hedge = this.receive();
+		long hedgeDelay = System.nanoTime() - start;
+
+		assertArrayEquals(this.requestData(request), this.requestData(hedge));
+		assertTrue(hedgeDelay >= TimeUnit.MILLISECONDS.toNanos(9));
+		assertTrue(hedgeDelay < TimeUnit.MILLISECONDS.toNanos(45));
+
+		this.reply(hedge, playerReply());
+		assertTrue(players.get(1, TimeUnit.SECONDS) instanceof S2A_PLAYER_Packet);
+		assertEquals(1, this.engine.getStatistics().getHedgedRequests());
+	}
+
+	@Test
+	public void requestsAreNotHedgedWithoutEnoughSamples() throws Exception {
+		this.engine.setHedging(1.0);
+		this.sampleRoundTripTimes(7, 10);
+
+		this.assertNotHedged();
+	}
+
+	@Test
+	public void requestsAreNotHedgedByDefault() throws Exception {
+		this.sampleRoundTripTimes(8, 10);
+
+		this.assertNotHedged();
+	}
+
+	private static byte[] playerReply() {
+		return new byte[] { 0x44, 1, 0, 'a', 0, 1, 0, 0, 0, 0, 0, 0, 0 };
+	}
+
+	private static byte[] rulesReply() {
+		return new byte[] { 0x45, 1, 0, 'a', 0, 'b', 0 };
+	}
+
+	private List<InetSocketAddress> addresses(DatagramSocket server2) {
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		addresses.add(this.address);
+		addresses.add((InetSocketAddress) server2.getLocalSocketAddress());
+
+		return addresses;
+	}
+
+	private void assertNotHedged() throws Exception {
+		this.engine.query(this.address, new A2S_PLAYER_Packet(1234));
+		this.receive();
+		long start = System.nanoTime();
+		this.receive();
+
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(45));
+		assertEquals(0, this.engine.getStatistics().getHedgedRequests());
+	}
+
+	private void assertNoRequest() throws Exception {
+		this.assertNoRequest(this.server);
+	}
+
+	private void assertNoRequest(DatagramSocket server) throws Exception {
+		server.setSoTimeout(300);
+		try {
+			this.receive(server);
+			throw new AssertionError("Expected no more requests.");
+		} catch(SocketTimeoutException e) {}
+	}
+
+	private DatagramSocket openServer() throws Exception {
+		DatagramSocket server = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		server.setSoTimeout(2000);
+
+		return server;
+	}
+
+	private DatagramPacket receive() throws Exception {
+		return this.receive(this.server);
+	}
+
+	private DatagramPacket receive(DatagramSocket server) throws Exception {
+		DatagramPacket packet = new DatagramPacket(new byte[1400], 1400);
+		server.receive(packet);
+
+		return packet;
+	}
+
+	private void reply(DatagramPacket request, byte[] payload) throws Exception {
+		this.reply(this.server, request, payload);
+	}
+
+	private void reply(DatagramSocket server, DatagramPacket request, byte[] payload) throws Exception {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		data.write(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF });
+		data.write(payload);
+		server.send(new DatagramPacket(data.toByteArray(), data.size(), request.getSocketAddress()));
+	}
+
+	private void sampleRoundTripTimes(int count, int delay) throws Exception {
+		for(int i = 0; i < count; i ++) {
+			QueryFuture<SteamPacket> players = this.engine.query(this.address, new A2S_PLAYER_Packet(1234));
+			DatagramPacket request = this.receive();
+			Thread.sleep(delay);
+			this.reply(request, playerReply());
+			players.get(1, TimeUnit.SECONDS);
+		}
+	}
+
+	private byte[] requestData(DatagramPacket request) {
+		byte[] data = new byte[request.getLength()];
+		System.arraycopy(request.getData(), 0, data, 0, data.length);
+
+		return data;
+	}
+}
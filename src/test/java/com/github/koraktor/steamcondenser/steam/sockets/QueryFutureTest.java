@@ -0,0 +1,86 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class QueryFutureTest {
+
+	@Test
+	public void getReplyReturnsResult() throws Exception {
+		QueryFuture<String> future = new QueryFuture<String>();
+		future.set("reply");
+
+		assertEquals("reply", future.getReply());
+		assertEquals("reply", future.getReply(10, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void getReplyTimesOut() throws Exception {
+		QueryFuture<String> future = new QueryFuture<String>();
+
+		long start = System.nanoTime();
+		try {
+			future.getReply(20, TimeUnit.MILLISECONDS);
+			throw new AssertionError("Expected a timeout.");
+		} catch(TimeoutException e) {
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+		}
+	}
+
+	@Test
+	public void getReplyWaitsForResult() throws Exception {
+		final QueryFuture<String> future = new QueryFuture<String>();
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(20);
+				} catch(InterruptedException e) {}
+				future.set("reply");
+			}
+		}.start();
+
+		assertEquals("reply", future.getReply(1, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = TimeoutException.class)
+	public void getReplyRethrowsTimeout() throws Exception {
+		QueryFuture<String> future = new QueryFuture<String>();
+		future.fail(new TimeoutException());
+
+		future.getReply(10, TimeUnit.MILLISECONDS);
+	}
+
+	@Test(expected = SteamCondenserException.class)
+	public void getReplyRethrowsFailure() throws Exception {
+		QueryFuture<String> future = new QueryFuture<String>();
+		future.fail(new SteamCondenserException("Failed."));
+
+		future.getReply();
+	}
+
+	@Test(expected = SteamCondenserException.class)
+	public void getReplyOfCancelledQuery() throws Exception {
+		QueryFuture<String> future = new QueryFuture<String>();
+		future.cancel(false);
+
+		future.getReply(10, TimeUnit.MILLISECONDS);
+	}
+}
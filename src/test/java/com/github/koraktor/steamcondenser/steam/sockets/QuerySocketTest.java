@@ -0,0 +1,153 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.steam.packets.A2S_PLAYER_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.C2M_CHECKMD5_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.S2C_CHALLENGE_Packet;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class QuerySocketTest {
+
+	private int minTimeout;
+
+	private DatagramSocket server;
+
+	private MasterServerSocket socket;
+
+	private int timeout;
+
+	@Before
+	public void setUp() throws Exception {
+		this.minTimeout = RttEstimator.getMinTimeout();
+		this.timeout = SteamSocket.getTimeout();
+		SteamSocket.setTimeout(100);
+
+		this.server = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		this.socket = new MasterServerSocket(InetAddress.getByName("127.0.0.1"), this.server.getLocalPort());
+	}
+
+	@After
+	public void tearDown() {
+		this.socket.close();
+		this.server.close();
+		QuerySocket.setAdaptiveTimeouts(false);
+		RttEstimator.setMinTimeout(this.minTimeout);
+		SteamSocket.setTimeout(this.timeout);
+	}
+
+	@Test
+	public void idleSocketIsReleased() throws Exception {
+		assertTrue(this.socket.release());
+	}
+
+	@Test
+	public void socketAwaitingReplyIsNotReleased() throws Exception {
+		this.socket.send(new C2M_CHECKMD5_Packet());
+
+		assertFalse(this.socket.release());
+		assertTrue(this.socket.isOpen());
+
+		DatagramPacket request = new DatagramPacket(new byte[1400], 1400);
+		this.server.receive(request);
+		byte[] reply = new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x41, 1, 2, 3, 4 };
+		this.server.send(new DatagramPacket(reply, reply.length, request.getSocketAddress()));
+
+		assertTrue(this.socket.getReply() instanceof S2C_CHALLENGE_Packet);
+		assertTrue(this.socket.release());
+	}
+
+	@Test
+	public void socketIsReleasedAfterTimeout() throws Exception {
+		this.socket.send(new C2M_CHECKMD5_Packet());
+		assertFalse(this.socket.release());
+
+		try {
+			this.socket.getReply();
+			throw new AssertionError("Expected a timeout.");
+		} catch(TimeoutException e) {}
+
+		assertTrue(this.socket.release());
+		assertFalse(this.socket.isOpen());
+	}
+
+	@Test
+	public void socketTimeoutIsUsedByDefault() throws Exception {
+		SourceSocket gameSocket = new SourceSocket(InetAddress.getByName("127.0.0.1"), this.server.getLocalPort());
+		try {
+			this.sendChallenges(gameSocket, 10);
+
+			assertEquals(10, gameSocket.getRttEstimator().getSampleCount());
+			assertEquals(100, gameSocket.getReceiveTimeout());
+		} finally {
+			gameSocket.close();
+		}
+	}
+
+	@Test
+	public void adaptiveTimeoutFollowsRoundTripTimes() throws Exception {
+		QuerySocket.setAdaptiveTimeouts(true);
+		RttEstimator.setMinTimeout(20);
+		SourceSocket gameSocket = new SourceSocket(InetAddress.getByName("127.0.0.1"), this.server.getLocalPort());
+		try {
+			assertEquals(100, gameSocket.getReceiveTimeout());
+
+			this.sendChallenges(gameSocket, 10);
+			assertEquals(20, gameSocket.getReceiveTimeout());
+
+			gameSocket.send(new A2S_PLAYER_Packet(-1));
+			long start = System.nanoTime();
+			try {
+				gameSocket.getReply();
+				throw new AssertionError("Expected a timeout.");
+			} catch(TimeoutException e) {}
+			assertTrue(System.nanoTime() - start < 90000000L);
+		} finally {
+			gameSocket.close();
+		}
+	}
+
+	@Test
+	public void masterServerSocketIgnoresAdaptiveTimeouts() throws Exception {
+		QuerySocket.setAdaptiveTimeouts(true);
+		RttEstimator.setMinTimeout(20);
+
+		this.sendChallenges(this.socket, 10);
+
+		assertEquals(10, this.socket.getRttEstimator().getSampleCount());
+		assertEquals(100, this.socket.getReceiveTimeout());
+	}
+
+	private void sendChallenges(QuerySocket querySocket, int count) throws Exception {
+		for(int i = 0; i < count; i ++) {
+			querySocket.send(new A2S_PLAYER_Packet(-1));
+
+			DatagramPacket request = new DatagramPacket(new byte[1400], 1400);
+			this.server.receive(request);
+			byte[] reply = new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x41, 1, 2, 3, 4 };
+			this.server.send(new DatagramPacket(reply, reply.length, request.getSocketAddress()));
+
+			assertTrue(querySocket.getReply() instanceof S2C_CHALLENGE_Packet);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class RttEstimatorTest {
+
+	private RttEstimator estimator;
+
+	@Before
+	public void setUp() {
+		SteamSocket.setTimeout(1000);
+		RttEstimator.setMinTimeout(200);
+		RttEstimator.setMaxTimeout(5000);
+		this.estimator = new RttEstimator();
+	}
+
+	@After
+	public void tearDown() {
+		SteamSocket.setTimeout(1000);
+		RttEstimator.setMinTimeout(200);
+		RttEstimator.setMaxTimeout(5000);
+	}
+
+	@Test
+	public void initialTimeoutIsSocketTimeout() {
+		assertEquals(1000, this.estimator.getTimeout());
+		assertEquals(0, this.estimator.getSmoothedRtt());
+		assertEquals(0, this.estimator.getSampleCount());
+	}
+
+	@Test
+	public void firstSample() {
+		this.estimator.addSample(millis(100));
+
+		assertEquals(millis(100), this.estimator.getSmoothedRtt());
+		assertEquals(millis(50), this.estimator.getRttVariation());
+		assertEquals(300, this.estimator.getTimeout());
+	}
+
+	@Test
+	public void subsequentSamples() {
+		this.estimator.addSample(millis(100));
+		this.estimator.addSample(millis(100));
+
+		assertEquals(millis(100), this.estimator.getSmoothedRtt());
+		assertEquals(millis(50) * 3 / 4, this.estimator.getRttVariation());
+		assertEquals(250, this.estimator.getTimeout());
+
+		this.estimator.addSample(millis(180));
+
+		assertEquals(millis(110), this.estimator.getSmoothedRtt());
+		assertEquals((3 * (millis(50) * 3 / 4) + millis(80)) / 4, this.estimator.getRttVariation());
+	}
+
+	@Test
+	public void timeoutIsLimitedByMinimum() {
+		for(int i = 0; i < 10; i ++) {
+			this.estimator.addSample(millis(1));
+		}
+
+		assertEquals(200, this.estimator.getTimeout());
+	}
+
+	@Test
+	public void timeoutIsLimitedByMaximum() {
+		this.estimator.addSample(TimeUnit.SECONDS.toNanos(10));
+
+		assertEquals(5000, this.estimator.getTimeout());
+	}
+
+	@Test
+	public void backoffDoublesTimeoutUpToMaximum() {
+		this.estimator.addSample(millis(100));
+
+		int[] timeouts = { 600, 1200, 2400, 4800, 5000, 5000 };
+		for(int timeout : timeouts) {
+			this.estimator.backoff();
+			assertEquals(timeout, this.estimator.getTimeout());
+		}
+	}
+
+	@Test
+	public void backoffStartsFromMinimum() {
+		for(int i = 0; i < 10; i ++) {
+			this.estimator.addSample(millis(1));
+		}
+
+		this.estimator.backoff();
+		assertEquals(400, this.estimator.getTimeout());
+	}
+
+	@Test
+	public void sampleAfterBackoffResetsTimeout() {
+		this.estimator.addSample(millis(100));
+		this.estimator.backoff();
+		this.estimator.backoff();
+
+		this.estimator.addSample(millis(100));
+		assertEquals(250, this.estimator.getTimeout());
+	}
+
+	@Test
+	public void hedgeDelayNeedsEnoughSamples() {
+		for(int i = 0; i < 7; i ++) {
+			this.estimator.addSample(millis(100));
+		}
+		assertEquals(0, this.estimator.getHedgeDelay());
+
+		this.estimator.addSample(millis(100));
+		long hedgeDelay = this.estimator.getHedgeDelay();
+		assertTrue(hedgeDelay >= millis(100));
+		assertTrue(hedgeDelay < this.estimator.getTimeoutNanos());
+	}
+
+	private static long millis(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2011, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.steam.sockets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.steam.packets.S2A_RULES_Packet;
+import com.github.koraktor.steamcondenser.steam.packets.SteamPacket;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class SplitPacketReassemblerTest {
+
+	private static final InetSocketAddress SERVER1 = new InetSocketAddress("127.0.0.1", 27015);
+
+	private static final InetSocketAddress SERVER2 = new InetSocketAddress("127.0.0.1", 27016);
+
+	private long deadline;
+
+	private byte[] payload;
+
+	private SplitPacketReassembler reassembler;
+
+	@Before
+	public void setUp() {
+		this.deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		this.payload = rulesPayload(50);
+		this.reassembler = new SplitPacketReassembler();
+	}
+
+	@Test
+	public void reassembleInOrder() throws Exception {
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		assertNull(this.add(SERVER1, 1, 3, 1));
+		assertRules(50, this.add(SERVER1, 1, 3, 2));
+
+		assertEquals(0, this.reassembler.getPendingCount());
+		assertEquals(0, this.reassembler.getBufferedBytes());
+	}
+
+	@Test
+	public void reassembleOutOfOrder() throws Exception {
+		assertNull(this.add(SERVER1, 1, 3, 2));
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		assertRules(50, this.add(SERVER1, 1, 3, 1));
+	}
+
+	@Test
+	public void duplicatePartsAreIgnored() throws Exception {
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		int bufferedBytes = this.reassembler.getBufferedBytes();
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		assertEquals(bufferedBytes, this.reassembler.getBufferedBytes());
+
+		assertNull(this.add(SERVER1, 1, 3, 1));
+		assertRules(50, this.add(SERVER1, 1, 3, 2));
+	}
+
+	@Test
+	public void interleavedReplies() throws Exception {
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		assertNull(this.add(SERVER2, 1, 3, 1));
+		assertNull(this.add(SERVER1, 2, 3, 0));
+		assertEquals(3, this.reassembler.getPendingCount());
+
+		assertNull(this.add(SERVER2, 1, 3, 0));
+		assertRules(50, this.add(SERVER2, 1, 3, 2));
+		assertNull(this.add(SERVER1, 1, 3, 1));
+		assertRules(50, this.add(SERVER1, 1, 3, 2));
+		assertEquals(1, this.reassembler.getPendingCount());
+	}
+
+	@Test
+	public void invalidPacketNumberIsIgnored() throws Exception {
+		assertNull(this.add(SERVER1, 1, 3, 3));
+		assertEquals(0, this.reassembler.getPendingCount());
+	}
+
+	@Test
+	public void expiredRepliesAreDiscarded() throws Exception {
+		this.deadline = System.nanoTime() - 1;
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		assertEquals(1, this.reassembler.getPendingCount());
+
+		this.reassembler.expire();
+		assertEquals(0, this.reassembler.getPendingCount());
+		assertEquals(0, this.reassembler.getBufferedBytes());
+	}
+
+	@Test
+	public void deadlineIsExtendedByLaterParts() throws Exception {
+		this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20);
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		assertNull(this.add(SERVER2, 1, 3, 0));
+		this.deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		assertNull(this.add(SERVER1, 1, 3, 1));
+
+		Thread.sleep(50);
+		this.reassembler.expire();
+		assertEquals(1, this.reassembler.getPendingCount());
+		assertRules(50, this.add(SERVER1, 1, 3, 2));
+	}
+
+	@Test
+	public void oldestReplyIsEvictedWhenBufferIsFull() throws Exception {
+		int partSize = this.part(1, 3, 0).remaining() - 8;
+		this.reassembler = new SplitPacketReassembler(partSize * 2);
+
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		assertNull(this.add(SERVER2, 1, 3, 0));
+		assertEquals(2, this.reassembler.getPendingCount());
+
+		assertNull(this.add(SERVER2, 1, 3, 1));
+		assertEquals(1, this.reassembler.getPendingCount());
+		assertTrue(this.reassembler.getBufferedBytes() <= partSize * 2);
+
+		assertNotNull(this.add(SERVER2, 1, 3, 2));
+		assertNull(this.add(SERVER1, 1, 3, 1));
+	}
+
+	@Test
+	public void retransmissionFillsGaps() throws Exception {
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		assertNull(this.add(SERVER1, 1, 3, 2));
+
+		assertTrue(this.reassembler.awaitRetransmission(SERVER1, SteamPacket.A2S_RULES_HEADER, this.deadline));
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		assertRules(50, this.add(SERVER1, 1, 3, 1));
+		assertEquals(0, this.reassembler.getPendingCount());
+	}
+
+	@Test
+	public void retransmissionWithNewRequestIdFillsGaps() throws Exception {
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		assertNull(this.add(SERVER1, 1, 3, 2));
+
+		assertTrue(this.reassembler.awaitRetransmission(SERVER1, SteamPacket.A2S_RULES_HEADER, this.deadline));
+		assertNull(this.add(SERVER1, 2, 3, 1));
+		assertRules(50, this.add(SERVER1, 2, 3, 0));
+		assertEquals(0, this.reassembler.getPendingCount());
+		assertEquals(0, this.reassembler.getBufferedBytes());
+	}
+
+	@Test
+	public void replyToOtherRequestIsNotAdopted() throws Exception {
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		assertNull(this.add(SERVER1, 1, 3, 2));
+		assertTrue(this.reassembler.awaitRetransmission(SERVER1, SteamPacket.A2S_RULES_HEADER, this.deadline));
+
+		byte[] players = playerPayload(50);
+		assertNull(this.reassembler.addPacket(SERVER1, this.part(players, 2, 3, 0), false, this.deadline));
+		assertNull(this.reassembler.addPacket(SERVER1, this.part(players, 2, 3, 1), false, this.deadline));
+		assertEquals(2, this.reassembler.getPendingCount());
+
+		assertNull(this.add(SERVER1, 3, 3, 0));
+		assertRules(50, this.add(SERVER1, 3, 3, 1));
+		assertEquals(1, this.reassembler.getPendingCount());
+	}
+
+	@Test
+	public void replyWithOtherTypeIsNotKeptForRetransmission() throws Exception {
+		assertNull(this.add(SERVER1, 1, 3, 0));
+
+		assertFalse(this.reassembler.awaitRetransmission(SERVER1, SteamPacket.A2S_PLAYER_HEADER, this.deadline));
+		assertFalse(this.reassembler.awaitRetransmission(SERVER2, SteamPacket.A2S_RULES_HEADER, this.deadline));
+		assertTrue(this.reassembler.awaitRetransmission(SERVER1, SteamPacket.A2S_RULES_HEADER, this.deadline));
+	}
+
+	@Test
+	public void ambiguousRepliesAreNotKeptForRetransmission() throws Exception {
+		assertNull(this.add(SERVER1, 1, 3, 1));
+		assertTrue(this.reassembler.awaitRetransmission(SERVER1, SteamPacket.A2S_RULES_HEADER, this.deadline));
+
+		assertNull(this.add(SERVER1, 2, 3, 2));
+		assertFalse(this.reassembler.awaitRetransmission(SERVER1, SteamPacket.A2S_RULES_HEADER, this.deadline));
+	}
+
+	@Test
+	public void differingRetransmissionDiscardsParts() throws Exception {
+		assertNull(this.add(SERVER1, 1, 3, 0));
+		assertNull(this.add(SERVER1, 1, 3, 2));
+		assertTrue(this.reassembler.awaitRetransmission(SERVER1, SteamPacket.A2S_RULES_HEADER, this.deadline));
+
+		this.payload = rulesPayload(51);
+		assertNull(this.add(SERVER1, 2, 3, 0));
+		assertEquals(1, this.reassembler.getPendingCount());
+		assertNull(this.add(SERVER1, 2, 3, 1));
+		assertRules(51, this.add(SERVER1, 2, 3, 2));
+	}
+
+	private SteamPacket add(InetSocketAddress address, int requestId, int count, int number)
+			throws Exception {
+		return this.reassembler.addPacket(address, this.part(requestId, count, number), false, this.deadline);
+	}
+
+	private static void assertRules(int count, SteamPacket packet) {
+		assertTrue(packet instanceof S2A_RULES_Packet);
+		assertEquals(count, ((S2A_RULES_Packet) packet).getRulesHash().size());
+	}
+
+	/**
+	 * Creates a part of a split reply in the Source format, positioned after
+	 * the leading <code>0xFFFFFFFE</code>
+	 */
+	private ByteBuffer part(int requestId, int count, int number) {
+		return this.part(this.payload, requestId, count, number);
+	}
+
+	/**
+	 * Creates a part of the given split reply in the Source format,
+	 * positioned after the leading <code>0xFFFFFFFE</code>
+	 */
+	private ByteBuffer part(byte[] payload, int requestId, int count, int number) {
+		int size = (payload.length + count - 1) / count;
+		int offset = number * size;
+		int length = Math.max(0, Math.min(size, payload.length - offset));
+
+		ByteBuffer buffer = ByteBuffer.allocate(length + 8).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(requestId);
+		buffer.put((byte) count);
+		buffer.put((byte) number);
+		buffer.putShort((short) 1248);
+		buffer.put(payload, Math.min(offset, payload.length), length);
+
+		return ByteBuffer.wrap(buffer.array());
+	}
+
+	static byte[] playerPayload(int count) {
+		ByteBuffer buffer = ByteBuffer.allocate(count * 30 + 6).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(0xFFFFFFFF);
+		buffer.put(SteamPacket.S2A_PLAYER_HEADER);
+		buffer.put((byte) count);
+		for(int i = 0; i < count; i ++) {
+			buffer.put((byte) i);
+			buffer.put(("player" + i).getBytes());
+			buffer.put((byte) 0);
+			buffer.putInt(i);
+			buffer.putFloat(i);
+		}
+
+		byte[] payload = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), 0, payload, 0, payload.length);
+		return payload;
+	}
+
+	static byte[] rulesPayload(int count) {
+		ByteBuffer buffer = ByteBuffer.allocate(count * 40 + 7).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(0xFFFFFFFF);
+		buffer.put(SteamPacket.S2A_RULES_HEADER);
+		buffer.putShort((short) count);
+		for(int i = 0; i < count; i ++) {
+			buffer.put(("rule" + i).getBytes());
+			buffer.put((byte) 0);
+			buffer.put(("value" + i).getBytes());
+			buffer.put((byte) 0);
+		}
+
+		byte[] payload = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), 0, payload, 0, payload.length);
+		return payload;
+	}
+}